@@ -8,7 +8,6 @@ import com.neocoretechs.arieslogger.logrecords.Compensation;
 import com.neocoretechs.arieslogger.logrecords.Loggable;
 import com.neocoretechs.arieslogger.logrecords.Undoable;
 import com.neocoretechs.bigsack.io.UndoableBlock;
-import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 /**
  * <P> The sequence of events in recovery redo of a Loggable operation is:
@@ -38,14 +37,11 @@ public class CompensationBlock implements Compensation, Serializable {
 	/**
 	 * 	When writing out a compensation log record to the log stream, logger calls
 		applyChange method to undo the change of a previous log operation.
-		We are going to get the V1 datablock from op and replace it
+		We are going to lay the before header and bytes of op over the block in deep store
 	 */
 	@Override
 	public void applyChange(GlobalDBIO xact, LogInstance instance, Object in) throws IOException {
-		BlockAccessIndex blk = ((UndoableBlock)op).getBlkV1();
-		xact.FseekAndWrite(blk.getBlockNum(), blk.getBlk());
-		// unlatch
-		blk.decrementAccesses();
+		((UndoableBlock)op).undoChange(xact);
 	}
 
 	@Override
@@ -32,11 +32,11 @@ import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.Datablock;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 import com.neocoretechs.bigsack.io.pooled.MappedBlockBuffer;
-import com.neocoretechs.bigsack.io.stream.DBOutputStream;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map.Entry;
@@ -99,6 +99,10 @@ public final class FileLogger implements Logger {
 	private LogToFile logToFile;	// actually writes the log records.
 	
 	private ByteBuffer logOutputBuffer;
+	// group commit, records appended whose changes wait on the next force
+	private final ArrayList<Loggable> deferredOperations = new ArrayList<Loggable>();
+	private final ArrayList<LogInstance> deferredInstances = new ArrayList<LogInstance>();
+	private long deferredBytes = 0L;
 
 	/**
 	* Make a new Logger with its own log record buffers
@@ -142,6 +146,78 @@ public final class FileLogger implements Logger {
 	*/
 	public synchronized LogInstance logAndDo(GlobalDBIO xact, Loggable operation) throws IOException 
 	{
+		LogInstance logInstance = appendRecord(xact, operation);
+		try {
+			flush();
+			deferredBytes = 0L;
+			//((UndoableBlock)operation)
+			operation.applyChange(xact, logInstance, logOutputBuffer);
+		} finally {
+				if( logOutputBuffer != null ) logOutputBuffer.clear();
+		}
+		return logInstance;
+	}
+	/**
+		Group commit form of {@link #logAndDo(GlobalDBIO, Loggable)}. The log record is appended to the
+		log buffer, but neither forced nor applied. The change is applied by {@link #flushDeferred(GlobalDBIO)},
+		after the single force that makes all records deferred since the last one durable, so the
+		log is still written ahead of the raw store.
+
+		@param xact the transaction logging the change
+		@param operation the log operation {@link UndoableBlock}
+		@return the instance in the log that can be used to identify the log
+		record
+
+		@exception IOException  Standard error policy
+	*/
+	public synchronized LogInstance logAndDefer(GlobalDBIO xact, Loggable operation) throws IOException 
+	{
+		LogInstance logInstance = appendRecord(xact, operation);
+		deferredOperations.add(operation);
+		deferredInstances.add(logInstance);
+		logOutputBuffer.clear();
+		return logInstance;
+	}
+	/**
+		Force the log once for every record deferred by {@link #logAndDefer(GlobalDBIO, Loggable)} since the
+		last force, then apply their changes in log order.
+		@param xact the transaction that logged the changes
+		@exception IOException  Standard error policy
+	*/
+	public synchronized void flushDeferred(GlobalDBIO xact) throws IOException {
+		if(deferredOperations.isEmpty())
+			return;
+		if (DEBUG || DEBUGLOGANDDO) {	    
+            System.out.println("FileLogger.flushDeferred: forcing log for " + deferredOperations.size() + " records of " + deferredBytes + " bytes");
+		}
+		flush();
+		try {
+			for(int i = 0; i < deferredOperations.size(); i++)
+				deferredOperations.get(i).applyChange(xact, deferredInstances.get(i), logOutputBuffer);
+		} finally {
+			discardDeferred();
+			if( logOutputBuffer != null ) logOutputBuffer.clear();
+		}
+	}
+	/**
+	 * Forget the deferred changes without applying them, as upon rollback. The records remain in the log.
+	 */
+	public synchronized void discardDeferred() {
+		deferredOperations.clear();
+		deferredInstances.clear();
+		deferredBytes = 0L;
+	}
+	/**
+	 * @return The length of the log records appended since the log was last forced
+	 */
+	public synchronized long getDeferredBytes() {
+		return deferredBytes;
+	}
+	/**
+	 * Append the log record for the operation to the log buffer of the LogToFile.
+	 * @return The instance of the record
+	 */
+	private LogInstance appendRecord(GlobalDBIO xact, Loggable operation) throws IOException {
 		LogInstance logInstance = null;
 		try {		
 
@@ -194,10 +270,8 @@ public final class FileLogger implements Logger {
 									completeLength, preparedLogArray,
 									optionalDataOffset,
 									optionalDataLength);
-			flush();
 			logInstance = new LogCounter(instance);
-			//((UndoableBlock)operation)
-			operation.applyChange(xact, logInstance, logOutputBuffer);
+			deferredBytes += completeLength;
 		
 			if (DEBUG || DEBUGLOGANDDO) {	    
                 System.out.println("FileLogger.logAndDo: Write log record: tranId=" + transactionId +
@@ -205,11 +279,11 @@ public final class FileLogger implements Logger {
                     completeLength + " op:" + operation);    
 			}
 
-		} finally {
-				if( logOutputBuffer != null ) logOutputBuffer.clear();
+		} catch(IOException ioe) {
+			logOutputBuffer.clear();
+			throw ioe;
 		}
 		return logInstance;
-
 	}
 
 	/**
@@ -402,71 +476,39 @@ public final class FileLogger implements Logger {
 	}
 
 	/**
-	* Commit the entire transaction. Scan the log and reset the inLog indicator in the persistent store.<p/>
+	* Commit the entire transaction. Reset the inLog indicator in the persistent store for each block logged
+	* in the transaction. The blocks are tracked as they are logged, so the log is not read back.<p/>
 	* If the block still resides in the BufferPool, make sure its inlog flag is reset and its pushed
 	* back to deep store, otherwise bring it in from deep store, reset it, and push the header back out.
 	* <P>MT - synchronized method
 	* @param t the IO controller
 	* @param pool Buffer pool for tablespace
+	* @param loggedBlocks The block numbers logged since the last commit, in the order first logged
 	* @exception IOException
 	*/
-	public synchronized void commit(GlobalDBIO t, MappedBlockBuffer pool) throws IOException {
+	public synchronized void commit(GlobalDBIO t, MappedBlockBuffer pool, Collection<Long> loggedBlocks) throws IOException {
 		if(DEBUG) {
 			System.out.println("Commit transaction ");
 		}
-		StreamLogScan scanLog;
-		Compensation  compensation = null;
-		DBOutputStream dbo = null;
-		try {
-			scanLog = (StreamLogScan)logToFile.openCheckedForwardScan(LogInstance.INVALID_LOG_INSTANCE, null);
-			if(scanLog == null) {
-				if(DEBUG) {
-					System.out.println("FileLogger.commit: Skipping commit");
-				}
-				return;
+		if(loggedBlocks.isEmpty()) {
+			if(DEBUG) {
+				System.out.println("FileLogger.commit: Skipping commit");
 			}
-			HashMap<LogInstance, LogRecord> records;
-			// scan records
-			while ((records =  scanLog.getNextRecord(0)) != null) {
-				Iterator<Entry<LogInstance, LogRecord>> irecs = records.entrySet().iterator();
-				while(irecs.hasNext()) {
-					Entry<LogInstance, LogRecord> recEntry = irecs.next();
-					LogRecord record = recEntry.getValue();
-					Loggable loggable = record.getLoggable();
-					if(loggable instanceof CheckpointOperation)
-						continue;
-					UndoableBlock ub = (UndoableBlock)loggable;
-					BlockAccessIndex lbai = ub.getBlkV2();
-					if(pool.containsKey(lbai.getBlockNum())) {
-						BlockAccessIndex bai = (BlockAccessIndex) ((SoftReference)(pool.get(lbai.getBlockNum()))).get();
-						bai.getBlk().setInlog(false);
-					} else
-						throw new IOException("Pool "+pool.getTablespace()+" of size "+pool.size()+" doesnt contain key "+GlobalDBIO.valueOf(lbai.getBlockNum()));
-					long tblock = lbai.getBlockNum();
-					if(dbo == null)
-						dbo = new DBOutputStream(lbai, pool);
-					else
-						dbo.setBlockAccessIndex(lbai);
-					t.updateDeepStoreInLog(dbo, tblock, false);
-					if(DEBUG)
-						System.out.printf("%s.commit Reset inLog for block:%s%n",this.getClass().getName(),GlobalDBIO.valueOf(lbai.getBlockNum()));
-				} // record iterator
+			return;
+		}
+		try {
+			for(long tblock : loggedBlocks) {
+				// a clean block may have been evicted since it was logged, deep store is updated below regardless
+				BlockAccessIndex bai = pool.get(tblock);
+				if(bai != null)
+					bai.getBlk().setInlog(false);
+				t.updateDeepStoreInLog(tblock, false);
+				if(DEBUG)
+					System.out.printf("%s.commit Reset inLog for block:%s%n",this.getClass().getName(),GlobalDBIO.valueOf(tblock));
 			}
-		} catch (ClassNotFoundException cnfe) {
-			throw logToFile.markCorrupt( new IOException(cnfe));
 		} catch (IOException ioe)  {
 			throw logToFile.markCorrupt(ioe);
 		}
-		finally {
-			if (compensation != null)  {
-				// err out
-				compensation.releaseResource(t);
-			}
-			if( dbo != null ) {
-				dbo.close();
-			}
-				
-		}
 		if(DEBUG) {
 			System.out.println("FileLogger.commit: Finish commit");
 		}
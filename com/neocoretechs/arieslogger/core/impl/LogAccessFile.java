@@ -152,7 +152,10 @@ public class LogAccessFile
         	
     	assert(currentBuffer.buffer.limit() > 0 ) : "free bytes less than or equal to zero";
     	assert(instance != LogCounter.INVALID_LOG_INSTANCE) : "LogAcessFile.writeToLog instance invalid "+LogCounter.toDebugString(instance);
-    	
+    	// the previous record is still buffered if the log was not flushed since, as in group commit,
+    	// so write it out behind its checksum before the checksum of this one, syncing is left to the flush
+    	if( currentBuffer.buffer.position() > 0 )
+    		flushBuffers();
         // now set up checksum in its buffer based on contents
         logChecksum.getChecksumLogOperation().reset();     
         logChecksum.getChecksumLogOperation().update(data, data_offset, length);
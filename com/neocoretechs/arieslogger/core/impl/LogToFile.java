@@ -288,6 +288,7 @@ public final class LogToFile implements LogFactory, java.security.PrivilegedExce
 	private boolean			 recoveryNeeded = true; // log needs to be recovered
 	private boolean			 inCheckpoint = false; 	// in the middle of a checkpoint
 	private boolean			 inRedo = false;        // in the middle of redo loop
+	private long			 recoveryMillis = 0L;   // time taken by the last recover, 0 if none was needed
 
 	/** DEBUG test only */
 	int test_logWritten = 0;
@@ -380,6 +381,12 @@ public final class LogToFile implements LogFactory, java.security.PrivilegedExce
 	public boolean inRFR() {
 		return recoveryNeeded;
 	}
+	/**
+	 * @return The milliseconds the last {@link #recover()} spent in redo and undo, 0 if the log needed no recovery
+	 */
+	public synchronized long getRecoveryMillis() {
+		return recoveryMillis;
+	}
 
 	/**
      * Once the log factory is marked as corrupt then the raw store will
@@ -485,10 +492,12 @@ public final class LogToFile implements LogFactory, java.security.PrivilegedExce
 		// to be redone or in flight transactions, we are hosed.  The logs that
         // are redone will leave dirty pages in the cache.
 
+		recoveryMillis = 0L;
 		if (recoveryNeeded)
 		{
 			if(ALERT)
 				System.out.printf("Recovery needed for Database %s tablespace %d%n", dbName, tablespace);
+			long startMillis = System.currentTimeMillis();
 			try
 			{
 				/////////////////////////////////////////////////////////////
@@ -670,9 +679,14 @@ public final class LogToFile implements LogFactory, java.security.PrivilegedExce
 				}
 				*/
 				// Finished recovery, instead of a checkpoint our simplified protocol will get rid of old logs
-				// and start the new sequence for processing
+				// and start the new sequence for processing. Block writes are not forced one by one, so force the
+				// blocks rewritten by redo and undo before the log is reset.
+				blockIO.getIOManager().Fforce(tablespace);
 				logger.reset();
 				recoveryNeeded = false;
+				recoveryMillis = Math.max(1L, System.currentTimeMillis() - startMillis);
+				if(ALERT)
+					System.out.printf("Recovery complete for Database %s tablespace %d in %d ms%n", dbName, tablespace, recoveryMillis);
 			}
 			catch (IOException ioe)
 			{
@@ -0,0 +1,235 @@
+package com.neocoretechs.bigsack.bplustree;
+
+import java.io.IOException;
+
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.keyvaluepages.KeyPageInterface;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
+import com.neocoretechs.bigsack.keyvaluepages.NodeInterface;
+
+/**
+ * The in-memory contents of a B+tree page. A leaf holds the key/value entries and the page Ids of its
+ * neighbors in key order, an internal node holds separator keys only and numKeys+1 child page Ids, where the
+ * child at index i holds the keys less than separator i and the child at index i+1 the keys greater or equal.<p/>
+ * The arrays hold one entry beyond the maximum so a page can overflow by the insert that causes its split.
+ * Children are kept as page Ids and resolved through {@link BPlusTreeMain}, which holds the one page instance per block,
+ * since with the sibling links a page is reachable by more than one path.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public class BPlusNode<K extends Comparable, V> implements NodeInterface<K, V> {
+	private final BPlusTreeMain bPlusTreeMain;
+	private KeyPageInterface page = null;
+	private long pageId;
+	private int tablespace;
+	private int numKeys = 0;
+	private boolean leaf = true;
+	private long prevLeaf = -1L;
+	private long nextLeaf = -1L;
+	@SuppressWarnings("unchecked")
+	private KeyValue<K, V> entries[] = new KeyValue[BPlusTreeKeyPage.MAXKEYS+1];
+	private long childPages[] = new long[BPlusTreeKeyPage.MAXKEYS+2];
+
+	public BPlusNode(BPlusTreeMain bPlusTreeMain, long pageId) {
+		this.bPlusTreeMain = bPlusTreeMain;
+		setPageId(pageId);
+	}
+
+	@Override
+	public KeyValueMainInterface getKeyValueMain() {
+		return bPlusTreeMain;
+	}
+
+	@Override
+	public KeyValue<K, V> getKeyValueArray(int index) {
+		return entries[index];
+	}
+
+	@Override
+	public void setKeyValueArray(int index, KeyValue<K, V> kv) {
+		entries[index] = kv;
+	}
+
+	@Override
+	public void initKeyValueArray(int index) {
+		entries[index] = new KeyValue<K, V>(this);
+	}
+
+	@Override
+	public void setPageId(long pageId) {
+		this.pageId = pageId;
+		this.tablespace = (pageId == -1L ? 0 : GlobalDBIO.getTablespace(pageId));
+	}
+
+	@Override
+	public long getPageId() {
+		return pageId;
+	}
+
+	@Override
+	public int getTablespace() {
+		return tablespace;
+	}
+	/**
+	 * @return The node of the child page at index, or null if this is a leaf
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public NodeInterface<K, V> getChild(int index) {
+		if(leaf || childPages[index] == -1L)
+			return null;
+		try {
+			return (NodeInterface<K, V>) bPlusTreeMain.getPage(childPages[index]).getNode();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public NodeInterface getChildNoread(int index) {
+		return getChild(index);
+	}
+
+	@Override
+	public void setChild(int index, NodeInterface<K, V> node) {
+		childPages[index] = (node == null ? -1L : node.getPageId());
+	}
+
+	long getChildPage(int index) {
+		return childPages[index];
+	}
+
+	void setChildPage(int index, long pageId) {
+		childPages[index] = pageId;
+	}
+
+	@Override
+	public int getNumKeys() {
+		return numKeys;
+	}
+
+	@Override
+	public void setNumKeys(int numKeys) {
+		this.numKeys = numKeys;
+	}
+
+	boolean isLeaf() {
+		return leaf;
+	}
+
+	void setLeaf(boolean leaf) {
+		this.leaf = leaf;
+	}
+
+	long getPrevLeaf() {
+		return prevLeaf;
+	}
+
+	void setPrevLeaf(long prevLeaf) {
+		this.prevLeaf = prevLeaf;
+	}
+
+	long getNextLeaf() {
+		return nextLeaf;
+	}
+
+	void setNextLeaf(long nextLeaf) {
+		this.nextLeaf = nextLeaf;
+	}
+
+	@Override
+	public void setPage(KeyPageInterface page) throws IOException {
+		this.page = page;
+	}
+
+	KeyPageInterface getPage() {
+		return page;
+	}
+	/**
+	 * Insert the entry at index, shifting those above it up. For an internal node the child to the right of the
+	 * entry is inserted at index+1.
+	 * @param index The index of the new entry
+	 * @param kv The entry
+	 * @param rightChild The page Id of the child to the right of the entry, ignored for a leaf
+	 */
+	void insert(int index, KeyValue<K, V> kv, long rightChild) {
+		System.arraycopy(entries, index, entries, index+1, numKeys-index);
+		entries[index] = kv;
+		if(!leaf) {
+			System.arraycopy(childPages, index+1, childPages, index+2, numKeys-index);
+			childPages[index+1] = rightChild;
+		}
+		++numKeys;
+	}
+	/**
+	 * Remove the entry at index, shifting those above it down. For an internal node the child at childIndex,
+	 * which is on one side or the other of the entry, is removed with it.
+	 * @param index The index of the entry
+	 * @param childIndex The index of the child removed, ignored for a leaf
+	 */
+	void remove(int index, int childIndex) {
+		System.arraycopy(entries, index+1, entries, index, numKeys-index-1);
+		entries[numKeys-1] = null;
+		if(!leaf) {
+			System.arraycopy(childPages, childIndex+1, childPages, childIndex, numKeys-childIndex);
+			childPages[numKeys] = -1L;
+		}
+		--numKeys;
+	}
+	/**
+	 * Move the entries from index up, and for an internal node the children to their right, to the empty node target.
+	 * @param index The first entry moved
+	 * @param target The node receiving them at index 0
+	 * @param withLeftChild For an internal node, true to move the child to the left of the entry at index as well
+	 */
+	void moveTo(int index, BPlusNode<K, V> target, boolean withLeftChild) {
+		int moved = numKeys - index;
+		System.arraycopy(entries, index, target.entries, 0, moved);
+		if(!leaf) {
+			if(withLeftChild)
+				System.arraycopy(childPages, index, target.childPages, 0, moved+1);
+			else
+				System.arraycopy(childPages, index+1, target.childPages, 0, moved);
+		}
+		for(int i = index; i < numKeys; i++)
+			entries[i] = null;
+		target.numKeys = moved;
+		numKeys = index;
+	}
+	/**
+	 * Empty the node, keeping its page.
+	 */
+	void clear() {
+		for(int i = 0; i < numKeys; i++)
+			entries[i] = null;
+		numKeys = 0;
+		leaf = true;
+		prevLeaf = -1L;
+		nextLeaf = -1L;
+		childPages[0] = -1L;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(leaf ? "BPlusNode leaf page:" : "BPlusNode internal page:");
+		sb.append(GlobalDBIO.valueOf(pageId));
+		sb.append(" numKeys:");
+		sb.append(numKeys);
+		if(leaf) {
+			sb.append(" prev:");
+			sb.append(GlobalDBIO.valueOf(prevLeaf));
+			sb.append(" next:");
+			sb.append(GlobalDBIO.valueOf(nextLeaf));
+		} else {
+			sb.append(" children:");
+			for(int i = 0; i <= numKeys; i++) {
+				sb.append(GlobalDBIO.valueOf(childPages[i]));
+				sb.append(' ');
+			}
+		}
+		return sb.toString();
+	}
+
+}
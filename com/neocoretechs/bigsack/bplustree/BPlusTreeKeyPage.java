@@ -0,0 +1,531 @@
+package com.neocoretechs.bigsack.bplustree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.keyvaluepages.KVIteratorIF;
+import com.neocoretechs.bigsack.keyvaluepages.KeyPageInterface;
+import com.neocoretechs.bigsack.keyvaluepages.KeyPrefix;
+import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
+import com.neocoretechs.bigsack.keyvaluepages.NodeInterface;
+
+/**
+* A key page in the B+tree, the facade between the in-memory {@link BPlusNode} and the block in the buffer pool.<p/>
+* The page begins with the number of keys, the leaf flag, and the page Ids of the previous and next leaves, which are
+* -1 for an internal page. A leaf directory entry is the key {@link Optr}, the {@link KeyPrefix} and the value {@link Optr}.
+* An internal directory entry is the separator key {@link Optr} and {@link KeyPrefix} followed by the child page Id to its
+* left, and the directory ends with the rightmost child page Id. Having no values, internal pages hold MAXINTERNALKEYS
+* separators to the MAXLEAFKEYS entries of a leaf, and both exceed the keys of a {@link com.neocoretechs.bigsack.btree.BTreeKeyPage}.
+* The bytes used by the key count of the root page are left out of every page, so the contents of any page fit in the root.<p/>
+* As in the BTree, serialized keys and values of up to INLINEPAYLOADSIZE bytes are stored inline in a heap that follows
+* the directory as room permits, and larger ones overflow to payload blocks.<p/>
+* The page is written by putPage only when its block is marked updated, so every change to the node is followed
+* by setUpdated.
+* @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+*/
+public class BPlusTreeKeyPage implements KeyPageInterface {
+	private static final boolean DEBUG = false;
+	private static final boolean DEBUGPUTKEY = false;
+	private static final boolean DEBUGPUTDATA = false;
+	public static final int HEADERSIZE = 25; // long number of keys, byte leaf, long previous leaf, long next leaf
+	public static final int LEAFKEYSIZE = 20 + KeyPrefix.KEYPREFIXSIZE; // key Optr, key prefix, value Optr
+	public static final int INTERNALKEYSIZE = 18 + KeyPrefix.KEYPREFIXSIZE; // key Optr, key prefix, left child page Id
+	public static final int MAXLEAFKEYS =
+			(DBPhysicalConstants.DATASIZE - HEADERSIZE - BPlusTreeRootKeyPage.COUNTSIZE) / LEAFKEYSIZE;
+	public static final int MAXINTERNALKEYS =
+			(DBPhysicalConstants.DATASIZE - HEADERSIZE - 8 - BPlusTreeRootKeyPage.COUNTSIZE) / INTERNALKEYSIZE;
+	public static final int MAXKEYS = Math.max(MAXLEAFKEYS, MAXINTERNALKEYS);
+	// Maximum size of a serialized key or value stored inline in the page, 0 to always use payload blocks
+	public static int INLINEPAYLOADSIZE = 128;
+	protected transient BlockAccessIndex lbai = null; // The page is tied to a block
+	protected transient BPlusTreeMain bPlusTreeMain;
+	protected transient BPlusNode<Comparable, Object> node;
+	private transient int inlineSpace = 0; // remaining room in page heap for inline payloads during putPage
+
+	/**
+	 * @param bPlusTreeMain The main class of the B+tree
+	 * @param lbai The BlockAccessIndex page block holding page data
+	 * @param read true to read the contents of the page from the block, if it has any
+	 * @throws IOException
+	 */
+	public BPlusTreeKeyPage(BPlusTreeMain bPlusTreeMain, BlockAccessIndex lbai, boolean read) throws IOException {
+		this.bPlusTreeMain = bPlusTreeMain;
+		this.lbai = lbai;
+		this.node = new BPlusNode<Comparable, Object>(bPlusTreeMain, lbai.getBlockNum());
+		this.node.setPage(this);
+		if(read && lbai.getBlk().getBytesinuse() > 0) {
+			readFromDBStream(GlobalDBIO.getDataInputStream(lbai));
+		} else {
+			lbai.resetBlock(false); // set up headers without revoking access
+		}
+		if(DEBUG)
+			System.out.printf("%s ctor %s%n", this.getClass().getName(), this);
+	}
+
+	@Override
+	public synchronized long getPageId() {
+		return lbai.getBlockNum();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized void setNode(NodeInterface node) {
+		this.node = (BPlusNode<Comparable, Object>) node;
+	}
+
+	BPlusNode<Comparable, Object> getNode() {
+		return node;
+	}
+
+	@Override
+	public synchronized void readFromDBStream(DataInputStream dis) throws IOException {
+		// check for fresh database
+		if(dis.available() < 8)
+			return;
+		int numKeys = (int) dis.readLong();
+		node.setLeaf(dis.readByte() != 0);
+		node.setPrevLeaf(dis.readLong());
+		node.setNextLeaf(dis.readLong());
+		for(int i = 0; i < numKeys; i++) {
+			node.initKeyValueArray(i);
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			kv.setKeyOptr(new Optr(dis.readLong(), dis.readShort()));
+			if(kv.getKeyOptr().getBlock() == 0 || kv.getKeyOptr().getBlock() == -1)
+				throw new IOException("Bad page read key index "+i+" page:"+this.toString());
+			kv.keyState = KeyValue.synchStates.mustRead;
+			byte prefixType = dis.readByte();
+			kv.setKeyPrefix(prefixType, dis.readLong());
+			if(node.isLeaf()) {
+				kv.setValueOptr(new Optr(dis.readLong(), dis.readShort()));
+				if(kv.getValueOptr().getBlock() == 0) // value can be null, -1L
+					throw new IOException("Bad page read value index "+i+" page:"+this.toString());
+				kv.valueState = KeyValue.synchStates.mustRead;
+			} else {
+				node.setChildPage(i, dis.readLong());
+			}
+		}
+		node.setNumKeys(numKeys);
+		if(!node.isLeaf())
+			node.setChildPage(numKeys, dis.readLong());
+		// inline payload heap, key then value for each index
+		for(int i = 0; i < numKeys; i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline())
+				kv.setKeyInline(readInline(dis));
+			if(kv.getValueOptr().isInline())
+				kv.setValueInline(readInline(dis));
+		}
+	}
+
+	private byte[] readInline(DataInputStream dis) throws IOException {
+		byte[] pb = new byte[dis.readShort()];
+		dis.readFully(pb);
+		return pb;
+	}
+
+	@Override
+	public synchronized void setKeyIdArray(int index, Optr optr, boolean update, KeyValue.synchStates keyState) {
+		getKeyValueArray(index).setKeyOptr(optr);
+		getKeyValueArray(index).keyState = keyState;
+		if(update)
+			setUpdated(true);
+	}
+
+	@Override
+	public synchronized Optr getKeyId(int index) {
+		return getKeyValueArray(index).getKeyOptr();
+	}
+
+	@Override
+	public synchronized void setDataIdArray(int index, Optr optr, boolean update, KeyValue.synchStates valueState) {
+		getKeyValueArray(index).setValueOptr(optr);
+		getKeyValueArray(index).valueState = valueState;
+		if(update)
+			setUpdated(true);
+	}
+
+	@Override
+	public synchronized Optr getDataId(int index) {
+		return getKeyValueArray(index).getValueOptr();
+	}
+
+	@Override
+	public synchronized void setPageIdArray(int index, long block, boolean update) {
+		node.setChildPage(index, block);
+		if(update)
+			setUpdated(true);
+	}
+
+	@Override
+	public synchronized long getPageId(int index) {
+		return node.getChildPage(index);
+	}
+
+	/**
+	* Binary search for the key on this page, deciding most comparisons by the stored key prefixes.
+	* If atKey is true insertPoint is the index of the key, otherwise it is the index of the first key greater than
+	* the target, or numKeys if there is none.
+	* @param targetKey The target key
+	* @return KeySearchResult the insertion point from 0 to numKeys and flag of whether key was found
+	* @throws IOException
+	*/
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	synchronized KeySearchResult search(Comparable targetKey) throws IOException {
+		if(targetKey == null)
+			throw new IOException("Key cannot be null");
+		byte targetPrefixType = KeyPrefix.typeOf(targetKey);
+		long targetPrefix = KeyPrefix.prefixOf(targetPrefixType, targetKey);
+		int leftIndex = 0;
+		int rightIndex = node.getNumKeys() - 1;
+		while (leftIndex <= rightIndex) {
+			int middleIndex = (leftIndex + rightIndex) >>> 1;
+			int cmpRes = node.getKeyValueArray(middleIndex).compareKey(targetKey, targetPrefixType, targetPrefix);
+			if (cmpRes < 0 ) {
+				leftIndex = middleIndex + 1;
+			} else if (cmpRes > 0 ) {
+				rightIndex = middleIndex - 1;
+			} else {
+				return new KeySearchResult(this, middleIndex, true);
+			}
+		}
+		return new KeySearchResult(this, leftIndex, false);
+	}
+	/**
+	 * The index of the child whose subtree holds the key, the keys equal to a separator being to its right.
+	 * @param targetKey The target key
+	 * @return The child index from 0 to numKeys
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	synchronized int childIndex(Comparable targetKey) throws IOException {
+		KeySearchResult ksr = search(targetKey);
+		return ksr.atKey ? ksr.insertPoint + 1 : ksr.insertPoint;
+	}
+	/**
+	 * Delete the key and value payloads of an entry that is leaving the tree.
+	 * @param kv The entry
+	 * @throws IOException
+	 */
+	void deletePayloads(KeyValue<Comparable, Object> kv) throws IOException {
+		GlobalDBIO sdbio = bPlusTreeMain.getIO();
+		if(!kv.getKeyOptr().isEmptyPointer() && !kv.getKeyOptr().isInline())
+			sdbio.delete_object(kv.getKeyOptr(), sdbio.payloadSize(kv.getKeyOptr(), kv.getmKey()));
+		kv.setKeyOptr(Optr.emptyPointer);
+		kv.setKeyInline(null);
+		if(kv.getValueOptr() != null && !kv.getValueOptr().isEmptyPointer() && !kv.getValueOptr().isInline())
+			sdbio.delete_object(kv.getValueOptr(), sdbio.payloadSize(kv.getValueOptr(), kv.getmValue()));
+		kv.setValueOptr(Optr.emptyPointer);
+		kv.setValueInline(null);
+	}
+	/**
+	 * Replace the value of an entry, deleting the payload of the old value. The new value is written with the page.
+	 * @param index The index of the entry
+	 * @param value The new value
+	 * @throws IOException
+	 */
+	synchronized void replaceData(int index, Object value) throws IOException {
+		KeyValue<Comparable, Object> kv = getKeyValueArray(index);
+		GlobalDBIO sdbio = bPlusTreeMain.getIO();
+		if(kv.getValueOptr() != null && !kv.getValueOptr().isEmptyPointer() && !kv.getValueOptr().isInline())
+			sdbio.delete_object(kv.getValueOptr(), sdbio.payloadSize(kv.getValueOptr(), kv.getmValue()));
+		kv.setValueOptr(Optr.emptyPointer);
+		kv.setValueInline(null);
+		kv.setmValue(value);
+		kv.valueState = KeyValue.synchStates.mustWrite;
+		setUpdated(true);
+	}
+
+	@Override
+	public synchronized boolean putKey(int index, ArrayList<Long> keys) throws IOException {
+		if(getKeyValueArray(index).getmKey() == null) {
+			if(DEBUG || DEBUGPUTKEY)
+				System.out.printf("%s.putKey index=%d null key %s%n", this.getClass().getName(), index, getKeyValueArray(index));
+			return false;
+		}
+		byte[] pb = bPlusTreeMain.getIO().serialize(getKeyValueArray(index).getmKey());
+		placeKey(getKeyValueArray(index), pb, keys);
+		if(DEBUG || DEBUGPUTKEY)
+			System.out.printf("%s.putKey index=%d %s bytes:%d%n", this.getClass().getName(), index, getKeyValueArray(index), pb.length);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean putData(int index, ArrayList<Long> values) throws IOException {
+		if(getKeyValueArray(index).getmValue() == null) {
+			if(DEBUGPUTDATA)
+				System.out.printf("%s.putData index=%d null value%n", this.getClass().getName(), index);
+			return false;
+		}
+		byte[] pb = bPlusTreeMain.getIO().serialize(getKeyValueArray(index).getmValue());
+		placeData(getKeyValueArray(index), pb, values);
+		if(DEBUGPUTDATA)
+			System.out.printf("%s.putData index=%d %s bytes:%d%n", this.getClass().getName(), index, getKeyValueArray(index), pb.length);
+		return true;
+	}
+	/**
+	 * Place the serialized key inline in the page heap if it is small enough and there is room left,
+	 * otherwise write it to a payload block at a new insert position.
+	 * The offset of an inline key is assigned when the page is written.
+	 */
+	private void placeKey(KeyValue<Comparable, Object> kv, byte[] pb, ArrayList<Long> keys) throws IOException {
+		if(pb.length <= INLINEPAYLOADSIZE && pb.length + 2 <= inlineSpace) {
+			inlineSpace -= (pb.length + 2);
+			kv.setKeyOptr(new Optr(Optr.INLINEBLOCK, (short) -1));
+			kv.setKeyInline(pb);
+		} else {
+			kv.setKeyOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(keys, pb.length));
+			kv.setKeyInline(null);
+			lbai.getSdbio().add_object(kv.getKeyOptr(), pb, pb.length);
+		}
+	}
+	/**
+	 * Place the serialized value inline in the page heap if it is small enough and there is room left,
+	 * otherwise write it to a payload block at a new insert position.
+	 */
+	private void placeData(KeyValue<Comparable, Object> kv, byte[] pb, ArrayList<Long> values) throws IOException {
+		if(pb.length <= INLINEPAYLOADSIZE && pb.length + 2 <= inlineSpace) {
+			inlineSpace -= (pb.length + 2);
+			kv.setValueOptr(new Optr(Optr.INLINEBLOCK, (short) -1));
+			kv.setValueInline(pb);
+		} else {
+			kv.setValueOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(values, pb.length));
+			kv.setValueInline(null);
+			lbai.getSdbio().add_object(kv.getValueOptr(), pb, pb.length);
+		}
+	}
+	/**
+	 * Create a unique list of blocks that have already been populated with payloads from this page in order to
+	 * cluster new entries with them.
+	 * @return The list of unique blocks containing payloads for this page.
+	 */
+	public synchronized ArrayList<Long> aggregatePayloadBlocks() {
+		ArrayList<Long> blocks = new ArrayList<Long>();
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			Optr loc = kv.getKeyOptr();
+			if(!loc.isEmptyPointer() && !loc.isInline() && !blocks.contains(loc.getBlock()))
+				blocks.add(loc.getBlock());
+			loc = kv.getValueOptr();
+			if(loc != null && !loc.isEmptyPointer() && !loc.isInline() && !blocks.contains(loc.getBlock()))
+				blocks.add(loc.getBlock());
+		}
+		return blocks;
+	}
+	/**
+	 * @return The bytes at the end of the block withheld from the inline payload heap, none for a standard page
+	 */
+	protected int getReservedSpace() {
+		return 0;
+	}
+
+	private int getDirectorySize() {
+		return node.isLeaf() ? node.getNumKeys() * LEAFKEYSIZE : node.getNumKeys() * INTERNALKEYSIZE + 8;
+	}
+
+	@Override
+	public synchronized void putPage() throws IOException {
+		if(!isUpdated()) {
+			if(DEBUG)
+				System.out.printf("%s.putPage page NOT updated:%s%n",this.getClass().getName(),this);
+			return;
+		}
+		if(DEBUG)
+			System.out.printf("%s.putPage:%s%n",this.getClass().getName(),this);
+		ArrayList<Long> currentPayloadBlocks = aggregatePayloadBlocks();
+		// room in the page heap following the key directory for inline payloads
+		inlineSpace = DBPhysicalConstants.DATASIZE - HEADERSIZE - getDirectorySize() - getReservedSpace();
+		// Payloads already inline and unchanged keep their place in the heap first, if they no longer fit they overflow
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline() && kv.keyState != KeyValue.synchStates.mustWrite)
+				placeKey(kv, kv.getKeyInline(), currentPayloadBlocks);
+			if(kv.getValueOptr().isInline() && kv.valueState != KeyValue.synchStates.mustWrite)
+				placeData(kv, kv.getValueInline(), currentPayloadBlocks);
+		}
+		// new keys and values, a replaced value has had its old payload deleted by replaceData
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			if(kv.keyState == KeyValue.synchStates.mustWrite)
+				putKey(i, currentPayloadBlocks);
+			if(kv.valueState == KeyValue.synchStates.mustWrite)
+				putData(i, currentPayloadBlocks);
+		}
+		// Since inline payload offsets follow the directory, the whole directory is written each time
+		DataOutputStream bs = GlobalDBIO.getDataOutputStream(lbai);
+		bs.writeLong(node.getNumKeys());
+		bs.writeByte(node.isLeaf() ? 1 : 0);
+		bs.writeLong(node.getPrevLeaf());
+		bs.writeLong(node.getNextLeaf());
+		short heapIndex = (short) (HEADERSIZE + getDirectorySize());
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline()) {
+				kv.setKeyOptr(new Optr(Optr.INLINEBLOCK, heapIndex));
+				heapIndex += (kv.getKeyInline().length + 2);
+			}
+			if(kv.getKeyOptr().getBlock() == 0)
+				throw new IOException("Bad page write key index "+i+" page:"+this.toString());
+			bs.writeLong(kv.getKeyOptr().getBlock());
+			bs.writeShort(kv.getKeyOptr().getOffset());
+			bs.writeByte(kv.getKeyPrefixType());
+			bs.writeLong(kv.getKeyPrefix());
+			kv.setKeyUpToDate();
+			if(node.isLeaf()) {
+				if(kv.getValueOptr().isInline()) {
+					kv.setValueOptr(new Optr(Optr.INLINEBLOCK, heapIndex));
+					heapIndex += (kv.getValueInline().length + 2);
+				}
+				if(kv.getValueOptr().getBlock() == 0)
+					throw new IOException("Bad page write value index "+i+" page:"+this.toString());
+				bs.writeLong(kv.getValueOptr().getBlock());
+				bs.writeShort(kv.getValueOptr().getOffset());
+				kv.setValueUpToDate();
+			} else {
+				bs.writeLong(node.getChildPage(i));
+			}
+		}
+		if(!node.isLeaf())
+			bs.writeLong(node.getChildPage(node.getNumKeys()));
+		// inline payload heap, in the order the offsets were assigned above
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = node.getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline()) {
+				bs.writeShort(kv.getKeyInline().length);
+				bs.write(kv.getKeyInline());
+			}
+			if(kv.getValueOptr().isInline()) {
+				bs.writeShort(kv.getValueInline().length);
+				bs.write(kv.getValueInline());
+			}
+		}
+		bs.flush();
+		bs.close();
+	}
+	/**
+	 * @return The child page at index of an internal page, null for a leaf
+	 */
+	@Override
+	public synchronized KeyPageInterface getPage(int index) throws IOException {
+		if(node.isLeaf() || node.getChildPage(index) == -1L)
+			return null;
+		return bPlusTreeMain.getPage(node.getChildPage(index));
+	}
+
+	@Override
+	public synchronized Comparable getKey(int index) throws IOException {
+		return node.getKeyValueArray(index).getmKey();
+	}
+
+	@Override
+	public synchronized Object getData(int index) throws IOException {
+		KeyValue<Comparable, Object> kv = node.getKeyValueArray(index);
+		Object value = kv.getmValue();
+		if(value != null && kv.valueState == KeyValue.synchStates.mustRead)
+			kv.valueState = KeyValue.synchStates.upToDate;
+		return value;
+	}
+
+	@Override
+	public synchronized void setKey(int index, Comparable key) {
+		node.initKeyValueArray(index);
+		node.getKeyValueArray(index).setmKey(key);
+		node.getKeyValueArray(index).keyState = KeyValue.synchStates.mustWrite;
+		setUpdated(true);
+	}
+
+	@Override
+	public synchronized boolean isUpdated() {
+		return lbai.isUpdated();
+	}
+
+	@Override
+	public synchronized void setUpdated(boolean updated) {
+		lbai.setUpdated();
+	}
+
+	@Override
+	public synchronized Datablock getDatablock() {
+		return lbai.getBlk();
+	}
+
+	@Override
+	public synchronized BlockAccessIndex getBlockAccessIndex() {
+		return lbai;
+	}
+
+	@Override
+	public synchronized int getNumKeys() {
+		return node.getNumKeys();
+	}
+
+	@Override
+	public synchronized void setNumKeys(int numKeys) {
+		node.setNumKeys(numKeys);
+		setUpdated(true);
+	}
+
+	synchronized boolean isLeaf() {
+		return node.isLeaf();
+	}
+	/**
+	 * @return The number of keys past which the page is split
+	 */
+	synchronized int getMaxKeys() {
+		return node.isLeaf() ? MAXLEAFKEYS : MAXINTERNALKEYS;
+	}
+	/**
+	 * Return the entry at index, or null if there is none, which ends the iterators.
+	 */
+	@Override
+	public synchronized KeyValue<Comparable, Object> getKeyValueArray(int index) {
+		if(index < 0 || index >= node.getNumKeys())
+			return null;
+		return node.getKeyValueArray(index);
+	}
+
+	@Override
+	public KeyValueMainInterface getKeyValueMain() {
+		return bPlusTreeMain;
+	}
+
+	@Override
+	public synchronized void setRootNode(BlockAccessIndex bai) throws IOException {
+		this.lbai = bai;
+		this.node = new BPlusNode<Comparable, Object>(bPlusTreeMain, 0L);
+		this.node.setPage(this);
+	}
+
+	@Override
+	public synchronized void retrieveEntriesInOrder(KVIteratorIF<Comparable, Object> iterImpl) {
+		for(int i = 0; i < node.getNumKeys(); i++) {
+			KeyValue<Comparable,Object> kv = node.getKeyValueArray(i);
+			try {
+				if(iterImpl.item(kv))
+					return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public int retrieveEntriesInOrder(Supplier<KeyValue<Comparable, Object>> b, int count, int limit) {
+		return 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s %s %s", this.getClass().getName(), lbai, node);
+	}
+
+}
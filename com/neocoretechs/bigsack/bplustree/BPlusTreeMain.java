@@ -0,0 +1,409 @@
+package com.neocoretechs.bigsack.bplustree;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Stack;
+
+import com.neocoretechs.bigsack.btree.StructureCallBackListener;
+import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.stream.PageIteratorIF;
+import com.neocoretechs.bigsack.iterator.Entry;
+import com.neocoretechs.bigsack.iterator.EntrySetIterator;
+import com.neocoretechs.bigsack.keyvaluepages.KeyPageInterface;
+import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
+import com.neocoretechs.bigsack.keyvaluepages.NodeInterface;
+import com.neocoretechs.bigsack.keyvaluepages.RootKeyPageInterface;
+import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
+
+/**
+* Main B+tree class, the "BPlusTree" key store type.<p/>
+* Unlike the BTree, all key/value entries are in the leaves, which are linked to their neighbors in both directions,
+* and the internal pages hold only copies of keys as separators, so they branch wider. The iterators move from one key
+* to the next within a leaf and from one leaf to the next along the links, without the traversal stack of the BTree,
+* so a range scan reads each leaf once and never revisits the internal pages above it. Searches end in a leaf
+* whether or not they find the key.<p/>
+* With more than one path to a page, each page is held by a single instance, kept here by page Id for the life of the
+* tree and discarded when the root is reloaded after a rollback.<p/>
+* The key store type is not recorded on disk, a database must be opened with the type it was created with.
+* @see BPlusTreeNavigator for insertion, splitting and deletion
+* @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+*/
+public final class BPlusTreeMain implements KeyValueMainInterface {
+	private static boolean DEBUG = false;
+	private static boolean DEBUGSEARCH = false;
+	private static boolean DEBUGCOUNT = false;
+	private static boolean TEST = true; // Do a table scan and key count when tested
+	private static boolean ALERT = true; // Info level messages
+	private BPlusTreeRootKeyPage root;
+	private final BPlusTreeNavigator navigator;
+	private final HashMap<Long, BPlusTreeKeyPage> pages = new HashMap<Long, BPlusTreeKeyPage>();
+	GlobalDBIO sdbio;
+
+	public BPlusTreeMain(GlobalDBIO globalDBIO) throws IOException {
+		this.sdbio = globalDBIO;
+		this.navigator = new BPlusTreeNavigator(this);
+		if( ALERT )
+			System.out.println("Database "+globalDBIO.getDBName()+" ready with "+BPlusTreeKeyPage.MAXLEAFKEYS+" keys per leaf, "+
+					BPlusTreeKeyPage.MAXINTERNALKEYS+" per internal page.");
+	}
+	/**
+	 * Read the root page from block 0 and discard the pages read before, which a rollback may have changed.
+	 * If the root page holds no count of keys the leaves are scanned for one.
+	 * @return The root page
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized RootKeyPageInterface createRootNode() throws IOException {
+		pages.clear();
+		this.root = sdbio.getBPlusTreeRootPageFromPool();
+		pages.put(0L, root);
+		if(root.getCount() == -1L)
+			root.initCount(scan());
+		if( DEBUG )
+			System.out.printf("%s Root KeyPageInterface: %s%n",this.getClass().getName(),root);
+		return root;
+	}
+
+	@Override
+	public synchronized RootKeyPageInterface createRootNode(NodeInterface node) throws IOException {
+		root.setNode(node);
+		return root;
+	}
+
+	@Override
+	public synchronized KeyPageInterface createNode(NodeInterface node) throws IOException {
+		if(node.getPageId() == -1L) {
+			BPlusTreeKeyPage page = newPage(true);
+			node.setPageId(page.getPageId());
+			return page;
+		}
+		return getPage(node.getPageId());
+	}
+	/**
+	 * Get the page at the block, reading it if it was not yet.
+	 * @param pageId The Vblock of the page
+	 * @return The page
+	 * @throws IOException
+	 */
+	synchronized BPlusTreeKeyPage getPage(long pageId) throws IOException {
+		BPlusTreeKeyPage page = pages.get(pageId);
+		if(page == null) {
+			page = sdbio.getBPlusTreePageFromPool(pageId);
+			pages.put(pageId, page);
+		}
+		return page;
+	}
+	/**
+	 * Get an empty page on a new block.
+	 * @param leaf true for a leaf
+	 * @return The page
+	 * @throws IOException
+	 */
+	synchronized BPlusTreeKeyPage newPage(boolean leaf) throws IOException {
+		BPlusTreeKeyPage page = sdbio.getBPlusTreePageFromPool(-1L);
+		page.getNode().setLeaf(leaf);
+		page.setUpdated(true);
+		pages.put(page.getPageId(), page);
+		return page;
+	}
+	/**
+	 * Reset the block of a page removed from the tree. Having nothing in use, it is reclaimed by the next {@link com.neocoretechs.bigsack.keyvaluepages.Vacuum} pass.
+	 * @param page The page
+	 */
+	synchronized void freePage(BPlusTreeKeyPage page) {
+		pages.remove(page.getPageId());
+		BlockAccessIndex bai = page.getBlockAccessIndex();
+		Datablock blk = bai.getBlk();
+		bai.resetBlock(false);
+		blk.setIncore(true);
+		blk.setInlog(false);
+	}
+	/**
+	 * Returns the number of keys recorded in the root page, which is updated by each insert and delete
+	 * that changes it and goes through the recovery log with the pages of the transaction.
+	 * If the root page has no count, the leaves are scanned for one.
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized long count() throws IOException {
+		if(root.getCount() == -1L)
+			root.initCount(scan());
+		return root.getCount();
+	}
+
+	private void changeCount(long delta) throws IOException {
+		root.setCount(root.getCount() == -1L ? scan() : root.getCount() + delta);
+	}
+	/**
+	 * Count the keys by walking the leaves from the leftmost along their links.
+	 * @return The number of keys
+	 * @throws IOException
+	 */
+	private long scan() throws IOException {
+		long tim = System.currentTimeMillis();
+		long numKeys = 0;
+		BPlusTreeKeyPage page = leftmostLeaf();
+		while(page != null) {
+			numKeys += page.getNumKeys();
+			long next = page.getNode().getNextLeaf();
+			page = (next == -1L ? null : getPage(next));
+		}
+		if( DEBUG || DEBUGCOUNT )
+			System.out.println("Count for "+sdbio.getDBName()+" returned "+numKeys+" keys in "+(System.currentTimeMillis()-tim)+" ms.");
+		return numKeys;
+	}
+
+	public void test() throws IOException {
+		if( TEST ) {
+			long tim = System.currentTimeMillis();
+			long numKeys = scan();
+			System.out.println("Consistency check for "+sdbio.getDBName()+" returned "+numKeys+" keys in "+(System.currentTimeMillis()-tim)+" ms.");
+			if(numKeys != count())
+				System.out.println("Consistency check for "+sdbio.getDBName()+" found "+count()+" keys recorded in the root page.");
+		}
+	}
+
+	@Override
+	public synchronized boolean isEmpty() {
+		try {
+			return (count() == 0);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized Object seekObject(Object targetObject) throws IOException {
+		Iterator it = new EntrySetIterator(this);
+		while(it.hasNext()) {
+			Entry o = (Entry) it.next();
+			if(o.getValue().equals(targetObject))
+				return o;
+		}
+		return null;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized KeySearchResult seekKey(Comparable targetKey, Stack stack) throws IOException {
+		KeySearchResult ksr = locate(targetKey, stack);
+		if( DEBUG || DEBUGSEARCH )
+			System.out.println("SeekKey state is targKey:"+targetKey+" "+ksr);
+		return ksr;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized int add(Comparable key) throws IOException {
+		return add(key, null);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized int add(Comparable key, Object value) throws IOException {
+		int result = navigator.insert(key, value);
+		if(result == 0)
+			changeCount(1);
+		return result;
+	}
+	/**
+	 * Load entries by adding each in turn.
+	 * @param entries The key/value pairs
+	 * @return The number of keys added
+	 * @throws IOException
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		long added = 0;
+		while(entries.hasNext()) {
+			Map.Entry entry = entries.next();
+			if(add((Comparable) entry.getKey(), entry.getValue()) == 0)
+				++added;
+		}
+		return added;
+	}
+	/**
+	 * Search for the key. If it is not found and every key in its leaf is less, the result is moved to the first key
+	 * of the next leaf, so the result is always at the key or the first key greater, or past the last key of the tree.
+	 * The stack is left empty, the leaves are linked.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized KeySearchResult locate(Comparable key, Stack stack) throws IOException {
+		stack.clear();
+		KeySearchResult ksr = navigator.search(key, null);
+		BPlusTreeKeyPage page = (BPlusTreeKeyPage) ksr.page;
+		if(!ksr.atKey && ksr.insertPoint == page.getNumKeys() && page.getNode().getNextLeaf() != -1L)
+			ksr = new KeySearchResult(getPage(page.getNode().getNextLeaf()), 0, false);
+		return ksr;
+	}
+	/**
+	 * Delete the key and its value. Leaves are only removed when empty, they are not merged with their neighbors.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized int delete(Comparable key) throws IOException {
+		if(navigator.delete(key) != null)
+			changeCount(-1);
+		return 0;
+	}
+
+	private BPlusTreeKeyPage leftmostLeaf() throws IOException {
+		BPlusTreeKeyPage page = root;
+		while(!page.isLeaf())
+			page = getPage(page.getPageId(0));
+		return page;
+	}
+
+	private BPlusTreeKeyPage rightmostLeaf() throws IOException {
+		BPlusTreeKeyPage page = root;
+		while(!page.isLeaf())
+			page = getPage(page.getPageId(page.getNumKeys()));
+		return page;
+	}
+	/**
+	 * Position at the first key of the leftmost leaf. The stack is not used.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized KeyValue rewind(TraversalStackElement rewound, Stack stack) throws IOException {
+		stack.clear();
+		BPlusTreeKeyPage page = leftmostLeaf();
+		rewound.keyPage = page;
+		rewound.index = 0;
+		rewound.child = 0;
+		return page.getKeyValueArray(0);
+	}
+	/**
+	 * Position at the last key of the rightmost leaf. The stack is not used.
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized KeyValue toEnd(TraversalStackElement rewound, Stack stack) throws IOException {
+		stack.clear();
+		BPlusTreeKeyPage page = rightmostLeaf();
+		rewound.keyPage = page;
+		rewound.index = page.getNumKeys() - 1;
+		rewound.child = rewound.index;
+		return page.getKeyValueArray(rewound.index);
+	}
+	/**
+	 * Advance to the next key in the leaf, or the first key of the next leaf.
+	 * @return The element advanced, or null past the last key
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized TraversalStackElement gotoNextKey(TraversalStackElement tse, Stack stack) throws IOException {
+		BPlusTreeKeyPage page = (BPlusTreeKeyPage) tse.keyPage;
+		int index = tse.index + 1;
+		while(index >= page.getNumKeys()) {
+			long next = page.getNode().getNextLeaf();
+			if(next == -1L)
+				return null;
+			page = getPage(next);
+			index = 0;
+		}
+		tse.keyPage = page;
+		tse.index = index;
+		tse.child = index;
+		return tse;
+	}
+	/**
+	 * Back up to the previous key in the leaf, or the last key of the previous leaf.
+	 * @return The element backed up, or null before the first key
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized TraversalStackElement gotoPrevKey(TraversalStackElement tse, Stack stack) throws IOException {
+		BPlusTreeKeyPage page = (BPlusTreeKeyPage) tse.keyPage;
+		int index = tse.index - 1;
+		while(index < 0) {
+			long prev = page.getNode().getPrevLeaf();
+			if(prev == -1L)
+				return null;
+			page = getPage(prev);
+			index = page.getNumKeys() - 1;
+		}
+		tse.keyPage = page;
+		tse.index = index;
+		tse.child = index;
+		return tse;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized KeySearchResult search(Comparable targetKey) throws IOException {
+		KeySearchResult ksr = navigator.search(targetKey, null);
+		if( DEBUG || DEBUGSEARCH )
+			System.out.println("BPlusTreeMain.search returning with currentPage:"+ksr);
+		return ksr;
+	}
+
+	@Override
+	public synchronized GlobalDBIO getIO() {
+		return sdbio;
+	}
+
+	@Override
+	public synchronized void setIO(GlobalDBIO sdbio) {
+		this.sdbio = sdbio;
+	}
+
+	@Override
+	public synchronized KeyPageInterface[] getRoot() {
+		return new KeyPageInterface[] {root};
+	}
+	/**
+	 * Walk the tree from the root, calling back the operator with each page before its children.
+	 */
+	@Override
+	public synchronized void retrievePages(PageIteratorIF<KeyPageInterface> iterImpl) throws IOException {
+		retrievePages(root, iterImpl);
+	}
+
+	private void retrievePages(BPlusTreeKeyPage page, PageIteratorIF<KeyPageInterface> iterImpl) throws IOException {
+		iterImpl.item(page);
+		if(!page.isLeaf()) {
+			for(int i = 0; i <= page.getNumKeys(); i++)
+				retrievePages(getPage(page.getPageId(i)), iterImpl);
+		}
+	}
+
+	@Override
+	public synchronized void traverseStructure(StructureCallBackListener listener, KeyPageInterface node, long parent, int level) throws IOException {
+		BPlusTreeKeyPage page = (BPlusTreeKeyPage) node;
+		int numKeys = page.getNumKeys();
+		listener.call(level, page.getPageId(), parent, (numKeys == 0 ? null : page.getKey(0)), (numKeys == 0 ? null : page.getKey(numKeys-1)),
+				page.isLeaf(), numKeys);
+		if(!page.isLeaf()) {
+			for(int i = 0; i <= numKeys; i++)
+				traverseStructure(listener, getPage(page.getPageId(i)), page.getPageId(), level+1);
+		}
+	}
+	/**
+	 * Key/value instances call here for their deserialized key
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Comparable getKey(Optr keyLoc) throws IOException {
+		return (Comparable) sdbio.deserializeObject(keyLoc);
+	}
+	/**
+	 * Key/value instances call here for their deserialized value
+	 */
+	@Override
+	public Object getValue(Optr valueLoc) throws IOException {
+		return sdbio.deserializeObject(valueLoc);
+	}
+
+}
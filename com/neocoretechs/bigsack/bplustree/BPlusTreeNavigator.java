@@ -0,0 +1,263 @@
+package com.neocoretechs.bigsack.bplustree;
+
+import java.io.IOException;
+import java.util.Stack;
+
+import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
+
+/**
+ * Search, insert and delete on the pages of the B+tree.<p/>
+ * Every key/value entry is in a leaf. An insert descends to the leaf and, if it overflows, splits it, the upper half
+ * moving to a new page linked in after it and a copy of the first key of the new page going up to the parent as
+ * separator. A full internal page splits around its middle separator, which moves up. When the root splits its
+ * contents move to two new pages and it becomes their parent, so the root stays at block 0.<p/>
+ * Deletion is lazy: a leaf is left as sparse as its deletes leave it and is only removed once empty, when it is
+ * unlinked from its neighbors, its separator removed from the parent, and its block reset so the {@link com.neocoretechs.bigsack.keyvaluepages.Vacuum}
+ * returns it to the free space map. An internal page left with no children is removed the same way, and a root left
+ * with a single child takes over the contents of that child, so the tree loses a level.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+final class BPlusTreeNavigator {
+	private static final boolean DEBUG = false;
+	private static final boolean DEBUGSPLIT = false;
+	private final BPlusTreeMain bPlusTreeMain;
+
+	BPlusTreeNavigator(BPlusTreeMain bPlusTreeMain) {
+		this.bPlusTreeMain = bPlusTreeMain;
+	}
+	/**
+	 * Descend from the root to the leaf whose range holds the key.
+	 * @param key The target key
+	 * @param path If not null, receives the internal pages of the descent with the index of the child taken
+	 * @return The result of the search of the leaf
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	KeySearchResult search(Comparable key, Stack<TraversalStackElement> path) throws IOException {
+		BPlusTreeKeyPage page = (BPlusTreeKeyPage) bPlusTreeMain.getRoot()[0];
+		while(!page.isLeaf()) {
+			int childIndex = page.childIndex(key);
+			if(path != null)
+				path.push(new TraversalStackElement(page, childIndex, childIndex));
+			page = bPlusTreeMain.getPage(page.getPageId(childIndex));
+		}
+		return page.search(key);
+	}
+	/**
+	 * Insert the key and value, or replace the value of an existing key.
+	 * @param key
+	 * @param value
+	 * @return 0 if the key was added, 1 if it existed
+	 * @throws IOException
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	int insert(Comparable key, Object value) throws IOException {
+		Stack<TraversalStackElement> path = new Stack<TraversalStackElement>();
+		KeySearchResult ksr = search(key, path);
+		BPlusTreeKeyPage leaf = (BPlusTreeKeyPage) ksr.page;
+		if(ksr.atKey) {
+			leaf.replaceData(ksr.insertPoint, value);
+			leaf.putPage();
+			return 1;
+		}
+		KeyValue<Comparable, Object> kv = new KeyValue<Comparable, Object>(key, value, leaf.getNode());
+		kv.keyState = KeyValue.synchStates.mustWrite;
+		kv.valueState = KeyValue.synchStates.mustWrite;
+		leaf.getNode().insert(ksr.insertPoint, kv, -1L);
+		leaf.setUpdated(true);
+		if(leaf.getNumKeys() > leaf.getMaxKeys())
+			split(leaf, path);
+		else
+			leaf.putPage();
+		return 0;
+	}
+	/**
+	 * Split the overflowing page, posting the separator to its parent and splitting the parent in turn if it overflows.
+	 * @param page The page with one key more than its maximum
+	 * @param path The parents of the page
+	 * @throws IOException
+	 */
+	private void split(BPlusTreeKeyPage page, Stack<TraversalStackElement> path) throws IOException {
+		if(path.isEmpty()) {
+			splitRoot(page);
+			return;
+		}
+		TraversalStackElement parentElement = path.pop();
+		BPlusTreeKeyPage parent = (BPlusTreeKeyPage) parentElement.keyPage;
+		BPlusNode<Comparable, Object> node = page.getNode();
+		BPlusTreeKeyPage right = bPlusTreeMain.newPage(node.isLeaf());
+		BPlusNode<Comparable, Object> rightNode = right.getNode();
+		int mid = node.getNumKeys() / 2;
+		KeyValue<Comparable, Object> separator;
+		if(node.isLeaf()) {
+			node.moveTo(mid, rightNode, false);
+			separator = separatorOf(rightNode, parent);
+			rightNode.setPrevLeaf(page.getPageId());
+			rightNode.setNextLeaf(node.getNextLeaf());
+			if(node.getNextLeaf() != -1L) {
+				BPlusTreeKeyPage next = bPlusTreeMain.getPage(node.getNextLeaf());
+				next.getNode().setPrevLeaf(right.getPageId());
+				next.setUpdated(true);
+				next.putPage();
+			}
+			node.setNextLeaf(right.getPageId());
+		} else {
+			separator = node.getKeyValueArray(mid);
+			node.moveTo(mid+1, rightNode, true);
+			node.remove(mid, mid+1); // separator goes up, the child to its left stays
+		}
+		if(DEBUG || DEBUGSPLIT)
+			System.out.printf("%s.split %s into %s%n", this.getClass().getName(), node, rightNode);
+		page.setUpdated(true);
+		page.putPage();
+		right.putPage();
+		parent.getNode().insert(parentElement.child, separator, right.getPageId());
+		parent.setUpdated(true);
+		if(parent.getNumKeys() > parent.getMaxKeys())
+			split(parent, path);
+		else
+			parent.putPage();
+	}
+	/**
+	 * Split the root by moving its contents to two new pages and making it their parent.
+	 * @param root
+	 * @throws IOException
+	 */
+	private void splitRoot(BPlusTreeKeyPage root) throws IOException {
+		BPlusNode<Comparable, Object> node = root.getNode();
+		boolean leaf = node.isLeaf();
+		BPlusTreeKeyPage left = bPlusTreeMain.newPage(leaf);
+		BPlusTreeKeyPage right = bPlusTreeMain.newPage(leaf);
+		BPlusNode<Comparable, Object> rightNode = right.getNode();
+		int mid = node.getNumKeys() / 2;
+		KeyValue<Comparable, Object> separator;
+		if(leaf) {
+			node.moveTo(mid, rightNode, false);
+			separator = separatorOf(rightNode, root);
+			left.getNode().setNextLeaf(right.getPageId());
+			rightNode.setPrevLeaf(left.getPageId());
+		} else {
+			separator = node.getKeyValueArray(mid);
+			node.moveTo(mid+1, rightNode, true);
+			node.remove(mid, mid+1);
+		}
+		node.moveTo(0, left.getNode(), true);
+		node.clear();
+		node.setLeaf(false);
+		node.insert(0, separator, right.getPageId());
+		node.setChildPage(0, left.getPageId());
+		if(DEBUG || DEBUGSPLIT)
+			System.out.printf("%s.splitRoot into %s and %s%n", this.getClass().getName(), left.getNode(), rightNode);
+		left.putPage();
+		right.putPage();
+		root.setUpdated(true);
+		root.putPage();
+	}
+	/**
+	 * A separator for the parent, a copy of the first key of the new right leaf with its own payload.
+	 */
+	private KeyValue<Comparable, Object> separatorOf(BPlusNode<Comparable, Object> rightNode, BPlusTreeKeyPage parent) throws IOException {
+		KeyValue<Comparable, Object> separator = new KeyValue<Comparable, Object>(rightNode.getKeyValueArray(0).getmKey(), null, parent.getNode());
+		separator.keyState = KeyValue.synchStates.mustWrite;
+		separator.valueState = KeyValue.synchStates.upToDate;
+		separator.setValueOptr(Optr.emptyPointer);
+		return separator;
+	}
+	/**
+	 * Delete the key and its value.
+	 * @param key
+	 * @return The entry deleted, or null if the key was not found
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	KeyValue<Comparable, Object> delete(Comparable key) throws IOException {
+		Stack<TraversalStackElement> path = new Stack<TraversalStackElement>();
+		KeySearchResult ksr = search(key, path);
+		if(!ksr.atKey)
+			return null;
+		BPlusTreeKeyPage leaf = (BPlusTreeKeyPage) ksr.page;
+		KeyValue<Comparable, Object> kv = leaf.getKeyValueArray(ksr.insertPoint);
+		kv.getmKey(); // keep the key of the entry returned
+		leaf.deletePayloads(kv);
+		leaf.getNode().remove(ksr.insertPoint, 0);
+		leaf.setUpdated(true);
+		if(leaf.getNumKeys() == 0 && !path.isEmpty())
+			removePage(leaf, path);
+		else
+			leaf.putPage();
+		collapseRoot();
+		return kv;
+	}
+	/**
+	 * Remove an empty page from the tree. A leaf is unlinked from its neighbors. The separator beside it in the parent goes
+	 * with it, and a parent left with no children is removed in turn, or if it is the root becomes an empty leaf.
+	 * @param page The empty page, not the root
+	 * @param path The parents of the page
+	 * @throws IOException
+	 */
+	private void removePage(BPlusTreeKeyPage page, Stack<TraversalStackElement> path) throws IOException {
+		BPlusNode<Comparable, Object> node = page.getNode();
+		if(node.isLeaf()) {
+			if(node.getPrevLeaf() != -1L) {
+				BPlusTreeKeyPage prev = bPlusTreeMain.getPage(node.getPrevLeaf());
+				prev.getNode().setNextLeaf(node.getNextLeaf());
+				prev.setUpdated(true);
+				prev.putPage();
+			}
+			if(node.getNextLeaf() != -1L) {
+				BPlusTreeKeyPage next = bPlusTreeMain.getPage(node.getNextLeaf());
+				next.getNode().setPrevLeaf(node.getPrevLeaf());
+				next.setUpdated(true);
+				next.putPage();
+			}
+		}
+		bPlusTreeMain.freePage(page);
+		TraversalStackElement parentElement = path.pop();
+		BPlusTreeKeyPage parent = (BPlusTreeKeyPage) parentElement.keyPage;
+		BPlusNode<Comparable, Object> parentNode = parent.getNode();
+		if(parentNode.getNumKeys() == 0) {
+			if(path.isEmpty()) {
+				parentNode.clear();
+				parent.setUpdated(true);
+				parent.putPage();
+			} else {
+				removePage(parent, path);
+			}
+			return;
+		}
+		// the range of the removed child joins that of its left neighbor, or for the leftmost child its right neighbor
+		int childIndex = parentElement.child;
+		int keyIndex = (childIndex > 0 ? childIndex - 1 : 0);
+		parent.deletePayloads(parentNode.getKeyValueArray(keyIndex));
+		parentNode.remove(keyIndex, childIndex);
+		parent.setUpdated(true);
+		parent.putPage();
+	}
+	/**
+	 * While the root is an internal page with a single child, move the contents of the child up to the root.
+	 * @throws IOException
+	 */
+	private void collapseRoot() throws IOException {
+		BPlusTreeKeyPage root = (BPlusTreeKeyPage) bPlusTreeMain.getRoot()[0];
+		BPlusNode<Comparable, Object> rootNode = root.getNode();
+		while(!rootNode.isLeaf() && rootNode.getNumKeys() == 0) {
+			BPlusTreeKeyPage child = bPlusTreeMain.getPage(rootNode.getChildPage(0));
+			BPlusNode<Comparable, Object> childNode = child.getNode();
+			rootNode.setLeaf(childNode.isLeaf());
+			childNode.moveTo(0, rootNode, true);
+			// the only child of the root has no neighbors
+			rootNode.setPrevLeaf(-1L);
+			rootNode.setNextLeaf(-1L);
+			root.setUpdated(true);
+			root.putPage();
+			bPlusTreeMain.freePage(child);
+			if(DEBUG)
+				System.out.printf("%s.collapseRoot %s%n", this.getClass().getName(), rootNode);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.neocoretechs.bigsack.bplustree;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.keyvaluepages.RootKeyPageInterface;
+/**
+ * The root page of the B+tree, locked to tablespace 0, block 0. It starts out as the only leaf and becomes an internal
+ * page when it first splits, its contents moving to two new pages, so the root never moves.<p/>
+ * As with the {@link com.neocoretechs.bigsack.btree.BTreeRootKeyPage}, the number of keys in the tree is kept with
+ * its complement in the last bytes of the block, written whenever it changes so it goes through the recovery log
+ * with the pages of the same transaction. A count whose complement does not match is reported as unknown.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public class BPlusTreeRootKeyPage extends BPlusTreeKeyPage implements RootKeyPageInterface {
+	public static boolean DEBUG = false;
+	static final int COUNTSIZE = 16; // long count of keys and its complement at the end of the block
+	private long count = -1L; // keys in the tree, -1 if unknown
+
+	public BPlusTreeRootKeyPage(BPlusTreeMain bPlusTreeMain, BlockAccessIndex lbai, boolean read) throws IOException {
+		super(bPlusTreeMain, lbai, read);
+		if(read)
+			readCount();
+	}
+
+	@Override
+	protected int getReservedSpace() {
+		return COUNTSIZE;
+	}
+	/**
+	 * Write the page, then the count, which a reset of the block would have cleared.
+	 */
+	@Override
+	public synchronized void putPage() throws IOException {
+		boolean updated = isUpdated();
+		super.putPage();
+		if(updated && count != -1L)
+			putCount();
+	}
+	/**
+	 * @return The number of keys in the tree, or -1 if the count was not found on the page
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+	/**
+	 * Set the number of keys in the tree and write it to the block.
+	 * @param count
+	 * @throws IOException
+	 */
+	public synchronized void setCount(long count) throws IOException {
+		this.count = count;
+		putCount();
+	}
+	/**
+	 * Set the number of keys in the tree found by a scan without writing it, it is written with the next change.
+	 * @param count
+	 */
+	synchronized void initCount(long count) {
+		this.count = count;
+	}
+	/**
+	 * Read the count from the end of the block. A block is only stored up to its high water mark, so a block
+	 * whose mark stops short of the count has none.
+	 */
+	private void readCount() {
+		Datablock blk = lbai.getBlk();
+		if(blk.getBytesused() < DBPhysicalConstants.DATASIZE) {
+			count = -1L;
+		} else {
+			byte[] b = new byte[COUNTSIZE];
+			blk.get(DBPhysicalConstants.DATASIZE - COUNTSIZE, b, 0, COUNTSIZE);
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			long c = bb.getLong();
+			long check = bb.getLong();
+			count = (c >= 0 && check == ~c ? c : -1L);
+		}
+		if(DEBUG)
+			System.out.printf("%s.readCount count=%d%n", this.getClass().getName(), count);
+	}
+
+	private void putCount() throws IOException {
+		DataOutputStream dos = GlobalDBIO.getDataOutputStream(lbai, (short)(DBPhysicalConstants.DATASIZE - COUNTSIZE));
+		dos.writeLong(count);
+		dos.writeLong(~count);
+		dos.flush();
+		dos.close();
+	}
+
+}
@@ -3,6 +3,7 @@ package com.neocoretechs.bigsack.btree;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.neocoretechs.bigsack.hashmap.HMapKeyPage;
 import com.neocoretechs.bigsack.hashmap.HTNode;
@@ -184,6 +185,30 @@ public class BTNode<K extends Comparable, V> extends HTNode {
     		childPages[index] = mChildren[index].getPageId();
     	setUpdated(true);
     }
+	/**
+	 * Move the keys from index from up to but not including index to, with the child to the left of each, to the start
+	 * of the target, leaving empty slots and links in their place here. The moved keys are marked to have their pointers
+	 * rewritten on the target page. Used by a split, which runs in the calling thread as a few array copies.
+	 * @param from The first key moved
+	 * @param to One past the last key moved
+	 * @param target The node receiving the keys at index 0
+	 * @param withRightChild true to move the child to the right of the last key as well
+	 */
+	void moveKeys(int from, int to, BTNode<K, V> target, boolean withRightChild) {
+		int count = to - from;
+		int links = withRightChild ? count + 1 : count;
+		moveKeyValues(from, target, count);
+		System.arraycopy(mChildren, from, target.mChildren, 0, links);
+		System.arraycopy(childPages, from, target.childPages, 0, links);
+		Arrays.fill(mChildren, from, from+links, null);
+		Arrays.fill(childPages, from, from+links, -1L);
+		for(int i = 0; i < count; i++) {
+			target.getKeyValueArray(i).keyState = KeyValue.synchStates.mustUpdate; // transfer Optr
+			target.getKeyValueArray(i).valueState = KeyValue.synchStates.mustUpdate; // transfer Optr
+		}
+		target.setUpdated(true);
+		setUpdated(true);
+	}
 	
 	public boolean getUpdated() {
 		return isUpdated();
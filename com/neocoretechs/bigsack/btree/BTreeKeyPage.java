@@ -14,6 +14,7 @@ import com.neocoretechs.bigsack.io.stream.DBInputStream;
 import com.neocoretechs.bigsack.io.stream.DBOutputStream;
 import com.neocoretechs.bigsack.keyvaluepages.KVIteratorIF;
 import com.neocoretechs.bigsack.keyvaluepages.KeyPageInterface;
+import com.neocoretechs.bigsack.keyvaluepages.KeyPrefix;
 import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
@@ -50,7 +51,12 @@ import com.neocoretechs.bigsack.keyvaluepages.NodeInterface;
 * The in-memory BTnode/BTree object model Performs operations on its set of keys and
 * optional sets of object values. The non-volatile model persists itself to the buffer pool as as block stream that appears
 * as input and output streams connected to pages in the backing store.<p/>
-* MAXKEYS are the odd maximum keys without spanning page boundaries, calculated by block payload divided by keysize.
+* MAXKEYS are the odd maximum keys without spanning page boundaries, calculated by block payload divided by keysize.<p/>
+* Each key {@link Optr} is followed by a fixed width {@link KeyPrefix} so the binary search of a page can decide most
+* comparisons without deserializing the key from its payload block.<p/>
+* Serialized keys and values of up to INLINEPAYLOADSIZE bytes are stored inline in a heap that follows the key directory
+* on the page, as room permits. The directory entry for an inline payload is an {@link Optr} with block Optr.INLINEBLOCK
+* and the offset of the payload in the page. Larger payloads, or those that no longer fit, overflow to payload blocks.
 * 
 * Unlike a binary search tree, each node of a B-tree may have a variable number of keys and children.
 * The keys are stored in non-decreasing order. Each node either is a leaf node or
@@ -81,7 +87,7 @@ public class BTreeKeyPage implements KeyPageInterface {
 	private static final boolean DEBUGSETNUMKEYS = false;
 	private static final boolean DEBUGGETDATA = false;
 	private static final boolean DEBUGPUTDATA = false;
-	public static final int BTREEKEYSIZE = 28; // total size per key/value 2 Optr for key/value + child node page to the left
+	public static final int BTREEKEYSIZE = 28 + KeyPrefix.KEYPREFIXSIZE; // total size per key/value 2 Optr for key/value + key prefix + child node page to the left
 	public static final int BTREEDATASIZE = 17; // extra data in key/value page, long number of keys, long last child right node page ID, one byte for leaf
 	public static int TOTALKEYS = 
 			((int) Math.floor((DBPhysicalConstants.DATASIZE-BTREEDATASIZE)/BTREEKEYSIZE));
@@ -89,6 +95,8 @@ public class BTreeKeyPage implements KeyPageInterface {
 	// The number of maximum children is MAXKEYS+1 per node.
 	// Calculate the maximum number of odd keys that can fit per block. Must be odd for splits that leave an even balance of left/right
 	public static int MAXKEYS = (TOTALKEYS % 2 == 0 ? TOTALKEYS - 1 : TOTALKEYS);
+	// Maximum size of a serialized key or value stored inline in the page, 0 to always use payload blocks
+	public static int INLINEPAYLOADSIZE = 128;
 	// Global is this leaf node flag.
 	//private boolean mIsLeafNode = true; //1 byte, SINGLE ENTRY ,We treat as leaf since the logic is geared to proving it not
 	// Global page updated flag.
@@ -98,6 +106,7 @@ public class BTreeKeyPage implements KeyPageInterface {
 	protected transient KeyValueMainInterface bTreeMain;
 	protected transient NodeInterface<Comparable, Object> bTNode = null;
 	private long numKeys = 0L;
+	private transient int inlineSpace = 0; // remaining room in page heap for inline payloads during putPage
 	
 	/**
 	 * This is called from getPageFromPool get set up a new clean node
@@ -164,6 +173,9 @@ public class BTreeKeyPage implements KeyPageInterface {
 				throw new IOException("Bad page read key index "+i+" page:"+this.toString());
 			// set status to mustRead to resolve pointers to data
 			bTNode.getKeyValueArray(i).keyState = KeyValue.synchStates.mustRead;
+			// key prefix
+			byte prefixType = dis.readByte();
+			bTNode.getKeyValueArray(i).setKeyPrefix(prefixType, dis.readLong());
 			//
 			sblk = dis.readLong();
 			shblk = dis.readShort();
@@ -180,6 +192,19 @@ public class BTreeKeyPage implements KeyPageInterface {
 		}
 		// final right pageId
 		((BTNode)bTNode).childPages[getNumKeys()] = dis.readLong();
+		// inline payload heap, key then value for each index
+		for(int i = 0; i < getNumKeys(); i++) {
+			if(bTNode.getKeyValueArray(i).getKeyOptr().isInline())
+				bTNode.getKeyValueArray(i).setKeyInline(readInline(dis));
+			if(bTNode.getKeyValueArray(i).getValueOptr().isInline())
+				bTNode.getKeyValueArray(i).setValueInline(readInline(dis));
+		}
+	}
+	
+	private byte[] readInline(DataInputStream dis) throws IOException {
+		byte[] pb = new byte[dis.readShort()];
+		dis.readFully(pb);
+		return pb;
 	}
 	
 	/**
@@ -231,44 +256,41 @@ public class BTreeKeyPage implements KeyPageInterface {
 	}
 		
 	/**
-	* Given a Comparable object, search for that object on this page.
-	* The key was found on this page and loc is index of
-	* located key if atKey is true. 
-	* If atKey was false then the key
-	* was not found on this page and index-1 is index of where the
-	* key *should* be. The result is always to the right of the target key, therefore
-	* to nav left one accesses index-1 key.
+	* Given a Comparable object, binary search for that object on this page.
+	* The stored key prefixes are compared first, and a key is only deserialized when its
+	* prefix cannot decide the comparison.
+	* If atKey is true the key was found on this page and insertPoint is the index of the located key.
+	* If atKey is false then the key was not found on this page and insertPoint is the index of the
+	* first key greater than the target, or numKeys if the target is greater than all keys. That is,
+	* the position where the key *should* be, and the index of the left child to descend.
 	* @param targetKey The target key to retrieve
-	* @return TreeSearchResult the insertion point from 0 to MAXKEYS and flag of whether key was found
-	 * @throws IOException 
+	* @return KeySearchResult the insertion point from 0 to numKeys and flag of whether key was found
+	* @throws IOException 
 	*/
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	synchronized KeySearchResult search(Comparable targetKey) throws IOException {
 		if(targetKey == null)
-			System.out.printf("%s.search target key is null", this.getClass().getName());
-		int middleIndex = 1; 
-        int leftIndex = 0;
-        int rightIndex = getNumKeys() - 1;
-        // no keys, call for insert at 0
-        if( rightIndex == -1)
-        	return new KeySearchResult(0, false);
-        while (leftIndex <= rightIndex) {
-        	middleIndex = leftIndex + ((rightIndex - leftIndex) / 2);
-    		if(getKey(middleIndex) == null)
-    			System.out.printf("%s.search getKey(%d) is null for page:%s%n", this.getClass().getName(),middleIndex,this);
-        	int cmpRes = getKey(middleIndex).compareTo(targetKey);
-        	if (cmpRes < 0 ) {
-        		leftIndex = middleIndex + 1;
-        	} else 
-        		if (cmpRes > 0 ) {
-        			rightIndex = middleIndex - 1;
-        		} else {
-        			return new KeySearchResult(middleIndex, true);
-        		}
-        }
-        if( DEBUG )
-        	System.out.println("BtreeKeyPage.search falling thru "+middleIndex+" "+leftIndex+" "+rightIndex+" "+this+" target:"+targetKey);
-        return new KeySearchResult(middleIndex, false);
+			throw new IOException("Key cannot be null");
+		byte targetPrefixType = KeyPrefix.typeOf(targetKey);
+		long targetPrefix = KeyPrefix.prefixOf(targetPrefixType, targetKey);
+		int middleIndex = 0; 
+		int leftIndex = 0;
+		int rightIndex = bTNode.getNumKeys() - 1;
+		while (leftIndex <= rightIndex) {
+			middleIndex = (leftIndex + rightIndex) >>> 1;
+			int cmpRes = bTNode.getKeyValueArray(middleIndex).compareKey(targetKey, targetPrefixType, targetPrefix);
+			if (cmpRes < 0 ) {
+				leftIndex = middleIndex + 1;
+			} else 
+				if (cmpRes > 0 ) {
+					rightIndex = middleIndex - 1;
+				} else {
+					return new KeySearchResult(this, middleIndex, true);
+				}
+		}
+		if( DEBUG )
+			System.out.println("BtreeKeyPage.search falling thru "+middleIndex+" "+leftIndex+" "+rightIndex+" "+this+" target:"+targetKey);
+		return new KeySearchResult(this, leftIndex, false);
 	}
 	/**
 	 * Remove the key k from this node or the sub-tree rooted with this node preserving BTree properties. 
@@ -301,14 +323,18 @@ public class BTreeKeyPage implements KeyPageInterface {
 		if( bTNode.getKeyValueArray(index) == null )
 			throw new IOException("Node at index "+index+" null for attempted delete "+this);
 		if( !bTNode.getKeyValueArray(index).getKeyOptr().equals(Optr.emptyPointer)) {
-			bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(index).getKeyOptr(), GlobalDBIO.getObjectAsBytes(bTNode.getKeyValueArray(index).getmKey()).length);
+			if(!bTNode.getKeyValueArray(index).getKeyOptr().isInline())
+				bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(index).getKeyOptr(), bTreeMain.getIO().payloadSize(bTNode.getKeyValueArray(index).getKeyOptr(), bTNode.getKeyValueArray(index).getmKey()));
 			bTNode.getKeyValueArray(index).setKeyOptr(Optr.emptyPointer);
+			bTNode.getKeyValueArray(index).setKeyInline(null);
 			bTNode.getKeyValueArray(index).setmKey(null);
 			bTNode.getKeyValueArray(index).keyState = KeyValue.synchStates.mustUpdate;
 		}
 		if( bTNode.getKeyValueArray(index).getValueOptr() != null && !bTNode.getKeyValueArray(index).getValueOptr().equals(Optr.emptyPointer)) {
-			bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(index).getValueOptr(), GlobalDBIO.getObjectAsBytes(bTNode.getKeyValueArray(index).getmValue()).length);
+			if(!bTNode.getKeyValueArray(index).getValueOptr().isInline())
+				bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(index).getValueOptr(), bTreeMain.getIO().payloadSize(bTNode.getKeyValueArray(index).getValueOptr(), bTNode.getKeyValueArray(index).getmValue()));
 			bTNode.getKeyValueArray(index).setValueOptr(Optr.emptyPointer);
+			bTNode.getKeyValueArray(index).setValueInline(null);
 			bTNode.getKeyValueArray(index).setmValue(null);
 			bTNode.getKeyValueArray(index).valueState = KeyValue.synchStates.mustUpdate;
 		}
@@ -337,9 +363,8 @@ public class BTreeKeyPage implements KeyPageInterface {
 		}
 		// get first block to write contiguous records for keys
 		// We either have a block with some space or one we took from freechain list
-		byte[] pb = GlobalDBIO.getObjectAsBytes(getKeyValueArray(index).getmKey());
-		getKeyValueArray(index).setKeyOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(keys, pb.length));
-		lbai.getSdbio().add_object(getKeyValueArray(index).getKeyOptr(), pb, pb.length);
+		byte[] pb = bTreeMain.getIO().serialize(getKeyValueArray(index).getmKey());
+		placeKey(getKeyValueArray(index), pb, keys);
 		if(DEBUG || DEBUGPUTKEY) 
 				System.out.println("KeyPageInterface.putKey Added object:"+getKeyValueArray(index).getmKey()+" @"+getKeyValueArray(index)+" bytes:"+pb.length);
 		return true;
@@ -361,14 +386,55 @@ public class BTreeKeyPage implements KeyPageInterface {
 		}
 		// pack the page into this tablespace and within blocks the same tablespace as key
 		// the new insert position will attempt to find a block with space relative to established positions
-		byte[] pb = GlobalDBIO.getObjectAsBytes(getKeyValueArray(index).getmValue());
-		getKeyValueArray(index).setValueOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(values, pb.length));		
+		byte[] pb = bTreeMain.getIO().serialize(getKeyValueArray(index).getmValue());
+		placeData(getKeyValueArray(index), pb, values);
 		if( DEBUGPUTDATA )
 			System.out.println("KeyPageInterface.putData ADDING NON NULL value "+getKeyValueArray(index)+" for key index "+index+" at "+
 				getKeyValueArray(index).getValueOptr());
-		lbai.getSdbio().add_object(getKeyValueArray(index).getValueOptr(), pb, pb.length);
 		return true;
 	}
+	
+	/**
+	 * Place the serialized key inline in the page heap if it is small enough and there is room left,
+	 * otherwise write it to a payload block at a new insert position.
+	 * The offset of an inline key is assigned when the page is written.
+	 * @param kv The key/value entry
+	 * @param pb The serialized key
+	 * @param keys The list of unique blocks that already contain entries for more efficient clustering
+	 * @throws IOException
+	 */
+	private void placeKey(KeyValue<Comparable, Object> kv, byte[] pb, ArrayList<Long> keys) throws IOException {
+		if(pb.length <= INLINEPAYLOADSIZE && pb.length + 2 <= inlineSpace) {
+			inlineSpace -= (pb.length + 2);
+			kv.setKeyOptr(new Optr(Optr.INLINEBLOCK, (short) -1));
+			kv.setKeyInline(pb);
+		} else {
+			kv.setKeyOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(keys, pb.length));
+			kv.setKeyInline(null);
+			lbai.getSdbio().add_object(kv.getKeyOptr(), pb, pb.length);
+		}
+	}
+	
+	/**
+	 * Place the serialized value inline in the page heap if it is small enough and there is room left,
+	 * otherwise write it to a payload block at a new insert position.
+	 * The offset of an inline value is assigned when the page is written.
+	 * @param kv The key/value entry
+	 * @param pb The serialized value
+	 * @param values The list of unique blocks that already contain entries for more efficient clustering
+	 * @throws IOException
+	 */
+	private void placeData(KeyValue<Comparable, Object> kv, byte[] pb, ArrayList<Long> values) throws IOException {
+		if(pb.length <= INLINEPAYLOADSIZE && pb.length + 2 <= inlineSpace) {
+			inlineSpace -= (pb.length + 2);
+			kv.setValueOptr(new Optr(Optr.INLINEBLOCK, (short) -1));
+			kv.setValueInline(pb);
+		} else {
+			kv.setValueOptr(lbai.getSdbio().getIOManager().getNewInsertPosition(values, pb.length));
+			kv.setValueInline(null);
+			lbai.getSdbio().add_object(kv.getValueOptr(), pb, pb.length);
+		}
+	}
 	/**
 	 * Create a unique list of blocks that have already been populated with values from this node in order to possibly
 	 * cluster new entries more efficiently.
@@ -381,14 +447,16 @@ public class BTreeKeyPage implements KeyPageInterface {
 			if(getKeyValueArray(i) != null) { 
 				if(getKeyValueArray(i).getKeyOptr() != null && 
 					!blocks.contains(getKeyValueArray(i).getKeyOptr().getBlock()) &&
-					!getKeyValueArray(i).getKeyOptr().equals(Optr.emptyPointer) ) {
+					!getKeyValueArray(i).getKeyOptr().equals(Optr.emptyPointer) &&
+					!getKeyValueArray(i).getKeyOptr().isInline() ) {
 					if(getKeyValueArray(i).getKeyOptr().getBlock() == 0 || getKeyValueArray(i).getKeyOptr().getBlock() == -1)
 						throw new RuntimeException("Bad aggregate payload block key index "+i+" page:"+this.toString());
 						blocks.add(getKeyValueArray(i).getKeyOptr().getBlock());
 				}
 				if(getKeyValueArray(i).getValueOptr() != null && 
 					!blocks.contains(getKeyValueArray(i).getValueOptr().getBlock()) &&
-					!getKeyValueArray(i).getValueOptr().equals(Optr.emptyPointer) ) {
+					!getKeyValueArray(i).getValueOptr().equals(Optr.emptyPointer) &&
+					!getKeyValueArray(i).getValueOptr().isInline() ) {
 					if(getKeyValueArray(i).getValueOptr().getBlock() == 0 || getKeyValueArray(i).getValueOptr().getBlock() == -1)
 						throw new RuntimeException("Bad aggregate payload block value index "+i+" page:"+this.toString());
 						blocks.add(getKeyValueArray(i).getValueOptr().getBlock());
@@ -398,6 +466,13 @@ public class BTreeKeyPage implements KeyPageInterface {
 		return blocks;
 	}
 	
+	/**
+	 * @return The bytes at the end of the block withheld from the inline payload heap, none for a standard page
+	 */
+	protected int getReservedSpace() {
+		return 0;
+	}
+
 	@Override
 	public synchronized void putPage() throws IOException {
 		if(bTNode == null) {
@@ -413,6 +488,18 @@ public class BTreeKeyPage implements KeyPageInterface {
 			System.out.printf("%s.putPage:%s%n",this.getClass().getName(),this);
 		// hold accumulated insert pages
 		ArrayList<Long> currentPayloadBlocks = aggregatePayloadBlocks();
+		// room in the page heap following the key directory for inline payloads
+		inlineSpace = DBPhysicalConstants.DATASIZE - BTREEDATASIZE - (getNumKeys() * BTREEKEYSIZE) - getReservedSpace();
+		// Payloads already inline and unchanged keep their place in the heap first, if they no longer fit they overflow
+		for(int i = 0; i < getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = getKeyValueArray(i);
+			if(kv != null) {
+				if(kv.getKeyOptr().isInline() && kv.keyState != KeyValue.synchStates.mustWrite && kv.keyState != KeyValue.synchStates.mustReplace)
+					placeKey(kv, kv.getKeyInline(), currentPayloadBlocks);
+				if(kv.getValueOptr().isInline() && kv.valueState != KeyValue.synchStates.mustWrite && kv.valueState != KeyValue.synchStates.mustReplace)
+					placeData(kv, kv.getValueInline(), currentPayloadBlocks);
+			}
+		}
 		// Persist each key that is updated to fill the keyIds in the current page
 		// Once this is complete we write the page contiguously
 		// Write the object serialized keys out to deep store, we want to do this out of band of writing key page
@@ -425,8 +512,11 @@ public class BTreeKeyPage implements KeyPageInterface {
 				if(getKeyValueArray(i).valueState == KeyValue.synchStates.mustWrite || getKeyValueArray(i).valueState == KeyValue.synchStates.mustReplace) {
 					if(getKeyValueArray(i).valueState == KeyValue.synchStates.mustReplace) {
 						// delete old entry
-						if( bTNode.getKeyValueArray(i).getValueOptr() != null && !bTNode.getKeyValueArray(i).getValueOptr().equals(Optr.emptyPointer))
-							bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(i).getValueOptr(), GlobalDBIO.getObjectAsBytes(bTNode.getKeyValueArray(i).getmValue()).length);
+						if( bTNode.getKeyValueArray(i).getValueOptr() != null && !bTNode.getKeyValueArray(i).getValueOptr().equals(Optr.emptyPointer) &&
+							!bTNode.getKeyValueArray(i).getValueOptr().isInline())
+							bTreeMain.getIO().delete_object(bTNode.getKeyValueArray(i).getValueOptr(), bTreeMain.getIO().payloadSize(bTNode.getKeyValueArray(i).getValueOptr(), bTNode.getKeyValueArray(i).getmValue()));
+						bTNode.getKeyValueArray(i).setValueOptr(Optr.emptyPointer);
+						bTNode.getKeyValueArray(i).setValueInline(null);
 					}
 					putData(i, currentPayloadBlocks);
 				}
@@ -435,45 +525,39 @@ public class BTreeKeyPage implements KeyPageInterface {
 		//
 		assert (lbai.getBlockNum() != -1L) : " KeyPageInterface unlinked from page pool:"+this;
 		// write the page to the current block
+		// Since inline payload offsets follow the directory, the whole directory is written each time
 		// Write to the block output stream
 		DataOutputStream bs = GlobalDBIO.getDataOutputStream(lbai);
 		bs.writeLong(getNumKeys());
 		bs.writeByte(getmIsLeafNode() ? 1 : 0);
+		short heapIndex = (short) (BTREEDATASIZE + (getNumKeys() * BTREEKEYSIZE));
 		for(int i = 0; i < getNumKeys(); i++) {
-			if(getKeyValueArray(i) != null && 
-					getKeyValueArray(i).keyState == KeyValue.synchStates.mustWrite || 
-					getKeyValueArray(i).keyState == KeyValue.synchStates.mustReplace ||
-					getKeyValueArray(i).keyState == KeyValue.synchStates.mustUpdate) { // if set, key was processed by putKey[i]
-				if(getKeyValueArray(i).getKeyOptr().getBlock() == 0 )//|| getKeyValueArray(i).getKeyOptr().getBlock() == -1)
-					throw new IOException("Bad page write key index "+i+" page:"+this.toString());
-				bs.writeLong(getKeyValueArray(i).getKeyOptr().getBlock());
-				bs.writeShort(getKeyValueArray(i).getKeyOptr().getOffset());
-				getKeyValueArray(i).keyState = KeyValue.synchStates.upToDate;
-				if( DEBUG ) 
-					System.out.printf("%s.putPage %d Optr key:%s%n",this.getClass().getName(),i,getKeyValueArray(i));
-			} else { // skip 
-				lbai.setByteindex((short) (lbai.getByteindex()+10));
-				if( DEBUG ) 
-					System.out.printf("%s.putPage %d Optr key skipped:%s%n",this.getClass().getName(),i,getKeyValueArray(i));
+			KeyValue<Comparable, Object> kv = getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline()) {
+				kv.setKeyOptr(new Optr(Optr.INLINEBLOCK, heapIndex));
+				heapIndex += (kv.getKeyInline().length + 2);
 			}
+			if(kv.getKeyOptr().getBlock() == 0 )//|| getKeyValueArray(i).getKeyOptr().getBlock() == -1)
+				throw new IOException("Bad page write key index "+i+" page:"+this.toString());
+			bs.writeLong(kv.getKeyOptr().getBlock());
+			bs.writeShort(kv.getKeyOptr().getOffset());
+			bs.writeByte(kv.getKeyPrefixType());
+			bs.writeLong(kv.getKeyPrefix());
+			kv.setKeyUpToDate();
+			if( DEBUG ) 
+				System.out.printf("%s.putPage %d Optr key:%s%n",this.getClass().getName(),i,kv);
 			// data array
-			if(getKeyValueArray(i) != null && 
-					getKeyValueArray(i).valueState == KeyValue.synchStates.mustWrite || 
-					getKeyValueArray(i).valueState == KeyValue.synchStates.mustReplace ||
-					getKeyValueArray(i).valueState == KeyValue.synchStates.mustUpdate) {
-				if(getKeyValueArray(i).getValueOptr().getBlock() == 0) //|| getKeyValueArray(i).getValueOptr().getBlock() == -1)
-					throw new IOException("Bad page write value index "+i+" page:"+this.toString());
-				bs.writeLong(getKeyValueArray(i).getValueOptr().getBlock());
-				bs.writeShort(getKeyValueArray(i).getValueOptr().getOffset());
-				getKeyValueArray(i).valueState = KeyValue.synchStates.upToDate;
-				if( DEBUG ) 
-					System.out.printf("%s.putPage %d Optr value:%s%n",this.getClass().getName(),i,getKeyValueArray(i));	
-			} else {
-				// skip the data Id for this index as it was not updated, so no need to write anything
-				lbai.setByteindex((short) (lbai.getByteindex()+10));
-				if( DEBUG ) 
-					System.out.printf("%s.putPage %d value Optr skipped:%s%n",this.getClass().getName(),i,getKeyValueArray(i));
+			if(kv.getValueOptr().isInline()) {
+				kv.setValueOptr(new Optr(Optr.INLINEBLOCK, heapIndex));
+				heapIndex += (kv.getValueInline().length + 2);
 			}
+			if(kv.getValueOptr().getBlock() == 0) //|| getKeyValueArray(i).getValueOptr().getBlock() == -1)
+				throw new IOException("Bad page write value index "+i+" page:"+this.toString());
+			bs.writeLong(kv.getValueOptr().getBlock());
+			bs.writeShort(kv.getValueOptr().getOffset());
+			kv.setValueUpToDate();
+			if( DEBUG ) 
+				System.out.printf("%s.putPage %d Optr value:%s%n",this.getClass().getName(),i,kv);	
 			if(((BTNode)bTNode).childPages[i] == null)
 				bs.writeLong(-1L);
 			else
@@ -483,6 +567,18 @@ public class BTreeKeyPage implements KeyPageInterface {
 			bs.writeLong(-1L);
 		else
 			bs.writeLong(((BTNode)(bTNode)).childPages[getNumKeys()]);
+		// inline payload heap, in the order the offsets were assigned above
+		for(int i = 0; i < getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = getKeyValueArray(i);
+			if(kv.getKeyOptr().isInline()) {
+				bs.writeShort(kv.getKeyInline().length);
+				bs.write(kv.getKeyInline());
+			}
+			if(kv.getValueOptr().isInline()) {
+				bs.writeShort(kv.getValueInline().length);
+				bs.write(kv.getValueInline());
+			}
+		}
 		bs.flush();
 		bs.close();
 		if( DEBUG ) {
@@ -525,7 +621,10 @@ public class BTreeKeyPage implements KeyPageInterface {
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getKey about to retrieve index:"+index+" loc:"+bTNode.getKeyValueArray(index).getKeyOptr());
 			}
-			bTNode.getKeyValueArray(index).setmKey((Comparable) bTreeMain.getIO().deserializeObject(bTNode.getKeyValueArray(index).getKeyOptr()));
+			if(bTNode.getKeyValueArray(index).getKeyOptr().isInline())
+				bTNode.getKeyValueArray(index).setmKey((Comparable) GlobalDBIO.deserializeObject(bTreeMain.getIO(), bTNode.getKeyValueArray(index).getKeyInline()));
+			else
+				bTNode.getKeyValueArray(index).setmKey((Comparable) bTreeMain.getIO().deserializeObject(bTNode.getKeyValueArray(index).getKeyOptr()));
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getKey retrieved index:"+index+" loc:"+bTNode.getKeyValueArray(index).getKeyOptr()+" retrieved:"+bTNode.getKeyValueArray(index).getmKey());
 				for(int i = 0; i < getNumKeys(); i++)System.out.println(i+"="+bTNode.getKeyValueArray(index).getmKey());
@@ -555,7 +654,10 @@ public class BTreeKeyPage implements KeyPageInterface {
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getData about to retrieve index:"+index+" loc:"+bTNode.getKeyValueArray(index).getValueOptr());
 			}
-			bTNode.getKeyValueArray(index).setmValue((Comparable) bTreeMain.getIO().deserializeObject(bTNode.getKeyValueArray(index).getValueOptr()));
+			if(bTNode.getKeyValueArray(index).getValueOptr().isInline())
+				bTNode.getKeyValueArray(index).setmValue(GlobalDBIO.deserializeObject(bTreeMain.getIO(), bTNode.getKeyValueArray(index).getValueInline()));
+			else
+				bTNode.getKeyValueArray(index).setmValue(bTreeMain.getIO().deserializeObject(bTNode.getKeyValueArray(index).getValueOptr()));
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getData retrieved index:"+index+" loc:"+bTNode.getKeyValueArray(index).getValueOptr()+" retrieved:"+bTNode.getKeyValueArray(index).getmValue());
 				for(int i = 0; i < getNumKeys(); i++)System.out.println(i+"="+bTNode.getKeyValueArray(index).getmValue());
@@ -608,6 +710,7 @@ public class BTreeKeyPage implements KeyPageInterface {
 		bTNode.initKeyValueArray(targetIndex);
 		bTNode.getKeyValueArray(targetIndex).setmKey(sourceKey.getKey(sourceIndex)); // get the key from pointer from source if not already
 		bTNode.getKeyValueArray(targetIndex).setKeyOptr(sourceKey.getKeyId(sourceIndex));
+		bTNode.getKeyValueArray(targetIndex).setKeyInline(sourceKey.getKeyValueArray(sourceIndex).getKeyInline());
 		bTNode.getKeyValueArray(targetIndex).keyState = sourceKey.bTNode.getKeyValueArray(sourceIndex).keyState;
 		setUpdated(true);
 	}
@@ -616,6 +719,7 @@ public class BTreeKeyPage implements KeyPageInterface {
 		bTNode.initKeyValueArray(targetIndex);
 		bTNode.getKeyValueArray(targetIndex).setmValue(sourceKey.getData(sourceIndex)); // get the key from pointer from source if not already
 		bTNode.getKeyValueArray(targetIndex).setValueOptr(sourceKey.getDataId(sourceIndex));
+		bTNode.getKeyValueArray(targetIndex).setValueInline(sourceKey.getKeyValueArray(sourceIndex).getValueInline());
 		bTNode.getKeyValueArray(targetIndex).valueState = sourceKey.bTNode.getKeyValueArray(sourceIndex).valueState;
 		setUpdated(true);
 	}
@@ -666,12 +770,8 @@ public class BTreeKeyPage implements KeyPageInterface {
      * @throws IOException 
      */
     synchronized int subtreeRootNodeIndex(Comparable key) throws IOException {
-        for (int i = 0; i < getNumKeys(); i++) {                            
-                if (key.compareTo(getKeyValueArray(i).getmKey()) < 0) {
-                        return i;
-                }                               
-        }
-        return getNumKeys();
+        KeySearchResult ksr = search(key);
+        return ksr.atKey ? ksr.insertPoint + 1 : ksr.insertPoint;
     }
     /**
      * Set the value of the index at i to the key.
@@ -753,7 +853,7 @@ public class BTreeKeyPage implements KeyPageInterface {
 		for(int i = 0; i < this.bTNode.getNumKeys(); i++) {
 			KeyValue<Comparable,Object> kv = this.bTNode.getKeyValueArray(i);
 			try {
-				if(iterImpl.item(kv.getmKey(), kv.getmValue()))
+				if(iterImpl.item(kv))
 					return;
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -0,0 +1,178 @@
+package com.neocoretechs.bigsack.btree;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+
+/**
+ * Bottom-up load of an empty BTree from entries in ascending key order.<p/>
+ * Instead of a search from the root and possible splits for every key, the pages are built left to right in a single pass.
+ * Each level of the tree has one open node. An entry goes to the open leaf until it holds LOADKEYS keys, the next one
+ * is held as the separator between that leaf and the next, and the leaf is written and never touched again. The separator
+ * goes up to the open node of the level above, with the finished leaf as its left child, once a key arrives for the
+ * next leaf. A full internal node is finished the same way, its last child the node to the left of the separator,
+ * so only one node per level is in memory at a time and each page is written once.<p/>
+ * Holding the separator until its right subtree gets a key means the tree never ends with an empty rightmost node.
+ * If nothing follows a separator it goes back to the end of its left node, which is built with room for one more key.
+ * The top node is finally moved to the root page at block 0 and its own block reset for the {@link com.neocoretechs.bigsack.keyvaluepages.Vacuum}.<p/>
+ * Pages and payloads go through the buffer pool and the recovery log like any other update, so a load is committed
+ * or rolled back as one transaction.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+final class BTreeLoader {
+	private static final boolean DEBUG = false;
+	// keys per node as loaded, one less than the maximum so a separator can go back to the node at the end of the load
+	static int LOADKEYS = BTNode.UPPER_BOUND_KEYNUM - 1;
+	private final BTreeMain bTreeMain;
+	private final BTreeNavigator<Comparable, Object> bTreeNavigator;
+	private final ArrayList<BTNode<Comparable, Object>> open = new ArrayList<BTNode<Comparable, Object>>(); // node being filled, by level
+	private final ArrayList<KeyValue<Comparable, Object>> separator = new ArrayList<KeyValue<Comparable, Object>>(); // separator held for the level above
+	private final ArrayList<BTNode<Comparable, Object>> separatorLeft = new ArrayList<BTNode<Comparable, Object>>(); // finished node to its left
+	private long count = 0;
+	private long pages = 0;
+
+	@SuppressWarnings("unchecked")
+	BTreeLoader(BTreeMain bTreeMain) {
+		this.bTreeMain = bTreeMain;
+		this.bTreeNavigator = bTreeMain.bTreeNavigator;
+	}
+	/**
+	 * Load the entries into the empty tree.
+	 * @param entries The entries, in strictly ascending order of key
+	 * @return The number of keys loaded
+	 * @throws IOException If a key is null or out of order, the tree is then incomplete and the transaction should be rolled back
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		long tim = System.currentTimeMillis();
+		Comparable last = null;
+		while(entries.hasNext()) {
+			Map.Entry entry = entries.next();
+			Comparable key = (Comparable) entry.getKey();
+			if(key == null)
+				throw new IOException("Key cannot be null");
+			if(last != null && key.compareTo(last) <= 0)
+				throw new IOException("Keys must be loaded in ascending order, "+key+" follows "+last);
+			push(0, key, entry.getValue(), null);
+			last = key;
+			++count;
+		}
+		finish();
+		if(DEBUG)
+			System.out.printf("%s.load %d keys in %d pages, %d levels in %d ms.%n", this.getClass().getName(), count, pages, open.size(), (System.currentTimeMillis()-tim));
+		return count;
+	}
+	/**
+	 * Add a key to the open node of the level, starting a new node if there is none and finishing a full one.
+	 * @param level 0 for the leaves
+	 * @param key
+	 * @param value
+	 * @param left The node to the left of the key for an internal level, null for a leaf
+	 * @throws IOException
+	 */
+	private void push(int level, Comparable key, Object value, BTNode<Comparable, Object> left) throws IOException {
+		if(level == open.size()) {
+			open.add(null);
+			separator.add(null);
+			separatorLeft.add(null);
+		}
+		// a key for the level means the held separator has a right subtree, so it can go up
+		if(separator.get(level) != null) {
+			KeyValue<Comparable, Object> kv = separator.get(level);
+			BTNode<Comparable, Object> kvLeft = separatorLeft.get(level);
+			separator.set(level, null);
+			separatorLeft.set(level, null);
+			push(level+1, kv.getmKey(), kv.getmValue(), kvLeft);
+		}
+		BTNode<Comparable, Object> node = open.get(level);
+		if(node == null) {
+			node = (BTNode<Comparable, Object>) bTreeNavigator.createNode(level == 0);
+			open.set(level, node);
+		}
+		int numKeys = node.getNumKeys();
+		if(numKeys == LOADKEYS) {
+			// the key becomes the separator to the right of the node, and the node to its left is the last child
+			if(left != null)
+				node.childPages[numKeys] = left.getPageId();
+			write(node);
+			open.set(level, null);
+			separator.set(level, newKeyValue(key, value, node));
+			separatorLeft.set(level, node);
+			return;
+		}
+		node.setKeyValueArray(numKeys, newKeyValue(key, value, node));
+		if(left != null)
+			node.childPages[numKeys] = left.getPageId();
+	}
+	/**
+	 * Finish the open node of each level from the leaves up, each becoming the last child of the level above.
+	 * The top node is moved to the root page.
+	 * @throws IOException
+	 */
+	private void finish() throws IOException {
+		BTNode<Comparable, Object> child = null;
+		for(int level = 0; level < open.size(); level++) {
+			BTNode<Comparable, Object> node = open.get(level);
+			KeyValue<Comparable, Object> kv = separator.get(level);
+			if(kv != null) {
+				// nothing followed the separator, return it to the end of its left node, with the last child of the level below
+				node = separatorLeft.get(level);
+				int numKeys = node.getNumKeys();
+				node.setKeyValueArray(numKeys, kv);
+				if(child != null)
+					node.childPages[numKeys+1] = child.getPageId();
+			} else if(node != null) {
+				if(child != null)
+					node.childPages[node.getNumKeys()] = child.getPageId();
+			} else {
+				break;
+			}
+			write(node);
+			child = node;
+		}
+		if(child != null)
+			moveToRoot(child);
+		((BTreeRootKeyPage)bTreeMain.getRoot()[0]).setCount(count);
+	}
+	/**
+	 * Move the contents of the top node to the root page, which stays at block 0, and reset the block of the top node.
+	 * @param top The only node of the top level
+	 * @throws IOException
+	 */
+	private void moveToRoot(BTNode<Comparable, Object> top) throws IOException {
+		BTNode<Comparable, Object> rootNode = (BTNode<Comparable, Object>) bTreeNavigator.getRootNode();
+		top.moveKeys(0, top.getNumKeys(), rootNode, true);
+		rootNode.setmIsLeaf(top.getIsLeaf());
+		rootNode.getPage().setNumKeys(rootNode.getNumKeys());
+		rootNode.getPage().putPage();
+		BlockAccessIndex bai = top.getPage().getBlockAccessIndex();
+		Datablock blk = bai.getBlk();
+		bai.resetBlock(false);
+		blk.setIncore(true);
+		blk.setInlog(false);
+		if(DEBUG)
+			System.out.printf("%s.moveToRoot top node %s moved to root with %d keys%n", this.getClass().getName(), GlobalDBIO.valueOf(top.getPageId()), rootNode.getNumKeys());
+	}
+
+	private void write(BTNode<Comparable, Object> node) throws IOException {
+		node.setUpdated(true);
+		node.getPage().setNumKeys(node.getNumKeys());
+		node.getPage().putPage();
+		++pages;
+	}
+
+	private static KeyValue<Comparable, Object> newKeyValue(Comparable key, Object value, BTNode<Comparable, Object> node) {
+		KeyValue<Comparable, Object> kv = new KeyValue<Comparable, Object>(key, value, node);
+		kv.keyState = KeyValue.synchStates.mustWrite;
+		kv.valueState = KeyValue.synchStates.mustWrite;
+		return kv;
+	}
+
+}
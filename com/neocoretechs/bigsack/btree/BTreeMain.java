@@ -3,6 +3,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Stack;
 import java.util.stream.Stream;
 
@@ -10,6 +11,7 @@ import com.neocoretechs.bigsack.btree.BTreeNavigator.StackInfo;
 import com.neocoretechs.bigsack.io.Optr;
 import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.stream.PageIteratorIF;
 import com.neocoretechs.bigsack.iterator.Entry;
 import com.neocoretechs.bigsack.iterator.EntrySetIterator;
 import com.neocoretechs.bigsack.iterator.KeySetIterator;
@@ -116,6 +118,8 @@ public final class BTreeMain implements KeyValueMainInterface {
 		this.root = sdbio.getBTreeRootPageFromPool();
 		if(this.root.getNumKeys() == 0)
 			((BTNode)(((BTreeKeyPage)this.root).bTNode)).setmIsLeaf(true);
+		if(((BTreeRootKeyPage)this.root).getCount() == -1L)
+			((BTreeRootKeyPage)this.root).initCount(scan());
 		if( DEBUG )
 			System.out.printf("%s Root KeyPageInterface: %s%n",this.getClass().getName(),root);	
 		return this.root;
@@ -127,8 +131,10 @@ public final class BTreeMain implements KeyValueMainInterface {
 			// Attempt to retrieve last good key count
 			long numKeys = 0;
 			long tim = System.currentTimeMillis();
-			numKeys = count();
+			numKeys = scan();
 			System.out.println("Consistency check for "+sdbio.getDBName()+" returned "+numKeys+" keys in "+(System.currentTimeMillis()-tim)+" ms.");
+			if(numKeys != count())
+				System.out.println("Consistency check for "+sdbio.getDBName()+" found "+count()+" keys recorded in the root page.");
 		}
 	}
 	/**
@@ -155,13 +161,34 @@ public final class BTreeMain implements KeyValueMainInterface {
 	}
 
 	/**
-	 * Returns number of table scanned keys, sets numKeys field
-	 * TODO: Alternate more efficient implementation that counts keys on pages
-	 * This method scans all keys, thus verifying the structure.
+	 * Returns the number of keys recorded in the root page, which is updated by each insert and delete
+	 * that changes it and goes through the recovery log with the pages of the transaction.
+	 * If the root page has no count, the tree is scanned for one.
 	 * @throws IOException
 	 */
 	@Override
 	public synchronized long count() throws IOException {
+		BTreeRootKeyPage rootPage = (BTreeRootKeyPage) root;
+		if(rootPage.getCount() == -1L)
+			rootPage.initCount(scan());
+		return rootPage.getCount();
+	}
+	/**
+	 * Record an insert or delete in the count of keys in the root page. The tree has already changed,
+	 * so if there was no count a scan supplies it.
+	 * @param delta The change in the number of keys
+	 * @throws IOException
+	 */
+	private void changeCount(long delta) throws IOException {
+		BTreeRootKeyPage rootPage = (BTreeRootKeyPage) root;
+		rootPage.setCount(rootPage.getCount() == -1L ? scan() : rootPage.getCount() + delta);
+	}
+	/**
+	 * Returns number of table scanned keys, sets numKeys field
+	 * This method scans all keys, thus verifying the structure.
+	 * @throws IOException
+	 */
+	private long scan() throws IOException {
 		numKeys = 0;
 		long tim = System.currentTimeMillis();
 		countBTree((BTreeKeyPage) root);
@@ -188,7 +215,7 @@ public final class BTreeMain implements KeyValueMainInterface {
         }
 	}
 	/**
-	 * Determines if tree is empty by examining the root for the presence of any keys
+	 * Determines if tree is empty from the count of keys in the root page
 	 * @return
 	 */
 	@Override
@@ -259,10 +286,32 @@ public final class BTreeMain implements KeyValueMainInterface {
 		if(DEBUG)
 			System.out.printf("%s insert key=%s value=%s%n", this.getClass().getName(), key, value);
 		int result = bTreeNavigator.insert(key, value);
+		if(result == 0)
+			changeCount(1);
 		if(DEBUG)
 			System.out.printf("%s insert exit key=%s value=%s result=%d%n", this.getClass().getName(), key, value,result);
 		return result;
 	}
+	/**
+	 * Load entries sorted by key. An empty tree is built bottom-up by the {@link BTreeLoader}, a page at a time
+	 * with no searches or splits, otherwise each entry is added in turn.
+	 * @param entries The key/value pairs in ascending order of key
+	 * @return The number of keys added
+	 * @throws IOException
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		if(count() == 0)
+			return new BTreeLoader(this).load(entries);
+		long added = 0;
+		while(entries.hasNext()) {
+			Map.Entry entry = entries.next();
+			if(add((Comparable) entry.getKey(), entry.getValue()) == 0)
+				++added;
+		}
+		return added;
+	}
     
     /**
      * Perform a search using {@link BTreeNavigator}, populating the stack as we traverse the tree levels.
@@ -274,9 +323,9 @@ public final class BTreeMain implements KeyValueMainInterface {
      */
     @Override
 	public synchronized KeySearchResult locate(Comparable key, Stack stack) throws IOException {
-        KeySearchResult ksr = bTreeNavigator.search(key, true); // uses stack.add
-        for(Object o: bTreeNavigator.getStack().toArray()) {
-        	StackInfo si = (StackInfo)o;
+        Stack<StackInfo> path = new Stack<StackInfo>();
+        KeySearchResult ksr = bTreeNavigator.search(key, path);
+        for(StackInfo si : path) {
         	stack.push( new TraversalStackElement(si.mParent.getPage(), si.mNodeIdx, 0) ); 
         }
         // if it didnt find it exactly, remove duplicate element from stack
@@ -354,7 +403,8 @@ public final class BTreeMain implements KeyValueMainInterface {
 	@SuppressWarnings("rawtypes")
 	public synchronized int delete(Comparable newKey) throws IOException {
 		if( DEBUG || DEBUGDELETE ) System.out.println("--ENTERING DELETE FOR "+newKey);
-		bTreeNavigator.delete(newKey);
+		if(bTreeNavigator.delete(newKey) != null)
+			changeCount(-1);
 		if( DEBUG || DEBUGDELETE ) System.out.println("BTreeMain.delete Just deleted "+newKey);
 		return 0;
 	}
@@ -540,7 +590,7 @@ public final class BTreeMain implements KeyValueMainInterface {
 	 */
 	@Override
 	public synchronized KeySearchResult search(Comparable targetKey) throws IOException {
-		KeySearchResult tsr = bTreeNavigator.search(targetKey, false);      
+		KeySearchResult tsr = bTreeNavigator.search(targetKey, null);      
     	if( DEBUG || DEBUGSEARCH) {
     		System.out.println("BTreeMain.search returning with currentPage:"+tsr);
     	}
@@ -701,6 +751,26 @@ public final class BTreeMain implements KeyValueMainInterface {
             }
             return array;
     }
+	/**
+	 * Walk the tree from the root, calling back the operator with each page before its children.
+	 * The children are the nodes cached in their parents, so the pages delivered are the ones the tree works with.
+	 * @param iterImpl The operator called with each page
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void retrievePages(PageIteratorIF<KeyPageInterface> iterImpl) throws IOException {
+		retrievePages((BTreeKeyPage) root, iterImpl);
+	}
+
+	private void retrievePages(BTreeKeyPage node, PageIteratorIF<KeyPageInterface> iterImpl) throws IOException {
+		if(node == null)
+			return;
+		iterImpl.item(node);
+		if(!node.getmIsLeafNode()) {
+			for(int i = 0; i <= node.getNumKeys(); i++)
+				retrievePages((BTreeKeyPage) node.getPage(i), iterImpl);
+		}
+	}
    	/**
    	 * Walk the tree calling back the method to deliver structure data to some process
    	 * such as graphical display.
@@ -2,12 +2,9 @@ package com.neocoretechs.bigsack.btree;
 
 import java.io.IOException;
 import java.util.Stack;
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
 
 import com.neocoretechs.bigsack.btree.BTreeNavigator.StackInfo;
 import com.neocoretechs.bigsack.io.Optr;
-import com.neocoretechs.bigsack.io.ThreadPoolManager;
 import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 import com.neocoretechs.bigsack.io.stream.DBOutputStream;
@@ -53,35 +50,10 @@ public class BTreeNavigator<K extends Comparable, V> {
 	private static final boolean DEBUGMERGE = false;
 	private static final boolean DEBUGTREE = false;
  
-    private int mNodeIdx = 0;
-    private final Stack<StackInfo> mStack = new Stack<StackInfo>();
     private KeyValueMainInterface bTreeMain;
-    // search results
-    private KeySearchResult tsr;
-    // node split thread infrastructure
-	private CyclicBarrier nodeSplitSynch = new CyclicBarrier(3);
-	private CyclicBarrier nodeSplitSynchDelete = new CyclicBarrier(2); // when left or right split runs independently
-	private LeftNodeSplitThread leftNodeSplitThread;
-	private RightNodeSplitThread rightNodeSplitThread;
-	private LeftNodeSplitThread leftNodeSplitThreadDelete;
-	private RightNodeSplitThread rightNodeSplitThreadDelete;
 
     public BTreeNavigator(KeyValueMainInterface bMain) {
     	this.bTreeMain = bMain;
-		// Append the worker name to thread pool identifiers, if there, dont overwrite existing thread group
-		ThreadPoolManager.init(new String[]{String.format("%s%s", "LEFTNODESPLITWORKER",bMain.getIO().getDBName()),
-											String.format("%s%s", "RIGHTNODESPLITWORKER",bMain.getIO().getDBName()),
-											String.format("%s%s", "DELETELEFTNODESPLITWORKER",bMain.getIO().getDBName()),
-											String.format("%s%s", "DELETERIGHTNODESPLITWORKER",bMain.getIO().getDBName())
-											}, false);
-		leftNodeSplitThread = new LeftNodeSplitThread(nodeSplitSynch, this);
-		rightNodeSplitThread = new RightNodeSplitThread(nodeSplitSynch, this);
-		leftNodeSplitThreadDelete = new LeftNodeSplitThread(nodeSplitSynchDelete, this);
-		rightNodeSplitThreadDelete = new RightNodeSplitThread(nodeSplitSynchDelete, this);
-		ThreadPoolManager.getInstance().spin(leftNodeSplitThread,String.format("%s%s", "LEFTNODESPLITWORKER",bMain.getIO().getDBName()));
-		ThreadPoolManager.getInstance().spin(rightNodeSplitThread,String.format("%s%s", "RIGHTNODESPLITWORKER",bMain.getIO().getDBName()));
-		ThreadPoolManager.getInstance().spin(leftNodeSplitThreadDelete,String.format("%s%s", "DELETELEFTNODESPLITWORKER",bMain.getIO().getDBName()));
-		ThreadPoolManager.getInstance().spin(rightNodeSplitThreadDelete,String.format("%s%s", "DELETERIGHTNODESPLITWORKER",bMain.getIO().getDBName()));
     }
     /**
      * Gets the root node from KeyValueMainInterface. We have only one root for a btree.
@@ -95,10 +67,6 @@ public class BTreeNavigator<K extends Comparable, V> {
     	return bTreeMain;
     }
 
-    public Stack<StackInfo> getStack() {
-    	return mStack;
-    }
-    
     /**
      * private method to create node. We communicate back to our KeyPageInterface, which talks to 
      * our BlockAccessIndex, and eventually to deep store. Does not preclude creating a new root at some point.
@@ -112,64 +80,48 @@ public class BTreeNavigator<K extends Comparable, V> {
         return ni;
     }
 
-    public KeySearchResult getTreeSearchResult() {
-    	return tsr;
-    }
-    
     /**
-     * Search for the given key in the BTree
+     * Search for the given key in the BTree. Each node is searched with the binary search of its
+     * {@link BTreeKeyPage}, which compares stored key prefixes before deserializing keys.<p/>
+     * The path of the descent belongs to the caller, so no traversal state is kept in the navigator between calls.
      * @param key
-     * @param stack true to populate stack
+     * @param stack If not null, cleared and populated with the parent, child and child index of each level descended
      * @return
      * @throws IOException
      */
-	public KeySearchResult search(K key, boolean stack) throws IOException {
+	public KeySearchResult search(K key, Stack<StackInfo> stack) throws IOException {
 		if(key == null)
 			throw new IOException("Key cannot be null");
         BTNode<K, V> currentNode = (BTNode<K, V>) getRootNode();
         BTNode<K, V> parentNode = null;
-        KeyValue<K, V> currentKey;
+        KeySearchResult ksr;
         int i=0, numberOfKeys;
-        if(stack)
-        	mStack.clear();
+        if(stack != null)
+        	stack.clear();
         
         while (currentNode != null) {
             numberOfKeys = currentNode.getNumKeys();
             if(numberOfKeys == 0) {
-            	tsr = new KeySearchResult(currentNode.getPage(), 0, false);
-            	return tsr;
+            	return new KeySearchResult(currentNode.getPage(), 0, false);
             }
-            i = 0;
-            currentKey = currentNode.getKeyValueArray(i);
-            while ((i < numberOfKeys) && (key.compareTo(currentKey.getmKey()) > 0)) {
-                ++i;
-                if (i < numberOfKeys) {
-                    currentKey = currentNode.getKeyValueArray(i);
-                }
-                else {
-                    --i;
-                    break;
-                }
+            ksr = ((BTreeKeyPage)currentNode.getPage()).search(key);
+            if (ksr.atKey) {
+                return ksr;
             }
-
-            if ((i < numberOfKeys) && (key.compareTo(currentKey.getmKey()) == 0)) {
-            	tsr = new KeySearchResult(currentNode.getPage(), i, true);
-                return tsr;
-            }
-            if(stack)
-            	parentNode = currentNode;
-            
-            if (key.compareTo(currentKey.getmKey()) > 0) {
+            parentNode = currentNode;
+            // insert point past the last key means key is greater than all, go right of last key, else go left of insert point
+            if (ksr.insertPoint == numberOfKeys) {
+            	i = numberOfKeys - 1;
                 currentNode = (BTNode<K, V>) BTNode.getRightChildAtIndex(currentNode, i);
             } else {
+            	i = ksr.insertPoint;
                 currentNode = (BTNode<K, V>) BTNode.getLeftChildAtIndex(currentNode, i);
             }
             
-            if(stack)
-            	mStack.add(new StackInfo(parentNode, currentNode, i));
+            if(stack != null)
+            	stack.add(new StackInfo(parentNode, currentNode, i));
         }
-       	tsr = new KeySearchResult(parentNode.getPage(), i, false);
-        return tsr;
+        return new KeySearchResult(parentNode.getPage(), i, false);
     }
 
     /**
@@ -186,19 +138,19 @@ public class BTreeNavigator<K extends Comparable, V> {
             // The root is full, split it
             splitNode((BTNode) getRootNode());     
         }
-        mStack.clear();
-        return insertKeyAtNode((BTNode) getRootNode(), key, value) ? 1 : 0;
+        return insertKeyAtNode(new Stack<StackInfo>(), (BTNode) getRootNode(), key, value) ? 1 : 0;
     }
 
     /**
      * Insert key and its value to the specified root
+     * @param stack The nodes descended so far by this insert
      * @param rootNode The root of this tree.
      * @param key the key to insert.
      * @param value The value for the inserted, or overwritten key;
      * @return true if key existed, false if it is new
      * @throws IOException
      */
-    private boolean insertKeyAtNode(BTNode rootNode, K key, V value) throws IOException {
+    private boolean insertKeyAtNode(Stack<StackInfo> stack, BTNode rootNode, K key, V value) throws IOException {
         int numberOfKeys = rootNode.getNumKeys();
       	// was it an empty leaf?
         if(rootNode.getIsLeaf()) {
@@ -221,39 +173,33 @@ public class BTreeNavigator<K extends Comparable, V> {
                	if(DEBUGINSERT)
             		System.out.printf("%s.insertKeyAtNode moving to split node %s current keys=%d key=%s value=%s%n", this.getClass().getName(), GlobalDBIO.valueOf(rootNode.getPageId()), rootNode.getNumKeys(), key, value);
                 splitNode(rootNode);
-              	return insertKeyAtNode(rootNode, key, value);
+              	return insertKeyAtNode(stack, rootNode, key, value);
             }
         }
         // start the search
         int i = 0;
-        int cmpRes = 0;
         KeyValue<K, V> currentKey = null;
         boolean foundSlot = false;
      	if(DEBUGINSERT)
     		System.out.printf("%s.insertKeyAtNode search root %s current keys=%d key=%s value=%s%n", this.getClass().getName(), GlobalDBIO.valueOf(rootNode.getPageId()), rootNode.getNumKeys(), key, value);
-     	for(; i < numberOfKeys;i++) {
-     	    currentKey = rootNode.getKeyValueArray(i);
-     	    cmpRes = key.compareTo(currentKey.getmKey());
-     	    if(cmpRes == 0 ) {
-     	    	// The key already existed so replace its value and done with it
-     	    	if(DEBUGINSERT)
-     	    		System.out.printf("%s.insertKeyAtNode root %s, key EXISTS, replace found key current keys=%d key=%s value=%s insert position=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(rootNode.getPageId()), rootNode.getNumKeys(), key, value,i);
-     	    	currentKey.setmValue(value);
-     	    	currentKey.valueState = KeyValue.synchStates.mustReplace;
-     	    	rootNode.setUpdated(true);
-     	    	rootNode.getPage().setUpdated(true);
-     	    	rootNode.getPage().putPage();
-     	    	return true;
-     	    } else {
-     	    	if(cmpRes > 0) {
-     	    		// key > node key, continue search
-     	    		continue;
-     	    	} else {
-     	    		// key < node key, stop and perform operation
-     	    		foundSlot = true;
-     	    		break;
-     	    	}
-     	    }
+     	KeySearchResult ksr = ((BTreeKeyPage)rootNode.getPage()).search(key);
+     	i = ksr.insertPoint;
+     	if(ksr.atKey) {
+     		// The key already existed so replace its value and done with it
+     		currentKey = rootNode.getKeyValueArray(i);
+     		if(DEBUGINSERT)
+     			System.out.printf("%s.insertKeyAtNode root %s, key EXISTS, replace found key current keys=%d key=%s value=%s insert position=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(rootNode.getPageId()), rootNode.getNumKeys(), key, value,i);
+     		currentKey.setmValue(value);
+     		currentKey.valueState = KeyValue.synchStates.mustReplace;
+     		rootNode.setUpdated(true);
+     		rootNode.getPage().setUpdated(true);
+     		rootNode.getPage().putPage();
+     		return true;
+     	}
+     	if(i < numberOfKeys) {
+     		// key < node key at insert point, stop and perform operation
+     		currentKey = rootNode.getKeyValueArray(i);
+     		foundSlot = true;
      	}
       	int newInsertPosition = i;
      	// if its a leaf, assume we have traversed to the proper point for insertion and proceed, else continue the traversal
@@ -295,16 +241,16 @@ public class BTreeNavigator<K extends Comparable, V> {
             btNode = (BTNode<K, V>) BTNode.getRightChildAtIndex(rootNode, numberOfKeys-1); // this shifts the index by 1
             newInsertPosition = numberOfKeys; // from right node we are just adding the new one to the end
         }
-        mStack.push(new StackInfo(rootNode, btNode, newInsertPosition));
+        stack.push(new StackInfo(rootNode, btNode, newInsertPosition));
         // see if we can merge the node we are going to descend into
         // it cant be leaf or we wind up with null child pointers
      	if(!btNode.getIsLeaf() && btNode.getNumKeys() == 1 && rootNode.getNumKeys() < BTNode.UPPER_BOUND_KEYNUM-1) {
-     		mergeParent(foundSlot);
+     		mergeParent(stack, foundSlot);
      		btNode = rootNode; // we now re-scan with newly added child node
      	}
         if(DEBUGINSERT)
-    		System.out.printf("%s.insertKeyAtNode moving to recursively insert in node %s current keys=%d key=%s value=%s depth=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(btNode.getPageId()), btNode.getNumKeys(), key, value, mStack.size());
-        return insertKeyAtNode(btNode, key, value);
+    		System.out.printf("%s.insertKeyAtNode moving to recursively insert in node %s current keys=%d key=%s value=%s depth=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(btNode.getPageId()), btNode.getNumKeys(), key, value, stack.size());
+        return insertKeyAtNode(stack, btNode, key, value);
     }
 
     /**
@@ -316,49 +262,10 @@ public class BTreeNavigator<K extends Comparable, V> {
      */
     private void splitNode(BTNode parentNode) throws IOException {
         // create 2 new node with the same leaf status as the previous full node
-    	leftNodeSplitThread.startSplit(parentNode);
-    	rightNodeSplitThread.startSplit(parentNode);
-    	try {
-			nodeSplitSynch.await();
-		} catch (InterruptedException | BrokenBarrierException e) {
-			e.printStackTrace();
-			return;
-		}
-        BTNode<K, V> leftNode = leftNodeSplitThread.getResult();//(BTNode<K, V>) createNode(parentNode.getIsLeaf());
-        BTNode<K, V> rightNode = rightNodeSplitThread.getResult();//(BTNode<K, V>) createNode(parentNode.getIsLeaf());
+        BTNode<K, V> leftNode = splitLeft(parentNode, null, BTNode.LOWER_BOUND_KEYNUM);
+        BTNode<K, V> rightNode = splitRight(parentNode, null, BTNode.LOWER_BOUND_KEYNUM, BTNode.MIN_DEGREE, BTNode.UPPER_BOUND_KEYNUM);
        	if(DEBUGSPLIT)
     		System.out.printf("%s.splitNode parentNode %s%n", this.getClass().getName(), GlobalDBIO.valueOf(parentNode.getPageId()));
-        // Since the node is full,
-        // new nodes must share LOWER_BOUND_KEYNUM (aka t - 1) keys from the node
-       	/* single thread code
-       	int i;
-        leftNode.setNumKeys(BTNode.LOWER_BOUND_KEYNUM);
-        rightNode.setNumKeys(BTNode.LOWER_BOUND_KEYNUM);
-        // Copy right half of the keys from the node to the new nodes
-      	//if(DEBUGSPLIT)
-    	//	System.out.printf("%s.splitNode copy keys. parentNode %s%n", this.getClass().getName(), parentNode);
-        for (i = 0; i < BTNode.LOWER_BOUND_KEYNUM; ++i) {
-        	leftNode.setKeyValueArray(i, parentNode.getKeyValueArray(i));
-        	leftNode.childPages[i] = parentNode.childPages[i];
-        	leftNode.setChild(i, parentNode.getChildNoread(i));
-        	leftNode.getKeyValueArray(i).keyState = KeyValue.synchStates.mustUpdate; // transfer Optr
-        	leftNode.getKeyValueArray(i).valueState = KeyValue.synchStates.mustUpdate; // transfer Optr
-            parentNode.setKeyValueArray(i, null);
-            parentNode.setChild(i, null);
-        }
-        for(i = BTNode.MIN_DEGREE; i < BTNode.UPPER_BOUND_KEYNUM; i++) {
-            rightNode.setKeyValueArray(i-BTNode.MIN_DEGREE, parentNode.getKeyValueArray(i));
-            rightNode.childPages[i-BTNode.MIN_DEGREE] = parentNode.childPages[i];
-            rightNode.setChild(i-BTNode.MIN_DEGREE, parentNode.getChildNoread(i));
-        	rightNode.getKeyValueArray(i-BTNode.MIN_DEGREE).keyState = KeyValue.synchStates.mustUpdate; // transfer Optr
-        	rightNode.getKeyValueArray(i-BTNode.MIN_DEGREE).valueState = KeyValue.synchStates.mustUpdate; // transfer Optr
-            parentNode.setKeyValueArray(i, null);
-            parentNode.setChild(i, null);
-        }
-        rightNode.childPages[BTNode.UPPER_BOUND_KEYNUM-BTNode.MIN_DEGREE] = parentNode.childPages[BTNode.UPPER_BOUND_KEYNUM];
-        rightNode.setChild(BTNode.UPPER_BOUND_KEYNUM-BTNode.MIN_DEGREE, parentNode.getChildNoread(BTNode.UPPER_BOUND_KEYNUM));
-        parentNode.setChild(BTNode.UPPER_BOUND_KEYNUM, null);
-        */
       	//if(DEBUGSPLIT)
     	//	System.out.printf("%s.splitNode setup parent. parentNodeNode %s, leftNode %s rightNode=%s%n", this.getClass().getName(), parentNode, leftNode, rightNode);
         // The node should have 1 key at this point.
@@ -387,11 +294,12 @@ public class BTreeNavigator<K extends Comparable, V> {
     }
     /**
      * Merge the split node with the parent to maintain balance, if and only if parent is not full
+     * @param stack The descent whose top holds the parent and the split node
      * @param foundSlot If we came from left node from parent, then we have to shift nodes to insert new sibling, otherwise add to end
      * @throws IOException
      */
-    private void mergeParent(boolean foundSlot) throws IOException {
-    	StackInfo si = mStack.pop();
+    private void mergeParent(Stack<StackInfo> stack, boolean foundSlot) throws IOException {
+    	StackInfo si = stack.pop();
     	BTNode rootNode = si.mParent;
         int numberOfKeys = rootNode.getNumKeys();
         int i = numberOfKeys - 1;
@@ -401,8 +309,8 @@ public class BTreeNavigator<K extends Comparable, V> {
     	if(foundSlot) { // we came here from left node , otherwise we skip all the right movement and place new node at end
     		//
     		// move the keys to the right to make room for new key at proper position
-    		rootNode.childPages[numberOfKeys + 1] = rootNode.childPages[numberOfKeys];
     		rootNode.setChild(numberOfKeys + 1, rootNode.getChildNoread(numberOfKeys));
+    		rootNode.childPages[numberOfKeys + 1] = rootNode.childPages[numberOfKeys];
     		for(; i >= newInsertPosition; i--) {
     			rootNode.setKeyValueArray(i + 1, rootNode.getKeyValueArray(i));
     			rootNode.setChild(i + 1, rootNode.getChildNoread(i));
@@ -439,16 +347,8 @@ public class BTreeNavigator<K extends Comparable, V> {
      */
     private void splitNode(BTNode parentNode, int leftUpperBound, int rightLowerBound, int rightUpperBound, int newRightKeys) throws IOException {
         // create 2 new node with the same leaf status as the previous full node
-    	leftNodeSplitThread.startSplit(parentNode, leftUpperBound);
-    	rightNodeSplitThread.startSplit(parentNode, newRightKeys, rightLowerBound, rightUpperBound);
-    	try {
-			nodeSplitSynch.await();
-		} catch (InterruptedException | BrokenBarrierException e) {
-			e.printStackTrace();
-			return;
-		}
-        BTNode<K, V> leftNode = leftNodeSplitThread.getResult();
-        BTNode<K, V> rightNode = rightNodeSplitThread.getResult();
+        BTNode<K, V> leftNode = splitLeft(parentNode, null, leftUpperBound);
+        BTNode<K, V> rightNode = splitRight(parentNode, null, newRightKeys, rightLowerBound, rightUpperBound);
        	if(DEBUGSPLIT)
     		System.out.printf("%s.splitNode parentNode %s%n", this.getClass().getName(), GlobalDBIO.valueOf(parentNode.getPageId()));
       	//if(DEBUGSPLIT)
@@ -477,6 +377,53 @@ public class BTreeNavigator<K extends Comparable, V> {
      	if(DEBUGSPLIT)
     		System.out.printf("%s.splitNode exit. parentNodeNode %s%n", this.getClass().getName(), GlobalDBIO.valueOf(parentNode.getPageId()));
     }
+    /**
+     * Move the keys below leftUpperLimit, with the child to the left of each, from the parent to the start of
+     * the left node. The number of keys of the parent is left to the caller. The copy is done in the calling thread,
+     * a split moves a few hundred references at most, far less than handing it to another thread would cost.
+     * @param parentNode The node split
+     * @param leftNode An existing node to receive the keys, cleared first, or null to create one with the leaf status of the parent
+     * @param leftUpperLimit The number of keys moved
+     * @return The left node
+     * @throws IOException
+     */
+    private BTNode<K, V> splitLeft(BTNode<K, V> parentNode, BTNode<K, V> leftNode, int leftUpperLimit) throws IOException {
+    	if(leftNode == null) {
+    		leftNode = (BTNode<K, V>) createNode(parentNode.getIsLeaf());
+    	} else {
+    		for(int i = 0; i <= leftNode.getNumKeys(); i++) {
+    			if(i < leftNode.getNumKeys())
+    				leftNode.setKeyValueArray(i, null);
+    			leftNode.setChild(i, null);
+    		}
+    		leftNode.getPage().setNumKeys(0);
+    	}
+    	leftNode.setNumKeys(leftUpperLimit);
+    	parentNode.moveKeys(0, leftUpperLimit, leftNode, false);
+    	if(DEBUGSPLIT)
+    		System.out.printf("%s.splitLeft parentNode %s keys=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(parentNode.getPageId()), leftUpperLimit);
+    	return leftNode;
+    }
+    /**
+     * Move the keys from lowerRightLimit up to upperRightLimit, with the child to the left of each and the child to the right
+     * of the last, from the parent to the start of the right node. The number of keys of the parent is left to the caller.
+     * @param parentNode The node split
+     * @param rightNode An existing node to receive the keys, or null to create one with the leaf status of the parent
+     * @param newKeys The number of keys of the right node, typically upperRightLimit - lowerRightLimit
+     * @param lowerRightLimit The first key moved
+     * @param upperRightLimit One past the last key moved, numKeys of the parent in almost all cases
+     * @return The right node
+     * @throws IOException
+     */
+    private BTNode<K, V> splitRight(BTNode<K, V> parentNode, BTNode<K, V> rightNode, int newKeys, int lowerRightLimit, int upperRightLimit) throws IOException {
+    	if(rightNode == null)
+    		rightNode = (BTNode<K, V>) createNode(parentNode.getIsLeaf());
+    	rightNode.setNumKeys(newKeys);
+    	parentNode.moveKeys(lowerRightLimit, upperRightLimit, rightNode, true);
+    	if(DEBUGSPLIT)
+    		System.out.printf("%s.splitRight parentNode %s keys=%d%n", this.getClass().getName(), GlobalDBIO.valueOf(parentNode.getPageId()), newKeys);
+    	return rightNode;
+    }
     /**
      * Starting at rootNode and i, get the right child, then seek left tree until leaf
      * and return the stack with that node at the top.
@@ -538,27 +485,27 @@ public class BTreeNavigator<K extends Comparable, V> {
     /**
      * 
      * @param key
-     * @return The deleted value or null if not found
+     * @return The deleted entry or null if not found
      * @throws IOException
      */
-    public V delete(K key) throws IOException {
-        KeySearchResult ksr = search(key, true); // populate stack
+    public KeyValue<K, V> delete(K key) throws IOException {
+        Stack<StackInfo> path = new Stack<StackInfo>();
+        KeySearchResult ksr = search(key, path); // populate stack
         if(!ksr.atKey || ksr.page == null)
         	return null; // didnt specifically find it
         KeyValue<K, V> keyVal = null;
-        if(!mStack.isEmpty()) {
-        	StackInfo si = mStack.peek(); // get parent and target
-        	keyVal = deleteKey(si.mParent, si.mNodeIdx, si.mNode, key, ksr.insertPoint);
+        if(!path.isEmpty()) {
+        	StackInfo si = path.peek(); // get parent and target
+        	keyVal = deleteKey(path, si.mParent, si.mNodeIdx, si.mNode, key, ksr.insertPoint);
         } else {
-        	keyVal = deleteKey(null, 0, (BTNode<K, V>)((BTreeKeyPage)ksr.page).bTNode, key, ksr.insertPoint);
+        	keyVal = deleteKey(path, null, 0, (BTNode<K, V>)((BTreeKeyPage)ksr.page).bTNode, key, ksr.insertPoint);
         }
         if (keyVal == null) {
             return null;
         }
-        V value = keyVal.getmValue();
         // delete our returned item from deep store
         deleteFromDeepStore(keyVal);
-        return value;
+        return keyVal;
     }
     /**
      * Remove from deep store, we assume it has been unlinked and dealt with beforehand and is no longer
@@ -567,17 +514,19 @@ public class BTreeNavigator<K extends Comparable, V> {
      * @throws IOException
      */
     private void deleteFromDeepStore(KeyValue<K, V> kv) throws IOException {
-		if( !kv.getKeyOptr().equals(Optr.emptyPointer)) {
-	        bTreeMain.getIO().delete_object(kv.getKeyOptr(), GlobalDBIO.getObjectAsBytes(kv.getmKey()).length);
+		// inline payloads went away with their page entry
+		if( !kv.getKeyOptr().equals(Optr.emptyPointer) && !kv.getKeyOptr().isInline()) {
+	        bTreeMain.getIO().delete_object(kv.getKeyOptr(), bTreeMain.getIO().payloadSize(kv.getKeyOptr(), kv.getmKey()));
 		}
-		if( kv.getValueOptr() != null && !kv.getValueOptr().equals(Optr.emptyPointer)) {
-			bTreeMain.getIO().delete_object(kv.getValueOptr(), GlobalDBIO.getObjectAsBytes(kv.getmValue()).length);
+		if( kv.getValueOptr() != null && !kv.getValueOptr().equals(Optr.emptyPointer) && !kv.getValueOptr().isInline()) {
+			bTreeMain.getIO().delete_object(kv.getValueOptr(), bTreeMain.getIO().payloadSize(kv.getValueOptr(), kv.getmValue()));
 		}
     }
     /**
      * Delete the given key. See preamble above. In general we favor a non-conversion of non-leaf to leaf nodes
      * which prevents having to check all the links when we remove nodes. We favor the addition of new leaves from emptied ones.
      * When a leaf fills we convert it by splitting.
+     * @param path The descent of the search that found the key
      * @param parentNode
      * @param btNode
      * @param key
@@ -585,7 +534,7 @@ public class BTreeNavigator<K extends Comparable, V> {
      * @return The Kev/Value entry of deleted key. The data in deep store is preserved until explicit delete
      * @throws IOException
      */
-    private KeyValue<K, V> deleteKey(BTNode<K, V> parentNode, int parentIndex, BTNode<K, V> btNode, K key, int nodeIdx) throws IOException {
+    private KeyValue<K, V> deleteKey(Stack<StackInfo> path, BTNode<K, V> parentNode, int parentIndex, BTNode<K, V> btNode, K key, int nodeIdx) throws IOException {
         int i;
         int nIdx;
         KeyValue<K, V> retVal;
@@ -606,7 +555,7 @@ public class BTreeNavigator<K extends Comparable, V> {
         	// start our initial stack to prime recursive rotation of empty leaf nodes if necessary
         	Stack<StackInfo> subStack = new Stack<StackInfo>();
         	subStack.push(new StackInfo(parentNode, btNode, parentIndex));
-        	recursiveRotate(subStack); // much now happens
+        	recursiveRotate(path, subStack); // much now happens
             return retVal;  // Done with handling for the leaf node
         }
         //
@@ -617,7 +566,12 @@ public class BTreeNavigator<K extends Comparable, V> {
 		retVal = btNode.getKeyValueArray(nodeIdx);
 		KeyValue<K, V> replVal = shiftNodeLeft(s2.peek().mNode,0); // shiftNodeLeft handles housekeeping of page and indexes etc.
 		btNode.setKeyValueArray(nodeIdx, replVal); // overwrite target with right child least leaf
-		recursiveRotate(s2);
+		replVal.keyState = KeyValue.synchStates.mustUpdate; // transfer Optr
+		replVal.valueState = KeyValue.synchStates.mustUpdate;
+		btNode.setUpdated(true);
+		btNode.getPage().setUpdated(true);
+		btNode.getPage().putPage(); // the target page holds the replacement now, else the deleted key returns on reload
+		recursiveRotate(path, s2);
         return retVal;
     }
     /**
@@ -748,11 +702,12 @@ public class BTreeNavigator<K extends Comparable, V> {
      * <dd>6.) corner case: only 1 node in parent, if left node was deleted, pick least valued right leaf to rotate in
 	 * if right node was deleted, pick greatest valued left leaf node to rotate in.
 	 * 
+     * @param path The descent of the search that found the deleted key, the target of a merge once the rotation stack is spent
      * @param stack
      * @throws IOException 
      */
     @SuppressWarnings("unchecked")
-	private void recursiveRotate(Stack<StackInfo> stack) throws IOException {
+	private void recursiveRotate(Stack<StackInfo> path, Stack<StackInfo> stack) throws IOException {
     	StackInfo si = stack.pop();
     	if(si == null)
     		throw new IOException("recursiveRotate encountered null from initial stack pop");
@@ -771,13 +726,7 @@ public class BTreeNavigator<K extends Comparable, V> {
   			if(parentNode.getNumKeys() > 1) { // can we split off the node?
   				if(parentIndex == 0) {
   			  	   	//System.out.println("Case 1+0:");
-    				leftNodeSplitThreadDelete.startSplit(parentNode, btNode, 1); // btNode is target we populate, splits it off, sets parent pos to null
-    			 	try {
-    					nodeSplitSynchDelete.await();
-    				} catch (InterruptedException | BrokenBarrierException e) {
-    					e.printStackTrace();
-    					return;
-    				}
+    				splitLeft(parentNode, btNode, 1); // btNode is target we populate, splits it off, sets parent pos to null
     				parentNode.setChild(1, btNode);
     				shiftNodeLeft(parentNode, 0); // handles putPage
     				btNode.getPage().setNumKeys(btNode.getNumKeys());
@@ -787,13 +736,7 @@ public class BTreeNavigator<K extends Comparable, V> {
   					// if parent is last node just extract right and move it to one we just zapped to zero
   					if(parentIndex >= parentNode.getNumKeys()-1) {
   				  	   	//System.out.println("Case 1+1:");
-  						rightNodeSplitThreadDelete.startSplit(parentNode, btNode, 1, parentNode.getNumKeys()-1, parentNode.getNumKeys());
-  		 			 	try {
-  	    					nodeSplitSynchDelete.await();
-  	    				} catch (InterruptedException | BrokenBarrierException e) {
-  	    					e.printStackTrace();
-  	    					return;
-  	    				}
+  						splitRight(parentNode, btNode, 1, parentNode.getNumKeys()-1, parentNode.getNumKeys());
   						// set num keys to current-1, then set the key at that index to mustUpdate
   						parentNode.setNumKeys(parentNode.getNumKeys()-1);
   						parentNode.getKeyValueArray(btNode.getNumKeys()-1).keyState = KeyValue.synchStates.mustUpdate;
@@ -808,11 +751,11 @@ public class BTreeNavigator<K extends Comparable, V> {
   						// wait for thread completion is handled in splitNode
   						// anything left in our stack is our target, barring that the main stack is the target
   						// if all that is empty, we split the root presumably
-  						if(stack.isEmpty() && mStack.isEmpty())
+  						if(stack.isEmpty() && path.isEmpty())
   							return; //we split root
   						if(stack.isEmpty())
-  							mStack.push(stack.pop()); // put our target on main to prime the merge
-  						mergeParent(false);
+  							path.push(stack.pop()); // put our target on main to prime the merge
+  						mergeParent(path, false);
   					}
   				}
   				return;
@@ -843,7 +786,7 @@ public class BTreeNavigator<K extends Comparable, V> {
    					btNode.getKeyValueArray(0).keyState = KeyValue.synchStates.mustUpdate;
    					parentNode.getPage().putPage();
    					btNode.getPage().putPage();
-   					recursiveRotate(s2);
+   					recursiveRotate(path, s2);
    				} else {
    					if(BTNode.getRightChildAtIndex(parentNode, 0) == btNode) {
    				  	   	//System.out.println("Case 1+4:");
@@ -865,7 +808,7 @@ public class BTreeNavigator<K extends Comparable, V> {
    	   					btNode.getKeyValueArray(0).keyState = KeyValue.synchStates.mustUpdate;
    	   					parentNode.getPage().putPage();
    	   					btNode.getPage().putPage();
-   	   					recursiveRotate(s2);
+   	   					recursiveRotate(path, s2);
    					} else {
    						// no links out remaining? could mean we have to demote our parent node to a leaf...
    						if(parentNode.getChild(0) != null || parentNode.getChild(1) != null) {
@@ -884,7 +827,7 @@ public class BTreeNavigator<K extends Comparable, V> {
      	// either recursively process our parent from above or return if we are done
      	if(stack.isEmpty())
      		return;
-     	recursiveRotate(stack);
+     	recursiveRotate(path, stack);
     }
     /**
      * Move the indicated node out and overwrite with rightmost nodes, then put page to deep store.
@@ -914,6 +857,8 @@ public class BTreeNavigator<K extends Comparable, V> {
 		rootNode.setNumKeys(numberOfKeys);
 		rootNode.getPage().setNumKeys(numberOfKeys);
 		//System.out.println("rootNode:"+rootNode);
+		rootNode.setUpdated(true);
+		rootNode.getPage().setUpdated(true);
 		rootNode.getPage().putPage();
 		return kv;
     }
@@ -1,26 +1,70 @@
 package com.neocoretechs.bigsack.btree;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import com.neocoretechs.bigsack.DBPhysicalConstants;
 import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 import com.neocoretechs.bigsack.keyvaluepages.RootKeyPageInterface;
 /**
  * Unlike the hash implementation, the BTree root page shares enough in common with the standard page to be a subclass of it
- * although intuitively its a bit confusing. The pages are identical except for the fact that the root page is locked to 
- * tablespace 0, block 0 and occurs once.
+ * although intuitively its a bit confusing. The pages are identical except for the fact that the root page is locked to
+ * tablespace 0, block 0 and occurs once.<p/>
+ * The root page also carries the number of keys in the tree, kept with its complement in the last bytes of the block,
+ * which are withheld from the inline payload heap. The count is written to the block whenever it changes, so it goes
+ * through the recovery log with the pages of the same transaction and comes back with them on rollback and recovery.
+ * A count whose complement does not match, as in a database written before the count was kept, is reported as unknown.<p/>
+ * Ahead of the count is the format of the key pages of the tree, also kept with its complement. A root page with
+ * contents but not the current format, as in a database written before key prefixes and inline payloads, was laid out
+ * differently and is refused when the tree is opened rather than misread. The format is written with each change
+ * to the root page, so a tree created empty takes the current format.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
  *
  */
 public class BTreeRootKeyPage extends BTreeKeyPage implements RootKeyPageInterface {
 	public static boolean DEBUG = false;
+	public static final int FORMAT = 2; // key pages with key prefixes in the directory followed by the inline payload heap
+	static final int COUNTSIZE = 16; // long count of keys and its complement at the end of the block
+	static final int FORMATSIZE = 8; // int format and its complement ahead of the count
+	private long count = -1L; // keys in the tree, -1 if unknown
+
 	public BTreeRootKeyPage(KeyValueMainInterface bTree, BlockAccessIndex lbai, boolean read) throws IOException {
-		super(bTree, lbai, read);
+		super(bTree, read ? checkFormat(lbai) : lbai, read);
+		if(read)
+			readCount();
+	}
+	/**
+	 * Check the format of a root block with contents before its page is read.
+	 * @param lbai The root block
+	 * @return The root block
+	 * @throws IOException If the tree was written in another format
+	 */
+	private static BlockAccessIndex checkFormat(BlockAccessIndex lbai) throws IOException {
+		Datablock blk = lbai.getBlk();
+		if(blk.getBytesinuse() == 0)
+			return lbai; // a new or emptied tree, the format is written with the page
+		int format = -1;
+		if(blk.getBytesused() >= DBPhysicalConstants.DATASIZE) {
+			byte[] b = new byte[FORMATSIZE];
+			blk.get(DBPhysicalConstants.DATASIZE - COUNTSIZE - FORMATSIZE, b, 0, FORMATSIZE);
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			int f = bb.getInt();
+			if(bb.getInt() == ~f)
+				format = f;
+		}
+		if(format != FORMAT)
+			throw new IOException("BTree of "+lbai.getSdbio().getDBName()+" has key page format "+(format == -1 ? "unmarked" : format)+
+					", not "+FORMAT+". A database written before key prefixes and inline payloads cannot be opened.");
+		return lbai;
 	}
 
 	/**
 	 * Calls {@link BTreeMain}.createRootNode and sets bTNode here to returned value.
-	 * @param bai 
+	 * @param bai
 	 * @throws IOException
 	 */
 	@Override
@@ -30,5 +74,76 @@ public class BTreeRootKeyPage extends BTreeKeyPage implements RootKeyPageInterfa
 		if(DEBUG)
 			System.out.printf("%s.setRootNode block=%s, node=%s%n", this.getClass().getName(),bai,bTNode);
 	}
-	
+
+	@Override
+	protected int getReservedSpace() {
+		return FORMATSIZE + COUNTSIZE;
+	}
+	/**
+	 * Write the page, then the format and count, which a reset of the block would have cleared.
+	 */
+	@Override
+	public synchronized void putPage() throws IOException {
+		boolean updated = isUpdated();
+		super.putPage();
+		if(updated)
+			putCount();
+	}
+	/**
+	 * @return The number of keys in the tree, or -1 if the count was not found on the page
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+	/**
+	 * Set the number of keys in the tree and write it to the block.
+	 * @param count
+	 * @throws IOException
+	 */
+	public synchronized void setCount(long count) throws IOException {
+		this.count = count;
+		putCount();
+	}
+
+	/**
+	 * Set the number of keys in the tree found by a scan without writing it, it is written with the next change.
+	 * @param count
+	 */
+	synchronized void initCount(long count) {
+		this.count = count;
+	}
+	/**
+	 * Read the count from the end of the block. A block is only stored up to its high water mark, so a block
+	 * whose mark stops short of the count has none.
+	 */
+	private void readCount() {
+		Datablock blk = lbai.getBlk();
+		if(blk.getBytesused() < DBPhysicalConstants.DATASIZE) {
+			count = -1L;
+		} else {
+			byte[] b = new byte[COUNTSIZE];
+			blk.get(DBPhysicalConstants.DATASIZE - COUNTSIZE, b, 0, COUNTSIZE);
+			ByteBuffer bb = ByteBuffer.wrap(b);
+			long c = bb.getLong();
+			long check = bb.getLong();
+			count = (c >= 0 && check == ~c ? c : -1L);
+		}
+		if(DEBUG)
+			System.out.printf("%s.readCount count=%d%n", this.getClass().getName(), count);
+	}
+
+	/**
+	 * Write the format and the count, an unknown count is written as -1 and read back as unknown.
+	 * @throws IOException
+	 */
+	private void putCount() throws IOException {
+		DataOutputStream dos = GlobalDBIO.getDataOutputStream(lbai, (short)(DBPhysicalConstants.DATASIZE - COUNTSIZE - FORMATSIZE));
+		dos.writeInt(FORMAT);
+		dos.writeInt(~FORMAT);
+		dos.writeLong(count);
+		dos.writeLong(~count);
+		dos.flush();
+		dos.close();
+	}
+
 }
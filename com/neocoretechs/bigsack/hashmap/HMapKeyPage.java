@@ -12,7 +12,6 @@ import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.Datablock;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 import com.neocoretechs.bigsack.io.stream.DBInputStream;
-import com.neocoretechs.bigsack.io.stream.DBOutputStream;
 import com.neocoretechs.bigsack.keyvaluepages.KVIteratorIF;
 import com.neocoretechs.bigsack.keyvaluepages.KeyPageInterface;
 import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
@@ -76,7 +75,6 @@ public final class HMapKeyPage implements KeyPageInterface {
 	protected KeyPageInterface nextPage = null; // next page of collision space
 	private long numKeys = 0L;
 	private DBInputStream dbInputStream = null;
-	private DBOutputStream dbOutputStream = null;
 	/**
 	 * This is called from getPageFromPool get set up a node.
 	 * @param sdbio The database IO main class
@@ -274,17 +272,15 @@ public final class HMapKeyPage implements KeyPageInterface {
 	* @throws IOException 
 	*/
 	synchronized void delete(int index) throws IOException {
-		dbOutputStream = GlobalDBIO.getBlockOutputStream(lbai);
 		//System.out.println("KeyPageInterface.delete "+this+" index:"+index);
 		if( hTNode.getKeyValueArray(index) == null )
 			throw new IOException("Node at index "+index+" null for attempted delete");
 		if( !hTNode.getKeyValueArray(index).getKeyOptr().equals(Optr.emptyPointer))
-			hMapMain.getIO().delete_object(dbOutputStream, hTNode.getKeyValueArray(index).getKeyOptr(), GlobalDBIO.getObjectAsBytes(hTNode.getKeyValueArray(index).getmKey()).length);
+			hMapMain.getIO().delete_object(hTNode.getKeyValueArray(index).getKeyOptr(), hMapMain.getIO().payloadSize(hTNode.getKeyValueArray(index).getKeyOptr(), hTNode.getKeyValueArray(index).getmKey()));
 		if( hTNode.getKeyValueArray(index).getValueOptr() != null && !hTNode.getKeyValueArray(index).getValueOptr().equals(Optr.emptyPointer))
-			hMapMain.getIO().delete_object(dbOutputStream, hTNode.getKeyValueArray(index).getValueOptr(), GlobalDBIO.getObjectAsBytes(hTNode.getKeyValueArray(index).getmValue()).length);
+			hMapMain.getIO().delete_object(hTNode.getKeyValueArray(index).getValueOptr(), hMapMain.getIO().payloadSize(hTNode.getKeyValueArray(index).getValueOptr(), hTNode.getKeyValueArray(index).getmValue()));
 		// If its the rightmost key ignore move
 		setUpdated(true);
-		dbOutputStream.close();
 	}
 	
 	/**
@@ -360,7 +356,8 @@ public final class HMapKeyPage implements KeyPageInterface {
 		DataOutputStream bs = GlobalDBIO.getDataOutputStream(lbai);
 		bs.writeLong(numKeys);
 		for(int i = 0; i < numKeys; i++) {
-			if(getKeyValueArray(i) != null && getKeyValueArray(i).keyState == KeyValue.synchStates.mustWrite || getKeyValueArray(i).keyState == KeyValue.synchStates.mustReplace ) { // if set, key was processed by putKey[i]
+			if(getKeyValueArray(i) != null && getKeyValueArray(i).keyState == KeyValue.synchStates.mustWrite || getKeyValueArray(i).keyState == KeyValue.synchStates.mustReplace ||
+				getKeyValueArray(i).keyState == KeyValue.synchStates.mustUpdate) { // if set, key was processed by putKey[i], or moved in place
 				bs.writeLong(getKeyValueArray(i).getKeyOptr().getBlock());
 				bs.writeShort(getKeyValueArray(i).getKeyOptr().getOffset());
 				getKeyValueArray(i).keyState = KeyValue.synchStates.upToDate;
@@ -372,7 +369,8 @@ public final class HMapKeyPage implements KeyPageInterface {
 					System.out.printf("%s.putPage %d Optr key skipped:%s%n",this.getClass().getName(),i,getKeyValueArray(i));
 			}
 			// data array
-			if(getKeyValueArray(i) != null && getKeyValueArray(i).valueState == KeyValue.synchStates.mustWrite ||getKeyValueArray(i).valueState == KeyValue.synchStates.mustReplace ) {
+			if(getKeyValueArray(i) != null && getKeyValueArray(i).valueState == KeyValue.synchStates.mustWrite ||getKeyValueArray(i).valueState == KeyValue.synchStates.mustReplace ||
+				getKeyValueArray(i).valueState == KeyValue.synchStates.mustUpdate) {
 				bs.writeLong(getKeyValueArray(i).getValueOptr().getBlock());
 				bs.writeShort(getKeyValueArray(i).getValueOptr().getOffset());
 				getKeyValueArray(i).valueState = KeyValue.synchStates.upToDate;
@@ -409,7 +407,6 @@ public final class HMapKeyPage implements KeyPageInterface {
 	 * @throws IOException
 	 */
 	public synchronized boolean putKey(int index, ArrayList<Long> currentPayloadBlocks) throws IOException {
-		dbOutputStream = GlobalDBIO.getBlockOutputStream(lbai);
 		if(getKeyValueArray(index).getmKey() == null) {
 			if(DEBUG || DEBUGPUTKEY) 
 				System.out.printf("%s.putKey index=%d, key=%s Optr=%s%n", this.getClass().getName(),
@@ -420,13 +417,12 @@ public final class HMapKeyPage implements KeyPageInterface {
 		}
 		// get first block to write contiguous records for keys
 		// We either have a block with some space or one we took from freechain list
-		byte[] pb = GlobalDBIO.getObjectAsBytes(getKeyValueArray(index).getmKey());
+		byte[] pb = hMapMain.getIO().serialize(getKeyValueArray(index).getmKey());
 		getKeyValueArray(index).setKeyOptr(hMapMain.getIO().getIOManager().getNewInsertPosition(currentPayloadBlocks, pb.length));
-		hMapMain.getIO().add_object(dbOutputStream, getKeyValueArray(index).getKeyOptr(), pb, pb.length);
+		hMapMain.getIO().add_object(getKeyValueArray(index).getKeyOptr(), pb, pb.length);
 		if(DEBUG || DEBUGPUTKEY)
 			System.out.printf("%s.putKey ADDED Object for k/v:%s index:%d bytes:%d%n",this.getClass().getName(),getKeyValueArray(index),index,pb.length);
 		setUpdated(true);
-		dbOutputStream.close();
 		return true;
 	}
 	
@@ -439,7 +435,6 @@ public final class HMapKeyPage implements KeyPageInterface {
 	 * @throws IOException
 	 */
 	public synchronized boolean putData(int index, ArrayList<Long> currentPayloadBlocks) throws IOException {
-		dbOutputStream = GlobalDBIO.getBlockOutputStream(lbai);
 		if( getKeyValueArray(index).getmValue() == null ) {
 			//|| bTreeKeyPage.getKeyValueArray()[index].getValueOptr().equals(Optr.emptyPointer)) {
 			getKeyValueArray(index).setValueOptr(Optr.emptyPointer);
@@ -449,11 +444,11 @@ public final class HMapKeyPage implements KeyPageInterface {
 		}
 		// pack the page into this tablespace and within blocks the same tablespace as key
 		// the new insert position will attempt to find a block with space relative to established positions
-		byte[] pb = GlobalDBIO.getObjectAsBytes(getKeyValueArray(index).getmValue());
+		byte[] pb = hMapMain.getIO().serialize(getKeyValueArray(index).getmValue());
 		getKeyValueArray(index).setValueOptr(hMapMain.getIO().getIOManager().getNewInsertPosition(currentPayloadBlocks, pb.length));		
 		if( DEBUGPUTDATA )
 			System.out.printf("%s.putData ADDING NON NULL value for k/v:%s index:%d%n",this.getClass().getName(),getKeyValueArray(index),index);
-		hMapMain.getIO().add_object(dbOutputStream, getKeyValueArray(index).getValueOptr(), pb, pb.length);
+		hMapMain.getIO().add_object(getKeyValueArray(index).getValueOptr(), pb, pb.length);
 		setUpdated(true);
 		return true;
 	}
@@ -571,7 +566,7 @@ public final class HMapKeyPage implements KeyPageInterface {
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getData about to retrieve index:"+index+" loc:"+hTNode.getKeyValueArray(index).getValueOptr());
 			}
-			hTNode.getKeyValueArray(index).setmValue((Comparable) hMapMain.getIO().deserializeObject(hTNode.getKeyValueArray(index).getValueOptr()));
+			hTNode.getKeyValueArray(index).setmValue(hMapMain.getIO().deserializeObject(hTNode.getKeyValueArray(index).getValueOptr()));
 			if( DEBUG ) {
 				System.out.println("KeyPageInterface.getData retrieved index:"+index+" loc:"+hTNode.getKeyValueArray(index).getValueOptr()+" retrieved:"+hTNode.getKeyValueArray(index).getmValue());
 				for(int i = 0; i < getNumKeys(); i++)System.out.println(i+"="+hTNode.getKeyValueArray(index).getmValue());
@@ -733,7 +728,7 @@ public final class HMapKeyPage implements KeyPageInterface {
 			for(int i = 0; i < nPage.hTNode.getNumKeys(); i++) {
 				KeyValue<Comparable,Object> kv = nPage.hTNode.getKeyValueArray(i);
 				try {
-					if(iterImpl.item(kv.getmKey(), kv.getmValue()))
+					if(iterImpl.item(kv))
 						return;
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -749,8 +744,7 @@ public final class HMapKeyPage implements KeyPageInterface {
 			for(int i = 0; i < nPage.hTNode.getNumKeys(); i++) {
 				KeyValue<Comparable,Object> kv = nPage.hTNode.getKeyValueArray(i);
 				try {
-					kv.getmKey();
-					kv.getmValue();
+					kv.getmKey(); // value is retrieved by the consumer if it needs it
 					b.accept(kv);
 					++count;
 					if(limit != -1 && count >= limit)
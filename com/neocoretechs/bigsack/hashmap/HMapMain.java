@@ -3,6 +3,8 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Stack;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -124,6 +126,10 @@ public final class HMapMain implements KeyValueMainInterface {
 			HMapRootKeyPage htk = sdbio.getHMapRootPageFromPool(i);
 			this.root[i] = htk;
 		}
+		for(int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+			if(((HMapRootKeyPage)root[i]).getCount() == -1L)
+				((HMapRootKeyPage)root[i]).initCount(scan(i));
+		}
 		if( DEBUG ) {
 			StringBuilder sb = new StringBuilder();
 			for(int i = 0; i < this.root.length; i++)
@@ -173,8 +179,10 @@ public final class HMapMain implements KeyValueMainInterface {
 			// Attempt to retrieve last good key count
 			long numKeys = 0;
 			long tim = System.currentTimeMillis();
-			numKeys = count();
+			numKeys = scan();
 			System.out.println("Consistency check for "+sdbio.getDBName()+" returned "+numKeys+" keys in "+(System.currentTimeMillis()-tim)+" ms.");
+			if(numKeys != count())
+				System.out.println("Consistency check for "+sdbio.getDBName()+" found "+count()+" keys recorded in the root pages.");
 		}
 	}
 	
@@ -188,14 +196,53 @@ public final class HMapMain implements KeyValueMainInterface {
 		};
 	}
 	@Override
+	/**
+	 * Returns the sum of the counts of keys recorded in the root page of each tablespace, which are updated
+	 * by each insert of a new key and go through the recovery log with the pages of the transaction.
+	 * A tablespace whose root page has no count is scanned for one.
+	 * @throws IOException
+	 */
+	public synchronized long count() throws IOException {
+		long total = 0L;
+		for(int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+			HMapRootKeyPage rootPage = (HMapRootKeyPage) root[i];
+			if(rootPage.getCount() == -1L)
+				rootPage.initCount(scan(i));
+			total += rootPage.getCount();
+		}
+		return total;
+	}
+	/**
+	 * Scan the key pages of one tablespace.
+	 * @param tablespace
+	 * @return The number of keys in the tablespace
+	 * @throws IOException
+	 */
+	private long scan(int tablespace) throws IOException {
+		long[] tally = new long[1];
+		PageIteratorIF<KeyPageInterface> iterImpl = new PageIteratorIF<KeyPageInterface>() {
+			@Override
+			public void item(KeyPageInterface page) throws IOException {
+				tally[0] += page.getNumKeys();
+			}
+		};
+		try {
+			callCount(iterImpl, tablespace).call();
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+		return tally[0];
+	}
 	/**
 	 * Returns number of table scanned keys, sets numKeys field
-	 * TODO: Alternate more efficient implementation that counts keys on pages
 	 * This method scans all keys, thus verifying the structure.
 	 * @throws IOException
 	 */
-	public synchronized long count() throws IOException {
+	private long scan() throws IOException {
 		long tim = System.currentTimeMillis();
+		count = 0L;
 		PageIteratorIF<KeyPageInterface> iterImpl = new PageIteratorIF<KeyPageInterface>() {
 			@Override
 			public void item(KeyPageInterface page) throws IOException {
@@ -233,7 +280,7 @@ public final class HMapMain implements KeyValueMainInterface {
 	  
 	@Override
 	/**
-	 * Determines if tree is empty by examining the root for the presence of any keys
+	 * Determines if tree is empty from the counts of keys in the root pages
 	 * @return
 	 */
 	public synchronized boolean isEmpty() {
@@ -258,9 +305,9 @@ public final class HMapMain implements KeyValueMainInterface {
 		long tim = System.currentTimeMillis();
 		KVIteratorIF<Comparable, Object> iterImpl = new KVIteratorIF<Comparable,Object>() {
 			@Override
-			public boolean item(Comparable key, Object value) {
-				if(value.equals(targetObject)) {
-					result = key;
+			public boolean item(KeyValue<Comparable, Object> kv) throws IOException {
+				if(kv.getmValue().equals(targetObject)) {
+					result = kv.getmKey();
 					return true; // 'index' in page is set
 				}
 				return false;
@@ -354,14 +401,33 @@ public final class HMapMain implements KeyValueMainInterface {
 		// if not null we we may have found a page that did not contain the key, yet had space to insert one
 		if(eligiblePage != null) {
 			lastInsertResult = update(eligiblePage.page, key, value);
-			return 1;
+		} else {
+			lastInsertResult = update(lastPage, key, value);
 		}
-		lastInsertResult = update(lastPage, key, value);
+		HMapRootKeyPage rootPage = (HMapRootKeyPage) root[hashKeys[0]];
+		rootPage.setCount(rootPage.getCount() == -1L ? scan(hashKeys[0]) : rootPage.getCount() + 1);
 		// have to link new page to last page;
 		if(DEBUG)
 			System.out.printf("%s insert exit key=%s value=%s%n", this.getClass().getName(), key, value);
 		return 0;
 	}
+	/**
+	 * Load entries by adding each in turn.
+	 * @param entries The key/value pairs
+	 * @return The number of keys added
+	 * @throws IOException
+	 */
+	@Override
+	@SuppressWarnings("rawtypes")
+	public synchronized long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		long added = 0;
+		while(entries.hasNext()) {
+			Map.Entry entry = entries.next();
+			if(add((Comparable) entry.getKey(), entry.getValue()) == 0)
+				++added;
+		}
+		return added;
+	}
 
 	/**
 	 * Update the page and insert the key/value at the end of existing entries. We assume the collision space has been searched
@@ -400,13 +466,19 @@ public final class HMapMain implements KeyValueMainInterface {
     	KeyValue keyValue = ksr.page.getKeyValueArray(ksr.insertPoint);
     	if( keyValue == null )
     		throw new IOException("Key/Value retrieval failed for previously searched page:"+ksr+" for key:"+key);
-    	if(value != null && value.equals(keyValue.getmValue()) ) 
-    		return;
-    	if(!keyValue.getValueOptr().isEmptyPointer()) {
+    	if(keyValue.getValueOptr().isEmptyPointer()) {
+    		// Set semantics, the key is present and there is no value to replace
+    		if(value == null)
+    			return;
+    	} else {
+    		// the old value is only retrieved when there is one to replace, we need its size to reclaim it
+    		Object oldValue = keyValue.getmValue();
+    		if(value != null && value.equals(oldValue)) 
+    			return;
     	  	if( DEBUG || DEBUGOVERWRITE )
     			System.out.println("OVERWRITE value "+value+" for key "+key+" index["+ksr.insertPoint+"] page:"+ksr);
     	  	DBOutputStream dbo = sdbio.getBlockOutputStream(ksr.page.getBlockAccessIndex());
-    		sdbio.delete_object(dbo, keyValue.getValueOptr(), GlobalDBIO.getObjectAsBytes(keyValue.getmValue()).length);
+    		sdbio.delete_object(dbo, keyValue.getValueOptr(), sdbio.payloadSize(keyValue.getValueOptr(), oldValue));
     		dbo.close();
     		keyValue.setValueOptr(Optr.emptyPointer);
     	}
@@ -494,8 +566,7 @@ public final class HMapMain implements KeyValueMainInterface {
 			return null;
 		}
 		KeyValue kv = kpi.getKeyValueArray(0);
-		kv.getmKey();
-		kv.getmValue();
+		kv.getmKey(); // value is retrieved by the caller if it needs it
 		if(DEBUG)
 			System.out.printf("%s.rewind returning %s%n",this.getClass().getName(),kv);
 		return kv;
@@ -656,6 +727,20 @@ public final class HMapMain implements KeyValueMainInterface {
    @Override
    public void traverseStructure(StructureCallBackListener listener, KeyPageInterface node, long parent, int level) throws IOException {
    }
+   /**
+    * Walk the key pages of each tablespace in turn, following the collision space of each.
+    * @param iterImpl The operator called with each page
+    * @throws IOException
+    */
+   @Override
+   public synchronized void retrievePages(PageIteratorIF<KeyPageInterface> iterImpl) throws IOException {
+	   for(int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+		   for(int j = 0; j < root[i].getNumKeys(); j++) {
+			   if(root[i].getPageId(j) != -1L)
+				   HMapNavigator.retrievePagesInOrder(this, root[i].getPage(j), iterImpl);
+		   }
+	   }
+   }
 
 
    @Override
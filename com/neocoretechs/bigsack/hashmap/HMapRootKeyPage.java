@@ -3,6 +3,7 @@ package com.neocoretechs.bigsack.hashmap;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import com.neocoretechs.bigsack.io.Optr;
@@ -31,6 +32,10 @@ import com.neocoretechs.bigsack.keyvaluepages.RootKeyPageInterface;
  * [childPages[1].hashkeys[3]].pageId -> childPages[2] =  hashkeys[3] 9 bits <br/>
  * [childPages[2].hashkeys[4]].pageId -> keyvaluespage =  hashkeys[4] 9 bits <br/>
  * key/values page.nextPage -> linked list of collision space key pages<br/>
+ * The root page of each tablespace also carries the number of keys stored in that tablespace, with its complement,
+ * following the rootKeys. It is written to the block with each insert of a new key, so it is logged and recovered with
+ * the pages of the same transaction. A count whose complement does not match, as in a database written before the
+ * count was kept, is reported as unknown.<p/>
  * @author Jonathan Groff (C) NeoCoreTechs 2021
  *
  */
@@ -40,6 +45,8 @@ public class HMapRootKeyPage implements RootKeyPageInterface {
 	public final static int MAXKEYSROOT = 4; // 2 bits (0-3) times 8 bytes long page pointer
 	protected BlockAccessIndex rootPage; // initial root page with 2 bit keys
 	private long rootKeys[] = new long[MAXKEYSROOT]; // buffers the contents of root page
+	private static final int COUNTINDEX = 8 + (MAXKEYSROOT * 8); // position of the key count following the rootKeys
+	private long count = -1L; // keys in this tablespace, -1 if unknown
 
 	protected KeyValueMainInterface hMapMain;
 	/**
@@ -56,8 +63,28 @@ public class HMapRootKeyPage implements RootKeyPageInterface {
 			rootKeys[i] = -1L;
 		if(read) {	
 			readFromDBStream(GlobalDBIO.getDataInputStream(this.rootPage));
+			readCount();
 		}
 	}
+	/**
+	 * Read the count following the rootKeys. A block is only stored up to its high water mark, so a block
+	 * whose mark stops short of the count has none.
+	 */
+	private void readCount() {
+		Datablock blk = rootPage.getBlk();
+		if(blk.getBytesused() < COUNTINDEX + 16) {
+			count = -1L;
+			return;
+		}
+		byte[] b = new byte[16];
+		blk.get(COUNTINDEX, b, 0, 16);
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		long c = bb.getLong();
+		long check = bb.getLong();
+		count = (c >= 0 && check == ~c ? c : -1L);
+		if(DEBUG)
+			System.out.printf("%s.readCount count=%d %s%n",this.getClass().getName(),count,rootPage);
+	}
 	/**
 	 * Read the page using the given DataInputStream
 	 * @throws IOException
@@ -106,6 +133,28 @@ public class HMapRootKeyPage implements RootKeyPageInterface {
 	public synchronized void setSize(long size) {
 		this.numKeys = size;
 	}
+	/**
+	 * @return The number of keys stored in this tablespace, or -1 if the count was not found on the page
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+	/**
+	 * Set the number of keys stored in this tablespace and write the page.
+	 * @param count
+	 * @throws IOException
+	 */
+	public synchronized void setCount(long count) throws IOException {
+		this.count = count;
+		putPage();
+	}
+	/**
+	 * Set the number of keys found by a scan without writing it, it is written with the next change.
+	 * @param count
+	 */
+	synchronized void initCount(long count) {
+		this.count = count;
+	}
 	
 
 	@Override
@@ -115,6 +164,8 @@ public class HMapRootKeyPage implements RootKeyPageInterface {
 		for(int i = 0; i < MAXKEYSROOT; i++) {
 			dos.writeLong(rootKeys[i]);
 		}
+		dos.writeLong(count);
+		dos.writeLong(~count);
 		dos.flush();
 		dos.close();
 		setUpdated(true);
@@ -186,6 +237,8 @@ public class HMapRootKeyPage implements RootKeyPageInterface {
 		sb.append(" ");
 		sb.append("numKeys reported=");
 		sb.append(numKeys);
+		sb.append(" count=");
+		sb.append(count);
 		sb.append(" all keys=");
 		for(int i = 0; i < MAXKEYSROOT; i++) {
 			sb.append(i);
@@ -3,6 +3,7 @@ package com.neocoretechs.bigsack.hashmap;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.neocoretechs.bigsack.io.Optr;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
@@ -171,7 +172,21 @@ public class HTNode<K extends Comparable, V> implements NodeInterface<K, V> {
     	}
     	mKeys[index] = kvKey;
     }
-    
+    /**
+     * Move count keys starting at index from to the start of the target, leaving nulls in their place here.
+     * As with {@link #setKeyValueArray(int, KeyValue)} the number of keys of the target is raised to cover them,
+     * the number of keys of this node is left to the caller.
+     * @param from The first index moved
+     * @param target The node receiving the keys at index 0
+     * @param count The number of keys moved
+     */
+    protected void moveKeyValues(int from, HTNode<K, V> target, int count) {
+    	System.arraycopy(mKeys, from, target.mKeys, 0, count);
+    	Arrays.fill(mKeys, from, from+count, null);
+    	if(count > target.numKeys)
+    		target.numKeys = count;
+    }
+
     @Override
 	public void setChild(int index, NodeInterface<K,V> bTNode) {
     	throw new RuntimeException("Method not applicable to this key/value store");
@@ -205,8 +220,8 @@ public class HTNode<K extends Comparable, V> implements NodeInterface<K, V> {
     public KeyValue get(Object object) throws IOException {
     	KVIteratorIF iterImpl = new KVIteratorIF() {
 			@Override
-			public boolean item(Comparable key, Object value) {
-				if(value.equals(object))
+			public boolean item(KeyValue kv) throws IOException {
+				if(kv.getmValue().equals(object))
 					return true;
 				return false;
 			}		
@@ -231,7 +246,7 @@ public class HTNode<K extends Comparable, V> implements NodeInterface<K, V> {
             keyVal = treeNode.getKeyValueArray(i);
             if(keyVal == null)
             	return false;
-            bStatus = iterImpl.item(keyVal.getmKey(), keyVal.getmValue());
+            bStatus = iterImpl.item(keyVal);
             if (!bStatus) {
                 return false;
             }
@@ -252,7 +267,7 @@ public class HTNode<K extends Comparable, V> implements NodeInterface<K, V> {
             keyVal = treeNode.getKeyValueArray(i);
             if(keyVal == null)
             	return null;
-            bStatus = iterImpl.item(keyVal.getmKey(), keyVal.getmValue());
+            bStatus = iterImpl.item(keyVal);
             if (bStatus) {
                 return keyVal;
             }
@@ -1,4 +1,5 @@
 package com.neocoretechs.bigsack.io;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
@@ -71,7 +72,7 @@ public final class FileIO implements IoInterface {
 		FileChannel FC = RA.getChannel();
 		if (FC.size() == 0L)
 			iSize =
-				DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
+				(long) DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
 		else
 			iSize = FC.size();
 		fisopen = true;
@@ -135,6 +136,11 @@ public final class FileIO implements IoInterface {
 	public synchronized void Fwrite(byte[] obuf, int osiz) throws IOException {
 		RA.write(obuf, 0, osiz);
 	}
+	public synchronized void Fwrite(ByteBuffer obuf) throws IOException {
+		FileChannel fc = RA.getChannel();
+		while(obuf.hasRemaining())
+			fc.write(obuf);
+	}
 	public synchronized void Fwrite_int(int obuf) throws IOException {
 		RA.writeInt(obuf);
 	}
@@ -153,6 +159,40 @@ public final class FileIO implements IoInterface {
 	public synchronized int Fread(byte[] b) throws IOException {
 		return RA.read(b);
 	}
+	public synchronized int Fread(ByteBuffer b) throws IOException {
+		FileChannel fc = RA.getChannel();
+		int n = 0;
+		while(b.hasRemaining()) {
+			int r = fc.read(b);
+			if(r == -1)
+				return (n == 0 ? -1 : n);
+			n += r;
+		}
+		return n;
+	}
+	/**
+	 * Read at the offset through the channel of the encapsulated random access file, leaving its file pointer alone
+	 */
+	public int readPage(long offset, ByteBuffer dst) throws IOException {
+		FileChannel fc = RA.getChannel();
+		int n = 0;
+		while(dst.hasRemaining()) {
+			int r = fc.read(dst, offset + n);
+			if(r == -1)
+				return (n == 0 ? -1 : n);
+			n += r;
+		}
+		return n;
+	}
+	/**
+	 * Write at the offset through the channel of the encapsulated random access file, leaving its file pointer alone
+	 */
+	public void writePage(long offset, ByteBuffer src) throws IOException {
+		FileChannel fc = RA.getChannel();
+		long pos = offset;
+		while(src.hasRemaining())
+			pos += fc.write(src, pos);
+	}
 	public synchronized int Fread_int() throws IOException {
 		return RA.readInt();
 	}
@@ -198,13 +238,13 @@ public final class FileIO implements IoInterface {
 	@Override
 	public synchronized void FseekAndWriteFully(Long block, Datablock dblk) throws IOException {
 		RA.seek(block);
-		RA.write(dblk.getData());
+		Fwrite(dblk.getPayload(DBPhysicalConstants.DATASIZE));
 	}
 
 	@Override
 	public synchronized void FseekAndWrite(Long block, Datablock dblk) throws IOException {
 		RA.seek(block);
-		RA.write(dblk.getData(), 0, dblk.getBytesinuse());
+		Fwrite(dblk.getPayload(dblk.getBytesinuse()));
 	}
 	/*
 	@Override
@@ -216,7 +256,7 @@ public final class FileIO implements IoInterface {
 	@Override
 	public synchronized void FseekAndRead(Long block, Datablock dblk) throws IOException {
 		RA.seek(block);
-		RA.read(dblk.getData());
+		Fread(dblk.getPayload(DBPhysicalConstants.DATASIZE));
 	}
 	
 	/*
@@ -1,5 +1,6 @@
 package com.neocoretechs.bigsack.io;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.*;
 
 import com.neocoretechs.bigsack.io.pooled.Datablock;
@@ -93,6 +94,12 @@ public interface IoInterface {
 	*/
 	public void Fwrite(byte[] obuf, int osiz) throws IOException;
 	/**
+	* writing buffer from its position to its limit, such as an off heap page frame
+	* @param obuf the byte buffer to write
+	* @exception IOException if write fails
+	*/
+	public void Fwrite(ByteBuffer obuf) throws IOException;
+	/**
 	* write an int value
 	* @exception IOException if write fails
 	*/
@@ -121,6 +128,31 @@ public interface IoInterface {
 	*/
 	public int Fread(byte[] b) throws IOException;
 	/**
+	* read buffer from its position to its limit, such as an off heap page frame
+	* @param b the buffer to fill
+	* @return number of bytes read
+	* @exception IOException if read fails
+	*/
+	public int Fread(ByteBuffer b) throws IOException;
+	/**
+	* Positional read, fill the buffer from its position to its limit with the bytes at the given offset.
+	* The file position used by Fseek and the Fread and Fwrite methods is neither used nor moved, so
+	* reads of different pages may proceed concurrently without holding a monitor across a seek.
+	* @param offset The real offset into the file
+	* @param dst the buffer to fill
+	* @return number of bytes read, or -1 if the offset is at or past the end of file
+	* @exception IOException if read fails
+	*/
+	public int readPage(long offset, ByteBuffer dst) throws IOException;
+	/**
+	* Positional write, write the buffer from its position to its limit at the given offset.
+	* The file position used by Fseek and the Fread and Fwrite methods is neither used nor moved.
+	* @param offset The real offset into the file
+	* @param src the buffer to write
+	* @exception IOException if write fails
+	*/
+	public void writePage(long offset, ByteBuffer src) throws IOException;
+	/**
 	* read a long
 	* @exception IOException if read fails
 	*/
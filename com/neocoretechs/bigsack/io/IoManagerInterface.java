@@ -153,6 +153,14 @@ public interface IoManagerInterface {
 	public void Fclose() throws IOException;
 
 	public void Fforce() throws IOException;
+	/**
+	 * Force the blocks written to one tablespace since its last force to deep store.
+	 * Block writes are not forced individually, this is the single ordered force for the tablespace
+	 * at commit, after its recovery log is forced and before the log is reset.
+	 * @param tablespace the tablespace
+	 * @throws IOException
+	 */
+	public void Fforce(int tablespace) throws IOException;
 	
 	public long Fsize(int tablespace) throws IOException;
 
@@ -178,6 +186,8 @@ public interface IoManagerInterface {
 	
 	public void deallocOutstandingCommit() throws IOException;
 	
+	public void deallocOutstandingRead() throws IOException;
+	
 	public void deallocOutstanding(BlockAccessIndex bai) throws IOException;
 	
 	public void deallocOutstandingWriteLog(BlockAccessIndex bai) throws IOException;
@@ -199,6 +209,15 @@ public interface IoManagerInterface {
 	public void writeDirect(int tablespace, long block, Datablock blk) throws IOException;
 
 	public void readDirect(int tablespace, long block, Datablock blk) throws IOException;
+	/**
+	 * Perform an Fseek on the inlog flag in the header of the block and write it, leaving the rest
+	 * of the block in deep storage as it is. Used by commit of the {@link FileLogger} to reset the flag of logged blocks.
+	 * @param tablespace the tablespace
+	 * @param block the physical block
+	 * @param inlog the flag value
+	 * @throws IOException
+	 */
+	public void writeInlogDirect(int tablespace, long block, boolean inlog) throws IOException;
 
 	public void extend(int ispace, long l) throws IOException;
 
@@ -2,6 +2,7 @@ package com.neocoretechs.bigsack.io;
 import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
+import java.util.Arrays;
 /*
 * Copyright (c) 2003, NeoCoreTechs
 * All rights reserved.
@@ -27,26 +28,32 @@ import java.nio.channels.*;
 */
 /**
 * Memory mapped file I/O.
-* We can only map 2 gig at a time due to mmap, so we keep track of ranges
-* currently mapped and remap when necessary. Position is absolute, not virtual.
+* A single mapping can span at most 2 gig, so the file is mapped as an array of fixed size segments
+* of 1 gig each. The segments stay mapped, a position is located by its segment index offset >>> SEGMENTSHIFT
+* and the offset within the segment, so random access anywhere in the file is a constant time address computation.
+* The last segment covers the file up to its size and is remapped when the file is extended, new segments
+* are appended as the file grows past them. Position is absolute, not virtual.
 * For pool, there are one of these per tablespace and pointers. Use the
 * first 3 bits for tablespace so our theoretical max per tablespace is
 * 2,305,843,009,213,693,952 bytes * 8 tablespaces. 2305 petabytes * 8.
-* A MappedByteBuffer is the underlying core object, and thread synchronization is on that.
+* Thread synchronization is on this object. The absolute get and put of a page do not use the position and
+* only take the monitor when the segment they address has to be mapped or remapped.
 * @see IoInterface
 * @author Groff
 */
 final class LinkedMappedByteBuffer {
 	private static boolean DEBUG = false;
+	static final int SEGMENTSHIFT = 30;
+	static final long SEGMENTSIZE = 1L << SEGMENTSHIFT;
+	private static final long SEGMENTMASK = SEGMENTSIZE - 1L;
 	private FileChannel FC;
-	private MappedByteBuffer bb;
-	private static int rangeSize = Integer.MAX_VALUE;
-	private long rangeMin = 0L;
-	private long rangeMax = (long) rangeSize;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[4];
+	private long position = 0L;
+	// primitives that straddle a segment boundary go through here, under the monitor
+	private final ByteBuffer scratch = ByteBuffer.allocate(8);
 	/**
 	* @param tFC The FileChannel to map
 	* @param tiSize The initial size to map (can be > than file size to extend)
-	* and must be less than Integer.MAX_SIZE
 	*/
 	LinkedMappedByteBuffer(FileChannel tFC, long tiSize)
 		throws IOException {
@@ -56,7 +63,6 @@ final class LinkedMappedByteBuffer {
 	/**
 	* @param tFC The FileChannel to map
 	* @param tiSize The initial size to map (can be > than file size to extend)
-	* and must be less than Integer.MAX_SIZE
 	* @param rPos The position to set to
 	*/
 	LinkedMappedByteBuffer(FileChannel tFC, long tiSize, long rPos) throws IOException {
@@ -64,100 +70,103 @@ final class LinkedMappedByteBuffer {
 		setRange(rPos, tiSize);
 	}
 	
-	MappedByteBuffer force() {
-		synchronized(bb) {
-			return bb.force();
-		}
+	synchronized void force() {
+		for(MappedByteBuffer bb : segments)
+			if(bb != null)
+				bb.force();
 	}
 	
-	boolean isLoaded() {
-		synchronized(bb) {
-			return bb.isLoaded();
-		}
+	synchronized boolean isLoaded() {
+		for(MappedByteBuffer bb : segments)
+			if(bb != null && !bb.isLoaded())
+				return false;
+		return true;
 	}
 	
-	MappedByteBuffer load() {
-		synchronized(bb) {
-			return bb.load();
-		}
+	synchronized void load() {
+		for(MappedByteBuffer bb : segments)
+			if(bb != null)
+				bb.load();
 	}
 	
-	long position() throws IOException {
-		synchronized(bb) {
-			return rangeMin + bb.position();
-		}
+	synchronized long position() throws IOException {
+		return position;
 	}
 	
-	void position(long offset) throws IOException {
-		checkRange(offset);
+	synchronized void position(long offset) throws IOException {
+		position = offset;
 	}
 	
 	long capacity() throws IOException {
-		synchronized(bb) {
-			return FC.size();
+		return FC.size();
+	}
+	/**
+	* The file has been extended to newSize through the FileChannel, append the segments
+	* or remap the last segment so that the mapping covers it.
+	* @param newSize The new size of the file
+	* @exception IOException if FileChannel.map fails
+	*/
+	synchronized void extend(long newSize) throws IOException {
+		if(newSize <= 0L)
+			return;
+		long last = (newSize - 1L) >>> SEGMENTSHIFT;
+		for(long i = 0; i <= last; i++) {
+			MappedByteBuffer bb = (i < segments.length ? segments[(int) i] : null);
+			if(bb == null || bb.capacity() < SEGMENTSIZE && ((i << SEGMENTSHIFT) + bb.capacity()) < newSize)
+				map((int) i, newSize);
 		}
 	}
 	/**
-	* Compute the range we are determined to map<br>
+	* Locate the segment containing the target, mapping it, or remapping it if the file
+	* has grown past its end since it was mapped.<br>
 	* It will only ever be maxxed at FileChannel size, so
 	* you must extend it via external mechanisim using Filechannel, it
-	* is not automatically extended!<br>
-	* Only chunks up to rangeSize are mapped
-	* @param rangeTarg The target that our range must contain
-	* @exception IOException if filechannel position or size ops fail
+	* is not automatically extended!
+	* @param rangeTarg The target that our segment must contain
+	* @return The segment, whose capacity may end at rangeTarg if the target is the end of the file
+	* @exception IOException if filechannel size or map ops fail
 	*/
-	private void checkRange(long rangeTarg) throws IOException {
-		synchronized(bb) {
-			if (rangeTarg >= rangeMin && rangeTarg <= rangeMax) {
-				// within range but exceeding capacity of buffer
-				// we must have extended the file so remap if necessary
-				int rPos = (int) (rangeTarg - rangeMin);
-				if (rPos < bb.capacity()) {
-					if( DEBUG ) {
-						System.out.println("LinkedMappedByteBuffer.checkRange 1 range:"+rangeTarg+" min:"+rangeMin+" max:"+rangeMax+" try pos:"+rPos+" max:"+bb.capacity());
-					}
-					bb.position(rPos);
-					return;
-				}
-			}
-			long r1 = rangeTarg / rangeSize;
-			rangeMin = r1 * rangeSize;
-			rangeMax = (rangeMin + rangeSize) - 1L;
-			// remap new range
-			bb.force();
-			bb = null;
-			System.gc();
-			long iSize = FC.size();
-			if (iSize > rangeSize)
-				iSize = rangeSize;
-			bb = FC.map(FileChannel.MapMode.READ_WRITE, rangeMin, iSize);
-			if( DEBUG ) {
-				System.out.println("LinkedMappedByteBuffer.checkRange 2 range:"+rangeTarg+" min:"+rangeMin+" max:"+rangeMax+" try pos:"+(rangeTarg-rangeMin)+" max:"+bb.capacity());
-			}
-			bb.position((int) (rangeTarg - rangeMin));
+	private MappedByteBuffer segment(long rangeTarg) throws IOException {
+		int index = (int) (rangeTarg >>> SEGMENTSHIFT);
+		int rPos = (int) (rangeTarg & SEGMENTMASK);
+		MappedByteBuffer bb = (index < segments.length ? segments[index] : null);
+		if (bb != null && rPos < bb.capacity())
+			return bb;
+		// the file has been extended past the end of the mapping, or the segment is new
+		bb = map(index, FC.size());
+		if( DEBUG ) {
+			System.out.println("LinkedMappedByteBuffer.segment range:"+rangeTarg+" segment:"+index+" try pos:"+rPos+" max:"+bb.capacity());
 		}
+		return bb;
+	}
+	/**
+	* Map the segment at index up to the given file size, at most SEGMENTSIZE.
+	*/
+	private MappedByteBuffer map(int index, long fileSize) throws IOException {
+		long start = (long) index << SEGMENTSHIFT;
+		long iSize = Math.max(0L, Math.min(SEGMENTSIZE, fileSize - start));
+		if (index < segments.length && segments[index] != null)
+			segments[index].force();
+		MappedByteBuffer bb = FC.map(FileChannel.MapMode.READ_WRITE, start, iSize);
+		// copy on write, so the unsynchronized absolute get and put always see a fully mapped segment
+		MappedByteBuffer[] nsegments = Arrays.copyOf(segments, Math.max(segments.length, index + 1));
+		nsegments[index] = bb;
+		segments = nsegments;
+		return bb;
 	}
 	/**
 	* Set the range we are determined to map<br>
 	* This method, called from c'tor can extend the file
-	* Only chunks up to rangesize are mapped and this method is used
-	* to set initial position other than default on startup
-	* @param rangeTarg The target that our range must contain
+	* and is used to set initial position other than default on startup
+	* @param rangeTarg The target position
 	* @param iSize The desired size to map
-	* @exception IOException if FileChannel.map fails, or position fails
+	* @exception IOException if FileChannel.map fails
 	*/
 	private void setRange(long rangeTarg, long iSize) throws IOException {
-
-		long r1 = rangeTarg / rangeSize;
-		rangeMin = r1 * rangeSize;
-		rangeMax = (rangeMin + rangeSize) - 1L;
-		// map new range
-		if (iSize > rangeSize)
-			iSize = rangeSize;
-		bb = FC.map(FileChannel.MapMode.READ_WRITE, rangeMin, iSize);
-		synchronized(bb) {
-			bb.position((int) (rangeTarg - rangeMin));
-		}
+		long fileSize = Math.max(iSize, FC.size());
+		for(int i = 0; ((long) i << SEGMENTSHIFT) < fileSize; i++)
+			map(i, fileSize);
+		position = rangeTarg;
 	}
 	
 	// writing..
@@ -165,108 +174,225 @@ final class LinkedMappedByteBuffer {
 		put(buf, 0, buf.length);
 	}
 	
-	void put(byte[] buf, int ioffs, int numbyte) throws IOException {
-		synchronized(bb) {
-			int i = ioffs, runcount = numbyte, blkbytes;
-			// assume our position is set and we have space
-			if (bb.position() == (rangeSize - 1))
-				checkRange(bb.position() + 1);
-			//
-			for (;;) {
-				blkbytes = (rangeSize - 1) - bb.position();
-				if (runcount > blkbytes) {
-					runcount -= blkbytes;
-					bb.put(buf, i, blkbytes);
-					i += blkbytes;
-					checkRange(bb.position() + 1);
-				} else {
-					bb.put(buf, i, runcount);
-					return;
-				}
-			}
-			//bb.put(obuf, 0, osiz);
+	synchronized void put(byte[] buf, int ioffs, int numbyte) throws IOException {
+		int i = ioffs, runcount = numbyte;
+		while (runcount > 0) {
+			MappedByteBuffer bb = segment(position);
+			int rPos = (int) (position & SEGMENTMASK);
+			int blkbytes = Math.min(runcount, bb.capacity() - rPos);
+			if (blkbytes <= 0)
+				throw new BufferOverflowException();
+			bb.position(rPos);
+			bb.put(buf, i, blkbytes);
+			i += blkbytes;
+			runcount -= blkbytes;
+			position += blkbytes;
 		}
 	}
 	
-	void putInt(int obuf) throws IOException {
-		ByteBuffer tbb = ByteBuffer.allocate(4);
-		tbb.putInt(obuf);
-		put(tbb.array());
+	/**
+	 * Put the remaining bytes of the buffer, advancing its position.
+	 */
+	synchronized void put(ByteBuffer buf) throws IOException {
+		int limit = buf.limit();
+		while (buf.hasRemaining()) {
+			MappedByteBuffer bb = segment(position);
+			int rPos = (int) (position & SEGMENTMASK);
+			int blkbytes = Math.min(buf.remaining(), bb.capacity() - rPos);
+			if (blkbytes <= 0)
+				throw new BufferOverflowException();
+			bb.position(rPos);
+			buf.limit(buf.position() + blkbytes);
+			bb.put(buf);
+			buf.limit(limit);
+			position += blkbytes;
+		}
+	}
+	
+	/**
+	 * Position the segment for a primitive of size bytes at the current position.
+	 * @return the segment, or null if the primitive straddles a segment boundary
+	 */
+	private MappedByteBuffer primitive(int size) throws IOException {
+		MappedByteBuffer bb = segment(position);
+		int rPos = (int) (position & SEGMENTMASK);
+		if (rPos + size > bb.capacity())
+			return null;
+		bb.position(rPos);
+		position += size;
+		return bb;
+	}
+	
+	synchronized void putInt(int obuf) throws IOException {
+		MappedByteBuffer bb = primitive(4);
+		if (bb != null)
+			bb.putInt(obuf);
+		else {
+			scratch.clear();
+			scratch.putInt(obuf);
+			put(scratch.array(), 0, 4);
+		}
 	}
 	
-	void putLong(long obuf) throws IOException {
-		ByteBuffer tbb = ByteBuffer.allocate(8);
-		tbb.putLong(obuf);
-		put(tbb.array());
+	synchronized void putLong(long obuf) throws IOException {
+		MappedByteBuffer bb = primitive(8);
+		if (bb != null)
+			bb.putLong(obuf);
+		else {
+			scratch.clear();
+			scratch.putLong(obuf);
+			put(scratch.array(), 0, 8);
+		}
 	}
 	
-	void putShort(short obuf) throws IOException {
-		ByteBuffer tbb = ByteBuffer.allocate(2);
-		tbb.putShort(obuf);
-		put(tbb.array());
+	synchronized void putShort(short obuf) throws IOException {
+		MappedByteBuffer bb = primitive(2);
+		if (bb != null)
+			bb.putShort(obuf);
+		else {
+			scratch.clear();
+			scratch.putShort(obuf);
+			put(scratch.array(), 0, 2);
+		}
 	}
 	
-	void putByte(byte obuf) throws IOException {
-		ByteBuffer tbb = ByteBuffer.allocate(1);
-		tbb.put(obuf);
-		put(tbb.array());		
+	synchronized void putByte(byte obuf) throws IOException {
+		MappedByteBuffer bb = primitive(1);
+		if (bb == null)
+			throw new BufferOverflowException();
+		bb.put(obuf);
 	}
 	
 	// reading...
-	int get(byte[] buf, int ioffs, int numbyte) throws IOException {
-		synchronized(bb) {
-			int i = ioffs, runcount = numbyte, blkbytes;
-			// assume our position is set and we have space
-			if (bb.position() == (rangeSize - 1L))
-				checkRange(bb.position() + 1);
-			//
-			for (;;) {
-				blkbytes = (rangeSize - 1) - bb.position();
-				if (runcount > blkbytes) {
-					runcount -= blkbytes;
-					bb.get(buf, i, blkbytes);
-					i += blkbytes;
-					checkRange(bb.position() + 1);
-				} else {
-					bb.get(buf, i, runcount);
-					i += runcount;
-					break;
-				}
+	synchronized int get(byte[] buf, int ioffs, int numbyte) throws IOException {
+		int i = ioffs, runcount = numbyte;
+		while (runcount > 0) {
+			MappedByteBuffer bb = segment(position);
+			int rPos = (int) (position & SEGMENTMASK);
+			int blkbytes = Math.min(runcount, bb.capacity() - rPos);
+			if (blkbytes <= 0)
+				throw new BufferUnderflowException();
+			bb.position(rPos);
+			bb.get(buf, i, blkbytes);
+			i += blkbytes;
+			runcount -= blkbytes;
+			position += blkbytes;
+		}
+		return i;
+	}
+	
+	/**
+	 * Fill the remaining bytes of the buffer, advancing its position.
+	 * @return the number of bytes read
+	 */
+	synchronized int get(ByteBuffer buf) throws IOException {
+		int n = buf.remaining();
+		while (buf.hasRemaining()) {
+			MappedByteBuffer bb = segment(position);
+			int rPos = (int) (position & SEGMENTMASK);
+			int blkbytes = Math.min(buf.remaining(), bb.capacity() - rPos);
+			if (blkbytes <= 0)
+				throw new BufferUnderflowException();
+			ByteBuffer src = bb.duplicate();
+			src.position(rPos);
+			src.limit(rPos + blkbytes);
+			buf.put(src);
+			position += blkbytes;
+		}
+		return n;
+	}
+	
+	/**
+	 * Locate the segment containing the absolute target without the monitor, falling back to
+	 * {@link #segment(long)} under the monitor if it is not mapped far enough.
+	 * @return a duplicate of the segment positioned at the target, limited to its capacity or rangeTarg + len
+	 */
+	private ByteBuffer view(long rangeTarg, int len) throws IOException {
+		int index = (int) (rangeTarg >>> SEGMENTSHIFT);
+		int rPos = (int) (rangeTarg & SEGMENTMASK);
+		MappedByteBuffer[] segs = segments;
+		MappedByteBuffer bb = (index < segs.length ? segs[index] : null);
+		if (bb == null || rPos >= bb.capacity()) {
+			synchronized(this) {
+				bb = segment(rangeTarg);
 			}
-			//bb.get(b, 0, osiz);
-			return i;
+		}
+		ByteBuffer b = bb.duplicate();
+		b.limit(Math.min(bb.capacity(), rPos + len));
+		b.position(rPos);
+		return b;
+	}
+	/**
+	 * Absolute put of the remaining bytes of the buffer at offset, advancing its position.
+	 * The position of this buffer is not used or moved.
+	 */
+	void put(long offset, ByteBuffer buf) throws IOException {
+		int limit = buf.limit();
+		long pos = offset;
+		while (buf.hasRemaining()) {
+			ByteBuffer b = view(pos, buf.remaining());
+			int blkbytes = b.remaining();
+			if (blkbytes <= 0)
+				throw new BufferOverflowException();
+			buf.limit(buf.position() + blkbytes);
+			b.put(buf);
+			buf.limit(limit);
+			pos += blkbytes;
 		}
 	}
+	/**
+	 * Absolute get filling the remaining bytes of the buffer from offset, advancing its position.
+	 * The position of this buffer is not used or moved.
+	 * @return the number of bytes read
+	 */
+	int get(long offset, ByteBuffer buf) throws IOException {
+		int n = buf.remaining();
+		long pos = offset;
+		while (buf.hasRemaining()) {
+			ByteBuffer b = view(pos, buf.remaining());
+			int blkbytes = b.remaining();
+			if (blkbytes <= 0)
+				throw new BufferUnderflowException();
+			buf.put(b);
+			pos += blkbytes;
+		}
+		return n;
+	}
 	
 	int get(byte[] b) throws IOException {
 		return get(b, 0, b.length);
 	}
 	
-	int getInt() throws IOException {
-		byte[] b = new byte[4];
-		get(b);
-		ByteBuffer tbb = ByteBuffer.wrap(b);
-		return tbb.getInt();
+	synchronized int getInt() throws IOException {
+		MappedByteBuffer bb = primitive(4);
+		if (bb != null)
+			return bb.getInt();
+		get(scratch.array(), 0, 4);
+		return scratch.getInt(0);
 	}
 	
-	long getLong() throws IOException {
-		byte[] b = new byte[8];
-		get(b);
-		ByteBuffer tbb = ByteBuffer.wrap(b);
-		return tbb.getLong();
+	synchronized long getLong() throws IOException {
+		MappedByteBuffer bb = primitive(8);
+		if (bb != null)
+			return bb.getLong();
+		get(scratch.array(), 0, 8);
+		return scratch.getLong(0);
 	}
 	
-	short getShort() throws IOException {
-		byte[] b = new byte[2];
-		get(b);
-		ByteBuffer tbb = ByteBuffer.wrap(b);
-		return tbb.getShort();
+	synchronized short getShort() throws IOException {
+		MappedByteBuffer bb = primitive(2);
+		if (bb != null)
+			return bb.getShort();
+		get(scratch.array(), 0, 2);
+		return scratch.getShort(0);
 	}
 	
-	byte get() throws IOException {
-		byte[] b = new byte[1];
-		get(b);
-		return b[0];
+	synchronized byte get() throws IOException {
+		MappedByteBuffer bb = primitive(1);
+		if (bb == null)
+			throw new BufferUnderflowException();
+		return bb.get();
 	}
 
+
 }
@@ -45,7 +45,7 @@ public final class MmapIO implements IoInterface {
 	private File WO;
 	private FileOutputStream FO;
 	private FileChannel FC;
-	private LinkedMappedByteBuffer linkedMappedByteBuff;
+	private volatile LinkedMappedByteBuffer linkedMappedByteBuff;
 	private ByteBuffer bPageBuff =
 		ByteBuffer.allocate(DBPhysicalConstants.DBLOCKSIZ);
 	private RandomAccessFile RA;
@@ -81,7 +81,7 @@ public final class MmapIO implements IoInterface {
 		long iSize;
 		if (FC.size() == 0L)
 			iSize =
-				DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
+				(long) DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
 		else
 			iSize = FC.size();
 		// map the mem
@@ -99,7 +99,7 @@ public final class MmapIO implements IoInterface {
 		long iSize;
 		if (FC.size() == 0L) {
 			iSize =
-				DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
+				(long) DBPhysicalConstants.DBLOCKSIZ * DBPhysicalConstants.DBUCKETS;
 			fisnew = true;
 		} else {
 			iSize = FC.size();
@@ -133,7 +133,7 @@ public final class MmapIO implements IoInterface {
 	public synchronized void Fseek(long offset) throws IOException {
 		if( DEBUG || DEBUGSEEK)
 			System.out.println("MMapIO.Fseek "+offset+" from pos:"+linkedMappedByteBuff.position());
-		linkedMappedByteBuff.position((int) offset);
+		linkedMappedByteBuff.position(offset);
 	}
 	
 	public synchronized long Fsize() throws IOException {
@@ -176,6 +176,7 @@ public final class MmapIO implements IoInterface {
 		FC.write(bPageBuff);
 		bPageBuff.rewind();
 		FC.force(false);
+		linkedMappedByteBuff.extend(FC.size());
 	}
 	/**
 	 * Extend by 1 block by writing page buffer if position is at capacity value
@@ -190,6 +191,7 @@ public final class MmapIO implements IoInterface {
 			FC.write(bPageBuff);
 			bPageBuff.rewind();
 			FC.force(false);
+			linkedMappedByteBuff.extend(FC.size());
 		}
 	}
 	// writing..
@@ -205,6 +207,12 @@ public final class MmapIO implements IoInterface {
 		linkedMappedByteBuff.put(obuf, 0, osiz);
 	}
 	
+	public synchronized void Fwrite(ByteBuffer obuf) throws IOException {
+		if( DEBUG )
+			System.out.println("MMapIO.Fwrite @"+linkedMappedByteBuff.position()+" buffer:"+obuf);
+		linkedMappedByteBuff.put(obuf);
+	}
+	
 	public synchronized void Fwrite_int(int obuf) throws IOException {
 		if( DEBUG )
 			System.out.println("MMapIO.Fwrite_int @"+linkedMappedByteBuff.position()+" val:"+obuf);	
@@ -245,6 +253,29 @@ public final class MmapIO implements IoInterface {
 		return b.length;
 	}
 	
+	public synchronized int Fread(ByteBuffer b) throws IOException {
+		if( DEBUG )
+			System.out.println("MMapIO.Fread @"+linkedMappedByteBuff.position()+" buffer:"+b);
+		return linkedMappedByteBuff.get(b);
+	}
+	
+	/**
+	 * Absolute read from the mapped segments, the mapped position is not moved and the monitor is not taken.
+	 */
+	public int readPage(long offset, ByteBuffer dst) throws IOException {
+		if( DEBUG )
+			System.out.println("MMapIO.readPage @"+offset+" buffer:"+dst);
+		return linkedMappedByteBuff.get(offset, dst);
+	}
+	/**
+	 * Absolute write to the mapped segments, the mapped position is not moved and the monitor is not taken.
+	 */
+	public void writePage(long offset, ByteBuffer src) throws IOException {
+		if( DEBUG )
+			System.out.println("MMapIO.writePage @"+offset+" buffer:"+src);
+		linkedMappedByteBuff.put(offset, src);
+	}
+	
 	public synchronized int Fread_int() throws IOException {
 		if( DEBUG ) {	
 			int i = linkedMappedByteBuff.getInt();
@@ -324,13 +355,13 @@ public final class MmapIO implements IoInterface {
 	@Override
 	public synchronized void FseekAndWriteFully(Long block, Datablock dblk) throws IOException {
 		Fseek(block);
-		Fwrite(dblk.getData());
+		Fwrite(dblk.getPayload(DBPhysicalConstants.DATASIZE));
 	}
 
 	@Override
 	public synchronized void FseekAndWrite(Long block, Datablock dblk) throws IOException {
 		Fseek(block);
-		Fwrite(dblk.getData(), dblk.getBytesinuse());
+		Fwrite(dblk.getPayload(dblk.getBytesinuse()));
 	}
 	/*
 	@Override
@@ -342,7 +373,7 @@ public final class MmapIO implements IoInterface {
 	@Override
 	public synchronized void FseekAndRead(Long block, Datablock dblk) throws IOException {
 		Fseek(block);
-		Fread(dblk.getData());
+		Fread(dblk.getPayload(DBPhysicalConstants.DATASIZE));
 	}
 	
 	/*
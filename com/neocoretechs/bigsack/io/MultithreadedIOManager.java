@@ -70,21 +70,23 @@ public class MultithreadedIOManager implements IoManagerInterface {
 	 * is started. If there are any records in the log file they will scanned for low water marks and
 	 * checkpoints etc and the determination is made based on the type of log record encountered.
 	 * Our log granularity is the page level. We store DB blocks and their original mirrors to use in
-	 * recovery. At the end of recovery we restore the logs to their initial state, as we do on a commit. 
+	 * recovery. Each tablespace has its own log, and the logs are recovered concurrently on the worker threads
+	 * of their tablespaces. At the end of recovery we restore the logs to their initial state, as we do on a commit. 
 	 * There is a simple paradigm at work here, we carry a single block access index in another class and use it
 	 * to cursor through the blocks as we access them. The BlockStream class has the BlockAccessIndex and DBStream
 	 * for each tablespace. The cursor window block and read and written from seep store and buffer pool.
 	 */
 	public boolean initialize() throws IOException {
-		synchronized(bufferPool) {
-		for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
-			if( !isNew() ) {
-				// attempt recovery if needed
-				bufferPool.recover(i);
-			} else {
+		if( !isNew() ) {
+			// attempt recovery if needed, the tablespaces recover in parallel on their worker threads.
+			// The pool monitor is not held, recovery reaches the logs through getUlog
+			bufferPool.recover();
+		} else {
+			synchronized(bufferPool) {
+			for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
 				bufferPool.initialize(ioWorker[i]);
 			}
-		}
+			}
 		}
 		getNextFreeBlocks();
 		// Take block 0 from bufferpool
@@ -193,9 +195,8 @@ public class MultithreadedIOManager implements IoManagerInterface {
 		//	System.out.println("MultithreadedIOManager.FseekAndRead Tablespace_1_114688");
 		int tblsp = GlobalDBIO.getTablespace(toffset);
 		long tblock = GlobalDBIO.getBlock(toffset);
-		synchronized(ioWorker[tblsp]) {
-			ioWorker[tblsp].FseekAndRead(tblock, tblk);
-		}
+		// positional read, no need to hold the worker across a seek
+		ioWorker[tblsp].FseekAndRead(tblock, tblk);
 		//if( GlobalDBIO.valueOf(toffset).equals("Tablespace_1_114688"))
 		//	System.out.println("MultithreadedIOManager.FseekAndRead EXIT Tablespace_1_114688 "+tblk+" dump:"+tblk.blockdump());
 		//assert(tblk.getBytesused() != 0 && tblk.getBytesinuse() != 0) : "MultithreadedIOManager.FseekAndRead returned unusable block from offset "+GlobalDBIO.valueOf(toffset)+" "+tblk.blockdump();
@@ -256,15 +257,7 @@ public class MultithreadedIOManager implements IoManagerInterface {
 		synchronized(ioWorker[eliglbleTablespace]) {
 			BlockAccessIndex bai = ioWorker[eliglbleTablespace].getNextFreeBlock();
 			if(bai == null) {
-				StringBuilder s = new StringBuilder();
-				s.append("size=");
-				s.append(bufferPool.getBlockBuffer(eliglbleTablespace).getFreeBlockList().size());
-				s.append("|");
-				for(Long b : bufferPool.getBlockBuffer(eliglbleTablespace).getFreeBlockList().keySet()) {
-					s.append(b);
-					s.append("|");
-				}
-				throw new IOException("Failed to remove valid block from free list:"+GlobalDBIO.valueOf(bai.getBlockNum())+" "+s.toString());
+				throw new IOException("Failed to remove valid block from free list of tablespace "+eliglbleTablespace+" "+bufferPool.getBlockBuffer(eliglbleTablespace).getFreeSpaceMap());
 			}
 			if(DEBUG)
 				System.out.printf("%s getNextFree smallest Tablespace %d for next free block %s%n", this.getClass().getName(), eliglbleTablespace, bai);
@@ -290,14 +283,33 @@ public class MultithreadedIOManager implements IoManagerInterface {
 	
 	@Override
 	/**
-	 * Deallocate the outstanding block and call commit on the recovery log
+	 * Deallocate the outstanding block and call commit on the recovery log.
+	 * The commit of each tablespace forces the blocks it wrote before the log is reset. The inlog flags the commit resets
+	 * afterward are not forced again, a flag left set by a crash is harmless since a block is logged whenever it is written.
 	 * @throws IOException
 	 */
 	public void deallocOutstandingCommit() throws IOException {
 		if( DEBUG )
 			System.out.printf("%s.deallocOutstandingCommit invoking commitBufferFlush and deallocOutstanding...%n",this.getClass().getName());
 		commitBufferFlush();
-		Fforce();
+	}
+	
+	@Override
+	/**
+	 * Deallocate the outstanding blocks of a read. The latches are released without a commit unless a block
+	 * was written, in which case this is a commit.
+	 * @throws IOException
+	 */
+	public void deallocOutstandingRead() throws IOException {
+		boolean dirty;
+		synchronized(bufferPool) {
+			dirty = bufferPool.releaseBufferLatches();
+		}
+		if( dirty ) {
+			if( DEBUG )
+				System.out.printf("%s.deallocOutstandingRead found outstanding writes, committing%n",this.getClass().getName());
+			deallocOutstandingCommit();
+		}
 	}
 	
 	@Override
@@ -372,6 +384,15 @@ public class MultithreadedIOManager implements IoManagerInterface {
 		}	
 	}
 	
+	@Override
+	public void Fforce(int tblsp) throws IOException {
+		if( DEBUG )
+			System.out.printf("%s.Fforce(%d)%n",this.getClass().getName(),tblsp);
+		synchronized(ioWorker[tblsp]) {
+			ioWorker[tblsp].Fforce();
+		}
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.neocoretechs.bigsack.io.IoManagerInterface#Fforce()
 	 */
@@ -433,9 +454,7 @@ public class MultithreadedIOManager implements IoManagerInterface {
 	
 	@Override
 	public BlockAccessIndex findOrAddBlockAccess(long bn) throws IOException {
-		synchronized(bufferPool) {
-			return bufferPool.findOrAddBlockAccess(bn);
-		}
+		return bufferPool.findOrAddBlockAccess(bn);
 	}
 	
 	/**
@@ -518,6 +537,17 @@ public class MultithreadedIOManager implements IoManagerInterface {
 			blkV2.read((IoInterface) ioWorker[tblsp]);
 		}
 	}
+
+	@Override
+	/**
+	 * Perform an Fseek on the inlog flag of the block header and write the flag alone
+	 */
+	public void writeInlogDirect(int tblsp, long blkn, boolean inlog) throws IOException {
+		synchronized(ioWorker[tblsp]) {
+			((IOWorker) ioWorker[tblsp]).Fseek(GlobalDBIO.getBlock(blkn) + Datablock.INLOGFLAGPOSITION);
+			((IoInterface) ioWorker[tblsp]).Fwrite_byte((byte) (inlog ? 1 : 0));
+		}
+	}
 	
 	@Override
 	/**
@@ -35,6 +35,7 @@ public final class Optr implements Serializable {
 	public static Optr valueOf(long blk, short offset) { return new Optr(blk, offset); }
 	public static Optr valueOf(long blk) { return new Optr(blk, (short) 0); }
 	public final static Optr emptyPointer = new Optr(-1, (short) -1);
+	public final static long INLINEBLOCK = -2L; // block of a pointer to a payload stored inline in its key page, offset is position in page
     private long block;// first blk of object
     private short offset; // byte offset in block
     //
@@ -48,6 +49,7 @@ public final class Optr implements Serializable {
 		return block;
 	}
 	public boolean isEmptyPointer() { return ( this.block == -1 ); }
+	public boolean isInline() { return ( this.block == INLINEBLOCK ); }
 	
 	@Override
 	public boolean equals(Object opt) {
@@ -57,7 +59,7 @@ public final class Optr implements Serializable {
 	}
 	@Override
 	public String toString() {
-		return this.isEmptyPointer() ? "Empty" : (GlobalDBIO.valueOf(this.block)+","+String.valueOf(this.offset));
+		return this.isEmptyPointer() ? "Empty" : (this.isInline() ? "Inline,"+String.valueOf(this.offset) : (GlobalDBIO.valueOf(this.block)+","+String.valueOf(this.offset)));
 	}
 }
 
@@ -1,5 +1,7 @@
 package com.neocoretechs.bigsack.io;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 import com.neocoretechs.arieslogger.core.LogInstance;
 import com.neocoretechs.arieslogger.core.impl.FileLogger;
@@ -40,8 +42,8 @@ import com.neocoretechs.bigsack.io.pooled.MappedBlockBuffer;
 * When this module is instantiated the RecoveryLogManager is assigned and a roll forward recovery
 * is started. If there are any records in the log file they will scanned for low water marks and
 * checkpoints etc and the determination is made based on the type of log record encountered.
-* Our log granularity is the page level. We store DB blocks and their original mirrors to use in
-* recovery. At the end of recovery we restore the logs to their initial state, as we do on a commit. 
+* Our log granularity is the page level. We store the header and the changed byte runs of each DB block
+* against its original mirror in deep store, to use in recovery (see {@link UndoableBlock}). At the end of recovery we restore the logs to their initial state, as we do on a commit. 
 * There is a simple paradigm at work here, we carry a single block access index in this class and use it
 * to cursor through the blocks as we access them.
 * @author Jonathan Groff Copyright (C) NeoCoreTechs 2015,2021
@@ -54,6 +56,37 @@ public final class RecoveryLogManager  {
 	private LogInstance firstTrans = null;
 	private BlockAccessIndex tblk = null;
 	private int tablespace;
+	// group commit, blocks logged but awaiting the force of the log before they are written
+	private static boolean groupCommit = true;
+	private static long groupCommitBytes = 4L * 1024L * 1024L;
+	private final ArrayList<BlockAccessIndex> deferred = new ArrayList<BlockAccessIndex>();
+	// blocks logged since the last commit, whose deep store inlog flag the commit resets
+	private final LinkedHashSet<Long> loggedBlocks = new LinkedHashSet<Long>();
+	
+	public static boolean isGroupCommit() {
+		return groupCommit;
+	}
+	/**
+	 * Select group commit. When on, the blocks of a commit are logged without forcing the log, and the log is
+	 * forced once for all of them before they are written to the raw store.
+	 * When off the log is forced for every block. 
+	 * @param groupCommit
+	 */
+	public static void setGroupCommit(boolean groupCommit) {
+		RecoveryLogManager.groupCommit = groupCommit;
+	}
+	
+	public static long getGroupCommitBytes() {
+		return groupCommitBytes;
+	}
+	/**
+	 * Set the window of log bytes a commit may accumulate before the log is forced and the blocks
+	 * so far written, bounding the log buffered for a very large commit.
+	 * @param groupCommitBytes
+	 */
+	public static void setGroupCommitBytes(long groupCommitBytes) {
+		RecoveryLogManager.groupCommitBytes = groupCommitBytes;
+	}
 	
 	public GlobalDBIO getBlockIO() {
 		return globalDBIO;
@@ -87,6 +120,44 @@ public final class RecoveryLogManager  {
 	* @exception IOException if cannot open or write
 	*/
 	public synchronized void writeLog(BlockAccessIndex blk) throws IOException {
+		logBlock(blk, false);
+	}
+	/**
+	* Write log entry as part of a group. If group commit is selected the record is appended without forcing the log,
+	* and the block is written to the DB and its inlog and incore set by the {@link #flushLog()} that ends the group,
+	* or when the group exceeds the group commit window. Otherwise as {@link #writeLog(BlockAccessIndex)}.
+	* @param blk The block instance, payload of block about to be written to log
+	* @exception IOException if cannot open or write
+	*/
+	public synchronized void writeLogGroup(BlockAccessIndex blk) throws IOException {
+		if(!groupCommit) {
+			logBlock(blk, false);
+			return;
+		}
+		logBlock(blk, true);
+		if(fl.getDeferredBytes() >= groupCommitBytes)
+			flushLog();
+	}
+	/**
+	* Force the log once for the group of blocks logged by {@link #writeLogGroup(BlockAccessIndex)}, then write them to the DB.
+	* Set the blocks inlog true and incore false.
+	* @exception IOException if cannot write
+	*/
+	public synchronized void flushLog() throws IOException {
+		if(deferred.isEmpty())
+			return;
+		if( DEBUG ) {
+			System.out.printf("%s.flushLog tablespace %d forcing log for %d blocks%n",this.getClass().getName(),tablespace,deferred.size());
+		}
+		fl.flushDeferred(globalDBIO);
+		for(BlockAccessIndex blk : deferred) {
+			blk.getBlk().setInlog(true);
+			blk.getBlk().setIncore(false);
+		}
+		deferred.clear();
+	}
+	
+	private void logBlock(BlockAccessIndex blk, boolean defer) throws IOException {
 		if( DEBUG ) {
 			System.out.printf("%s.writeLog ioManager=%s blk=%s%n",this.getClass().getName(),globalDBIO.getIOManager(),blk.toString());
 		}
@@ -105,13 +176,17 @@ public final class RecoveryLogManager  {
 			System.out.printf("%s.writeLog read original page=%s%n",this.getClass().getName(),tblk);
 		}
 		UndoableBlock undoBlk = new UndoableBlock(tblk, blk);
+		LogInstance instance = (defer ? fl.logAndDefer(globalDBIO, undoBlk) : fl.logAndDo(globalDBIO, undoBlk));
 		if( firstTrans == null )
-			firstTrans = fl.logAndDo(globalDBIO, undoBlk);
-		else
-			fl.logAndDo(globalDBIO, undoBlk);
+			firstTrans = instance;
+		loggedBlocks.add(blk.getBlockNum());
 		if( DEBUG ) {
 			System.out.printf("%s.writeLog firstTrans=%s%n",this.getClass().getName(),firstTrans);
 		}
+		if( defer ) {
+			deferred.add(blk);
+			return;
+		}
 		blk.getBlk().setInlog(true);
 		blk.getBlk().setIncore(false);
 		if( DEBUG ) {
@@ -119,26 +194,40 @@ public final class RecoveryLogManager  {
 		}
 	}
 	/**
-	 * Remove archived files and reset log file 1 to its primordial state
+	 * Remove archived files and reset log file 1 to its primordial state. The inlog flag of each block
+	 * logged since the last commit is reset in deep store.<p/>
+	 * The blocks written since the last commit are forced to deep store before the log is reset, since
+	 * block writes are not forced one by one. The log was forced ahead of those writes.
 	 * 
 	 * @throws IOException
 	 */
 	public synchronized void commit(MappedBlockBuffer pool) throws IOException {
 			if(DEBUG) System.out.println("RecoveryLogManager.commit called for db "+ltf.getDBName()+" tablespace "+tablespace+" log seq. int.");
+			flushLog();
+			if(!loggedBlocks.isEmpty())
+				globalDBIO.getIOManager().Fforce(tablespace);
 			firstTrans = null;
-			fl.commit(globalDBIO, pool);
+			fl.commit(globalDBIO, pool, loggedBlocks);
+			loggedBlocks.clear();
 			ltf.stop();
 	}
 
 	/**
-	 * Version of method called when starting and we see an undolog ready to restore 
+	 * Version of method called when starting and we see an undolog ready to restore.<p/>
+	 * The blocks rewritten by the undo are forced to deep store before the log is reset, as in {@link #commit(MappedBlockBuffer)}.
 	 * @throws IOException
 	 */
 	public synchronized void rollBack() throws IOException {
+		// logged blocks never written need no undo, their records restore what is already on disk
+		deferred.clear();
+		fl.discardDeferred();
+		loggedBlocks.clear();
 		if( firstTrans != null) {
 			if(DEBUG)
 				System.out.printf("%s Rolling back %d%n",this.getClass().getName(), tablespace);
 			fl.undo(globalDBIO, firstTrans, null);
+			// the compensating writes are not forced one by one, force them before the log that could undo them is gone
+			globalDBIO.getIOManager().Fforce(tablespace);
 			if(DEBUG) 
 				System.out.println("RecoveryLogManager.rollback Undo initial transaction recorded for rollback in tablespace "+tablespace+" in "+ltf.getDBName());
 			firstTrans = null;
@@ -151,7 +240,7 @@ public final class RecoveryLogManager  {
 	
 	
 	/**
-	 * Take a checkpoint. Force buffer flush, then write checkpoint. A checkpoint demarcates
+	 * Take a checkpoint. Force buffer flush and the blocks written to deep store, then write checkpoint. A checkpoint demarcates
 	 * a recovery position in logs from which a recovery will roll forward. An undo from a checkpoint
 	 * will restore the raw store to its state at that checkpoint. Use with caution and only with wise counsel. 
 	 * TODO Make it a request? Or is a checkpoint imperative?
@@ -159,6 +248,8 @@ public final class RecoveryLogManager  {
 	 * @throws IOException
 	 */
 	public synchronized void checkpoint() throws IllegalAccessException, IOException {
+		flushLog();
+		globalDBIO.getIOManager().Fforce(tablespace);
 		ltf.checkpoint(true);
 		if( DEBUG ) 
 			System.out.printf("%s.checkpoint. Checkpoint taken for db %s %d%n",this.getClass().getName(),globalDBIO.getDBName(),tablespace);
@@ -1,7 +1,9 @@
 package com.neocoretechs.bigsack.io;
 
+import java.io.Externalizable;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 import com.neocoretechs.arieslogger.core.LogInstance;
 import com.neocoretechs.arieslogger.core.impl.CompensationBlock;
@@ -9,7 +11,9 @@ import com.neocoretechs.arieslogger.logrecords.Compensation;
 import com.neocoretechs.arieslogger.logrecords.Loggable;
 import com.neocoretechs.arieslogger.logrecords.Undoable;
 
+import com.neocoretechs.bigsack.DBPhysicalConstants;
 import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 
 /**
@@ -17,15 +21,32 @@ import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
  *	apply the change to the rawStore.<br/>
  *	Any optional data the applyChange method needs is first written to the log
  *	stream using operation.writeOptionalData, then whatever is written to
- *	the log stream is passed back to the operation for the applyChange method.
+ *	the log stream is passed back to the operation for the applyChange method.<p/>
+ *	The record is physiological. Rather than the before and after images of the whole block, the log holds
+ *	the block number, both versions of the header, and only the runs of payload bytes that differ between
+ *	the images, each with its before and after bytes. Bytes past the bytes used of an image are never read, so
+ *	they are neither compared nor logged, and a block new to the log costs about its used bytes.
+ *	Redo reads the block from deep store and lays the after bytes over it, undo lays the before bytes.
+ *	Replaying the records of a block in log order, or undoing them in reverse order, arrives at the same
+ *	block the images would have.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
  *
  */
-public final class UndoableBlock implements Undoable, Serializable {
+public final class UndoableBlock implements Undoable, Externalizable {
 	private static final long serialVersionUID = 3823704109110419908L;
-	private BlockAccessIndex blkV1,blkV2; // utility blocks
 	private static boolean DEBUG = false;
-	
+	// runs of differing bytes this close together are logged as one run, a run costs 4 bytes of offset and length
+	private static final int RUNGAP = 2;
+	private transient BlockAccessIndex blkV1,blkV2; // utility blocks, present when the record is logged
+	private long blockNum;
+	private long prevV1, nextV1, prevV2, nextV2;
+	private short usedV1, inuseV1, usedV2, inuseV2;
+	private boolean inlogV1, inlogV2;
+	private short[] runs; // offset, length pairs of the differing runs of the payload
+	private byte[] before, after; // the bytes of the runs within the bytes used of each image, concatenated
+
+	public UndoableBlock() {}
+
 	public UndoableBlock(BlockAccessIndex tblk, BlockAccessIndex blk) {
 		blkV1 = tblk;
 		blkV2 = blk;
@@ -39,23 +60,184 @@ public final class UndoableBlock implements Undoable, Serializable {
 		return blkV2;
 	}
 
+	public long getBlockNum() {
+		return blkV2 != null ? blkV2.getBlockNum() : blockNum;
+	}
+
 	/**
 	* When writing out a log record to the log stream, logger will call its applyChange method to
 	*	apply the change to the rawStore.
 	*	Any optional data the applyChange method needs is first written to the log
 	*	stream using operation.writeOptionalData, then whatever is written to
-	*	the log stream is passed back to the operation for the applyChange method.
+	*	the log stream is passed back to the operation for the applyChange method.<p/>
+	*	When the record is logged the whole changed block is written. When it is read back from the log
+	*	in recovery, the after bytes are laid over the block in deep store.
 	*/
 	@Override
 	public void applyChange(GlobalDBIO globalIO, LogInstance instance, Object in) throws IOException {
 		if( DEBUG  ) {
-			System.out.println("UndoableBlock.applyChange: instance:"+instance+" raw store"+blkV2.getBlockNum()+","+blkV2.getBlk());
+			System.out.println("UndoableBlock.applyChange: instance:"+instance+" raw store "+this);
+		}
+		if(blkV2 == null) {
+			rewrite(globalIO, false);
+			return;
 		}
 		int tblsp = GlobalDBIO.getTablespace(blkV2.getBlockNum());
 		globalIO.getIOManager().writeDirect(tblsp, blkV2.getBlockNum(), blkV2.getBlk());
 		// deallocate
 		blkV2.decrementAccesses();
 	}
+	/**
+	 * Undo the change, lay the before header and bytes over the block in deep store.
+	 * Called from the applyChange of the {@link CompensationBlock}.
+	 * @param globalIO
+	 * @throws IOException
+	 */
+	public void undoChange(GlobalDBIO globalIO) throws IOException {
+		if( DEBUG  ) {
+			System.out.println("UndoableBlock.undoChange: raw store "+this);
+		}
+		rewrite(globalIO, true);
+	}
+
+	private void rewrite(GlobalDBIO globalIO, boolean undo) throws IOException {
+		int tblsp = GlobalDBIO.getTablespace(blockNum);
+		Datablock dblk = new Datablock(DBPhysicalConstants.DATASIZE);
+		globalIO.getIOManager().readDirect(tblsp, blockNum, dblk);
+		dblk.setPrevblk(undo ? prevV1 : prevV2);
+		dblk.setNextblk(undo ? nextV1 : nextV2);
+		dblk.setBytesused(undo ? usedV1 : usedV2);
+		dblk.setBytesinuse(undo ? inuseV1 : inuseV2);
+		dblk.setInlog(undo ? inlogV1 : inlogV2);
+		byte[] src = (undo ? before : after);
+		int used = (undo ? usedV1 : usedV2);
+		int pos = 0;
+		for(int i = 0; i < runs.length; i += 2) {
+			int len = clip(runs[i], runs[i+1], used);
+			dblk.put(runs[i], src, pos, len);
+			pos += len;
+		}
+		globalIO.getIOManager().writeDirect(tblsp, blockNum, dblk);
+	}
+	/**
+	 * Take the headers from the logged images and find the runs of payload bytes that differ between them.
+	 */
+	private void prepare() {
+		blockNum = blkV2.getBlockNum();
+		Datablock d1 = blkV1.getBlk();
+		Datablock d2 = blkV2.getBlk();
+		prevV1 = d1.getPrevblk();
+		nextV1 = d1.getNextblk();
+		usedV1 = d1.getBytesused();
+		inuseV1 = d1.getBytesinuse();
+		inlogV1 = d1.isInlog();
+		prevV2 = d2.getPrevblk();
+		nextV2 = d2.getNextblk();
+		usedV2 = d2.getBytesused();
+		inuseV2 = d2.getBytesinuse();
+		inlogV2 = d2.isInlog();
+		int limit = Math.max(usedV1, usedV2);
+		byte[] b1 = new byte[limit];
+		byte[] b2 = new byte[limit];
+		d1.get(0, b1, 0, usedV1);
+		d2.get(0, b2, 0, usedV2);
+		short[] r = new short[16];
+		int nruns = 0, nbefore = 0, nafter = 0;
+		int i = 0;
+		while(i < limit) {
+			if(b1[i] == b2[i]) {
+				++i;
+				continue;
+			}
+			int start = i, end = ++i;
+			while(i < limit && i - end <= RUNGAP) {
+				if(b1[i] != b2[i])
+					end = i + 1;
+				++i;
+			}
+			i = end;
+			if(nruns + 2 > r.length) {
+				short[] nr = new short[r.length * 2];
+				System.arraycopy(r, 0, nr, 0, nruns);
+				r = nr;
+			}
+			r[nruns++] = (short) start;
+			r[nruns++] = (short) (end - start);
+			nbefore += clip(start, end - start, usedV1);
+			nafter += clip(start, end - start, usedV2);
+		}
+		runs = new short[nruns];
+		System.arraycopy(r, 0, runs, 0, nruns);
+		before = new byte[nbefore];
+		after = new byte[nafter];
+		int pos1 = 0, pos2 = 0;
+		for(int j = 0; j < nruns; j += 2) {
+			int len1 = clip(runs[j], runs[j+1], usedV1);
+			int len2 = clip(runs[j], runs[j+1], usedV2);
+			System.arraycopy(b1, runs[j], before, pos1, len1);
+			System.arraycopy(b2, runs[j], after, pos2, len2);
+			pos1 += len1;
+			pos2 += len2;
+		}
+		if( DEBUG )
+			System.out.printf("%s.prepare block %s %d runs of %d before and %d after bytes%n", this.getClass().getName(), GlobalDBIO.valueOf(blockNum), nruns/2, nbefore, nafter);
+	}
+
+	/**
+	 * @return The part of the run at offset of length len that lies within the used bytes of an image
+	 */
+	private static int clip(int offset, int len, int used) {
+		return Math.max(0, Math.min(offset + len, used) - offset);
+	}
+
+	@Override
+	public void writeExternal(ObjectOutput out) throws IOException {
+		if(blkV2 != null)
+			prepare();
+		out.writeLong(blockNum);
+		out.writeLong(prevV1);
+		out.writeLong(nextV1);
+		out.writeShort(usedV1);
+		out.writeShort(inuseV1);
+		out.writeBoolean(inlogV1);
+		out.writeLong(prevV2);
+		out.writeLong(nextV2);
+		out.writeShort(usedV2);
+		out.writeShort(inuseV2);
+		out.writeBoolean(inlogV2);
+		out.writeShort(runs.length / 2);
+		for(int i = 0; i < runs.length; i++)
+			out.writeShort(runs[i]);
+		out.write(before);
+		out.write(after);
+	}
+
+	@Override
+	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+		blockNum = in.readLong();
+		prevV1 = in.readLong();
+		nextV1 = in.readLong();
+		usedV1 = in.readShort();
+		inuseV1 = in.readShort();
+		inlogV1 = in.readBoolean();
+		prevV2 = in.readLong();
+		nextV2 = in.readLong();
+		usedV2 = in.readShort();
+		inuseV2 = in.readShort();
+		inlogV2 = in.readBoolean();
+		runs = new short[(in.readShort() & 0xFFFF) * 2];
+		int nbefore = 0, nafter = 0;
+		for(int i = 0; i < runs.length; i += 2) {
+			runs[i] = in.readShort();
+			runs[i+1] = in.readShort();
+			nbefore += clip(runs[i], runs[i+1], usedV1);
+			nafter += clip(runs[i], runs[i+1], usedV2);
+		}
+		before = new byte[nbefore];
+		after = new byte[nafter];
+		in.readFully(before);
+		in.readFully(after);
+	}
 
 	@Override
 	public byte[] getPreparedLog() throws IOException {
@@ -96,6 +278,8 @@ public final class UndoableBlock implements Undoable, Serializable {
 	}
 
 	public String toString() {
-		return "Undoable block version 1:"+blkV1+" version 2:"+blkV2;
+		if(blkV2 != null)
+			return "Undoable block version 1:"+blkV1+" version 2:"+blkV2;
+		return "Undoable block "+GlobalDBIO.valueOf(blockNum)+" runs:"+(runs == null ? 0 : runs.length/2)+" bytes:"+(after == null ? 0 : after.length);
 	}
 }
@@ -43,7 +43,8 @@ import com.neocoretechs.bigsack.keyvaluepages.RootKeyPageInterface;
 *
 */
 /**
-* Class instances reside in the managed buffer pool via soft reference and undergo expiration and access control.<p/>
+* Class instances reside in the managed buffer pool, where the access latch pins them and the reference bit
+* gives them a second chance against eviction.<p/>
 * This class provides the link between deep store and the object model for the key/value instances.<p/>
 * Holds the page block buffer for one block. The primary payload is in an instance of {@link Datablock}.<p/> 
 * Maintains the index that indicates the read/write position for the block.<p/>  Controls access and enforces
@@ -61,6 +62,7 @@ public final class BlockAccessIndex implements Comparable, Serializable {
 	//private boolean DEBUGPUTDATA;
 	private Datablock blk;
 	private transient int accesses = 0;
+	private transient volatile boolean referenced = false; // CLOCK reference bit, set on each pool hit
 	private long blockNum = -1L;
 	protected short byteindex = -1;
 	//public static long expiryTimeDelta = 60000;
@@ -127,7 +129,7 @@ public final class BlockAccessIndex implements Comparable, Serializable {
 		//	System.out.println("init() read lock count:"+lock.getReadLockCount());
 		//	lock.readLock().unlock();
 		//}
-		setBlk(new Datablock(DBPhysicalConstants.DATASIZE));
+		setBlk(sdbio.createDatablock());
 	}
 	/**
 	 * Since our constructors are protected to limit creation of pages to buffer pool, 
@@ -156,6 +158,19 @@ public final class BlockAccessIndex implements Comparable, Serializable {
 		byteindex = 0;
 		blk.resetBlock();
 	}
+	/**
+	 * @return true if the block was referenced since the pool eviction hand last passed it
+	 */
+	public boolean isReferenced() {
+		return referenced;
+	}
+	/**
+	 * Set or clear the reference bit examined by the pool replacement policy. Not synchronized, it is only a hint.
+	 * @param referenced
+	 */
+	public void setReferenced(boolean referenced) {
+		this.referenced = referenced;
+	}
 	/**
 	 * Get the number of accesses
 	 * @return
@@ -1,7 +1,6 @@
 package com.neocoretechs.bigsack.io.pooled;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -86,6 +85,7 @@ public class BufferPool {
 		blockBuffer[tablespace] = new MappedBlockBuffer(ioWorker, tablespace);
 		//blockStream[tablespace] = new BlockStream(tablespace, blockBuffer[tablespace]);
 		undoLog[tablespace] = new RecoveryLogManager(globalDBIO,tablespace);
+		blockBuffer[tablespace].setRecoveryLogManager(undoLog[tablespace]);
 		// Set the BlockStream as an observer of the block change events generated by 'getnextblk' in MappedBlockbuffer
 		//blockBuffer[tablespace].addBlockChangeObserver(blockStream[tablespace]);
 	}
@@ -101,6 +101,53 @@ public class BufferPool {
 	public synchronized void recover(int i) throws IOException {
 		undoLog[i].getLogToFile().recover();	
 	}
+	/**
+	 * Perform rollback recovery from the recovery log files of all tablespaces at once.
+	 * Each tablespace has its own log, so each recovery is spun on the worker group of its tablespace.
+	 * Every recovery is run to its end, the first failure is then thrown.
+	 * The time taken by each tablespace is reported upon completion.
+	 * @throws IOException If the recovery of any tablespace fails
+	 */
+	public void recover() throws IOException {
+		long tims = System.currentTimeMillis();
+		Future<?>[] futureArray = new Future<?>[DBPhysicalConstants.DTABLESPACES];
+		try {
+			for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+				futureArray[i] = ThreadPoolManager.getInstance().spin(callRecover(undoLog[i]), ioWorkerNames[i]);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+		IOException fault = null;
+		for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+			try {
+				futureArray[i].get();
+			} catch (InterruptedException | ExecutionException e) {
+				if(fault == null)
+					fault = (e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e));
+			}
+		}
+		if(fault != null)
+			throw fault;
+		StringBuilder sb = new StringBuilder();
+		int recovered = 0;
+		for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+			long millis = undoLog[i].getLogToFile().getRecoveryMillis();
+			if(millis > 0) {
+				++recovered;
+				sb.append(' ').append(i).append('=').append(millis).append("ms");
+			}
+		}
+		if(recovered > 0 || DEBUG)
+			System.out.printf("%s.recover %s recovered %d tablespaces in %d ms:%s%n",this.getClass().getName(),globalDBIO.getDBName(),recovered,(System.currentTimeMillis()-tims),sb.toString());
+	}
+	
+	public Callable<Object> callRecover(RecoveryLogManager logManager) { 
+		return () -> {
+			logManager.getLogToFile().recover();
+			return true;
+		};
+	}
 	/**
 	 * Write the headers for the blocks after allocating the blocks for a newly created database.
 	 * @param ioWorker The {@link IOWorker} for the tablespace to initialize
@@ -226,6 +273,20 @@ public class BufferPool {
 	public void deallocOutstanding(BlockAccessIndex bai) throws IOException { 
 		bai.decrementAccesses();
 	}
+	/**
+	 * Release the latches taken by a read in each tablespace on the calling thread. Nothing is logged or forced,
+	 * so there is no work to queue to the IO workers.
+	 * @return true if some tablespace holds a block that still has to be committed
+	 * @throws IOException
+	 */
+	public synchronized boolean releaseBufferLatches() throws IOException {
+		boolean dirty = false;
+		for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
+			if(blockBuffer[i].releaseBufferLatches())
+				dirty = true;
+		}
+		return dirty;
+	}
 	
 
 	/**
@@ -250,11 +311,12 @@ public class BufferPool {
 	}
 	/**
 	 * Formulate a request to the page buffer to bring target page into the pool and latch it.
+	 * The tablespace buffer does its own latching, so resident pages are found without the pool monitor.
 	 * @param bn The target virtual block number
 	 * @return
 	 * @throws IOException 
 	 */
-	public synchronized BlockAccessIndex findOrAddBlockAccess(long bn) throws IOException {
+	public BlockAccessIndex findOrAddBlockAccess(long bn) throws IOException {
 		if( DEBUG )
 			System.out.printf("%s.findOrAddBlockAccess %s%n",this.getClass().getName(),GlobalDBIO.valueOf(bn));
 		int tblsp = GlobalDBIO.getTablespace(bn);
@@ -309,6 +371,7 @@ public class BufferPool {
 				for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
 					//futureArray[i].get();
 					undoLog[i].commit(blockBuffer[i]);
+					blockBuffer[i].getFreeSpaceMap().save();
 					if(DEBUG)
 						System.out.printf("%s next commit for tablespace %d%n", this.getClass().getName(),i);
 				}
@@ -356,6 +419,7 @@ public class BufferPool {
 			for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
 				//futureArray[i] = ThreadPoolManager.getInstance().spin(callCheckpoint(undoLog[i]), ioWorkerNames[i]);
 				undoLog[i].checkpoint();
+				blockBuffer[i].getFreeSpaceMap().save();
 			}
 			//for (int i = 0; i < DBPhysicalConstants.DTABLESPACES; i++) {
 				//futureArray[i].get();
@@ -3,6 +3,8 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
 import com.neocoretechs.bigsack.io.IoInterface;
@@ -35,12 +37,16 @@ import com.neocoretechs.bigsack.io.IoInterface;
 * composed of header and data payload whose total size is the constant DBLOCKSIZ
 * The usual pattern is to have these methods call back through an IoInterface to perform
 * specific low level record writes. IoInterface is accessed through a request that has been queued
-* and is being serviced, thus, direct calls back to the file store are appropriate.
+* and is being serviced, thus, direct calls back to the file store are appropriate.<p/>
+* The data payload is either a heap array or, for blocks of the buffer pool when off heap frames are
+* selected, a frame of a {@link FrameArena}. Access the payload through the get and put methods, which serve both.
 * 
 * @author Jonathan Groff Copyright (C) NeoCoreTechs 1997,2014,2021
 */
 public final class Datablock implements Externalizable {
 	private static boolean DEBUG = false;
+	// page image of the calling thread for the single transfer encode and decode
+	private static final ThreadLocal<ByteBuffer> page = ThreadLocal.withInitial(() -> ByteBuffer.allocate(DBPhysicalConstants.DBLOCKSIZ));
 	public static final int DATABLOCKHEADERSIZE = 21;
 	public static final short INLOGFLAGPOSITION = 20;
 	private long prevblk = -1L; // offset to prev blk in chain
@@ -48,7 +54,8 @@ public final class Datablock implements Externalizable {
 	private short bytesused; // bytes used this blk-highwater mark
 	private short bytesinuse; // actual # of bytes in use
 	private byte inlog = 0; // written to log since incore?
-	byte data[]; // data section of blk
+	byte data[]; // data section of blk, null if frame backed
+	private ByteBuffer frame = null; // off heap data section of blk
 	private boolean incore = false; // is it modified?
 	private static final long serialVersionUID = 1L;
 	//
@@ -67,6 +74,38 @@ public final class Datablock implements Externalizable {
 		datasize = tdatasize;
 		data = new byte[datasize];
 	}
+	/**
+	 * Initialize the datablock with its data payload in a frame of the arena
+	 * @param arena The off heap frames, or null to allocate the payload on heap
+	 */
+	public Datablock(FrameArena arena) {
+		if(arena == null) {
+			datasize = DBPhysicalConstants.DATASIZE;
+			data = new byte[datasize];
+		} else {
+			datasize = arena.getFrameSize();
+			frame = arena.allocate(this);
+		}
+	}
+	/**
+	 * @param len The number of payload bytes
+	 * @return a view of the first len bytes of the payload, positioned at 0, for channel or mapped IO
+	 */
+	public synchronized ByteBuffer getPayload(int len) {
+		if(frame == null)
+			return ByteBuffer.wrap(data, 0, len);
+		return frame(len);
+	}
+	/**
+	 * @param len The number of payload bytes
+	 * @return a view of the first len bytes of the frame, positioned at 0
+	 */
+	private ByteBuffer frame(int len) {
+		ByteBuffer b = frame.duplicate();
+		b.limit(len);
+		b.position(0);
+		return b;
+	}
 	/**
 	* Write the header and data portion to IoInterface implementor.
 	* Primarily for freechain create as we used writeUsed otherwise
@@ -74,12 +113,72 @@ public final class Datablock implements Externalizable {
 	* @exception IOException error writing field
 	*/
 	public synchronized void write(IoInterface fobj) throws IOException {
-			fobj.Fwrite_long(getPrevblk());
-			fobj.Fwrite_long(getNextblk());
-			fobj.Fwrite_short(getBytesused());
-			fobj.Fwrite_short(getBytesinuse());
-			fobj.Fwrite_byte(inlog);
-			fobj.Fwrite(data);
+			fobj.Fwrite(encode(datasize));
+	}
+
+	/**
+	* Write the header and data portion to IoInterface implementor at the offset, using the positional
+	* writes so no file position is shared with other callers.
+	* @param fobj the IoInterface
+	* @param offset the real offset of the block
+	* @exception IOException error writing field
+	*/
+	public synchronized void write(IoInterface fobj, long offset) throws IOException {
+			fobj.writePage(offset, encode(datasize));
+	}
+	
+	/**
+	* Write the header and used data portion to IoInterface implementor at the offset, using the positional
+	* writes so no file position is shared with other callers.
+	* @param fobj the IoInterface
+	* @param offset the real offset of the block
+	* @exception IOException error writing field
+	*/
+	public synchronized void writeUsed(IoInterface fobj, long offset) throws IOException {
+			fobj.writePage(offset, encode(getBytesused()));
+	}
+	
+	/**
+	 * @param len The size of the page image wanted
+	 * @return the page image buffer of the calling thread, cleared and limited to len
+	 */
+	private static ByteBuffer page(int len) {
+		ByteBuffer b = page.get();
+		if(b.capacity() < len) {
+			b = ByteBuffer.allocate(len);
+			page.set(b);
+		}
+		b.clear();
+		b.limit(len);
+		return b;
+	}
+	/**
+	 * Encode the header and the first len bytes of the payload into the page image of the calling
+	 * thread so the block goes out in a single transfer.
+	 * @param len The number of payload bytes
+	 * @return the page image, positioned at 0 and limited to the header plus len
+	 */
+	private ByteBuffer encode(int len) {
+		ByteBuffer b = page(DATABLOCKHEADERSIZE + len);
+		b.putLong(prevblk);
+		b.putLong(nextblk);
+		b.putShort(bytesused);
+		b.putShort(bytesinuse);
+		b.put(inlog);
+		get(0, b, len);
+		b.flip();
+		return b;
+	}
+	/**
+	 * Parse the header in place from the page image at its position, advancing it past the header.
+	 * @param b the page image
+	 */
+	private void decodeHeader(ByteBuffer b) {
+		prevblk = b.getLong();
+		nextblk = b.getLong();
+		bytesused = b.getShort();
+		bytesinuse = b.getShort();
+		setInLog(b.get());
 	}
 
 	/**
@@ -88,17 +187,7 @@ public final class Datablock implements Externalizable {
 	* @exception IOException error writing field
 	*/
 	public synchronized void writeUsed(IoInterface fobj) throws IOException {
-		//synchronized(fobj) {
-			fobj.Fwrite_long(getPrevblk());
-			fobj.Fwrite_long(getNextblk());
-			fobj.Fwrite_short(getBytesused());
-			fobj.Fwrite_short(getBytesinuse());
-			fobj.Fwrite_byte(inlog);
-			if (getBytesused() == datasize)
-				fobj.Fwrite(data);
-			else
-				fobj.Fwrite(data, getBytesused());
-		//}
+			fobj.Fwrite(encode(getBytesused()));
 	}
 
 	/**
@@ -108,11 +197,7 @@ public final class Datablock implements Externalizable {
 	* @exception IOException error writing field
 	*/
 	public synchronized void writeHeader(IoInterface fobj) throws IOException {
-			fobj.Fwrite_long(getPrevblk());
-			fobj.Fwrite_long(getNextblk());
-			fobj.Fwrite_short(getBytesused());
-			fobj.Fwrite_short(getBytesinuse());
-			fobj.Fwrite_byte(inlog);
+			fobj.Fwrite(encode(0));
 	}
 	
 	/**
@@ -158,17 +243,14 @@ public final class Datablock implements Externalizable {
 	* @exception IOException error reading field
 	*/
 	public synchronized void read(IoInterface fobj) throws IOException {
-		//synchronized(fobj) {
-			setPrevblk(fobj.Fread_long());
-			setNextblk(fobj.Fread_long());
-			setBytesused(fobj.Fread_short());
-			setBytesinuse(fobj.Fread_short());
-			setInLog(fobj.Fread_byte());
-			if (fobj.Fread(data, datasize) != datasize) {
+			ByteBuffer b = page(DATABLOCKHEADERSIZE + datasize);
+			if (fobj.Fread(b) != DATABLOCKHEADERSIZE + datasize) {
 				throw new IOException(
 						"Datablock read size invalid " + this.toString());
 			}
-		//}
+			b.flip();
+			decodeHeader(b);
+			put(0, b, datasize);
 	}
 	
 	/**
@@ -177,46 +259,74 @@ public final class Datablock implements Externalizable {
 	* @exception IOException error reading field
 	*/
 	public synchronized void readHeader(IoInterface fobj) throws IOException {
-			setPrevblk(fobj.Fread_long());
-			setNextblk(fobj.Fread_long());
-			setBytesused(fobj.Fread_short());
-			setBytesinuse(fobj.Fread_short());
-			setInLog(fobj.Fread_byte());
+			ByteBuffer b = page(DATABLOCKHEADERSIZE);
+			if (fobj.Fread(b) != DATABLOCKHEADERSIZE) {
+				throw new IOException("Datablock header read size invalid " + this.toString());
+			}
+			b.flip();
+			decodeHeader(b);
+	}
+	
+	/**
+	* Read the header portion from IoInterface implementor at the offset, using the positional read.
+	* @param fobj the IoInterface
+	* @param offset the real offset of the block
+	* @exception IOException error reading field
+	*/
+	public synchronized void readHeader(IoInterface fobj, long offset) throws IOException {
+			ByteBuffer b = page(DATABLOCKHEADERSIZE);
+			if (fobj.readPage(offset, b) != DATABLOCKHEADERSIZE) {
+				throw new IOException("Datablock header read size invalid at " + offset);
+			}
+			b.flip();
+			decodeHeader(b);
 	}
 	
 	public void setInLog(byte fbyte) {
 		setInlog((fbyte == 0 ? false : true));	
 	}
+	/**
+	* Read the header and used data portion from IoInterface implementor at the offset, using the positional
+	* reads so reads of different blocks in a tablespace need not serialize on a file position.
+	* @param fobj the IoInterface
+	* @param offset the real offset of the block
+	* @exception IOException error reading field
+	*/
+	public synchronized void readUsed(IoInterface fobj, long offset) throws IOException {
+			ByteBuffer b = page(DATABLOCKHEADERSIZE + datasize);
+			int n = fobj.readPage(offset, b);
+			if (n < DATABLOCKHEADERSIZE) {
+				throw new IOException("Datablock header read size invalid at " + offset);
+			}
+			b.flip();
+			decodeHeader(b);
+			if (getBytesused() > datasize) {
+				throw new IOException("block inconsistency " + this.toString());
+			}
+			if (n - DATABLOCKHEADERSIZE < getBytesused()) {
+				throw new IOException(
+						"Datablock read size invalid " + this.toString());
+			}
+			put(0, b, getBytesused());
+	}
+	
 	/**
 	* read the header and used data portion from IoInterface implementor
 	* @param fobj the IoInterface
 	* @exception IOException error reading field
 	*/
 	public synchronized void readUsed(IoInterface fobj) throws IOException {
-		//synchronized(fobj) {
-			setPrevblk(fobj.Fread_long());
-			setNextblk(fobj.Fread_long());
-			setBytesused(fobj.Fread_short());
-			setBytesinuse(fobj.Fread_short());
-			setInLog(fobj.Fread_byte());
+			readHeader(fobj);
 			if (getBytesused() > datasize) {
 				throw new IOException("block inconsistency " + this.toString());
 			}
-			if (getBytesused() == datasize) {
-				if (fobj.Fread(data) != datasize) {
-					throw new IOException(
-							"Datablock read size invalid " + this.toString());
-				}
-			} else {
-				if (fobj.Fread(data, getBytesused()) != getBytesused()) { 
-					throw new IOException(
-					"Datablock read error bytesused="
-						+ String.valueOf(getBytesused())
-						+ " bytesinuse="
-						+ String.valueOf(getBytesinuse()));
-				}
+			if (getBytesused() > 0 && fobj.Fread(getPayload(getBytesused())) != getBytesused()) {
+				throw new IOException(
+				"Datablock read error bytesused="
+					+ String.valueOf(getBytesused())
+					+ " bytesinuse="
+					+ String.valueOf(getBytesinuse()));
 			}
-		//}
 	}
 	
 	/**
@@ -230,7 +340,11 @@ public final class Datablock implements Externalizable {
 		out.writeShort(getBytesused());
 		out.writeShort(getBytesinuse());
 		out.writeByte(inlog);
-		if (getBytesused() == datasize)
+		if (frame != null) {
+			byte[] b = new byte[getBytesused()];
+			get(0, b, 0, b.length);
+			out.write(b);
+		} else if (getBytesused() == datasize)
 			out.write(data);
 		else
 			out.write(data, 0, getBytesused());
@@ -248,7 +362,13 @@ public final class Datablock implements Externalizable {
 		setBytesused(in.readShort());
 		setBytesinuse(in.readShort());
 		setInLog(in.readByte());
-		in.read(data);
+		if (frame != null) {
+			byte[] b = new byte[datasize];
+			int n = in.read(b);
+			if (n > 0)
+				put(0, b, 0, n);
+		} else
+			in.read(data);
 		//if (in.read(data) != datasize) {
 		//	throw new IOException(
 		//		"Datablock read size invalid " + this.toString());
@@ -259,7 +379,7 @@ public final class Datablock implements Externalizable {
 	public synchronized String blockdump() {
 		int nzero=0;
 		for(int i =0;i<datasize;i++) {
-		        if(data[i] != 0) {
+		        if(get(i) != 0) {
 		               ++nzero;
 		        }
 		}
@@ -278,7 +398,7 @@ public final class Datablock implements Externalizable {
 		d.setBytesused(bytesused);
 		d.setBytesinuse(bytesinuse);
 		d.setInLog(inlog);
-		System.arraycopy(data, 0, d.data, 0, getBytesused());
+		copyData(d);
 		d.setIncore(true);
 		return d;
 	}
@@ -286,12 +406,22 @@ public final class Datablock implements Externalizable {
 	* deep copy
 	* @param d The block whose values are set from 'this' instance
 	*/
+	/**
+	 * Copy the used portion of the payload to the other block, either of which may be frame backed.
+	 */
+	private void copyData(Datablock d) {
+		if(frame != null)
+			d.put(0, frame(getBytesused()), getBytesused());
+		else
+			d.put(0, data, 0, getBytesused());
+	}
+	
 	public synchronized void doClone(Datablock d) {
 		d.setPrevblk(prevblk);
 		d.setNextblk(nextblk);
 		d.setBytesused(bytesused);
 		d.setBytesinuse(bytesinuse);
-		System.arraycopy(data, 0, d.data, 0, getBytesused());
+		copyData(d);
 		d.setIncore(incore);
 		d.setInLog(inlog);
 	}
@@ -432,9 +562,109 @@ public final class Datablock implements Externalizable {
 	}
 	/**
 	 * Get the data payload of this page.
-	 * @return The byte array holding the data payload of this page.
+	 * @return The byte array holding the data payload of this page, null if the payload is in an off heap frame.
 	 */
 	public synchronized byte[] getData() { return data; }
+	/**
+	 * @return true if the payload is in an off heap frame rather than a heap array
+	 */
+	public boolean isFrame() {
+		return frame != null;
+	}
+	/**
+	 * @param index The payload offset
+	 * @return The payload byte
+	 */
+	public synchronized byte get(int index) {
+		return frame != null ? frame.get(index) : data[index];
+	}
+	/**
+	 * @param index The payload offset
+	 * @param b The payload byte
+	 */
+	public synchronized void put(int index, byte b) {
+		if(frame != null)
+			frame.put(index, b);
+		else
+			data[index] = b;
+	}
+	/**
+	 * Copy from the payload to the array.
+	 * @param index The payload offset
+	 * @param dst The target array
+	 * @param offset The target offset
+	 * @param len The number of bytes
+	 */
+	public synchronized void get(int index, byte[] dst, int offset, int len) {
+		if(frame != null) {
+			ByteBuffer b = frame.duplicate();
+			b.position(index);
+			b.get(dst, offset, len);
+		} else
+			System.arraycopy(data, index, dst, offset, len);
+	}
+	/**
+	 * Copy from the array to the payload.
+	 * @param index The payload offset
+	 * @param src The source array
+	 * @param offset The source offset
+	 * @param len The number of bytes
+	 */
+	public synchronized void put(int index, byte[] src, int offset, int len) {
+		if(frame != null) {
+			ByteBuffer b = frame.duplicate();
+			b.position(index);
+			b.put(src, offset, len);
+		} else
+			System.arraycopy(src, offset, data, index, len);
+	}
+	/**
+	 * Write from the payload to the stream.
+	 * @param index The payload offset
+	 * @param out The target stream
+	 * @param len The number of bytes
+	 * @throws IOException If the stream write fails
+	 */
+	public synchronized void get(int index, OutputStream out, int len) throws IOException {
+		if(frame != null) {
+			byte[] b = new byte[len];
+			get(index, b, 0, len);
+			out.write(b);
+		} else
+			out.write(data, index, len);
+	}
+	/**
+	 * Copy from the payload to the buffer at its position, advancing it.
+	 * @param index The payload offset
+	 * @param dst The target buffer
+	 * @param len The number of bytes
+	 */
+	public synchronized void get(int index, ByteBuffer dst, int len) {
+		if(frame != null) {
+			ByteBuffer b = frame.duplicate();
+			b.limit(index + len);
+			b.position(index);
+			dst.put(b);
+		} else
+			dst.put(data, index, len);
+	}
+	/**
+	 * Copy from the buffer at its position to the payload, advancing it.
+	 * @param index The payload offset
+	 * @param src The source buffer
+	 * @param len The number of bytes
+	 */
+	public synchronized void put(int index, ByteBuffer src, int len) {
+		if(frame != null) {
+			ByteBuffer b = frame.duplicate();
+			b.position(index);
+			ByteBuffer s = src.duplicate();
+			s.limit(s.position() + len);
+			b.put(s);
+			src.position(src.position() + len);
+		} else
+			src.get(data, index, len);
+	}
 	
 	/**
 	 * Is this block effectively empty? i.e. not linked to anything (prev and nextblk == -1L) and
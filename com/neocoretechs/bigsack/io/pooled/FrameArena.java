@@ -0,0 +1,113 @@
+package com.neocoretechs.bigsack.io.pooled;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+/**
+ * Off heap storage for the data payload of {@link Datablock}s in the buffer pool.<p/>
+ * Frames are carved from direct ByteBuffers allocated a chunk at a time, so the page cache is not
+ * scanned or copied by the garbage collector and a large pool can run in a small heap. Each block
+ * backed by a frame is tracked by a phantom reference, and its frame returns to the free frames once
+ * the block is unreachable, since a block may outlive its stay in the pool while a page or stream holds it.
+ * Freed frames are reclaimed on the next allocation.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public final class FrameArena {
+	private static final boolean DEBUG = false;
+	/** Frames in each direct buffer chunk */
+	public static final int CHUNKFRAMES = 128;
+	private final int frameSize;
+	private final byte[] zero;
+	private final ArrayDeque<ByteBuffer> freeFrames = new ArrayDeque<ByteBuffer>();
+	private final ReferenceQueue<Datablock> released = new ReferenceQueue<Datablock>();
+	// keeps the phantom references reachable until their block is collected
+	private final Set<FrameReference> inUse = Collections.newSetFromMap(new IdentityHashMap<FrameReference, Boolean>());
+	private int chunks = 0;
+
+	public FrameArena() {
+		this(DBPhysicalConstants.DATASIZE);
+	}
+	/**
+	 * @param frameSize The size of each frame, the data size of a block
+	 */
+	public FrameArena(int frameSize) {
+		this.frameSize = frameSize;
+		this.zero = new byte[frameSize];
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+	/**
+	 * Take a zeroed frame for the block, allocating another chunk if none are free.
+	 * @param owner The block the frame is to back, the frame is reclaimed when the block is unreachable
+	 * @return The frame, a direct buffer of frame size
+	 */
+	synchronized ByteBuffer allocate(Datablock owner) {
+		reclaim();
+		ByteBuffer frame = freeFrames.poll();
+		if(frame == null) {
+			ByteBuffer chunk = ByteBuffer.allocateDirect(frameSize * CHUNKFRAMES);
+			for(int i = 0; i < CHUNKFRAMES; i++) {
+				chunk.limit((i + 1) * frameSize);
+				chunk.position(i * frameSize);
+				freeFrames.add(chunk.slice());
+			}
+			++chunks;
+			if(DEBUG)
+				System.out.printf("%s.allocate chunk %d of %d frames%n", this.getClass().getName(), chunks, CHUNKFRAMES);
+			frame = freeFrames.poll();
+		} else {
+			frame.clear();
+			frame.put(zero);
+			frame.clear();
+		}
+		inUse.add(new FrameReference(owner, frame, released));
+		return frame;
+	}
+	/**
+	 * Return the frames of collected blocks to the free frames.
+	 */
+	private void reclaim() {
+		Reference<? extends Datablock> r;
+		while((r = released.poll()) != null) {
+			FrameReference fr = (FrameReference) r;
+			inUse.remove(fr);
+			freeFrames.add(fr.frame);
+		}
+	}
+	/**
+	 * @return The number of frames backing live blocks
+	 */
+	public synchronized int getFramesInUse() {
+		reclaim();
+		return inUse.size();
+	}
+	/**
+	 * @return The number of bytes of direct memory held by the arena
+	 */
+	public synchronized long getCapacity() {
+		return (long)chunks * CHUNKFRAMES * frameSize;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FrameArena chunks:"+chunks+" frames in use:"+inUse.size()+" free:"+freeFrames.size();
+	}
+
+	private static final class FrameReference extends PhantomReference<Datablock> {
+		private final ByteBuffer frame;
+		FrameReference(Datablock owner, ByteBuffer frame, ReferenceQueue<Datablock> q) {
+			super(owner, q);
+			this.frame = frame;
+		}
+	}
+}
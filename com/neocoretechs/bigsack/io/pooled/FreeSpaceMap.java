@@ -0,0 +1,244 @@
+package com.neocoretechs.bigsack.io.pooled;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+/**
+ * The free blocks of a tablespace as a bitmap, one bit per block, set when the block is free.<p/>
+ * Allocation takes the lowest free block at or above a low water mark, so blocks are handed out in ascending
+ * order as the backward scan used to deliver them, and a block freed below the mark lowers it again. The mark only
+ * moves forward between frees, so allocation is amortized constant time, and freeing is constant time.<p/>
+ * The map is kept in a file alongside the tablespace, a long count of the blocks it covers followed by the bitmap
+ * as longs. The words changed since the last save are written at each commit, the file is not forced. The block
+ * headers in the tablespace, which go through the recovery log, remain the truth; the map is a hint checked against
+ * them. A block the map says is free is only handed out if its header on deep store is empty, so a map left behind by
+ * a crash can at worst leak blocks, never hand out a live one. If the map file is missing or covers more blocks than
+ * the tablespace holds, the map is rebuilt by a scan of every block header, and blocks beyond the extent of the map
+ * are scanned on open. Block indexes are ints, so a map covers up to 2^31 blocks.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public final class FreeSpaceMap {
+	private static final boolean DEBUG = false;
+	private final File file;
+	private RandomAccessFile raf = null;
+	private final BitSet free = new BitSet();
+	private int blocks = 0; // blocks covered
+	private int count = 0; // free blocks
+	private int lowWater = 0; // no free block below this
+	private int dirtyLo = Integer.MAX_VALUE, dirtyHi = -1; // range of changed words since last save
+	private boolean extentChanged = false;
+	private boolean rewrite = false; // the file does not hold this map, write it whole
+
+	/**
+	 * @param fname The file name of the tablespace the map is kept beside
+	 */
+	public FreeSpaceMap(String fname) {
+		this.file = new File(fname + ".fsm");
+	}
+	/**
+	 * @param offset The real block offset in the tablespace
+	 * @return The index of the block in the map
+	 */
+	static int index(long offset) {
+		return (int) (offset / DBPhysicalConstants.DBLOCKSIZ);
+	}
+	/**
+	 * @param index The index of the block in the map
+	 * @return The real block offset in the tablespace
+	 */
+	static long offset(int index) {
+		return (long) index * (long) DBPhysicalConstants.DBLOCKSIZ;
+	}
+	/**
+	 * Load the map saved for the tablespace.
+	 * @param tablespaceSize The size of the tablespace in bytes
+	 * @param isNew true if the tablespace was just created, any map left from a prior one is discarded
+	 * @return The real offset from which blocks are not covered by the map and must be scanned, 0 if there is no usable map
+	 * @throws IOException If the map file cannot be read
+	 */
+	public synchronized long load(long tablespaceSize, boolean isNew) throws IOException {
+		clear();
+		if(raf != null)
+			raf.close();
+		raf = new RandomAccessFile(file, "rw");
+		FileChannel fc = raf.getChannel();
+		int tblocks = index(tablespaceSize);
+		if(isNew)
+			fc.truncate(0L);
+		if(fc.size() < 8)
+			return 0L;
+		ByteBuffer b = ByteBuffer.allocate((int) Math.min(fc.size(), 8L + (((long) tblocks + 63L) / 64L) * 8L));
+		while(b.hasRemaining() && fc.read(b, b.position()) > 0);
+		b.flip();
+		long saved = b.getLong();
+		if(saved < 0 || saved > tblocks || b.remaining() < ((saved + 63L) / 64L) * 8L) {
+			if(DEBUG)
+				System.out.printf("%s.load %s covers %d blocks of %d, rebuilding%n", this.getClass().getName(), file, saved, tblocks);
+			return 0L;
+		}
+		long[] words = new long[(int) ((saved + 63L) / 64L)];
+		b.asLongBuffer().get(words);
+		BitSet loaded = BitSet.valueOf(words);
+		loaded.clear((int) saved, words.length * 64);
+		free.or(loaded);
+		blocks = (int) saved;
+		count = free.cardinality();
+		rewrite = false;
+		if(DEBUG)
+			System.out.printf("%s.load %s %d blocks %d free%n", this.getClass().getName(), file, blocks, count);
+		return offset(blocks);
+	}
+	/**
+	 * Empty the map, the next save writes it whole.
+	 */
+	private void clear() {
+		free.clear();
+		blocks = 0;
+		count = 0;
+		lowWater = 0;
+		dirtyLo = Integer.MAX_VALUE;
+		dirtyHi = -1;
+		extentChanged = true;
+		rewrite = true;
+	}
+	/**
+	 * Write the words changed since the last save and the extent. The file is not forced.
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if(raf == null || (dirtyHi < 0 && !extentChanged))
+			return;
+		FileChannel fc = raf.getChannel();
+		if(rewrite) {
+			fc.truncate(8L);
+			dirtyLo = 0;
+			dirtyHi = Math.max(dirtyHi, (blocks + 63) / 64 - 1);
+			rewrite = false;
+		}
+		if(dirtyHi >= 0) {
+			long[] words = free.toLongArray();
+			ByteBuffer b = ByteBuffer.allocate((dirtyHi - dirtyLo + 1) * 8);
+			for(int w = dirtyLo; w <= dirtyHi; w++)
+				b.putLong(w < words.length ? words[w] : 0L);
+			b.flip();
+			long pos = 8L + (long) dirtyLo * 8L;
+			while(b.hasRemaining())
+				pos += fc.write(b, pos);
+		}
+		ByteBuffer h = ByteBuffer.allocate(8);
+		h.putLong(blocks);
+		h.flip();
+		while(h.hasRemaining())
+			fc.write(h, 0L);
+		if(DEBUG)
+			System.out.printf("%s.save %s words %d to %d, %d blocks %d free%n", this.getClass().getName(), file, dirtyLo, dirtyHi, blocks, count);
+		dirtyLo = Integer.MAX_VALUE;
+		dirtyHi = -1;
+		extentChanged = false;
+	}
+
+	public synchronized void close() throws IOException {
+		save();
+		if(raf != null) {
+			raf.close();
+			raf = null;
+		}
+	}
+
+	private void changed(int index) {
+		int w = index >>> 6;
+		if(w < dirtyLo)
+			dirtyLo = w;
+		if(w > dirtyHi)
+			dirtyHi = w;
+	}
+	/**
+	 * Extend the extent of the map to cover the block at offset, the block is not marked free.
+	 * @param offset The real block offset
+	 */
+	public synchronized void cover(long offset) {
+		int i = index(offset);
+		if(i >= blocks) {
+			blocks = i + 1;
+			extentChanged = true;
+		}
+	}
+	/**
+	 * Mark the block free.
+	 * @param offset The real block offset
+	 */
+	public synchronized void free(long offset) {
+		int i = index(offset);
+		cover(offset);
+		if(!free.get(i)) {
+			free.set(i);
+			++count;
+			changed(i);
+		}
+		if(i < lowWater)
+			lowWater = i;
+	}
+	/**
+	 * Take the specific block off the map.
+	 * @param offset The real block offset
+	 * @return true if the block was free
+	 */
+	public synchronized boolean take(long offset) {
+		int i = index(offset);
+		if(i >= blocks || !free.get(i))
+			return false;
+		free.clear(i);
+		--count;
+		changed(i);
+		return true;
+	}
+	/**
+	 * Take the lowest free block off the map.
+	 * @return The real offset of the block, or -1 if there are no free blocks
+	 */
+	public synchronized long allocate() {
+		int i = free.nextSetBit(lowWater);
+		if(i < 0 || i >= blocks) {
+			lowWater = blocks;
+			return -1L;
+		}
+		free.clear(i);
+		--count;
+		changed(i);
+		lowWater = i + 1;
+		return offset(i);
+	}
+	/**
+	 * @param offset The real block offset
+	 * @return true if the map has the block as free
+	 */
+	public synchronized boolean isFree(long offset) {
+		int i = index(offset);
+		return i < blocks && free.get(i);
+	}
+
+	public synchronized boolean isEmpty() {
+		return count == 0;
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+	/**
+	 * @return The real offset one past the last block covered
+	 */
+	public synchronized long extent() {
+		return offset(blocks);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s %s blocks=%d free=%d lowWater=%d", this.getClass().getName(), file, blocks, count, lowWater);
+	}
+}
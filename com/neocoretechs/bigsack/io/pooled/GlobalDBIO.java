@@ -17,9 +17,11 @@ import java.nio.channels.ReadableByteChannel;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.bplustree.BPlusTreeKeyPage;
+import com.neocoretechs.bigsack.bplustree.BPlusTreeMain;
+import com.neocoretechs.bigsack.bplustree.BPlusTreeRootKeyPage;
 import com.neocoretechs.bigsack.btree.BTreeKeyPage;
 import com.neocoretechs.bigsack.btree.BTreeMain;
 import com.neocoretechs.bigsack.btree.BTreeRootKeyPage;
@@ -31,9 +33,12 @@ import com.neocoretechs.bigsack.io.IoManagerInterface;
 import com.neocoretechs.bigsack.io.MultithreadedIOManager;
 import com.neocoretechs.bigsack.io.Optr;
 import com.neocoretechs.bigsack.io.stream.CObjectInputStream;
+import com.neocoretechs.bigsack.io.stream.CompactSerializer;
 import com.neocoretechs.bigsack.io.stream.DBInputStream;
 import com.neocoretechs.bigsack.io.stream.DBOutputStream;
 import com.neocoretechs.bigsack.io.stream.DirectByteArrayOutputStream;
+import com.neocoretechs.bigsack.io.stream.JavaSerializer;
+import com.neocoretechs.bigsack.io.stream.SerializerInterface;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 import com.neocoretechs.bigsack.keyvaluepages.NodeInterface;
 
@@ -79,7 +84,15 @@ public class GlobalDBIO {
 	// Are we using custom class loader for serialized versions?
 	private boolean isCustomClassLoader;
 	private ClassLoader customClassLoader;
-	private static String[] keystoreTypes = {"BTree","HMap"};
+	// Encodes keys and values to page and block payloads
+	private SerializerInterface serializer;
+	// Measures the Java serialization payloads of databases written before the compact codecs
+	private static final JavaSerializer javaSerializer = new JavaSerializer();
+	// Off heap frames for pool page payloads, null for heap arrays
+	private FrameArena frameArena = null;
+	// Holds the frees of payloads of values handed out by the key/value iterators yet to be read
+	private final PayloadPins payloadPins = new PayloadPins();
+	private static String[] keystoreTypes = {"BTree","HMap","BPlusTree"};
 	private String dbName;
 	private String keystoreType;
 	private long transId;
@@ -89,6 +102,12 @@ public class GlobalDBIO {
 	public IoManagerInterface getIOManager() {
 		return ioManager;
 	}
+	/**
+	 * @return The pins on the payloads of values handed out by the key/value iterators of this database
+	 */
+	public PayloadPins getPayloadPins() {
+		return payloadPins;
+	}
 	
 	/**
 	* Translate the virtual block, composed of tablespace and physical block (first 3 bits/last 61 bits),
@@ -134,14 +153,29 @@ public class GlobalDBIO {
 	* global IO.  The backing store type indicates filesystem or memory map etc.<p/>
 	* The number of buffer pool entries is controlled by PoolBlocks
 	* @param dbname Fully qualified path of DB
-	* @param keystoreType "BTree" or "HMap"
+	* @param keystoreType "BTree", "HMap" or "BPlusTree"
 	* @param backingstoreType "MMap" or "File" etc
 	* @param transId Transaction Id of current owner
 	* @param poolBlocks Maximum blocks in bufffer pool
 	* @exception IOException if open problem
 	*/
 	public GlobalDBIO(String dbname, String keystoreType, String backingstoreType, long transId, int poolBlocks) throws IOException {
+		this(dbname, keystoreType, backingstoreType, transId, poolBlocks, null);
+	}
+	/**
+	* Constructor will utilize values from props file to initialize 
+	* global IO, encoding keys and values with the given serializer.
+	* @param dbname Fully qualified path of DB
+	* @param keystoreType "BTree", "HMap" or "BPlusTree"
+	* @param backingstoreType "MMap" or "File" etc
+	* @param transId Transaction Id of current owner
+	* @param poolBlocks Maximum blocks in bufffer pool
+	* @param serializer The key and value serializer, null for the default {@link CompactSerializer}
+	* @exception IOException if open problem
+	*/
+	public GlobalDBIO(String dbname, String keystoreType, String backingstoreType, long transId, int poolBlocks, SerializerInterface serializer) throws IOException {
 		this.dbName = dbname;
+		this.serializer = (serializer == null ? new CompactSerializer() : serializer);
 		this.transId = transId;
 		this.keystoreType = keystoreType;
 		boolean foundType = false;
@@ -175,6 +209,9 @@ public class GlobalDBIO {
 			case "HMap":
 				keyValueMain = new HMapMain(this);
 				break;
+			case "BPlusTree":
+				keyValueMain = new BPlusTreeMain(this);
+				break;
 			default:
 				keyValueMain =  new BTreeMain(this);
 				break;
@@ -272,31 +309,25 @@ public class GlobalDBIO {
 	* @exception IOException cannot convert
 	*/
 	public static Object deserializeObject(GlobalDBIO globalIO, byte[] obuf) throws IOException {
-		Object Od;
-		try {
-			ObjectInputStream s;
-			ByteArrayInputStream bais = new ByteArrayInputStream(obuf);
-			ReadableByteChannel rbc = Channels.newChannel(bais);
-			if(globalIO.isCustomClassLoader())
-				s = new CObjectInputStream(Channels.newInputStream(rbc), globalIO.getCustomClassLoader());
-			else
-				s = new ObjectInputStream(Channels.newInputStream(rbc));
-			Od = s.readObject();
-			s.close();
-			bais.close();
-			rbc.close();
-		} catch (IOException ioe) {
-			throw new IOException(
-				"deserializeObject: "
-					+ ioe.toString()
-					+ ": Class Unreadable, may have been modified beyond version compatibility: from buffer of length "
-					+ obuf.length);
-		} catch (ClassNotFoundException cnf) {
-			throw new IOException(
-				cnf.toString()
-					+ ":Class Not found, may have been modified beyond version compatibility");
-		}
-		return Od;
+		return globalIO.deserialize(obuf);
+	}
+	/**
+	* Encode a key or value with the serializer of this database.
+	* @param Ob the user object
+	* @return byte array exactly sized to the encoded payload
+	* @exception IOException cannot convert
+	*/
+	public byte[] serialize(Object Ob) throws IOException {
+		return getSerializer().serialize(Ob);
+	}
+	/**
+	* Decode a key or value with the serializer of this database, using the custom class loader if one is set.
+	* @param obuf the byte buffer containing the encoded payload
+	* @return Object instance
+	* @exception IOException cannot convert
+	*/
+	public Object deserialize(byte[] obuf) throws IOException {
+		return getSerializer().deserialize(obuf, isCustomClassLoader() ? getCustomClassLoader() : null);
 	}
 
 	/**
@@ -450,45 +481,81 @@ public class GlobalDBIO {
 	/**
 	 * Deallocate the outstanding buffer resources, block latches, etc. for 
 	 * the purpose of transaction checkpoint rollback.
+	 * The root pages are read again afterward, so the roots and the counts of keys they carry are those restored by the rollback.
 	 * @throws IOException
 	 */
 	public synchronized void deallocOutstandingRollback() throws IOException {
 		ioManager.deallocOutstandingRollback();
+		payloadPins.rollback();
+		if(keyValueMain != null)
+			keyValueMain.createRootNode();
+		// frees queued by earlier transactions that committed while pinned
+		if(freePayloads())
+			ioManager.deallocOutstandingCommit();
 	}
 	/**
 	 * Deallocate the outstanding buffer resources, block latches, etc. for 
-	 * the purpose of transaction checkpoint commit.
+	 * the purpose of transaction checkpoint commit. Payload frees held back by pins since released are part of the commit.
 	 * @throws IOException
 	 */	
 	public synchronized void deallocOutstandingCommit() throws IOException {
+		freePayloads();
 		ioManager.deallocOutstandingCommit();
+		payloadPins.commit();
 		if(DEBUGLOGINIT)
 			System.out.printf("%s.deallocOutstandingCommit%n", this.getClass().getName());
 	}
+	/**
+	 * Deallocate the block latches taken by a read. No log is written unless a block is found to need it.
+	 * @throws IOException
+	 */
+	public synchronized void deallocOutstandingRead() throws IOException {
+		ioManager.deallocOutstandingRead();
+		payloadPins.commit();
+	}
+	/**
+	 * Release the pins on payloads, as when the session is closing, so the frees they hold back are part of the
+	 * next commit. Values handed out and not yet read are no longer safe to read.
+	 */
+	public synchronized void unpinPayloads() {
+		payloadPins.clear();
+	}
+	/**
+	 * Free the payloads whose frees were held back by pins, if no pin is held now.
+	 * @return true if any were freed
+	 * @throws IOException
+	 */
+	private boolean freePayloads() throws IOException {
+		ArrayList<PayloadPins.Free> frees = payloadPins.take();
+		for(PayloadPins.Free free : frees) {
+			DBOutputStream blockStream = new DBOutputStream(free.loc, ioManager);
+			blockStream.delete(free.size);
+			blockStream.close();
+		}
+		return !frees.isEmpty();
+	}
 	
 	/**
-	* Create initial buckets. As blocks are allocated, they are placed on the free block chain.<p/>
-	* We first scan the existing allocation and determine the extent of free blocks there as our initial extent
-	* may encompass the entirety of the free tablespace.<p/>
-	* @param freeBlockList The free block list to recieve the newly created buckets, per tablespace, so physical block is used.
+	* Create initial buckets. The tablespace is extended by DBUCKETS blocks, each written as an empty block and marked free
+	* in the free space map of the tablespace.<p/>
+	* @param freeSpace The free space map to recieve the newly created buckets, per tablespace, so physical block is used.
 	* @exception IOException if buckets cannot be created
 	*/
-	public synchronized void createBuckets(int ispace, LinkedHashMap<Long, BlockAccessIndex> freeBlockList, boolean isNew) throws IOException {
+	public synchronized void createBuckets(int ispace, FreeSpaceMap freeSpace, boolean isNew) throws IOException {
 		long xsize = 0L;
 		if(!isNew) {
 			xsize = ioManager.Fsize(ispace);
 			if(DEBUG)
-				System.out.printf("%s.createBuckets extending tablespace:%d from:%d to %d. free block list size=%d%n",this.getClass().getName(),ispace,xsize,(xsize+(DBPhysicalConstants.DBUCKETS*DBPhysicalConstants.DBLOCKSIZ)),freeBlockList.size());
-			ioManager.extend(ispace, xsize+(DBPhysicalConstants.DBUCKETS*DBPhysicalConstants.DBLOCKSIZ));
+				System.out.printf("%s.createBuckets extending tablespace:%d from:%d to %d. %s%n",this.getClass().getName(),ispace,xsize,(xsize+((long)DBPhysicalConstants.DBUCKETS*DBPhysicalConstants.DBLOCKSIZ)),freeSpace);
+			ioManager.extend(ispace, xsize+((long)DBPhysicalConstants.DBUCKETS*DBPhysicalConstants.DBLOCKSIZ));
 		}
 		// write bucket blocks
+		Datablock d = new Datablock();
+		d.resetBlock();
 		for (int i = 0; i < DBPhysicalConstants.DBUCKETS; i++) {
 			long vblock = makeVblock(ispace, xsize);
-			Datablock d = new Datablock(DBPhysicalConstants.DATASIZE);
-			d.resetBlock();
 			ioManager.FseekAndWriteFully(vblock, d);
-			BlockAccessIndex bai = new BlockAccessIndex(this, vblock, d);
-			freeBlockList.put(vblock, bai);
+			freeSpace.free(xsize);
 			xsize += (long) DBPhysicalConstants.DBLOCKSIZ;
 		}
 	}
@@ -511,7 +578,7 @@ public class GlobalDBIO {
 	 * Utility write. Immediately after log write, we come here to make sure header of the block
 	 * is written back to main store. We do not use the queues as this operation
 	 * is always adjunct to a processed queue request. We go through the {@link IoManagerInterface} 
-	 * which translates the tablespace and block writes always perform Fforce after write.
+	 * which translates the tablespace. The write is not forced, the commit forces each tablespace once.
 	 * @param toffset The virtual block to write
 	 * @param tblk the datablock with header payload
 	 * @throws IOException
@@ -619,6 +686,33 @@ public class GlobalDBIO {
 		return btk;
 	}
 	/**
+	* Get a B+tree page from the buffer pool based on the specified location, or a new page if the location is -1.<p/>
+	* The page is read from the block if the block has anything in use, otherwise the block is reset for a new page.
+	* @param pos The block containing page, -1 for a new block
+	* @return The KeyPageInterface page instance, which also contains a reference to the BlockAccessIndex and BPlusTreeMain
+	* @exception IOException If retrieval fails
+	*/
+	public BPlusTreeKeyPage getBPlusTreePageFromPool(long pos) throws IOException {
+		BlockAccessIndex bai;
+		if(pos == -1L) {
+			bai = stealblk();
+		} else {
+			bai = findOrAddBlock(pos);
+		}
+		BPlusTreeKeyPage btk = new BPlusTreeKeyPage((BPlusTreeMain) getKeyValueMain(), bai, true);
+		if( DEBUG ) 
+			System.out.printf("getBPlusTreePageFromPool KeyPageInterface:%s BlockAccessIndex:%s%n",btk,bai);
+		return btk;
+	}
+
+	public BPlusTreeRootKeyPage getBPlusTreeRootPageFromPool() throws IOException {
+		BlockAccessIndex bai = findOrAddBlock(0L);
+		BPlusTreeRootKeyPage btk = new BPlusTreeRootKeyPage((BPlusTreeMain) getKeyValueMain(), bai, true);
+		if( DEBUG ) 
+			System.out.printf("getBPlusTreeRootPageFromPool KeyPageInterface:%s BlockAccessIndex:%s%n",btk,bai);
+		return btk;
+	}
+	/**
 	* Get a page from the buffer pool based on the specified location.<p/>
 	* No effort is made to guarantee the record being accessed is a viable KeyPageInterface, that is assumed.
 	* The KeyPageInterface constructor is called with option true to read the page upon access.
@@ -806,25 +900,47 @@ public class GlobalDBIO {
 	}
 	
 	/**
-	* delete_object and potentially reclaim space
+	* The size of a payload in deep store, measured with the codec that wrote it, to delete it.<p/>
+	* A payload written before the compact codecs is a Java serialization stream, a key or value the compact codec
+	* now encodes differently would be measured short, and the bytes in use of its block would never reach zero.
+	* Such a payload begins with the stream magic, which no compact type tag matches, and is measured with Java serialization.
+	* @param loc The location of the payload
+	* @param o The key or value retrieved from it
+	* @return The number of bytes of the payload
+	* @exception IOException if the block cannot be read or the object cannot be encoded
+	*/
+	public synchronized int payloadSize(Optr loc, Object o) throws IOException {
+		BlockAccessIndex bai = ioManager.findOrAddBlockAccess(loc.getBlock());
+		if(bai.getBlk().get(loc.getOffset()) == JavaSerializer.STREAM_MAGIC_HI)
+			return javaSerializer.serialize(o).length;
+		return serialize(o).length;
+	}
+	/**
+	* delete_object and potentially reclaim space. While a key/value iterator holds a pin the free is queued
+	* instead, see {@link PayloadPins}.
 	* @param loc Location of object
 	* @param osize object size
 	* @exception IOException if the block cannot be sought or written
 	*/
 	public synchronized void delete_object(DBOutputStream blockStream, Optr loc, int osize) throws IOException {
 		//System.out.println("GlobalDBIO.delete_object "+loc+" "+osize);
+		if(payloadPins.defer(loc, osize))
+			return;
 		ioManager.objseek(blockStream, loc);
 		blockStream.delete(osize);
 	}
 	
 	/**
-	* delete_object and potentially reclaim space
+	* delete_object and potentially reclaim space. While a key/value iterator holds a pin the free is queued
+	* instead, see {@link PayloadPins}.
 	* @param loc Location of object
 	* @param osize object size
 	* @exception IOException if the block cannot be sought or written
 	*/
 	public synchronized void delete_object(Optr loc, int osize) throws IOException {
 		//System.out.println("GlobalDBIO.delete_object "+loc+" "+osize);
+		if(payloadPins.defer(loc, osize))
+			return;
 		DBOutputStream blockStream = new DBOutputStream(loc, ioManager);
 		blockStream.delete(osize);
 		blockStream.close();
@@ -920,16 +1036,16 @@ public class GlobalDBIO {
 			*/		
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			BlockAccessIndex bai = ioManager.findOrAddBlockAccess(iloc.getBlock());
-			baos.write(bai.getBlk().data,iloc.getOffset(),bai.getBlk().getBytesused()-iloc.getOffset());
+			bai.getBlk().get(iloc.getOffset(), baos, bai.getBlk().getBytesused()-iloc.getOffset());
 			while(true) {
 				if(bai.getBlk().getNextblk() != -1)
 					bai = ioManager.findOrAddBlockAccess(bai.getBlk().getNextblk());
 				else
 					break;
-				baos.write(bai.getBlk().data,iloc.getOffset(),bai.getBlk().getBytesused()-iloc.getOffset());
+				bai.getBlk().get(iloc.getOffset(), baos, bai.getBlk().getBytesused()-iloc.getOffset());
 			} 
 			baos.flush();
-			Od =  deserializeObject(baos.toByteArray());		
+			Od =  deserialize(baos.toByteArray());		
 		} catch (IOException /*| ClassNotFoundException*/ ioe) {
 			throw new IOException(
 				"deserializeObject from pointer: "
@@ -942,6 +1058,43 @@ public class GlobalDBIO {
 		return Od;
 	}
 		
+	/**
+	 * Select off heap page frames for the buffer pool. Set before {@link #bringUpBackEnd()} so every pool block is a frame.
+	 * @param offHeapFrames true to back pool blocks with direct buffer frames
+	 */
+	public synchronized void setOffHeapFrames(boolean offHeapFrames) {
+		if(!offHeapFrames)
+			frameArena = null;
+		else if(frameArena == null)
+			frameArena = new FrameArena();
+	}
+	
+	public synchronized boolean isOffHeapFrames() {
+		return frameArena != null;
+	}
+	
+	public synchronized FrameArena getFrameArena() {
+		return frameArena;
+	}
+	/**
+	 * Create a block for the buffer pool, its payload in an off heap frame if so selected.
+	 * @return The new Datablock
+	 */
+	public Datablock createDatablock() {
+		return new Datablock(getFrameArena());
+	}
+	
+	public synchronized SerializerInterface getSerializer() {
+		return serializer;
+	}
+	/**
+	 * Replace the key and value serializer. Payloads already stored must remain readable by the new serializer.
+	 * @param serializer
+	 */
+	public synchronized void setSerializer(SerializerInterface serializer) {
+		this.serializer = serializer;
+	}
+
 	public synchronized boolean isCustomClassLoader() {
 		return isCustomClassLoader;
 	}
@@ -971,9 +1124,14 @@ public class GlobalDBIO {
 		MAXBLOCKS = mAXBLOCKS;
 	}
 
-	public void updateDeepStoreInLog(DBOutputStream blockStream, long tblock, boolean b) throws IOException {
-		ioManager.objseek(blockStream, tblock, Datablock.INLOGFLAGPOSITION);
-		blockStream.write(new byte[] { (byte) (b ? 1 : 0)});
+	/**
+	 * Write the inlog flag in the header of the block in deep store. The block in the buffer pool, if any, is not touched.
+	 * @param tblock The virtual block
+	 * @param b The flag value
+	 * @throws IOException
+	 */
+	public void updateDeepStoreInLog(long tblock, boolean b) throws IOException {
+		ioManager.writeInlogDirect(getTablespace(tblock), tblock, b);
 	}
 	
 	@Override
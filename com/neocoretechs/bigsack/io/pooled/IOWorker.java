@@ -2,9 +2,8 @@ package com.neocoretechs.bigsack.io.pooled;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
@@ -17,7 +16,10 @@ import com.neocoretechs.bigsack.io.MmapIO;
  * a particular tablespace fulfilling the {@link IoInterface} contract.<p/>
  * The ioUnit is an IoInterface that connects to the underlying raw store, outside of the page/block pool/buffer
  * and provides the low level 'fread','fwrite','fseek' etc functions.<p/>
- * Freeblocklist is stored as virtual blocks.
+ * The free blocks of the tablespace are kept in its {@link FreeSpaceMap}, by real block offset.<p/>
+ * Block writes are not forced. They go to the OS cache or the mapped region and the worker is marked dirty.
+ * Durability is established by {@link #Fforce()}, once per tablespace at commit or checkpoint, after the
+ * recovery log has been forced ahead of the writes. A force of a clean worker does nothing.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
  *
  */
@@ -28,7 +30,8 @@ public class IOWorker implements IoInterface {
 	private IoInterface ioUnit;
 	private int tablespace; // 0-7
 	private GlobalDBIO sdbio;
-	private LinkedHashMap<Long, BlockAccessIndex> freeBlockList; // set from free block allocation
+	private final FreeSpaceMap freeSpace;
+	private boolean dirty = false; // written since the last force
 	
 	/**
 	 * Create an IOWorker for the local store with the default of logs and tablespaces under
@@ -53,6 +56,7 @@ public class IOWorker implements IoInterface {
 		}
 		if (!ioUnit.Fopen(translateDb(sdbio.getDBName(),tablespace) + "." + String.valueOf(tablespace), true))
 			throw new IOException("IOWorker Cannot create tablespace "+tablespace+" using db:"+translateDb(sdbio.getDBName(),tablespace));
+		freeSpace = new FreeSpaceMap(translateDb(sdbio.getDBName(),tablespace) + "." + String.valueOf(tablespace));
 
 	}
 	
@@ -60,8 +64,8 @@ public class IOWorker implements IoInterface {
 		return sdbio;
 	}
 	
-	public void setFreeBlockList(LinkedHashMap<Long, BlockAccessIndex> freeBlockList) {
-		this.freeBlockList = freeBlockList;
+	public FreeSpaceMap getFreeSpaceMap() {
+		return freeSpace;
 	}
 	
 	public Callable<Object> callGetNextFreeBlock() { 
@@ -72,41 +76,28 @@ public class IOWorker implements IoInterface {
 	}
 	
 	/**
-	* Set the next free block position from reverse scan of blocks. nextFreeBlock is tablespace relative, NOT virtual.
-	* nextFreeBlock is guaranteed to be valid unless disk space is exhausted, which presumably would throw an exception.
+	* Load the free space map of the tablespace. The blocks the map does not cover, all of them if there is no
+	* usable map, are scanned by header and the empty ones marked free. If there are no free blocks the tablespace is extended.
 	* @exception IOException if seek or size fails
 	*/
 	private void getNextFreeBlocks() throws IOException {
+		long endBl = ioUnit.Fsize();
+		long startBl = freeSpace.load(endBl, ioUnit.isnew());
 		if(DEBUGFREE)
-			System.out.printf("%s.getNextFreeBlocks freelist=%d%n", this.getClass().getName(), freeBlockList.size());
-			// tablespace 0 end of rearward scan is block 2 otherwise 0, tablespace 0 has root node
-			long endBlock = 0L;
-			long endBl = ioUnit.Fsize();
-			long nextFreeBlock = -1L;
-			while (endBl > endBlock) {
-				long startOfNextFreeBlock = endBl - (long) DBPhysicalConstants.DBLOCKSIZ;
-				ioUnit.Fseek(startOfNextFreeBlock);
-				Datablock d = new Datablock();
-				d.read(ioUnit);
-				if(d.isEmpty()) {
-					endBl -= (long) DBPhysicalConstants.DBLOCKSIZ; // set up next block end
-					nextFreeBlock = startOfNextFreeBlock; // global next free block, this one
-					d.resetBlock();
-					BlockAccessIndex bai = new BlockAccessIndex(sdbio, GlobalDBIO.makeVblock(tablespace, startOfNextFreeBlock), d);
-					//ioUnit.FseekAndWrite(startOfNextFreeBlock, d); // ensure its reset with writethrough
-					freeBlockList.put(bai.getBlockNum(), bai);
-					if(DEBUGFREE)
-						System.out.printf("%s.getNextFreeBlocks nextFreeBlock=%d blockNum=%s freelist=%d%n", this.getClass().getName(),nextFreeBlock,GlobalDBIO.valueOf(bai.getBlockNum()),freeBlockList.size());
-				} else {
-					break;
-				}
-			}
-			if(nextFreeBlock == -1L) {
-				sdbio.createBuckets(tablespace, freeBlockList, false);
-			}
-			//ioUnit.Fforce();
-			if(DEBUGFREE)
-				System.out.printf("%s.getNextFreeBlocks EXIT freelist=%d%n", this.getClass().getName(),freeBlockList.size());
+			System.out.printf("%s.getNextFreeBlocks tablespace %d loaded %s, scanning %d to %d%n", this.getClass().getName(), tablespace, freeSpace, startBl, endBl);
+		Datablock d = new Datablock(0);
+		for(long block = startBl; block + DBPhysicalConstants.DBLOCKSIZ <= endBl; block += DBPhysicalConstants.DBLOCKSIZ) {
+			d.readHeader(ioUnit, block);
+			if(d.isEmpty())
+				freeSpace.free(block);
+			else
+				freeSpace.cover(block);
+		}
+		if(freeSpace.isEmpty())
+			sdbio.createBuckets(tablespace, freeSpace, false);
+		freeSpace.save();
+		if(DEBUGFREE)
+			System.out.printf("%s.getNextFreeBlocks EXIT %s%n", this.getClass().getName(), freeSpace);
 	}
 	
 	protected String translateDb(String dbname, int tablespace) {
@@ -124,18 +115,33 @@ public class IOWorker implements IoInterface {
 	
 	/**
 	 * Get the next free block of minimum block number such that we return the free blocks in ascending order.<p/>
-	 * Remove the block from freechain and insert it into active list, if the freechain is emptied call
-	 * {@link GlobalDBIO} createBuckets to extend the tablespace and insert the new free black into the free list.
+	 * Take the block from the {@link FreeSpaceMap} and insert it into active list. The header of the block in deep store
+	 * is checked to be empty first, since the map may predate a crash; a block in use is left off the map and the next is taken.
+	 * If the map is emptied call {@link GlobalDBIO} createBuckets to extend the tablespace and mark the new blocks free.
 	 * Calls back to IoManagerInterface.addBlockAccess(BlockAccessIndex)
-	 * @return the minimum block so that when we do the next backward scan we recover maximum free blocks.
+	 * @return the minimum free block
 	 * @throws IOException
 	 */
 	public synchronized BlockAccessIndex getNextFreeBlock() throws IOException {
-		long min = freeBlockList.entrySet().stream().min(Map.Entry.comparingByKey()).get().getKey();
-		BlockAccessIndex bai = freeBlockList.remove(min);
+		Datablock d = sdbio.createDatablock();
+		long block;
+		for(;;) {
+			block = freeSpace.allocate();
+			if(block == -1L) {
+				sdbio.createBuckets(tablespace, freeSpace, false);
+				continue;
+			}
+			d.readHeader(ioUnit, block);
+			if(d.isEmpty())
+				break;
+			if(DEBUGFREE)
+				System.out.printf("%s.getNextFreeBlock tablespace %d block %d marked free is in use %s%n", this.getClass().getName(), tablespace, block, d);
+		}
+		d.resetBlock();
+		BlockAccessIndex bai = new BlockAccessIndex(sdbio, GlobalDBIO.makeVblock(tablespace, block), d);
 		sdbio.ioManager.addBlockAccess(bai);
-		if(freeBlockList.isEmpty())
-			sdbio.createBuckets(tablespace, freeBlockList, false);
+		if(freeSpace.isEmpty())
+			sdbio.createBuckets(tablespace, freeSpace, false);
 		return bai;
 	}
 
@@ -170,17 +176,13 @@ public class IOWorker implements IoInterface {
 	
 	@Override 
 	public synchronized void FseekAndWriteFully(Long block, Datablock dblk) throws IOException {
-        Fseek(block);
-        dblk.write(this);
-        Fforce();
+        dblk.write(this, block);
         dblk.setIncore(false);
 	}
 	
 	@Override 
 	public synchronized void FseekAndWrite(Long block, Datablock dblk) throws IOException {
-        Fseek(block);
-        dblk.writeUsed(this);
-        Fforce();
+        dblk.writeUsed(this, block);
         dblk.setIncore(false);
 	}
 	/*
@@ -202,10 +204,13 @@ public class IOWorker implements IoInterface {
         dblk.setIncore(false);
 	}
 	*/
+	/**
+	 * Read the block with the positional reads, without the monitor of this worker, so that reads
+	 * of different blocks in the tablespace proceed in parallel with each other and with a writer.
+	 */
 	@Override 
-	public synchronized void FseekAndRead(Long block, Datablock dblk) throws IOException {
-        Fseek(block);
-        dblk.readUsed(this);
+	public void FseekAndRead(Long block, Datablock dblk) throws IOException {
+        dblk.readUsed(this, block);
         dblk.setIncore(false);
 	}
 	/**
@@ -228,6 +233,7 @@ public class IOWorker implements IoInterface {
 		if( DEBUG )
 			System.out.println("IOUnit Fset_length "+newlen);
 		ioUnit.Fset_length(newlen);	
+		dirty = true;
 		Fforce();
 	}
 	
@@ -239,35 +245,51 @@ public class IOWorker implements IoInterface {
 	@Override
 	public synchronized void Fforce() throws IOException {
 		if( DEBUG )
-			System.out.println("IOWorker force ");
+			System.out.println("IOWorker force "+dirty);
+		if(!dirty)
+			return;
 		ioUnit.Fforce();
+		dirty = false;
 	}
 	@Override
 	public synchronized void Fwrite(byte[] obuf) throws IOException {
+		dirty = true;
 		if( DEBUG )
 			System.out.println("IOWorker fwrite "+obuf.length+" @"+Ftell());
 		ioUnit.Fwrite(obuf);
 	}
 	@Override
 	public synchronized void Fwrite(byte[] obuf, int osiz) throws IOException {
+		dirty = true;
 		if( DEBUG )
 			System.out.println("IOWorker fwrite "+obuf.length+" @"+Ftell());
 		ioUnit.Fwrite(obuf, osiz);
 	}
 	@Override
+	public synchronized void Fwrite(ByteBuffer obuf) throws IOException {
+		dirty = true;
+		if( DEBUG )
+			System.out.println("IOWorker fwrite "+obuf.remaining()+" @"+Ftell());
+		ioUnit.Fwrite(obuf);
+	}
+	@Override
 	public synchronized void Fwrite_int(int obuf) throws IOException {
+		dirty = true;
 		ioUnit.Fwrite_int(obuf);
 	}
 	@Override
 	public synchronized void Fwrite_long(long obuf) throws IOException {
+		dirty = true;
 			ioUnit.Fwrite_long(obuf);
 	}
 	@Override
 	public synchronized void Fwrite_short(short obuf) throws IOException {
+		dirty = true;
 		ioUnit.Fwrite_short(obuf);
 	}
 	@Override
 	public synchronized void Fwrite_byte(byte keypage) throws IOException {
+		dirty = true;
 		if( DEBUG )
 			System.out.println("IOWorker Fwrite_byte @"+Ftell());
 		ioUnit.Fwrite_byte(keypage);
@@ -285,6 +307,25 @@ public class IOWorker implements IoInterface {
 		return ioUnit.Fread(b);
 	}
 	@Override
+	public synchronized int Fread(ByteBuffer b) throws IOException {
+		if( DEBUG )
+			System.out.println("IOWorker fread "+b.remaining()+" @"+Ftell());
+		return ioUnit.Fread(b);
+	}
+	@Override
+	public int readPage(long offset, ByteBuffer dst) throws IOException {
+		if( DEBUG )
+			System.out.println("IOWorker readPage "+dst.remaining()+" @"+offset);
+		return ioUnit.readPage(offset, dst);
+	}
+	@Override
+	public synchronized void writePage(long offset, ByteBuffer src) throws IOException {
+		dirty = true;
+		if( DEBUG )
+			System.out.println("IOWorker writePage "+src.remaining()+" @"+offset);
+		ioUnit.writePage(offset, src);
+	}
+	@Override
 	public synchronized long Fread_long() throws IOException {
 		if( DEBUG )
 			System.out.println("IOWorker fread_long @"+Ftell());
@@ -1,18 +1,14 @@
 package com.neocoretechs.bigsack.io.pooled;
 
 import java.io.IOException;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.nio.ByteBuffer;
+import java.lang.ref.WeakReference;
 import java.util.AbstractMap;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Optional;
 import java.util.Set;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
 import com.neocoretechs.bigsack.io.IoInterface;
@@ -21,38 +17,60 @@ import com.neocoretechs.bigsack.io.RecoveryLogManager;
 /**
  * The MappedBlockBuffer is the buffer pool for each tablespace of each db.<p/>
  * The class functions as the used block list for BlockAccessIndex elements that represent our
- * in memory pool of disk blocks of size MAXBLOCKS. Its construction involves keeping track of the list of
- * free blocks as well to move items between the two and expiring soft reference blocks in the active list. <p/>
+ * in memory pool of disk blocks. Its construction involves keeping track of the list of
+ * free blocks as well to move items between the two. <p/>
  * THERE IS NO CROSS TABLESPACE BLOCK LINKING. The tablespace specific classes deal with physical blocks and
  * the {@link BlockAccessIndex} always has a logical block number, so conversion for logical to physical must be noted.<p/>
  * There are one of these, per tablespace, per database, and act on a particular tablespace.
  * <p/>
- * This class knows about the IOWorker for the tablespace. It has no knowledge of the blockstreams and recovery manager etc.
+ * This class knows about the IOWorker for the tablespace. It has no knowledge of the blockstreams.<p/>
+ * Lookups of resident blocks go straight to the concurrent used block list without taking the monitor of this buffer.
+ * A miss takes the latch of the stripe its block number hashes to, so that only one thread brings a given block in
+ * while lookups of other blocks proceed.<p/>
+ * The pool holds a fixed number of frames, the pool blocks of the database divided among the tablespaces.
+ * Replacement is CLOCK: each hit sets the reference bit of the block, and the hand sweeps the frames clearing
+ * reference bits until it finds a block that is neither referenced nor latched by {@link BlockAccessIndex} accesses.
+ * A victim that is still dirty, in core, is written to the undo log, and thereby to deep store,
+ * before it is dropped. If every frame is latched the pool admits the block anyway and shrinks back at the next commit.<p/>
+ * Key pages and streams keep their blocks between calls, so a dropped block may still be in use. Such blocks are
+ * remembered weakly; a block asked for again while still reachable is put back rather than read anew, so there is
+ * never more than one instance of a block, and one written after it was dropped is still logged at commit.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2015,2021
  *
  */
 public class MappedBlockBuffer extends AbstractMap {
 	private static final long serialVersionUID = -5744666991433173620L;
 	private static final boolean DEBUG = false;
-	private static final boolean DEBUGCOMMIT = true;
+	private static final boolean DEBUGCOMMIT = false;
+	private static final boolean DEBUGEVICT = false;
 	private GlobalDBIO globalIO;
 	private IoInterface ioWorker;
+	private RecoveryLogManager ulog = null;
 	private int tablespace;
-	//private final Set<BlockChangeEvent> mObservers = Collections.newSetFromMap(new ConcurrentHashMap<BlockChangeEvent, Boolean>());
-	private LinkedHashMap<Long, BlockAccessIndex> freeBlockList = new LinkedHashMap<Long, BlockAccessIndex>(DBPhysicalConstants.DBUCKETS);
-	/** The internal HashMap that will hold the SoftReference. */
-	private final ConcurrentHashMap usedBlockList = new ConcurrentHashMap();
-	/** The number of "hard" references to hold internally. */
-	private final static int HARD_SIZE = 100;
-	/** The FIFO list of hard references, order of last access. */
-	private final HardReferenceQueue hardCache = new HardReferenceQueue();
-	/** Reference queue for cleared SoftReference objects. */
-	private final ReferenceQueue queue = new ReferenceQueue();
+	private final FreeSpaceMap freeSpace;
+	/** The resident blocks by virtual block number. */
+	private final ConcurrentHashMap<Long, BlockAccessIndex> usedBlockList = new ConcurrentHashMap<Long, BlockAccessIndex>();
+	/** Blocks dropped from the frames that may still be referenced by a page or stream */
+	private final ConcurrentHashMap<Long, WeakReference<BlockAccessIndex>> evicted = new ConcurrentHashMap<Long, WeakReference<BlockAccessIndex>>();
+	/** The minimum number of frames for a tablespace */
+	private final static int MINFRAMES = 16;
+	/** The number of stripes for miss latches, a power of 2 */
+	private final static int STRIPES = 16;
+	/** Latches taken when a block of the stripe is not resident. */
+	private final Object[] missLatch = new Object[STRIPES];
+	/** The CLOCK frames, guarded by clockLatch */
+	private final Object clockLatch = new Object();
+	private final int capacity;
+	private BlockAccessIndex[] frames;
+	private int resident = 0;
+	private int clockHand = 0;
 
-	private static int cacheHit = 0; // cache hit rate
-	private static int cacheMiss = 0;
+	private final LongAdder cacheHit = new LongAdder();
+	private final LongAdder cacheMiss = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder writeBacks = new LongAdder();
+	private final LongAdder overflows = new LongAdder();
 	
-	private static final int CLEAN_UP_PERIOD_IN_SEC = 5;
 	/**
 	 * Construct the buffer for this tablespace and link the global IO manager
 	 * @param ioManager Manager such as MultiThreadedIOManager
@@ -63,109 +81,61 @@ public class MappedBlockBuffer extends AbstractMap {
 		this.globalIO = ((IOWorker)ioWorker).getGlobalDBIO();
 		this.ioWorker = ioWorker;
 		this.tablespace = tablespace;
-		((IOWorker)ioWorker).setFreeBlockList(freeBlockList);
-		Thread cleanerThread = new Thread(() -> {
-	            while (!Thread.currentThread().isInterrupted()) {
-	                try {
-	                    Thread.sleep(CLEAN_UP_PERIOD_IN_SEC * 1000);
-	                    //List<Entry<Long,SoftReference<BlockAccessIndex>>> expiredList=entrySet().stream()
-	                    	 //.filter(pair -> pair.getValue().get().isExpired())
-	                    	 //--.map(Map.Entry::getKey)
-	                    	 //.collect(Collectors.toList());
-	                    //List<Long> expiredKeys = expiredList.stream().map(Map.Entry::getKey).collect(Collectors.toList());
-	                    //this.keySet().removeAll(expiredKeys);
-	                    //entrySet().removeIf(entry -> Optional.ofNullable((SoftReference<BlockAccessIndex>)(entry.getValue())).map(SoftReference::get).map(BlockAccessIndex::isExpired).orElse(false));
-	                    usedBlockList.entrySet().removeIf(entry -> !(Optional.ofNullable(((Entry<Long, SoftReference>) entry).getValue()).isPresent()));
-	                } catch (InterruptedException e) {
-	                    Thread.currentThread().interrupt();
-	                }
-	            }
-	        });
-	        cleanerThread.setDaemon(true);
-	        cleanerThread.start();
+		this.capacity = Math.max(MINFRAMES, globalIO.getMAXBLOCKS() / DBPhysicalConstants.DTABLESPACES);
+		this.frames = new BlockAccessIndex[capacity];
+		for(int i = 0; i < STRIPES; i++)
+			missLatch[i] = new Object();
+		this.freeSpace = ((IOWorker)ioWorker).getFreeSpaceMap();
+	}
+	/**
+	 * Link the recovery log manager for the tablespace, used to write back dirty victims.
+	 * @param ulog
+	 */
+	public void setRecoveryLogManager(RecoveryLogManager ulog) {
+		this.ulog = ulog;
 	}
 	
 	@Override
-	public Object get(Object key) {
-		Object result = null;
-	    // We get the SoftReference represented by that key
-	    SoftReference soft_ref = (SoftReference) usedBlockList.get(key);
-	    if (soft_ref != null) {
-	      // From the SoftReference we get the value, which can be
-	      // null if it was not in the map, or it was removed in
-	      // the processQueue() method defined below
-	      result = soft_ref.get();
-	      if (result == null) {
-	        // If the value has been garbage collected, remove the
-	        // entry from the HashMap.
-	        usedBlockList.remove(key);
-	        soft_ref = null;
-	      } else {
-	        // We now add this object to the beginning of the hard
-	        // reference queue.  One reference can occur more than
-	        // once, because lookups of the FIFO queue are slow, so
-	        // we don't want to search through it each time to remove
-	        // duplicates.
-	        hardCache.put(key,result);
-	        // This is handled by the subclassed method removeEldestEntry of LinkedHashMap
-	        //if (hardCache.size() > HARD_SIZE) {
-	          // Remove the last entry if list longer than HARD_SIZE
-	          //hardCache.removeLast();
-	        //}
-	      }
-	    }
-	    return soft_ref;
-	  }
-	
-	/** 
-	 * Define subclass of SoftReference which contains
-	 * not only the value but also the key to make it easier to find
-	 * the entry in the HashMap after it's been garbage collected.
-	*/
-	private static class SoftValue extends SoftReference {
-	    private final Object key; // always make data member final
-	    private SoftValue(Object k, Object key, ReferenceQueue q) {
-	      super(k, q);
-	      this.key = key;
-	    }
-	}
-
-	/**
-	* Process the ReferenceQueue and remove garbage
-	* collected SoftValue objects from the HashMap by looking them
-	* up using the SoftValue.key data member. 
-	*/
-	private void processQueue() {
-	    SoftValue sv;
-	    while ((sv = (SoftValue)queue.poll()) != null) {
-	      System.out.println("SoftReference process queue, removing:"+GlobalDBIO.valueOf((long) sv.key));
-	      usedBlockList.remove(sv.key);
-	      getMemory();
-	    }
+	public BlockAccessIndex get(Object key) {
+		return usedBlockList.get(key);
 	}
 
 	@Override
-	public SoftReference remove(Object key) {
-	  processQueue(); // throw out garbage collected values first
-	  return (SoftReference) usedBlockList.remove(key);
+	public BlockAccessIndex remove(Object key) {
+		evicted.remove(key);
+		BlockAccessIndex bai = usedBlockList.remove(key);
+		if(bai != null) {
+			synchronized(clockLatch) {
+				for(int i = 0; i < frames.length; i++) {
+					if(frames[i] == bai) {
+						frames[i] = null;
+						--resident;
+						break;
+					}
+				}
+			}
+		}
+		return bai;
 	}
 	  
 	@Override
 	public void clear() {
-	  hardCache.clear();
-	  processQueue(); // throw out garbage collected values
-	  usedBlockList.clear();
+		synchronized(clockLatch) {
+			Arrays.fill(frames, null);
+			resident = 0;
+			clockHand = 0;
+		}
+		usedBlockList.clear();
+		evicted.clear();
 	}
 	  
 	@Override
 	public int size() {
-		processQueue(); // throw out garbage collected values first
 		return usedBlockList.size();
 	}
 	  
 	@Override
-	public Set<Entry<Long, SoftReference>> entrySet() {
-		processQueue();
+	public Set entrySet() {
 		return usedBlockList.entrySet();
 	}
 	
@@ -197,6 +167,38 @@ public class MappedBlockBuffer extends AbstractMap {
 	public int getTablespace() { 
 		return tablespace;
 	}
+	/**
+	 * @return The number of frames the pool holds before it must evict
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	public long getCacheHits() {
+		return cacheHit.sum();
+	}
+	
+	public long getCacheMisses() {
+		return cacheMiss.sum();
+	}
+	/**
+	 * @return The number of blocks dropped from the pool to make room
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	/**
+	 * @return The number of evicted blocks that were dirty and written to the log first
+	 */
+	public long getWriteBacks() {
+		return writeBacks.sum();
+	}
+	/**
+	 * @return The number of admissions beyond capacity because every frame was latched
+	 */
+	public long getOverflows() {
+		return overflows.sum();
+	}
 	
 	@Override
 	/**
@@ -205,22 +207,119 @@ public class MappedBlockBuffer extends AbstractMap {
 	public Object put(Object key, Object value) {
 		if(tablespace != GlobalDBIO.getTablespace(((BlockAccessIndex)value).getBlockNum()) || (Long)key != ((BlockAccessIndex)value).getBlockNum())
 			throw new RuntimeException("Key:"+key+" does not match corresponding block:"+(BlockAccessIndex)value);
-		 // Here we put the key, value pair into the HashMap using a SoftValue object.
-		 processQueue(); // throw out garbage collected values first
-		 //((BlockAccessIndex)value).startExpired();
-		 return usedBlockList.put((Long) key, new SoftValue(value, key, queue));
+		 return usedBlockList.put((Long) key, (BlockAccessIndex)value);
 	}
 	/**
-	 * Put the extracted key and value to cache. notify block change event observers. Start the expiration counter beforehand.
+	 * Put the extracted key and value to cache.
 	 */
 	public Object put(BlockAccessIndex value) {
-		Long key = new Long(value.getBlockNum());
-		processQueue(); // throw out garbage collected values first
-		//value.startExpired();
-		return usedBlockList.put(key, new SoftValue(value, key, queue));
+		return usedBlockList.put(value.getBlockNum(), value);
+	}
+	/**
+	 * Give a block that was put to the used block list a frame, evicting an unlatched, unreferenced block if the pool is full.
+	 * Must not be called holding a miss latch or the monitor of this buffer, since a dirty victim is written to the log.
+	 * @param bai The newly resident block
+	 * @throws IOException If a dirty victim cannot be written
+	 */
+	private void admit(BlockAccessIndex bai) throws IOException {
+		while(true) {
+			BlockAccessIndex dirty = null;
+			synchronized(clockLatch) {
+				if(usedBlockList.get(bai.getBlockNum()) != bai)
+					return; // it went away while we were not looking, rollback or clear
+				if(resident < frames.length) {
+					placeFrame(bai);
+					return;
+				}
+				int n = frames.length;
+				for(int sweep = 0; sweep < 2 * n; sweep++) {
+					int i = clockHand;
+					clockHand = (clockHand + 1) % n;
+					BlockAccessIndex v = frames[i];
+					if(v.isReferenced()) {
+						v.setReferenced(false);
+						continue;
+					}
+					synchronized(v) {
+						if(v.getAccesses() > 0)
+							continue;
+						if(v.getBlk().isIncore()) {
+							if(dirty == null)
+								dirty = v;
+							continue;
+						}
+						usedBlockList.remove(v.getBlockNum(), v);
+						evicted.put(v.getBlockNum(), new WeakReference<BlockAccessIndex>(v));
+					}
+					if(DEBUGEVICT)
+						System.out.printf("%s.admit tablespace %d evicting %s for %s%n", this.getClass().getName(), tablespace, GlobalDBIO.valueOf(v.getBlockNum()), GlobalDBIO.valueOf(bai.getBlockNum()));
+					evictions.increment();
+					frames[i] = bai;
+					return;
+				}
+				if(dirty == null || ulog == null) {
+					// every frame latched, admit beyond capacity until the next commit releases the latches
+					overflows.increment();
+					frames = Arrays.copyOf(frames, n + MINFRAMES);
+					placeFrame(bai);
+					return;
+				}
+			}
+			// write the dirty victim to the log outside of our latches, it is clean on the next sweep
+			if(DEBUGEVICT)
+				System.out.printf("%s.admit tablespace %d writing back dirty victim %s%n", this.getClass().getName(), tablespace, dirty);
+			ulog.writeLog(dirty);
+			writeBacks.increment();
+		}
+	}
+	/**
+	 * Place the block in the first empty frame, clock latch held.
+	 */
+	private void placeFrame(BlockAccessIndex bai) {
+		for(int i = 0; i < frames.length; i++) {
+			int j = (clockHand + i) % frames.length;
+			if(frames[j] == null) {
+				frames[j] = bai;
+				++resident;
+				return;
+			}
+		}
+		throw new IllegalStateException("MappedBlockBuffer frame count "+resident+" inconsistent with "+frames.length+" frames");
+	}
+	/**
+	 * After a commit has released the latches, drop unlatched clean blocks admitted beyond capacity and shrink the frames.
+	 */
+	private void trim() {
+		synchronized(clockLatch) {
+			if(frames.length == capacity)
+				return;
+			BlockAccessIndex[] kept = new BlockAccessIndex[Math.max(capacity, resident)];
+			int n = 0;
+			int excess = resident - capacity;
+			for(BlockAccessIndex v : frames) {
+				if(v == null)
+					continue;
+				if(excess > 0) {
+					synchronized(v) {
+						if(v.getAccesses() == 0 && !v.getBlk().isIncore()) {
+							usedBlockList.remove(v.getBlockNum(), v);
+							evicted.put(v.getBlockNum(), new WeakReference<BlockAccessIndex>(v));
+							evictions.increment();
+							--excess;
+							continue;
+						}
+					}
+				}
+				kept[n++] = v;
+			}
+			if(n > capacity)
+				kept = Arrays.copyOf(kept, n);
+			frames = kept;
+			resident = n;
+			clockHand = 0;
+		}
 	}
 
-    
 	public synchronized GlobalDBIO getGlobalIO() { return globalIO;}
 	/**
 	 * acquireblk - get block from unused chunk or create a new blockchain. this method links a previous block<br>
@@ -260,125 +359,162 @@ public class MappedBlockBuffer extends AbstractMap {
 	 * Reset each block in the map and put them to the free block map
 	 */
 	public synchronized void forceBufferClear() {
-		Enumeration<SoftReference> it = usedBlockList.elements();
-		while(it.hasMoreElements()) {
-			SoftReference bai = (SoftReference) it.nextElement();
-			if(bai.get() != null)
-				((BlockAccessIndex)bai.get()).resetBlock(true); // reset and clear access latch
-		}
+		for(BlockAccessIndex bai : usedBlockList.values())
+			bai.resetBlock(true); // reset and clear access latch
 		clear();
 	}
-
 	/**
-	 * Search for the numbered block {@link BlockAccessIndex}
+	 * @param lbn The block number
+	 * @return The index of the miss latch stripe the block number hashes to
+	 */
+	private static int stripe(Long lbn) {
+		long h = lbn.longValue();
+		h ^= (h >>> 32);
+		h ^= (h >>> 16);
+		return (int)(h & (STRIPES - 1));
+	}
+	/**
+	 * Search for the numbered block {@link BlockAccessIndex} that was not resident.
 	 * If it exists on the free list put it to the cache then return the block.<p/>
 	 * Attempt to bring it in from deep store if read is true, regardless, put it on the active list if it wasnt there already.
+	 * Called with the miss latch for the stripe of the block held. The block has no frame until {@link #admit(BlockAccessIndex)}.
 	 * @param lbn the block number to retrieve
 	 * @param read to read the block or just create the entry
 	 * @return the BlockAccessIndex in list or brought in from deep store
 	 * @throws IOException
 	 */
-	private synchronized BlockAccessIndex getBlock(Long lbn, boolean read) throws IOException {
-		// If we requested a specific block, see if it exists on the free list first
-		BlockAccessIndex bai = freeBlockList.remove(lbn);
-		if(bai != null) {
+	private BlockAccessIndex getBlock(Long lbn, boolean read) throws IOException {
+		BlockAccessIndex bai;
+		// If we requested a specific block, take it off the free space map. It is still read, the map may predate a crash.
+		synchronized(this) {
+			if(freeSpace.take(GlobalDBIO.getBlock(lbn))) {
+				if(DEBUG)
+					System.out.printf("%s.getBlock for block %s found in free space map%n", this.getClass().getName(),GlobalDBIO.valueOf(lbn));
+				if(freeSpace.isEmpty())
+					globalIO.createBuckets(tablespace, freeSpace, false);
+			}
+		}
+		// A dropped block still held by a page or stream is the live instance, put it back
+		WeakReference<BlockAccessIndex> ghost = evicted.remove(lbn);
+		if(ghost != null && (bai = ghost.get()) != null) {
 			if(DEBUG)
-				System.out.printf("%s.getBlock for block %s found in freeBlockList%n", this.getClass().getName(),bai);
+				System.out.printf("%s.getBlock for block %s reinstated after eviction%n", this.getClass().getName(),bai);
 			put(bai);
-			if(freeBlockList.isEmpty())
-				globalIO.createBuckets(tablespace, freeBlockList, false);
 			return bai;
 		}
-		SoftReference sbai = (SoftReference) get(lbn);
-		if( sbai == null ) {
-			++cacheMiss;
-			bai = new BlockAccessIndex(globalIO, true);
-			bai.setBlockNumber(lbn);
-			if(read) {
-				Long bn = GlobalDBIO.getBlock(lbn);
-				ioWorker.FseekAndRead(bn, bai.getBlk());
-			}
-			if(DEBUG)
-				System.out.printf("%s.getBlock for block %s not found in any list; created%n", this.getClass().getName(),bai);
-			put(bai);
-		} else {
-			++cacheHit;
-			bai = (BlockAccessIndex) sbai.get();
-			if(DEBUG)
-				System.out.printf("%s.getBlock for block %s found in used block cache%n", this.getClass().getName(),bai);
+		cacheMiss.increment();
+		bai = new BlockAccessIndex(globalIO, true);
+		bai.setBlockNumber(lbn);
+		if(read) {
+			Long bn = GlobalDBIO.getBlock(lbn);
+			ioWorker.FseekAndRead(bn, bai.getBlk());
 		}
-		//bai.startExpired();
+		if(DEBUG)
+			System.out.printf("%s.getBlock for block %s not found in any list; created%n", this.getClass().getName(),bai);
+		put(bai);
 		return bai;
 	}
 	
-	public LinkedHashMap<Long, BlockAccessIndex> getFreeBlockList() {
-		return freeBlockList;
+	public FreeSpaceMap getFreeSpaceMap() {
+		return freeSpace;
+	}
+	/**
+	 * Read the header of a block as it stands on deep store, bypassing the pool.
+	 * @param lbn The Vblock
+	 * @param d The Datablock to receive the header
+	 * @throws IOException
+	 */
+	public void readHeader(long lbn, Datablock d) throws IOException {
+		d.readHeader(ioWorker, GlobalDBIO.getBlock(lbn));
 	}
 	
 	public synchronized void putFreeBlock(BlockAccessIndex bai) {
-		freeBlockList.put(bai.getBlockNum(), bai);
+		freeSpace.free(GlobalDBIO.getBlock(bai.getBlockNum()));
 	}
 	
 	public synchronized int sizeFreeBlockList() {
-		return freeBlockList.size();
+		return freeSpace.size();
 	}
 
 	/**
 	 * Commit all outstanding blocks in the buffer. Iterate the elements in 'this' and write to the undo log
-	 * those with < 2 accesses whose datablock 'isIncore' and not 'isInLog'. After writing, decrement accesses to 0
-	 * and set the byteindex to 0. The calling of {@link RecoveryLogManager} writeLog will reset incode and set inlog and
-	 * call the applyChange method of {@link Loggable} implementation. 
+	 * those with < 2 accesses whose datablock 'isIncore' and not 'isInLog'. The blocks are logged as a group, and the
+	 * {@link RecoveryLogManager} flushLog forces the log once for all of them, then resets incore, sets inlog and
+	 * calls the applyChange method of {@link Loggable} implementation for each. After writing, decrement accesses to 0
+	 * and set the byteindex to 0. Frames admitted beyond capacity are released after.
 	 * @throws IOException
 	 */
 	public synchronized void commitBufferFlush(RecoveryLogManager rlm) throws IOException {
-		//for(Object ebaii : usedBlockList.values()) {
-		Set itSet = usedBlockList.entrySet();
-		Iterator it = itSet.iterator();
-		while(it.hasNext()) {
-			Map.Entry me = (Entry) it.next();
-			BlockAccessIndex bai = (BlockAccessIndex) ((SoftReference)me.getValue()).get();
-			if(bai == null) {
-				System.out.println("Commit rejecting reclaimed block:"+GlobalDBIO.valueOf((long) me.getKey()));
-				it.remove();
-				continue;
-			}
+		for(BlockAccessIndex bai : usedBlockList.values()) {
 			if( bai.getAccesses() > 1 )
 				throw new IOException("****COMMIT BUFFER access "+bai.getAccesses()+" for buffer "+bai);
 			//if(DEBUGCOMMIT)
 			//	System.out.printf("%s.commitBufferFlush prospective block:%s%n", this.getClass().getName(),bai);
 			if(bai.getBlk().isIncore() && !bai.getBlk().isInlog()) {
-				// will set incore, inlog, and push to raw store via applyChange of Loggable
+				// will set incore, inlog, and push to raw store via applyChange of Loggable at flushLog
 				if( DEBUGCOMMIT )
 					System.out.printf("%s.commitBufferFlush of block:%s%n",this.getClass().getName(),bai);
-				rlm.writeLog(bai);
+				rlm.writeLogGroup(bai);
 			}
-			if( bai.getAccesses() == 1 )
-				bai.decrementAccesses();
-			bai.setByteindex((short) 0);
 		}
-		hardCache.clear();
+		// blocks written after they were dropped, and forget those no longer referenced
+		ArrayList<BlockAccessIndex> dropped = new ArrayList<BlockAccessIndex>();
+		Iterator<WeakReference<BlockAccessIndex>> it = evicted.values().iterator();
+		while(it.hasNext()) {
+			BlockAccessIndex bai = it.next().get();
+			if(bai == null) {
+				it.remove();
+				continue;
+			}
+			if(bai.getBlk().isIncore()) {
+				if( DEBUGCOMMIT )
+					System.out.printf("%s.commitBufferFlush of evicted block:%s%n",this.getClass().getName(),bai);
+				rlm.writeLogGroup(bai);
+			}
+			dropped.add(bai);
+		}
+		rlm.flushLog();
+		for(BlockAccessIndex bai : usedBlockList.values())
+			release(bai);
+		for(BlockAccessIndex bai : dropped)
+			release(bai);
+		trim();
 	}
-	
 	/**
-	 * Commit all outstanding blocks in the buffer, bypassing the log subsystem. Should be used with forethought
+	 * Release the access latches of the blocks a read took, without writing the log. Blocks that are incore
+	 * are left latched for the commit that must write them.
+	 * @return true if a block is incore and not in the log, so a commit is still needed
 	 * @throws IOException
-	 
-	public synchronized void directBufferWrite() throws IOException {
-		Enumeration<SoftReference> elbn = usedBlockList.elements();
-		if(DEBUG) System.out.println("MappedBlockBuffer.direct buffer write");
-		while (elbn.hasMoreElements()) {
-			SoftReference ebaii = (elbn.nextElement());
-			BlockAccessIndex bai = (BlockAccessIndex)ebaii.get();
-			if(bai.getAccesses() == 0 && bai.getBlk().isIncore() ) {
-				if(DEBUG)
-					System.out.println("MappedBlockBuffer.directBufferWrite fully writing "+bai.getBlockNum()+" "+bai.getBlk());
-				ioWorker.FseekAndWriteFully(bai.getBlockNum(), bai.getBlk());
-				ioWorker.Fforce();
-				bai.getBlk().setIncore(false);
+	 */
+	public synchronized boolean releaseBufferLatches() throws IOException {
+		boolean dirty = false;
+		for(BlockAccessIndex bai : usedBlockList.values()) {
+			synchronized(bai) {
+				if(bai.getBlk().isIncore()) {
+					if(!bai.getBlk().isInlog())
+						dirty = true;
+					continue;
+				}
+				release(bai);
 			}
 		}
+		for(WeakReference<BlockAccessIndex> ghost : evicted.values()) {
+			BlockAccessIndex bai = ghost.get();
+			if(bai != null && bai.getBlk().isIncore())
+				dirty = true;
+		}
+		if(!dirty)
+			trim();
+		return dirty;
+	}
+	/**
+	 * Clear the access latch of a committed block and reset its position.
+	 */
+	private static void release(BlockAccessIndex bai) throws IOException {
+		if( bai.getAccesses() == 1 )
+			bai.decrementAccesses();
+		bai.setByteindex((short) 0);
 	}
-	*/
 	
 	/**
 	 * If we have to steal a block and bring it in from the freechain, put it to the used list here and up the access
@@ -391,9 +527,12 @@ public class MappedBlockBuffer extends AbstractMap {
 			System.out.printf("%s.addBlockAccess %s%n",this.getClass().getName(), bai);
 		}	
 		put(bai);
-		if( bai.getAccesses() == 0 )
-			bai.addAccess();
-		bai.setByteindex((short) 0);
+		synchronized(bai) {
+			if( bai.getAccesses() == 0 )
+				bai.addAccess();
+			bai.setByteindex((short) 0);
+		}
+		admit(bai);
 		return bai;
 	}
 	/**
@@ -402,21 +541,43 @@ public class MappedBlockBuffer extends AbstractMap {
 	* @param read true to read contents of block from deep store when accessed
 	* @exception IOException if new block cannot be delivered.
 	*/
-	public synchronized BlockAccessIndex findOrAddBlock(Long Lbn, boolean read) throws IOException {
+	public BlockAccessIndex findOrAddBlock(Long Lbn, boolean read) throws IOException {
 		if( DEBUG ) {
 			System.out.println("MappedBlockBuffer.addBlockAccessNoRead "+GlobalDBIO.valueOf(Lbn)+" "+this);
 		}
-		// make sure we have open slots
-		BlockAccessIndex bai = getBlock(Lbn, read); // getBlock does a put to usedBlockList, false says no read
-		// up the access latch, set byteindex to 0
-		if( bai.getAccesses() == 0 )
-			bai.addAccess();
-		bai.setByteindex((short) 0);
-		if( DEBUG ) {
-			System.out.println("MappedBlockBuffer.addBlockAccessNoRead "+Lbn+" returning after freeBL take "+bai+" "+this);
+		while(true) {
+			boolean miss = false;
+			BlockAccessIndex bai = usedBlockList.get(Lbn);
+			if( bai == null ) {
+				synchronized(missLatch[stripe(Lbn)]) {
+					// another thread may have brought it in while we waited
+					bai = usedBlockList.get(Lbn);
+					if( bai == null ) {
+						bai = getBlock(Lbn, read); // getBlock does a put to usedBlockList, false says no read
+						miss = true;
+					}
+				}
+			}
+			// up the access latch, set byteindex to 0
+			synchronized(bai) {
+				if( usedBlockList.get(Lbn) != bai )
+					continue; // evicted between lookup and latch, look again
+				if( bai.getAccesses() == 0 )
+					bai.addAccess();
+				bai.setByteindex((short) 0);
+			}
+			if( miss ) {
+				admit(bai); // latched, so it cannot be chosen as its own victim
+			} else {
+				cacheHit.increment();
+				bai.setReferenced(true);
+			}
+			if( DEBUG ) {
+				System.out.println("MappedBlockBuffer.addBlockAccessNoRead "+Lbn+" returning after freeBL take "+bai+" "+this);
+			}
+			//notifyObservers(bai);
+			return bai;
 		}
-		//notifyObservers(bai);
-		return bai;
 	}
 	
 	/**
@@ -428,7 +589,7 @@ public class MappedBlockBuffer extends AbstractMap {
 	* @return The BlockAccessIndex of the next block in the chain, or null if there is no more
 	* @exception IOException If a low level read fail occurs
 	*/
-	public synchronized BlockAccessIndex getnextblk(BlockAccessIndex tblk) throws IOException {
+	public BlockAccessIndex getnextblk(BlockAccessIndex tblk) throws IOException {
 		tblk.decrementAccesses();
 		if (tblk.getBlk().getNextblk() == -1L) {
 			//if( DEBUG )
@@ -445,39 +606,7 @@ public class MappedBlockBuffer extends AbstractMap {
 	
 	@Override
 	public String toString() {
-		return "MappedBlockBuffer tablespace "+tablespace+" blocks:"+usedBlockList.size()+" cache hit="+cacheHit+" miss="+cacheMiss;
-	}
-	
-	/**
-	 * Hard reference queue class to hold those soft references we dont want reclaimed.
-	 * @author groff
-	 *
-	 */
-	private static class HardReferenceQueue extends LinkedHashMap {
-		/**
-		 * Returns true if this map should remove its eldest entry. 
-		 * This method is invoked by put and putAll after inserting a new entry into the map. 
-		 * It provides the implementor with the opportunity to remove the eldest entry each time a new one is added. 
-		 * This is useful if the map represents a cache: it allows the map to reduce memory consumption by deleting stale entries.
-		 * In this case if we dont remove eldest because its being accessed, look for others eligible if more than HARD_SIZE
-		 * and return false. Once we start clearing, clear as many as possible.
-		 * @param eldest eldest - The least recently inserted entry in the map. This is the entry that will be removed it this method returns true. If the map contains a single entry, the eldest entry is also the newest
-		 * @return true if the eldest entry should be removed from the map; false if it should be retained.
-		 */
-		protected boolean removeEldestEntry(Map.Entry eldest) {
-			if(size() < HARD_SIZE)
-				return false;
-	        if(!((BlockAccessIndex)eldest.getValue()).getBlk().isIncore() && ((BlockAccessIndex)eldest.getValue()).getAccesses() == 0)
-	        	return true;
-	        Set e = entrySet();
-	        Iterator it = e.iterator();
-	        while(it.hasNext()) {
-	        	Map.Entry me = (java.util.Map.Entry) it.next();
-	        	if(!((BlockAccessIndex)eldest.getValue()).getBlk().isIncore() && ((BlockAccessIndex)eldest.getValue()).getAccesses() == 0) {
-		        	it.remove();
-	        	}
-	        }
-	        return false;
-	     }
+		return "MappedBlockBuffer tablespace "+tablespace+" blocks:"+usedBlockList.size()+"/"+capacity+" cache hit="+cacheHit.sum()+" miss="+cacheMiss.sum()+
+				" evict="+evictions.sum()+" writeback="+writeBacks.sum()+" overflow="+overflows.sum();
 	}
 }
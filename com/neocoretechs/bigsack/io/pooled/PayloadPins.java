@@ -0,0 +1,156 @@
+package com.neocoretechs.bigsack.io.pooled;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.neocoretechs.bigsack.io.Optr;
+/**
+ * Keeps the payloads of values handed out by the key/value iterators from being freed until they are read.<p/>
+ * An iterator that hands out a value still in deep store takes a {@link Pin} and the value keeps the pointer to
+ * its payload. While any pin is held, a delete does not touch the block, the payload and its size are queued instead,
+ * so the bytes cannot be reused by a later write or moved by the vacuum. The queue is freed as part of the first commit
+ * after the last pin is released. A pin is released when its iterator is done and the values it handed out are read,
+ * or, for an iterator abandoned or values never read, once the pin is unreachable. Each pin is tracked by a phantom
+ * reference, and collected pins are taken off on the next check.<p/>
+ * Frees queued by a transaction that is rolled back are dropped, as the rollback restores the entries they belong to.
+ * Rollbacks are counted, and a value taken before one is not read, since its payload may have been written by the
+ * rolled back transaction.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public final class PayloadPins {
+	private final ReferenceQueue<Pin> released = new ReferenceQueue<Pin>();
+	private final HashSet<Reference<Pin>> held = new HashSet<Reference<Pin>>();
+	private ArrayList<Free> frees = new ArrayList<Free>();
+	private int committed = 0; // frees queued by transactions already committed
+	private long rollbacks = 0;
+
+	/**
+	 * Take a pin for an iterator.
+	 * @return The pin, held until released by the iterator and its values or until unreachable
+	 */
+	public synchronized Pin pin() {
+		Pin pin = new Pin();
+		pin.ref = new PhantomReference<Pin>(pin, released);
+		held.add(pin.ref);
+		return pin;
+	}
+	/**
+	 * @return The number of rollbacks, a value taken before the last one may no longer be in deep store
+	 */
+	public synchronized long getRollbacks() {
+		return rollbacks;
+	}
+	/**
+	 * @return true if any pin is held
+	 */
+	synchronized boolean isPinned() {
+		Reference<? extends Pin> r;
+		while((r = released.poll()) != null)
+			held.remove(r);
+		return !held.isEmpty();
+	}
+	/**
+	 * Queue the free of a payload if any pin is held.
+	 * @param loc The location of the payload
+	 * @param osize The size of the payload
+	 * @return true if queued, false if the payload is to be freed now
+	 */
+	synchronized boolean defer(Optr loc, int osize) {
+		if(!isPinned())
+			return false;
+		frees.add(new Free(loc, osize));
+		return true;
+	}
+	/**
+	 * Take the queued frees if no pin is held.
+	 * @return The payloads to free, empty if none or pinned
+	 */
+	synchronized ArrayList<Free> take() {
+		if(frees.isEmpty() || isPinned())
+			return new ArrayList<Free>();
+		ArrayList<Free> taken = frees;
+		frees = new ArrayList<Free>();
+		committed = 0;
+		return taken;
+	}
+	/**
+	 * The outstanding transaction has committed, its queued frees stand.
+	 */
+	synchronized void commit() {
+		committed = frees.size();
+	}
+	/**
+	 * The outstanding transaction has rolled back, drop the frees it queued.
+	 */
+	synchronized void rollback() {
+		while(frees.size() > committed)
+			frees.remove(frees.size()-1);
+		++rollbacks;
+	}
+	/**
+	 * Release every pin, as when the session is closing.
+	 */
+	synchronized void clear() {
+		for(Reference<Pin> r : held)
+			r.clear();
+		held.clear();
+	}
+
+	private synchronized void release(Pin pin) {
+		held.remove(pin.ref);
+		pin.ref.clear();
+	}
+	/**
+	 * A payload whose free is queued.
+	 */
+	static final class Free {
+		final Optr loc;
+		final int size;
+		Free(Optr loc, int size) {
+			this.loc = loc;
+			this.size = size;
+		}
+	}
+	/**
+	 * The hold an iterator has on the payloads of the values it hands out. It is released once the iterator is
+	 * done and every value handed out is read.
+	 */
+	public final class Pin {
+		private Reference<Pin> ref;
+		private int outstanding = 0;
+		private boolean done = false;
+
+		private Pin() {}
+		/**
+		 * A value has been handed out.
+		 */
+		public void hold() {
+			synchronized(PayloadPins.this) {
+				++outstanding;
+			}
+		}
+		/**
+		 * A value handed out has been read.
+		 */
+		public void unhold() {
+			synchronized(PayloadPins.this) {
+				if(--outstanding == 0 && done)
+					release(this);
+			}
+		}
+		/**
+		 * The iterator is done, it hands out no more values.
+		 */
+		public void done() {
+			synchronized(PayloadPins.this) {
+				done = true;
+				if(outstanding == 0)
+					release(this);
+			}
+		}
+	}
+}
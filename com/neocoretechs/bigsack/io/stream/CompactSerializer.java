@@ -0,0 +1,198 @@
+package com.neocoretechs.bigsack.io.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+/**
+ * Compact tagged encoding for the key and value types most commonly stored: String, the boxed primitives,
+ * byte arrays and Externalizable classes. The payload is a one byte type tag followed by a fixed width big endian
+ * value, or a length followed by the content. A String or Long key costs a handful of bytes rather than the
+ * stream header and class descriptor of Java serialization, and no object streams are constructed to read or write it.<p/>
+ * Anything else is written with {@link JavaSerializer}. Since no tag collides with the first byte of the Java
+ * serialization stream magic, payloads written before this codec existed are read back transparently.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ */
+public class CompactSerializer implements SerializerInterface {
+	private static final boolean DEBUG = false;
+	public static final byte STRING = 1;
+	public static final byte LONG = 2;
+	public static final byte INTEGER = 3;
+	public static final byte SHORT = 4;
+	public static final byte BYTE = 5;
+	public static final byte CHARACTER = 6;
+	public static final byte DOUBLE = 7;
+	public static final byte FLOAT = 8;
+	public static final byte BOOLEAN = 9;
+	public static final byte BYTEARRAY = 10;
+	public static final byte EXTERNALIZABLE = 11;
+
+	private final JavaSerializer javaSerializer = new JavaSerializer();
+
+	@Override
+	public byte[] serialize(Object o) throws IOException {
+		if(o == null)
+			return javaSerializer.serialize(o);
+		Class<?> c = o.getClass();
+		byte[] b;
+		if(c == String.class) {
+			byte[] s = ((String)o).getBytes(StandardCharsets.UTF_8);
+			b = new byte[5 + s.length];
+			b[0] = STRING;
+			putInt(b, 1, s.length);
+			System.arraycopy(s, 0, b, 5, s.length);
+		} else if(c == Long.class) {
+			b = new byte[9];
+			b[0] = LONG;
+			putLong(b, 1, ((Long)o).longValue());
+		} else if(c == Integer.class) {
+			b = new byte[5];
+			b[0] = INTEGER;
+			putInt(b, 1, ((Integer)o).intValue());
+		} else if(c == Short.class) {
+			b = new byte[3];
+			b[0] = SHORT;
+			putShort(b, 1, ((Short)o).shortValue());
+		} else if(c == Byte.class) {
+			b = new byte[2];
+			b[0] = BYTE;
+			b[1] = ((Byte)o).byteValue();
+		} else if(c == Character.class) {
+			b = new byte[3];
+			b[0] = CHARACTER;
+			putShort(b, 1, ((Character)o).charValue());
+		} else if(c == Double.class) {
+			b = new byte[9];
+			b[0] = DOUBLE;
+			putLong(b, 1, Double.doubleToRawLongBits((Double)o));
+		} else if(c == Float.class) {
+			b = new byte[5];
+			b[0] = FLOAT;
+			putInt(b, 1, Float.floatToRawIntBits((Float)o));
+		} else if(c == Boolean.class) {
+			b = new byte[2];
+			b[0] = BOOLEAN;
+			b[1] = (byte)(((Boolean)o).booleanValue() ? 1 : 0);
+		} else if(c == byte[].class) {
+			byte[] s = (byte[])o;
+			b = new byte[5 + s.length];
+			b[0] = BYTEARRAY;
+			putInt(b, 1, s.length);
+			System.arraycopy(s, 0, b, 5, s.length);
+		} else if(o instanceof Externalizable) {
+			b = serializeExternalizable((Externalizable)o);
+		} else {
+			b = javaSerializer.serialize(o);
+		}
+		if(DEBUG)
+			System.out.printf("%s.serialize %s to %d bytes%n", this.getClass().getName(), c.getName(), b.length);
+		return b;
+	}
+
+	@Override
+	public Object deserialize(byte[] obuf, ClassLoader classLoader) throws IOException {
+		if(obuf.length == 0)
+			throw new IOException("deserializeObject: empty buffer");
+		switch(obuf[0]) {
+			case STRING:
+				return new String(obuf, 5, getInt(obuf, 1), StandardCharsets.UTF_8);
+			case LONG:
+				return Long.valueOf(getLong(obuf, 1));
+			case INTEGER:
+				return Integer.valueOf(getInt(obuf, 1));
+			case SHORT:
+				return Short.valueOf(getShort(obuf, 1));
+			case BYTE:
+				return Byte.valueOf(obuf[1]);
+			case CHARACTER:
+				return Character.valueOf((char)getShort(obuf, 1));
+			case DOUBLE:
+				return Double.valueOf(Double.longBitsToDouble(getLong(obuf, 1)));
+			case FLOAT:
+				return Float.valueOf(Float.intBitsToFloat(getInt(obuf, 1)));
+			case BOOLEAN:
+				return Boolean.valueOf(obuf[1] != 0);
+			case BYTEARRAY:
+				return Arrays.copyOfRange(obuf, 5, 5 + getInt(obuf, 1));
+			case EXTERNALIZABLE:
+				return deserializeExternalizable(obuf, classLoader);
+			case JavaSerializer.STREAM_MAGIC_HI:
+				return javaSerializer.deserialize(obuf, classLoader);
+			default:
+				throw new IOException("deserializeObject: unknown payload type "+obuf[0]+" from buffer of length "+obuf.length);
+		}
+	}
+	/**
+	 * Externalizable payload is the tag, the class name as a short length and UTF-8 bytes, then the
+	 * object stream written by writeExternal. The class descriptor and handle machinery of Java serialization is avoided.
+	 */
+	private byte[] serializeExternalizable(Externalizable o) throws IOException {
+		byte[] name = o.getClass().getName().getBytes(StandardCharsets.UTF_8);
+		DirectByteArrayOutputStream baos = new DirectByteArrayOutputStream();
+		baos.write(EXTERNALIZABLE);
+		baos.write((name.length >>> 8) & 0xFF);
+		baos.write(name.length & 0xFF);
+		baos.write(name, 0, name.length);
+		ObjectOutputStream s = new ObjectOutputStream(baos);
+		o.writeExternal(s);
+		s.flush();
+		s.close();
+		return Arrays.copyOf(baos.getBuf(), baos.getCount());
+	}
+
+	private Object deserializeExternalizable(byte[] obuf, ClassLoader classLoader) throws IOException {
+		int nameLen = getShort(obuf, 1) & 0xFFFF;
+		String name = new String(obuf, 3, nameLen, StandardCharsets.UTF_8);
+		try {
+			Class<?> c = Class.forName(name, true, classLoader != null ? classLoader : CompactSerializer.class.getClassLoader());
+			Externalizable o = (Externalizable) c.getDeclaredConstructor().newInstance();
+			ByteArrayInputStream bais = new ByteArrayInputStream(obuf, 3 + nameLen, obuf.length - 3 - nameLen);
+			ObjectInputStream s;
+			if(classLoader != null)
+				s = new CObjectInputStream(bais, classLoader);
+			else
+				s = new ObjectInputStream(bais);
+			o.readExternal(s);
+			s.close();
+			return o;
+		} catch (ClassNotFoundException cnf) {
+			throw new IOException(
+				cnf.toString()
+					+ ":Class Not found, may have been modified beyond version compatibility");
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IOException("deserializeObject: cannot instantiate Externalizable "+name+": "+e.toString());
+		}
+	}
+
+	private static void putShort(byte[] b, int off, int v) {
+		b[off] = (byte)(v >>> 8);
+		b[off+1] = (byte)v;
+	}
+
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte)(v >>> 24);
+		b[off+1] = (byte)(v >>> 16);
+		b[off+2] = (byte)(v >>> 8);
+		b[off+3] = (byte)v;
+	}
+
+	private static void putLong(byte[] b, int off, long v) {
+		putInt(b, off, (int)(v >>> 32));
+		putInt(b, off+4, (int)v);
+	}
+
+	private static short getShort(byte[] b, int off) {
+		return (short)(((b[off] & 0xFF) << 8) | (b[off+1] & 0xFF));
+	}
+
+	private static int getInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off+1] & 0xFF) << 16) | ((b[off+2] & 0xFF) << 8) | (b[off+3] & 0xFF);
+	}
+
+	private static long getLong(byte[] b, int off) {
+		return ((long)getInt(b, off) << 32) | (getInt(b, off+4) & 0xFFFFFFFFL);
+	}
+}
@@ -185,12 +185,7 @@ public final class DBInputStream extends InputStream {
 			blkbytes = lbai.getBlk().getBytesused() - lbai.getByteindex();
 			if (runcount > blkbytes) {
 				runcount -= blkbytes;
-				System.arraycopy(
-					lbai.getBlk().getData(),
-					lbai.getByteindex(),
-					buf,
-					i,
-					blkbytes);
+				lbai.getBlk().get(lbai.getByteindex(), buf, i, blkbytes);
 				lbai.setByteindex((short) (lbai.getByteindex() + (short)blkbytes));
 				i += blkbytes;
 				if ((tblk=blockBuffer.getnextblk(lbai)) != null) {
@@ -199,12 +194,7 @@ public final class DBInputStream extends InputStream {
 					return (i != 0 ? (i-offs) : -1);
 				}
 			} else {
-				System.arraycopy(
-					lbai.getBlk().getData(),
-					lbai.getByteindex(),
-					buf,
-					i,
-					runcount);
+				lbai.getBlk().get(lbai.getByteindex(), buf, i, runcount);
 				lbai.setByteindex((short) (lbai.getByteindex() + runcount));
 				i += runcount;
 				return (i != 0 ? (i-offs) : -1);
@@ -239,7 +229,7 @@ public final class DBInputStream extends InputStream {
 			if (runcount > blkbytes) {
 				runcount -= blkbytes;
 				buf.position(i);
-				buf.put(lbai.getBlk().getData(), lbai.getByteindex(), blkbytes);
+				lbai.getBlk().get(lbai.getByteindex(), buf, blkbytes);
 				lbai.setByteindex((short) (lbai.getByteindex() + (short)blkbytes));
 				i += blkbytes;
 				if((tblk=blockBuffer.getnextblk(lbai)) != null) {
@@ -249,7 +239,7 @@ public final class DBInputStream extends InputStream {
 				}
 			} else {
 				buf.position(i);
-				buf.put(lbai.getBlk().getData(), lbai.getByteindex(), runcount);
+				lbai.getBlk().get(lbai.getByteindex(), buf, runcount);
 				lbai.setByteindex((short) (lbai.getByteindex() + runcount));
 				i += runcount;
 				return (i != 0 ? i : -1);
@@ -272,7 +262,7 @@ public final class DBInputStream extends InputStream {
 			}
 			lbai = tblk;
 		}
-		int ret = lbai.getBlk().getData()[lbai.getByteindex()] & 255;
+		int ret = lbai.getBlk().get(lbai.getByteindex()) & 255;
 		lbai.setByteindex((short) (lbai.getByteindex() + 1));
 		return ret;
 	}
@@ -69,7 +69,7 @@ public final class DBOutputStream extends OutputStream {
 	//Reads bytes from this byte-input stream into the specified byte array, starting at the given offset.
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		for(int i = off; i < len; i++)
+		for(int i = off; i < off + len; i++)
 			writei(b[i]);
 	}
 		
@@ -114,17 +114,11 @@ public final class DBOutputStream extends OutputStream {
 				System.out.printf("Writing %d to tblk:%s%n",blkbytes, lbai);
 			if (runcount > blkbytes) {  //overflow block
 				runcount -= blkbytes;
-				System.arraycopy(
-					buf,
-					i,
-					lbai.getBlk().getData(),
-					lbai.getByteindex(),
-					blkbytes);
+				lbai.getBlk().put(lbai.getByteindex(), buf, i, blkbytes);
 				lbai.setByteindex((short) (lbai.getByteindex() + (short)blkbytes));
 				i += blkbytes;
-				lbai.getBlk().setBytesused(DBPhysicalConstants.DATASIZE);
 				//update control info
-				lbai.getBlk().setBytesinuse(DBPhysicalConstants.DATASIZE);
+				extend(lbai);
 				lbai.getBlk().setIncore(true);
 				lbai.getBlk().setInlog(false);
 				if((tblk=blockBuffer.getnextblk(lbai)) == null) { // no linked block to write into? get one
@@ -134,19 +128,11 @@ public final class DBOutputStream extends OutputStream {
 				}
 				// now tblk has next block in chain or new acquired block
 			} else { // we can fit the remainder of buffer in this block
-				System.arraycopy(
-					buf,
-					i,
-					lbai.getBlk().getData(),
-					lbai.getByteindex(),
-					runcount);
+				lbai.getBlk().put(lbai.getByteindex(), buf, i, runcount);
 				lbai.setByteindex((short) (lbai.getByteindex() + runcount));
 				i += runcount;
-				if (lbai.getByteindex() > lbai.getBlk().getBytesused()) {
-					//update control info
-					lbai.getBlk().setBytesused(lbai.getByteindex());
-					lbai.getBlk().setBytesinuse(lbai.getBlk().getBytesused());
-				}
+				//update control info
+				extend(lbai);
 				lbai.getBlk().setIncore(true);
 				lbai.getBlk().setInlog(false);
 				return i;
@@ -186,12 +172,11 @@ public final class DBOutputStream extends OutputStream {
 			if (runcount > blkbytes) {
 				runcount -= blkbytes;
 				buf.position(i);
-				buf.get(lbai.getBlk().getData(), lbai.getByteindex(), blkbytes);
+				lbai.getBlk().put(lbai.getByteindex(), buf, blkbytes);
 				lbai.setByteindex((short) (lbai.getByteindex() + (short)blkbytes));
 				i += blkbytes;
-				lbai.getBlk().setBytesused(DBPhysicalConstants.DATASIZE);
 				//update control info
-				lbai.getBlk().setBytesinuse(DBPhysicalConstants.DATASIZE);
+				extend(lbai);
 				lbai.getBlk().setIncore(true);
 				lbai.getBlk().setInlog(false);
 				if ((tblk=blockBuffer.getnextblk(lbai)) == null) {
@@ -201,14 +186,11 @@ public final class DBOutputStream extends OutputStream {
 				}
 			} else {
 				buf.position(i);
-				buf.get(lbai.getBlk().getData(), lbai.getByteindex(), runcount);
+				lbai.getBlk().put(lbai.getByteindex(), buf, runcount);
 				lbai.setByteindex((short) (lbai.getByteindex() + runcount));
 				i += runcount;
-				if (lbai.getByteindex() >= lbai.getBlk().getBytesused()) {
-					//update control info
-					lbai.getBlk().setBytesused(lbai.getByteindex());
-					lbai.getBlk().setBytesinuse(lbai.getBlk().getBytesused());
-				}
+				//update control info
+				extend(lbai);
 				lbai.getBlk().setIncore(true);
 				lbai.getBlk().setInlog(false);
 				return i;
@@ -234,14 +216,24 @@ public final class DBOutputStream extends OutputStream {
 				lbai = tblk;
 			}
 		}
-		if (!lbai.getBlk().isIncore())
-			lbai.getBlk().setIncore(true);
-		lbai.getBlk().getData()[lbai.getByteindex()] = (byte) tbyte;
+		lbai.getBlk().setIncore(true);
+		lbai.getBlk().setInlog(false);
+		lbai.getBlk().put(lbai.getByteindex(), (byte) tbyte);
 		lbai.setByteindex((short) (lbai.getByteindex() + 1));
-		if (lbai.getByteindex() > lbai.getBlk().getBytesused()) {
-			//update control info
-			lbai.getBlk().setBytesused( lbai.getByteindex()) ;
-			lbai.getBlk().setBytesinuse(lbai.getBlk().getBytesused());
+		//update control info
+		extend(lbai);
+	}
+	/**
+	* extend - account for a write that ended at the byte index of the block.
+	* Only the bytes written past the high water mark are added to the bytes in use. Bytes written below it
+	* overwrite bytes already counted, so the holes a delete leaves stay out of the count until the vacuum reclaims them.
+	* @param bai The block written
+	*/
+	private static void extend(BlockAccessIndex bai) {
+		short used = bai.getBlk().getBytesused();
+		if (bai.getByteindex() > used) {
+			bai.getBlk().setBytesinuse((short) (bai.getBlk().getBytesinuse() + bai.getByteindex() - used));
+			bai.getBlk().setBytesused(bai.getByteindex());
 		}
 	}
 
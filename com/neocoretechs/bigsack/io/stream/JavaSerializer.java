@@ -0,0 +1,54 @@
+package com.neocoretechs.bigsack.io.stream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+/**
+ * Standard Java serialization of keys and values. This is the format all databases were written with
+ * before the serializer became pluggable, and the fallback of {@link CompactSerializer} for classes
+ * it has no codec for. Any Serializable object can be stored.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ */
+public class JavaSerializer implements SerializerInterface {
+	/**
+	 * The first byte of every Java serialization stream, STREAM_MAGIC 0xACED
+	 */
+	public static final byte STREAM_MAGIC_HI = (byte)0xAC;
+
+	@Override
+	public byte[] serialize(Object o) throws IOException {
+		DirectByteArrayOutputStream baos = new DirectByteArrayOutputStream();
+		ObjectOutputStream s = new ObjectOutputStream(baos);
+		s.writeObject(o);
+		s.flush();
+		s.close();
+		return Arrays.copyOf(baos.getBuf(), baos.getCount());
+	}
+
+	@Override
+	public Object deserialize(byte[] obuf, ClassLoader classLoader) throws IOException {
+		Object Od;
+		try {
+			ObjectInputStream s;
+			if(classLoader != null)
+				s = new CObjectInputStream(new ByteArrayInputStream(obuf), classLoader);
+			else
+				s = new ObjectInputStream(new ByteArrayInputStream(obuf));
+			Od = s.readObject();
+			s.close();
+		} catch (IOException ioe) {
+			throw new IOException(
+				"deserializeObject: "
+					+ ioe.toString()
+					+ ": Class Unreadable, may have been modified beyond version compatibility: from buffer of length "
+					+ obuf.length);
+		} catch (ClassNotFoundException cnf) {
+			throw new IOException(
+				cnf.toString()
+					+ ":Class Not found, may have been modified beyond version compatibility");
+		}
+		return Od;
+	}
+}
@@ -0,0 +1,28 @@
+package com.neocoretechs.bigsack.io.stream;
+
+import java.io.IOException;
+/**
+ * Pluggable conversion of keys and values to and from the byte payloads stored in the key pages and
+ * the overflow blocks of the database. One instance is attached to each {@link com.neocoretechs.bigsack.io.pooled.GlobalDBIO}
+ * and may be selected per database when the session is established.<p/>
+ * The encoded payload must be self delimiting; when an object is read back from a chain of blocks the
+ * buffer presented to {@link #deserialize(byte[], ClassLoader)} may extend past the end of the encoding.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ */
+public interface SerializerInterface {
+	/**
+	 * Encode the object.
+	 * @param o The object to encode
+	 * @return The encoded payload, exactly sized
+	 * @throws IOException If the object cannot be encoded
+	 */
+	public byte[] serialize(Object o) throws IOException;
+	/**
+	 * Decode an object from the start of the buffer.
+	 * @param obuf The buffer containing the encoded payload, possibly followed by unused bytes
+	 * @param classLoader The custom class loader used to resolve classes, or null for the default
+	 * @return The reconstituted object
+	 * @throws IOException If the payload cannot be decoded or its class cannot be resolved
+	 */
+	public Object deserialize(byte[] obuf, ClassLoader classLoader) throws IOException;
+}
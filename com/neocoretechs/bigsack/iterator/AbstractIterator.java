@@ -3,6 +3,7 @@ package com.neocoretechs.bigsack.iterator;
 import java.io.IOException;
 import java.util.Iterator;
 
+import com.neocoretechs.bigsack.io.pooled.PayloadPins;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 /**
@@ -13,9 +14,25 @@ import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 public abstract class AbstractIterator implements Iterator<Object> {
 	KeyValueMainInterface kvMain;
 	protected KeyValue current;
+	private PayloadPins.Pin pin = null; // hold on the payloads of the values handed out, taken with the first one
 	public AbstractIterator(KeyValueMainInterface kvMain) throws IOException {
 		this.kvMain = kvMain;
 	}
+	/**
+	 * @return The pin on the payloads of the values this iterator hands out, taken on first use
+	 */
+	PayloadPins.Pin pin() {
+		if(pin == null)
+			pin = kvMain.getIO().getPayloadPins().pin();
+		return pin;
+	}
+	/**
+	 * The last value has been handed out, the pin goes once the values handed out are read.
+	 */
+	void done() {
+		if(pin != null)
+			pin.done();
+	}
 	public abstract boolean hasNext();
 	public abstract Object next();
 }
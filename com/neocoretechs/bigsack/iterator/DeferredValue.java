@@ -0,0 +1,85 @@
+package com.neocoretechs.bigsack.iterator;
+
+import java.io.IOException;
+
+import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.pooled.PayloadPins;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
+import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
+/**
+ * The value of a page entry as of iteration, retrieved from deep store only when asked for.<p/>
+ * The value pointer, or the inline payload, is taken from the page entry when the iterator reaches it, so a later put
+ * to the key does not change it. A payload in deep store is read under the lock of the key/value store. The iterator
+ * holds a {@link PayloadPins.Pin} on it from when the value is handed out until it is read, so a put or remove of the key
+ * meanwhile queues the free of the payload rather than letting a later write reuse it.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+final class DeferredValue {
+	private final KeyValueMainInterface kvMain;
+	private Optr valueOptr = null;
+	private byte[] valueInline = null;
+	private Object value = null;
+	private boolean resolved = false;
+	private PayloadPins.Pin pin = null; // held for a payload in deep store
+	private long rollbacks;
+	/**
+	 * Take the value of the entry, or its pointer if it has not been read.
+	 * @param kvMain The key/value store of the entry
+	 * @param source The page entry
+	 * @param owner The iterator handing the value out
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	DeferredValue(KeyValueMainInterface kvMain, KeyValue source, AbstractIterator owner) throws IOException {
+		this.kvMain = kvMain;
+		if(!source.isValueDeferred()) {
+			value = source.getmValue(); // already in memory or nothing to read
+			resolved = true;
+		} else if(source.getValueOptr().isInline()) {
+			valueInline = source.getValueInline(); // the page copy, not reused by writes
+			valueOptr = source.getValueOptr();
+		} else {
+			valueOptr = source.getValueOptr();
+			pin = owner.pin();
+			rollbacks = kvMain.getIO().getPayloadPins().getRollbacks();
+		}
+	}
+	/**
+	 * The value is handed out, its payload is held until it is read.
+	 */
+	void handOut() {
+		if(pin != null)
+			pin.hold();
+	}
+	/**
+	 * @return The value as of iteration, read from deep store on the first call
+	 * @throws IOException if the value cannot be read, or was not read before a rollback
+	 */
+	Object get() throws IOException {
+		synchronized(kvMain) {
+			synchronized(this) {
+				if(!resolved) {
+					try {
+						if(valueOptr.isInline())
+							value = GlobalDBIO.deserializeObject(kvMain.getIO(), valueInline);
+						else if(kvMain.getIO().getPayloadPins().getRollbacks() != rollbacks)
+							throw new IOException("Value at "+valueOptr+" was not read before a rollback");
+						else
+							value = kvMain.getValue(valueOptr);
+						resolved = true;
+						valueOptr = null;
+						valueInline = null;
+					} finally {
+						if(pin != null) {
+							pin.unhold();
+							pin = null;
+						}
+					}
+				}
+				return value;
+			}
+		}
+	}
+}
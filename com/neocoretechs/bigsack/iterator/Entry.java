@@ -1,8 +1,12 @@
 package com.neocoretechs.bigsack.iterator;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 /**
- * Serializable wrapper for Map.Entry
+ * Serializable wrapper for Map.Entry. When produced by the entry set iterator the value
+ * is retrieved from deep store upon first call to {@link #getValue()}. It is the value as of iteration,
+ * a later put or remove of the key does not change it.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
  *
  */
@@ -10,10 +14,21 @@ public class Entry implements java.util.Map.Entry<Comparable, Object>, Serializa
 	private static final long serialVersionUID = 4761413076980149698L;
 	Comparable key;
 	Object value;
+	private transient DeferredValue deferred = null; // value as of iteration, lazily retrieved
 	public Entry(Comparable key, Object value) {
 		this.key = key;
 		this.value = value;
 	}
+	/**
+	 * Construct an entry whose value is retrieved upon first access.
+	 * @param key The key, already retrieved
+	 * @param deferred The value as of iteration
+	 */
+	Entry(Comparable key, DeferredValue deferred) {
+		this.key = key;
+		this.deferred = deferred;
+		deferred.handOut();
+	}
 
 	@Override
 	public Comparable getKey() {
@@ -21,19 +36,33 @@ public class Entry implements java.util.Map.Entry<Comparable, Object>, Serializa
 	}
 
 	@Override
-	public Object getValue() {
+	public synchronized Object getValue() {
+		if(deferred != null) {
+			try {
+				value = deferred.get();
+			} catch (IOException ioe) {
+				throw new RuntimeException(ioe);
+			}
+			deferred = null;
+		}
 		return value;
 	}
 
 	@Override
-	public Object setValue(Object value) {
+	public synchronized Object setValue(Object value) {
+		deferred = null;
 		this.value = value;
 		return value;
 	}
 	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getValue();
+		out.defaultWriteObject();
+	}
+	
 	@Override
 	public String toString() {
-		return String.format("<%s,%s>%n", key, value);
+		return String.format("<%s,%s>%n", key, getValue());
 	}
 
 }
@@ -36,7 +36,7 @@ import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
  *
  */
 public class EntrySetIterator extends AbstractIterator {
-	Object retElem, nextElem;
+	DeferredValue retElem, nextElem; // value as of iteration, retrieved only when the caller asks for it
 	@SuppressWarnings("rawtypes")
 	Comparable retKey, nextKey;
 	TraversalStackElement tracker = new TraversalStackElement(null, 0,0);
@@ -46,9 +46,11 @@ public class EntrySetIterator extends AbstractIterator {
 		synchronized (kvMain) {
 			current = kvMain.rewind(tracker,stack);
 			if(current != null) {
-				nextElem = current.getmValue();
+				nextElem = new DeferredValue(kvMain, current, this);
 				nextKey = current.getmKey();
 			}
+			if(nextKey == null)
+				done(); // nothing to hand out
 			//kvMain.getIO().deallocOutstanding();
 		}
 	}
@@ -73,7 +75,7 @@ public class EntrySetIterator extends AbstractIterator {
 						//throw new ConcurrentModificationException("Next iterator element rendered invalid. Last good key:"+nextKey);
 					} else {
 						nextKey = current.getmKey();
-						nextElem = current.getmValue();
+						nextElem = new DeferredValue(kvMain, current, this);
 					}
 				} else {
 					nextElem = null;
@@ -81,7 +83,10 @@ public class EntrySetIterator extends AbstractIterator {
 					stack.clear();
 				}
 				//kvMain.getIO().deallocOutstanding();
-				return new Entry(retKey, retElem);
+				Entry ret = new Entry(retKey, retElem);
+				if(nextKey == null)
+					done(); // the last value is handed out
+				return ret;
 			} catch (IOException ioe) {
 				throw new RuntimeException(ioe.toString());
 			}
@@ -37,7 +37,7 @@ import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
 public class HeadSetKVIterator extends AbstractIterator {
 	@SuppressWarnings("rawtypes")
 	Comparable toKey, nextKey, retKey;
-	Object nextElem, retElem;
+	DeferredValue nextElem, retElem; // value as of iteration, retrieved only when the caller asks for it
 	TraversalStackElement tracker = new TraversalStackElement(null, 0,0);
 	Stack stack = new Stack();
 	@SuppressWarnings("unchecked")
@@ -48,13 +48,15 @@ public class HeadSetKVIterator extends AbstractIterator {
 			current = kvMain.rewind(tracker, stack);
 			if(current != null) {
 				nextKey = current.getmKey();
-				nextElem = current.getmValue();
+				nextElem = new DeferredValue(kvMain, current, this);
 				if (nextKey == null || nextKey.compareTo(toKey) >= 0) {
 					nextElem = null; //exclusive
 					nextKey = null;
 					stack.clear();
 				}
 			}
+			if(nextKey == null)
+				done(); // nothing to hand out
 			//kvMain.getIO().deallocOutstanding();
 		}
 	}
@@ -79,7 +81,7 @@ public class HeadSetKVIterator extends AbstractIterator {
 						//throw new ConcurrentModificationException("Next iterator element rendered invalid. Last good key:"+nextKey);
 					} else {
 						nextKey = current.getmKey();
-						nextElem = current.getmValue();
+						nextElem = new DeferredValue(kvMain, current, this);
 						if (nextKey.compareTo(toKey) >= 0) {
 							nextElem = null; //exclusive
 							nextKey = null;
@@ -92,7 +94,10 @@ public class HeadSetKVIterator extends AbstractIterator {
 					stack.clear();
 				}
 				//kvMain.getIO().deallocOutstanding();
-				return new KeyValuePair(retKey, retElem);
+				KeyValuePair ret = new KeyValuePair(retKey, retElem);
+				if(nextKey == null)
+					done(); // the last value is handed out
+				return ret;
 			} catch (IOException ioe) {
 				throw new RuntimeException(ioe.toString());
 			}
@@ -1,4 +1,6 @@
 package com.neocoretechs.bigsack.iterator;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Map;
 /*
@@ -27,19 +29,50 @@ import java.util.Map;
 /**
 * Key-Value pair to be stored in persistent collection.
 * Collections are transparent to type, so we provide this wrapper to give a key-value type
-* if necessary.
+* if necessary.<p/>
+* When produced by the key/value iterators the value is not retrieved from deep store until
+* {@link #getValue()} is called, so a traversal that only examines keys never reads a value block.
+* It is the value as of iteration, a later put or remove of the key does not change it, and once retrieved
+* it is also in the public value field.
 * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
 */
 @SuppressWarnings("rawtypes")
 public class KeyValuePair implements Serializable, Comparable, Map.Entry {
         static final long serialVersionUID = -927653922205205452L;
-        public Object key, value;
+        public Object key;
+        /**
+        * The value. On a pair from the key/value iterators it is filled in by the first {@link #getValue()}.
+        * @deprecated Use {@link #getValue()}, which retrieves the value of a pair from the key/value iterators.
+        */
+        @Deprecated
+        public Object value;
+        private transient DeferredValue deferred = null; // value as of iteration, lazily retrieved
         public KeyValuePair(Object tkey, Object tvalue) {
                 key = tkey;
                 value = tvalue;
         }
+        /**
+        * Construct a pair whose value is retrieved upon first access.
+        * @param tkey The key, already retrieved
+        * @param tdeferred The value as of iteration
+        */
+        KeyValuePair(Object tkey, DeferredValue tdeferred) {
+                key = tkey;
+                deferred = tdeferred;
+                deferred.handOut();
+        }
         public Object getKey() { return key; }
-        public Object getValue() { return value; }
+        public synchronized Object getValue() {
+                if(deferred != null) {
+                        try {
+                                value = deferred.get();
+                        } catch (IOException ioe) {
+                                throw new RuntimeException(ioe);
+                        }
+                        deferred = null;
+                }
+                return value;
+        }
         public Object setValue(Object o) {
                 throw new UnsupportedOperationException("Map.Entry write-through not supported");
         }
@@ -47,5 +80,9 @@ public class KeyValuePair implements Serializable, Comparable, Map.Entry {
 		public int compareTo(Object tobj) {
                 return ((Comparable)key).compareTo(((KeyValuePair)tobj).key);
         }
-        public String toString() { return "KeyValuePair:["+key+","+value+"]"; }
+        private void writeObject(ObjectOutputStream out) throws IOException {
+                getValue();
+                out.defaultWriteObject();
+        }
+        public String toString() { return "KeyValuePair:["+key+","+getValue()+"]"; }
 }
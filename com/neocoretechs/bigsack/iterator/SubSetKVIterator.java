@@ -38,7 +38,7 @@ import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
 public class SubSetKVIterator extends AbstractIterator {
 	@SuppressWarnings("rawtypes")
 	Comparable fromKey, toKey, nextKey, retKey;
-	Object nextElem, retElem;
+	DeferredValue nextElem, retElem; // value as of iteration, retrieved only when the caller asks for it
 	TraversalStackElement tracker = new TraversalStackElement(null, 0,0);
 	Stack stack = new Stack();
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -56,17 +56,20 @@ public class SubSetKVIterator extends AbstractIterator {
 				stack.clear();
 			} else {
 				nextKey = current.getmKey();
-				nextElem = current.getmValue();
+				nextElem = new DeferredValue(kvMain, current, this);
 				if (nextKey.compareTo(toKey) >= 0 || nextKey.compareTo(fromKey) < 0) {
 					nextElem = null; //exclusive
+					nextKey = null;
 					stack.clear();
 				}
 			}
+			if(nextKey == null)
+				done(); // nothing to hand out
 			//bTree.getIO().deallocOutstanding();
 		}
 	}
 	public boolean hasNext() {
-		return (nextElem != null);
+		return (nextKey != null);
 	}
 	@SuppressWarnings("unchecked")
 	public Object next() {
@@ -86,7 +89,7 @@ public class SubSetKVIterator extends AbstractIterator {
 						//throw new ConcurrentModificationException("Next iterator element rendered invalid. Last good key:"+nextKey);
 					} else {
 						nextKey = current.getmKey();
-						nextElem = current.getmValue();
+						nextElem = new DeferredValue(kvMain, current, this);
 						if (nextKey.compareTo(toKey) >= 0) {
 							nextKey = null;
 							nextElem = null; //exclusive
@@ -99,7 +102,10 @@ public class SubSetKVIterator extends AbstractIterator {
 					stack.clear();
 				}
 				//kvMain.getIO().deallocOutstanding();
-				return new KeyValuePair(retKey,retElem);
+				KeyValuePair ret = new KeyValuePair(retKey, retElem);
+				if(nextKey == null)
+					done(); // the last value is handed out
+				return ret;
 			}
 		} catch (IOException ioe) {
 			throw new RuntimeException(ioe.toString());
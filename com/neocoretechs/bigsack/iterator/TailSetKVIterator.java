@@ -40,7 +40,7 @@ public class TailSetKVIterator extends AbstractIterator {
 	Comparable fromKey, nextKey, retKey;
 	TraversalStackElement tracker = new TraversalStackElement(null, 0,0);
 	Stack stack = new Stack();
-	Object retElem, nextElem;
+	DeferredValue retElem, nextElem; // value as of iteration, retrieved only when the caller asks for it
 	public TailSetKVIterator(@SuppressWarnings("rawtypes") Comparable fromKey, KeyValueMainInterface bTree)
 		throws IOException {
 		super(bTree);
@@ -51,13 +51,15 @@ public class TailSetKVIterator extends AbstractIterator {
 			current = ((KeyPageInterface)tracker.keyPage).getKeyValueArray(tracker.index);
 			if(current != null) {
 				nextKey = current.getmKey();
-				nextElem = current.getmValue();
+				nextElem = new DeferredValue(kvMain, current, this);
 				if (nextKey == null || nextKey.compareTo(fromKey) < 0) {
 					nextElem = null; //exclusive
 					nextKey = null;
 					stack.clear();
 				}
 			}
+			if(nextKey == null)
+				done(); // nothing to hand out
 			//bTree.getIO().deallocOutstanding();
 		}
 	}
@@ -81,7 +83,7 @@ public class TailSetKVIterator extends AbstractIterator {
 						//throw new ConcurrentModificationException("Next iterator element rendered invalid. Last good key:"+nextKey);
 					} else {
 						nextKey = current.getmKey();
-						nextElem = current.getmValue();
+						nextElem = new DeferredValue(kvMain, current, this);
 					}
 				} else {
 					nextKey = null;
@@ -89,7 +91,10 @@ public class TailSetKVIterator extends AbstractIterator {
 					stack.clear();
 				}
 				//kvMain.getIO().deallocOutstanding();
-				return new KeyValuePair(retKey,retElem);
+				KeyValuePair ret = new KeyValuePair(retKey, retElem);
+				if(nextKey == null)
+					done(); // the last value is handed out
+				return ret;
 			} catch (IOException ioe) {
 				throw new RuntimeException(ioe.toString());
 			}
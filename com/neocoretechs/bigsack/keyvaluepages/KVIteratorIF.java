@@ -1,8 +1,11 @@
 package com.neocoretechs.bigsack.keyvaluepages;
 
+import java.io.IOException;
+
 /**
  * Interface KVIteratorIF. Interface to facilitate Key/Value retrieval.
+ * The entry is passed as is, its value is only retrieved from deep store if the implementation asks for it.
  */
 public interface KVIteratorIF <K extends Comparable, V> {
-    public boolean item(K key, V value);
+    public boolean item(KeyValue<K, V> kv) throws IOException;
 }
@@ -0,0 +1,112 @@
+package com.neocoretechs.bigsack.keyvaluepages;
+
+/**
+ * Fixed width, order preserving key prefix stored in the key page alongside the key {@link com.neocoretechs.bigsack.io.Optr}.<p/>
+ * For the common built-in key types we can encode the leading portion of the key in a long such that an unsigned
+ * comparison of two encodings of the same type agrees with the compareTo of the original keys. During an in-page
+ * search this lets us decide most comparisons without deserializing the key payload.<p/>
+ * Numeric types encode the entire key, so equal prefixes mean equal keys. Strings encode the first 4 UTF-16 chars, so
+ * equal prefixes are inconclusive and we fall back to the deserialized key. Keys of any other type, or of mixed types,
+ * are always inconclusive.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ */
+public final class KeyPrefix {
+	public static final int KEYPREFIXSIZE = 9; // byte prefix type plus long prefix
+	public static final int INCONCLUSIVE = Integer.MIN_VALUE;
+	public static final byte NONE = 0;
+	public static final byte STRING = 1;
+	public static final byte LONG = 2;
+	public static final byte INTEGER = 3;
+	public static final byte SHORT = 4;
+	public static final byte BYTE = 5;
+	public static final byte CHARACTER = 6;
+	public static final byte DOUBLE = 7;
+	public static final byte FLOAT = 8;
+
+	private KeyPrefix() {}
+
+	/**
+	 * Determine the prefix type of the given key. The classes tested are final so we can compare them directly.
+	 * @param key The key, may be null
+	 * @return The prefix type, NONE if the key type has no order preserving encoding
+	 */
+	@SuppressWarnings("rawtypes")
+	public static byte typeOf(Comparable key) {
+		if(key == null)
+			return NONE;
+		Class<?> c = key.getClass();
+		if(c == String.class)
+			return STRING;
+		if(c == Long.class)
+			return LONG;
+		if(c == Integer.class)
+			return INTEGER;
+		if(c == Short.class)
+			return SHORT;
+		if(c == Byte.class)
+			return BYTE;
+		if(c == Character.class)
+			return CHARACTER;
+		if(c == Double.class)
+			return DOUBLE;
+		if(c == Float.class)
+			return FLOAT;
+		return NONE;
+	}
+
+	/**
+	 * Encode the key into an unsigned order preserving long for its type.
+	 * @param type The prefix type from {@link #typeOf(Comparable)}
+	 * @param key The key
+	 * @return The prefix, 0 for type NONE
+	 */
+	@SuppressWarnings("rawtypes")
+	public static long prefixOf(byte type, Comparable key) {
+		switch(type) {
+			case STRING:
+				String s = (String) key;
+				long p = 0L;
+				for(int i = 0; i < 4; i++) {
+					p <<= 16;
+					if(i < s.length())
+						p |= s.charAt(i);
+				}
+				return p;
+			case LONG:
+				return ((Long)key).longValue() ^ Long.MIN_VALUE;
+			case INTEGER:
+				return ((Integer)key).longValue() ^ Long.MIN_VALUE;
+			case SHORT:
+				return ((Short)key).longValue() ^ Long.MIN_VALUE;
+			case BYTE:
+				return ((Byte)key).longValue() ^ Long.MIN_VALUE;
+			case CHARACTER:
+				return ((Character)key).charValue();
+			case DOUBLE:
+				long dbits = Double.doubleToLongBits((Double)key);
+				return dbits ^ ((dbits >> 63) | Long.MIN_VALUE);
+			case FLOAT:
+				int fbits = Float.floatToIntBits((Float)key);
+				return (fbits ^ ((fbits >> 31) | Integer.MIN_VALUE)) & 0xFFFFFFFFL;
+			default:
+				return 0L;
+		}
+	}
+
+	/**
+	 * Compare a stored prefix against the prefix of a target key.
+	 * @param type The stored prefix type
+	 * @param prefix The stored prefix
+	 * @param targetType The target key prefix type
+	 * @param targetPrefix The target key prefix
+	 * @return -1, 0, 1 as stored key compareTo target key would, or INCONCLUSIVE if the keys must be deserialized and compared
+	 */
+	public static int compare(byte type, long prefix, byte targetType, long targetPrefix) {
+		if(type == NONE || type != targetType)
+			return INCONCLUSIVE;
+		int cmpRes = Long.compareUnsigned(prefix, targetPrefix);
+		if(cmpRes != 0)
+			return cmpRes < 0 ? -1 : 1;
+		return type == STRING ? INCONCLUSIVE : 0;
+	}
+}
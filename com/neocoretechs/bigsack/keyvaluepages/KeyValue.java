@@ -3,6 +3,7 @@ package com.neocoretechs.bigsack.keyvaluepages;
 import java.io.IOException;
 
 import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
 
 /**
  * Class representing a key/value pair with associated state and deep store pointers.<p/>
@@ -25,6 +26,10 @@ public class KeyValue<K extends Comparable, V> {
     private V mValue;
     private Optr keyOptr = Optr.emptyPointer;
     private Optr valueOptr = Optr.emptyPointer;
+    private byte keyPrefixType = KeyPrefix.NONE;
+    private long keyPrefix = 0L;
+    private byte[] keyInline = null; // serialized key stored inline in page when keyOptr is inline
+    private byte[] valueInline = null; // serialized value stored inline in page when valueOptr is inline
     private NodeInterface<K,V> node;
     
     /**
@@ -37,7 +42,7 @@ public class KeyValue<K extends Comparable, V> {
 
     public KeyValue(K key, V value, NodeInterface<K,V> node) {
     	this.node = node;
-        mKey = key;
+        setmKey(key);
         mValue = value;
     }
     
@@ -45,6 +50,8 @@ public class KeyValue<K extends Comparable, V> {
     	if(keyState == synchStates.mustRead && mKey == null && !keyOptr.equals(Optr.emptyPointer)) {
     		if(keyOptr.getBlock() == 0 || keyOptr.getBlock() == -1)
     			mKey = (K) ("***INVALID ZERO KEY POINTER "+keyOptr.toString()+"****");
+    		else if(keyOptr.isInline())
+    			mKey = (K) GlobalDBIO.deserializeObject(node.getKeyValueMain().getIO(), keyInline);
     		else
     			mKey = (K) node.getKeyValueMain().getKey(keyOptr);
     		keyState = synchStates.upToDate;
@@ -52,24 +59,94 @@ public class KeyValue<K extends Comparable, V> {
 		return mKey;
 	}
 
+	/**
+	 * Set the key and compute its stored prefix.
+	 * @param mKey
+	 */
 	public void setmKey(K mKey) {
 		this.mKey = mKey;
+		if(mKey != null) {
+			keyPrefixType = KeyPrefix.typeOf(mKey);
+			keyPrefix = KeyPrefix.prefixOf(keyPrefixType, mKey);
+		} else {
+			keyPrefixType = KeyPrefix.NONE;
+			keyPrefix = 0L;
+		}
+	}
+	
+	public byte getKeyPrefixType() {
+		return keyPrefixType;
+	}
+	
+	public long getKeyPrefix() {
+		return keyPrefix;
+	}
+	
+	/**
+	 * Set the prefix as read from the key page, the key itself remains unread until needed.
+	 * @param keyPrefixType
+	 * @param keyPrefix
+	 */
+	public void setKeyPrefix(byte keyPrefixType, long keyPrefix) {
+		this.keyPrefixType = keyPrefixType;
+		this.keyPrefix = keyPrefix;
+	}
+	
+	/**
+	 * Compare the key of this entry to the target key, using the stored prefix first and only
+	 * retrieving the key from deep store when the prefix cannot decide.
+	 * @param targetKey The target key
+	 * @param targetPrefixType The prefix type of the target key from {@link KeyPrefix#typeOf(Comparable)}
+	 * @param targetPrefix The prefix of the target key from {@link KeyPrefix#prefixOf(byte, Comparable)}
+	 * @return The result of this key compareTo target key
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public int compareKey(K targetKey, byte targetPrefixType, long targetPrefix) throws IOException {
+		int cmpRes = KeyPrefix.compare(keyPrefixType, keyPrefix, targetPrefixType, targetPrefix);
+		if(cmpRes != KeyPrefix.INCONCLUSIVE)
+			return cmpRes;
+		return getmKey().compareTo(targetKey);
 	}
 
 	public V getmValue() throws IOException {
 	   	if(valueState == synchStates.mustRead && mValue == null && !valueOptr.equals(Optr.emptyPointer)) {
 	  		if(valueOptr.getBlock() == 0 || valueOptr.getBlock() == -1)
     			mValue = (V)( "***INVALID ZERO KEY POINTER "+valueOptr.toString()+"****");
+    		else if(valueOptr.isInline())
+    			mValue = (V) GlobalDBIO.deserializeObject(node.getKeyValueMain().getIO(), valueInline);
     		else
     			mValue = (V) node.getKeyValueMain().getValue(valueOptr);
     	}
 		return mValue;
 	}
 
+	/**
+	 * @return true if {@link #getmValue()} has yet to read the value from deep store or the inline payload
+	 */
+	public boolean isValueDeferred() {
+		return valueState == synchStates.mustRead && mValue == null && !valueOptr.equals(Optr.emptyPointer) &&
+				valueOptr.getBlock() != 0 && valueOptr.getBlock() != -1;
+	}
+
 	public void setmValue(V mValue) {
 		this.mValue = mValue;
 	}
 
+	/**
+	 * Mark the key as written with its page. If the key was never retrieved it remains to be read from its pointer.
+	 */
+	public void setKeyUpToDate() {
+		keyState = (mKey == null ? synchStates.mustRead : synchStates.upToDate);
+	}
+	
+	/**
+	 * Mark the value as written with its page. If the value was never retrieved it remains to be read from its pointer.
+	 */
+	public void setValueUpToDate() {
+		valueState = (mValue == null ? synchStates.mustRead : synchStates.upToDate);
+	}
+
 	public Optr getKeyOptr() {
 		return keyOptr;
 	}
@@ -78,6 +155,22 @@ public class KeyValue<K extends Comparable, V> {
 		this.keyOptr = keyId;
 	}
 
+	public byte[] getKeyInline() {
+		return keyInline;
+	}
+
+	public void setKeyInline(byte[] keyInline) {
+		this.keyInline = keyInline;
+	}
+
+	public byte[] getValueInline() {
+		return valueInline;
+	}
+
+	public void setValueInline(byte[] valueInline) {
+		this.valueInline = valueInline;
+	}
+
 	public Optr getValueOptr() {
 		return valueOptr;
 	}
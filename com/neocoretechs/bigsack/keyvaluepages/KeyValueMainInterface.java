@@ -1,6 +1,8 @@
 package com.neocoretechs.bigsack.keyvaluepages;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Stack;
 
 import com.neocoretechs.bigsack.btree.BTNode;
@@ -9,6 +11,7 @@ import com.neocoretechs.bigsack.btree.StructureCallBackListener;
 import com.neocoretechs.bigsack.io.Optr;
 import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.stream.PageIteratorIF;
 /**
  * Interface to the Main implementation of the chosen K/V store, such as HMap or BTree.
  * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
@@ -47,15 +50,14 @@ public interface KeyValueMainInterface {
 	
 	Object getValue(Optr valueLoc) throws IOException;
 	/**
-	 * Returns number of table scanned keys, sets numKeys field
-	 * TODO: Alternate more efficient implementation that counts keys on pages
-	 * This method scans all keys, thus verifying the structure.
+	 * Returns the number of keys, as kept in the root pages and maintained on insert and delete.
+	 * If the root pages hold no count, as in a database written before the count was kept, the keys are scanned.
 	 * @throws IOException
 	 */
 	long count() throws IOException;
 
 	/**
-	 * Determines if k/v store is empty by examining the root for the presence of any keys
+	 * Determines if k/v store is empty from the count of keys kept in the root pages
 	 * @return
 	 */
 	boolean isEmpty();
@@ -97,6 +99,15 @@ public interface KeyValueMainInterface {
 	 */
 	int add(Comparable key, Object value) throws IOException;
 
+	/**
+	 * Load entries sorted in ascending order of key. An empty ordered store may be built from them bottom-up,
+	 * otherwise, or for an unordered store, each entry is added in turn.
+	 * @param entries The {@link Map.Entry} key/value pairs in ascending order of key
+	 * @return The number of keys added
+	 * @throws IOException If a key is out of order in a bottom-up load, the transaction should then be rolled back
+	 */
+	long load(Iterator<? extends Map.Entry> entries) throws IOException;
+
 	/**
 	 * Sets up the return KeyPageInterface similar to 'reposition' but this public method initializes root node etc.
 	 * The purpose is to provide a detached locate method to do intermediate key checks before insert, then use
@@ -230,6 +241,14 @@ public interface KeyValueMainInterface {
 	 */
 	void traverseStructure(StructureCallBackListener listener, KeyPageInterface node, long parent, int level)
 			throws IOException;
+	/**
+	 * Walk every page holding key/value entries, calling back the passed operator with each.
+	 * The pages delivered are the instances the implementation works with, so changes made to them and
+	 * written with putPage are seen by subsequent operations.
+	 * @param iterImpl The operator called with each page
+	 * @throws IOException
+	 */
+	void retrievePages(PageIteratorIF<KeyPageInterface> iterImpl) throws IOException;
 
 
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.neocoretechs.bigsack.keyvaluepages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.io.IoManagerInterface;
+import com.neocoretechs.bigsack.io.Optr;
+import com.neocoretechs.bigsack.io.pooled.BlockAccessIndex;
+import com.neocoretechs.bigsack.io.pooled.Datablock;
+import com.neocoretechs.bigsack.io.pooled.FreeSpaceMap;
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.pooled.MappedBlockBuffer;
+
+/**
+ * Online reclamation of the space left in payload blocks by deleted and replaced keys and values.<p/>
+ * A delete only lowers the bytes in use of a block, or its high water mark when the payload deleted is the last one,
+ * and new payloads are only appended at the high water mark, so the holes are never reused. A pass reads the block
+ * headers of each tablespace from deep store and chooses the blocks whose bytes in use have fallen below a percentage of
+ * their high water mark, fewest live bytes first, up to a limit per pass. The key pages are then walked and each key or
+ * value whose payload starts in a chosen block is written at a new insert position, deleted from the old one, and its
+ * page rewritten with the new {@link Optr}. Blocks left with no bytes in use, whether by the pass or by earlier deletes
+ * and abandoned allocations, are unlinked from their neighbors and reset.<p/>
+ * All of it goes through the buffer pool and is committed through the recovery log like any other update. Only once that
+ * commit is done are the emptied blocks returned to the {@link FreeSpaceMap}, so the allocator never hands out a block
+ * whose emptying could still be rolled back.<p/>
+ * The outstanding transaction is committed before the pass begins. There is no pointer from a payload back to its page,
+ * so every pass walks all the key pages once; the block limit bounds the payloads moved and blocks latched by a pass.
+ * Run passes from idle time until one reclaims nothing.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public final class Vacuum {
+	private static final boolean DEBUG = false;
+	public static int THRESHOLD = 50; // default percent of the high water mark in use below which a block is compacted
+	public static int MAXBLOCKS = 256; // default number of blocks compacted per pass
+	private static final int MINROOM = 64; // a block with less room than this left is no longer a target for moved payloads
+	private final KeyValueMainInterface kvMain;
+	private final GlobalDBIO sdbio;
+	private final IoManagerInterface ioManager;
+	private final int threshold;
+	private final int maxBlocks;
+	private final HashSet<Long> sparse = new HashSet<Long>(); // blocks chosen for compaction
+	private final ArrayList<Long> dead = new ArrayList<Long>(); // blocks with nothing in use, not on the free map
+	private final ArrayList<Long> targets = new ArrayList<Long>(); // blocks taken this pass with room for moved payloads
+	private final ArrayList<Long> emptied = new ArrayList<Long>(); // blocks reset this pass
+	private int moved = 0;
+
+	/**
+	 * @param kvMain The key/value store whose payloads are compacted
+	 * @param threshold The percentage of its high water mark in use below which a block is compacted
+	 * @param maxBlocks The maximum number of blocks compacted in a pass
+	 */
+	public Vacuum(KeyValueMainInterface kvMain, int threshold, int maxBlocks) {
+		this.kvMain = kvMain;
+		this.sdbio = kvMain.getIO();
+		this.ioManager = sdbio.getIOManager();
+		this.threshold = threshold;
+		this.maxBlocks = maxBlocks;
+	}
+
+	public Vacuum(KeyValueMainInterface kvMain) {
+		this(kvMain, THRESHOLD, MAXBLOCKS);
+	}
+	/**
+	 * Perform a pass.
+	 * @return The number of blocks returned to the free space maps
+	 * @throws IOException
+	 */
+	public synchronized int run() throws IOException {
+		long tim = System.currentTimeMillis();
+		sdbio.deallocOutstandingCommit();
+		choose();
+		if(!sparse.isEmpty())
+			kvMain.retrievePages(page -> relocate(page));
+		for(Long vblock : sparse)
+			clear(vblock);
+		for(Long vblock : dead)
+			clear(vblock);
+		sdbio.deallocOutstandingCommit();
+		int reclaimed = reclaim();
+		if(DEBUG)
+			System.out.printf("%s.run compacted %d blocks moving %d payloads, reclaimed %d blocks in %d ms.%n", this.getClass().getName(),
+					sparse.size(), moved, reclaimed, (System.currentTimeMillis()-tim));
+		return reclaimed;
+	}
+	/**
+	 * Scan the headers of every block not on a free map, block 0 of each tablespace excepted as it holds a root.
+	 * Blocks with nothing in use are dead, blocks in use below the threshold are candidates, of which those with the
+	 * least in use are chosen up to the limit.
+	 * @throws IOException
+	 */
+	private void choose() throws IOException {
+		ArrayList<long[]> candidates = new ArrayList<long[]>();
+		Datablock d = new Datablock(0);
+		for(int tablespace = 0; tablespace < DBPhysicalConstants.DTABLESPACES; tablespace++) {
+			MappedBlockBuffer blockBuffer = ioManager.getBlockBuffer(tablespace);
+			FreeSpaceMap freeSpace = blockBuffer.getFreeSpaceMap();
+			long fsize = ioManager.Fsize(tablespace);
+			for(long block = DBPhysicalConstants.DBLOCKSIZ; block + DBPhysicalConstants.DBLOCKSIZ <= fsize; block += DBPhysicalConstants.DBLOCKSIZ) {
+				if(freeSpace.isFree(block))
+					continue;
+				long vblock = GlobalDBIO.makeVblock(tablespace, block);
+				blockBuffer.readHeader(vblock, d);
+				if(d.getBytesinuse() == 0)
+					dead.add(vblock);
+				else if(d.getBytesinuse() * 100 < d.getBytesused() * threshold)
+					candidates.add(new long[] {vblock, d.getBytesinuse()});
+			}
+		}
+		candidates.sort((a, b) -> Long.compare(a[1], b[1]));
+		for(int i = 0; i < candidates.size() && i < maxBlocks; i++)
+			sparse.add(candidates.get(i)[0]);
+		if(DEBUG)
+			System.out.printf("%s.choose %d candidates, %d chosen, %d dead%n", this.getClass().getName(), candidates.size(), sparse.size(), dead.size());
+	}
+	/**
+	 * Move the payloads of the page that start in a chosen block and rewrite the page if any moved.
+	 * @param page The key page
+	 * @throws IOException
+	 */
+	private void relocate(KeyPageInterface page) throws IOException {
+		boolean updated = false;
+		for(int i = 0; i < page.getNumKeys(); i++) {
+			KeyValue<Comparable, Object> kv = page.getKeyValueArray(i);
+			if(kv == null)
+				continue;
+			if(isSparse(kv.getKeyOptr())) {
+				kv.setKeyOptr(move(kv.getKeyOptr(), kv.getmKey()));
+				kv.keyState = KeyValue.synchStates.mustUpdate;
+				updated = true;
+			}
+			if(isSparse(kv.getValueOptr())) {
+				kv.setValueOptr(move(kv.getValueOptr(), kv.getmValue()));
+				kv.valueState = KeyValue.synchStates.mustUpdate;
+				updated = true;
+			}
+		}
+		if(updated) {
+			page.setUpdated(true);
+			page.putPage();
+		}
+	}
+
+	private boolean isSparse(Optr loc) {
+		return loc != null && !loc.isEmptyPointer() && !loc.isInline() && sparse.contains(loc.getBlock());
+	}
+	/**
+	 * Write the payload at a new insert position among the blocks taken this pass, then delete it from the old one.
+	 * The payload is written with the current codec, the old one is deleted at the size of the codec that wrote it.
+	 * @param loc The current location of the payload
+	 * @param o The key or value
+	 * @return The new location
+	 * @throws IOException
+	 */
+	private Optr move(Optr loc, Object o) throws IOException {
+		byte[] pb = sdbio.serialize(o);
+		int oldSize = sdbio.payloadSize(loc, o);
+		Optr dest = ioManager.getNewInsertPosition(targets, pb.length);
+		sdbio.add_object(dest, pb, pb.length);
+		sdbio.delete_object(loc, oldSize);
+		if(dest.getOffset() + pb.length + MINROOM <= DBPhysicalConstants.DATASIZE) {
+			if(!targets.contains(dest.getBlock()))
+				targets.add(dest.getBlock());
+		} else {
+			targets.remove(dest.getBlock());
+		}
+		++moved;
+		return dest;
+	}
+	/**
+	 * If the block has nothing in use, unlink it from its neighbors and reset it.
+	 * @param vblock The Vblock
+	 * @throws IOException
+	 */
+	private void clear(long vblock) throws IOException {
+		BlockAccessIndex bai = sdbio.findOrAddBlock(vblock);
+		Datablock blk = bai.getBlk();
+		if(blk.getBytesinuse() != 0)
+			return;
+		if(blk.getPrevblk() != -1L) {
+			Datablock prev = sdbio.findOrAddBlock(blk.getPrevblk()).getBlk();
+			if(prev.getNextblk() == vblock) {
+				prev.setNextblk(-1L);
+				prev.setIncore(true);
+				prev.setInlog(false);
+			}
+		}
+		if(blk.getNextblk() != -1L) {
+			Datablock next = sdbio.findOrAddBlock(blk.getNextblk()).getBlk();
+			if(next.getPrevblk() == vblock) {
+				next.setPrevblk(-1L);
+				next.setIncore(true);
+				next.setInlog(false);
+			}
+		}
+		bai.resetBlock(false);
+		blk.setIncore(true);
+		blk.setInlog(false);
+		emptied.add(vblock);
+	}
+	/**
+	 * Return the blocks emptied by the committed pass to the free space maps and save the maps.
+	 * @return The number of blocks returned
+	 * @throws IOException
+	 */
+	private int reclaim() throws IOException {
+		boolean[] touched = new boolean[DBPhysicalConstants.DTABLESPACES];
+		for(Long vblock : emptied) {
+			int tablespace = GlobalDBIO.getTablespace(vblock);
+			ioManager.getBlockBuffer(tablespace).getFreeSpaceMap().free(GlobalDBIO.getBlock(vblock));
+			touched[tablespace] = true;
+		}
+		for(int tablespace = 0; tablespace < DBPhysicalConstants.DTABLESPACES; tablespace++) {
+			if(touched[tablespace])
+				ioManager.getBlockBuffer(tablespace).getFreeSpaceMap().save();
+		}
+		return emptied.size();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%s threshold=%d%% maxBlocks=%d chosen=%d dead=%d moved=%d emptied=%d", this.getClass().getName(),
+				threshold, maxBlocks, sparse.size(), dead.size(), moved, emptied.size());
+	}
+}
@@ -1,9 +1,13 @@
 package com.neocoretechs.bigsack.session;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.io.stream.SerializerInterface;
 
 
 /**
@@ -34,6 +38,8 @@ public class BigSackAdapter {
 	private static final char[] OK_CHARS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E' };
 
 	private static ConcurrentHashMap<String, SetInterface> classToIso = new ConcurrentHashMap<String,SetInterface>();
+	private static SerializerInterface serializer = null;
+	private static String treeKeystoreType = "BTree";
 	
 	public static String getTableSpaceDir() {
 		return tableSpaceDir;
@@ -42,6 +48,49 @@ public class BigSackAdapter {
 		BigSackAdapter.tableSpaceDir = tableSpaceDir;
 	}
 
+	public static SerializerInterface getSerializer() {
+		return serializer;
+	}
+	/**
+	 * Select the key and value serializer for databases subsequently opened through this adapter.
+	 * @param serializer The serializer, or null for the default
+	 */
+	public static void setSerializer(SerializerInterface serializer) {
+		BigSackAdapter.serializer = serializer;
+	}
+	public static String getTreeKeystoreType() {
+		return treeKeystoreType;
+	}
+	/**
+	 * Select the key store of the ordered sets and maps subsequently opened through this adapter.
+	 * The type is not recorded in the database, so it must stay the same for a database once created.
+	 * @param treeKeystoreType "BTree" or "BPlusTree"
+	 */
+	public static void setTreeKeystoreType(String treeKeystoreType) {
+		BigSackAdapter.treeKeystoreType = treeKeystoreType;
+	}
+	public static boolean isOffHeapFrames() {
+		return SessionManager.isOffHeapFrames();
+	}
+	/**
+	 * Select whether databases subsequently opened through this adapter hold their buffer pool pages off heap.
+	 * @param offHeapFrames true for direct buffer page frames
+	 */
+	public static void setOffHeapFrames(boolean offHeapFrames) {
+		SessionManager.setOffHeapFrames(offHeapFrames);
+	}
+	/**
+	 * If a serializer was selected, establish the session with it before the collection connects to it.
+	 * @param dbname The database name
+	 * @param keystoreType "BTree", "BPlusTree" or "HMap"
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	private static void connectSerializer(String dbname, String keystoreType) throws IllegalAccessException, IOException {
+		if( serializer != null )
+			SessionManager.Connect(dbname, keystoreType, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS, serializer);
+	}
+
 	public static String getDatabaseName(Class clazz) {
 		String xClass = translateClass(clazz.getName());
 		return tableSpaceDir+xClass;
@@ -72,7 +121,8 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackTreeSet About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
-			ret =  new BufferedTreeSet(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
+			connectSerializer(tableSpaceDir+xClass, treeKeystoreType);
+			ret =  new BufferedTreeSet(tableSpaceDir+xClass, treeKeystoreType, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
 		return ret;
@@ -100,7 +150,8 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackTreeMap About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
-			ret =  new BufferedTreeMap(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
+			connectSerializer(tableSpaceDir+xClass, treeKeystoreType);
+			ret =  new BufferedTreeMap(tableSpaceDir+xClass, treeKeystoreType, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
 		return ret;
@@ -128,7 +179,8 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackTransactionalTreeSet About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
-			ret =  new TransactionalTreeSet(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
+			connectSerializer(tableSpaceDir+xClass, treeKeystoreType);
+			ret =  new TransactionalTreeSet(tableSpaceDir+xClass, treeKeystoreType, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
 		return ret;
@@ -156,12 +208,87 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackMapTransaction About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
-			ret =  new TransactionalTreeMap(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
+			connectSerializer(tableSpaceDir+xClass, treeKeystoreType);
+			ret =  new TransactionalTreeMap(tableSpaceDir+xClass, treeKeystoreType, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
 		return ret;
 	}
 	
+	/**
+	 * Load key/value pairs sorted in ascending order of key into the TransactionalTreeMap of the class and commit them
+	 * as one transaction. An empty map is built bottom-up, see {@link TransactionalTreeMap#load(Iterator)}.
+	 * If the load fails the transaction is rolled back.
+	 * @param clazz The Java Class of the intended database.
+	 * @param entries The key/value pairs
+	 * @return The number of keys added
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public static long loadTreeMap(Class clazz, Iterator<? extends Map.Entry> entries) throws IllegalAccessException, IOException {
+		TransactionalTreeMap map = getBigSackTransactionalTreeMap(clazz);
+		long added;
+		try {
+			added = map.load(entries);
+		} catch(IOException | RuntimeException e) {
+			rollbackTransaction(clazz);
+			throw e;
+		}
+		commitTransaction(clazz);
+		return added;
+	}
+	/**
+	 * Load a stream of key/value pairs sorted in ascending order of key, see {@link #loadTreeMap(Class, Iterator)}.
+	 * @param clazz The Java Class of the intended database.
+	 * @param entries The stream of key/value pairs
+	 * @return The number of keys added
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public static long loadTreeMap(Class clazz, Stream<? extends Map.Entry> entries) throws IllegalAccessException, IOException {
+		return loadTreeMap(clazz, entries.iterator());
+	}
+	
+	/**
+	 * Ingest unsorted key/value pairs into the TransactionalTreeMap of the class by external sort and commit them as one
+	 * transaction, see {@link ExternalSortLoader}. If the ingest fails the transaction is rolled back.
+	 * @param clazz The Java Class of the intended database.
+	 * @param entries The key/value pairs in any order
+	 * @param runBytes The encoded size of the pairs sorted in memory for each run
+	 * @param mergeWidth The number of runs merged at once
+	 * @return The loader, reporting the keys loaded, throughput and peak heap
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public static ExternalSortLoader ingestTreeMap(Class clazz, Iterator<? extends Map.Entry> entries, long runBytes, int mergeWidth) throws IllegalAccessException, IOException {
+		ExternalSortLoader loader = new ExternalSortLoader(getBigSackTransactionalTreeMap(clazz), runBytes, mergeWidth);
+		try {
+			loader.load(entries);
+		} catch(IOException | RuntimeException e) {
+			rollbackTransaction(clazz);
+			throw e;
+		}
+		commitTransaction(clazz);
+		return loader;
+	}
+	/**
+	 * Ingest a stream of unsorted key/value pairs, see {@link #ingestTreeMap(Class, Iterator, long, int)}.
+	 * @param clazz The Java Class of the intended database.
+	 * @param entries The stream of key/value pairs
+	 * @param runBytes The encoded size of the pairs sorted in memory for each run
+	 * @param mergeWidth The number of runs merged at once
+	 * @return The loader, reporting the keys loaded, throughput and peak heap
+	 * @throws IllegalAccessException
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public static ExternalSortLoader ingestTreeMap(Class clazz, Stream<? extends Map.Entry> entries, long runBytes, int mergeWidth) throws IllegalAccessException, IOException {
+		return ingestTreeMap(clazz, entries.iterator(), runBytes, mergeWidth);
+	}
+	
 	public static BufferedHashSet getBigSackHashSet(Comparable clazz) throws IllegalAccessException, IOException {
 		return getBigSackHashSet(clazz.getClass());
 	}
@@ -172,6 +299,7 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackHashSet About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
+			connectSerializer(tableSpaceDir+xClass, "HMap");
 			ret =  new BufferedHashSet(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
@@ -188,6 +316,7 @@ public class BigSackAdapter {
 		if(DEBUG)
 			System.out.println("BigSackAdapter.getBigSackTransactionalHashSet About to return designator: "+tableSpaceDir+xClass+" formed from "+clazz.getClass().getName());
 		if( ret == null ) {
+			connectSerializer(tableSpaceDir+xClass, "HMap");
 			ret =  new TransactionalHashSet(tableSpaceDir+xClass, DBPhysicalConstants.BACKINGSTORE, DBPhysicalConstants.DBUCKETS);
 			classToIso.put(xClass, ret);
 		}
@@ -2,6 +2,7 @@ package com.neocoretechs.bigsack.session;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Stack;
 import java.util.stream.Stream;
 
@@ -23,6 +24,7 @@ import com.neocoretechs.bigsack.keyvaluepages.KeySearchResult;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValue;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
+import com.neocoretechs.bigsack.keyvaluepages.Vacuum;
 import com.neocoretechs.bigsack.stream.EntrySetStream;
 import com.neocoretechs.bigsack.stream.HeadSetKVStream;
 import com.neocoretechs.bigsack.stream.HeadSetStream;
@@ -137,6 +139,16 @@ final class BigSackSession implements TransactionInterface {
 	protected boolean put(Comparable key, Object o) throws IOException {
 		return (kvStore.add(key, o) == 0 ? false : true);
 	}
+	/**
+	 * Call the load method of KeyValueMainInterface.
+	 * @param entries The key/value pairs in ascending order of key
+	 * @return The number of keys added
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	protected long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		return kvStore.load(entries);
+	}
 	/**
 	 * Cause the KvStore to seekKey for the Comparable type.
 	 * @param o the Comparable object to seek.
@@ -465,6 +477,13 @@ final class BigSackSession implements TransactionInterface {
 	public void Commit() throws IOException {
 		kvStore.getIO().deallocOutstandingCommit();
 	}
+	/**
+	 * End a read. The block latches the read took are released, a commit only happens if a block was written.
+	 * @throws IOException
+	 */
+	public void Release() throws IOException {
+		kvStore.getIO().deallocOutstandingRead();
+	}
 	/**
 	 * Checkpoint the current transaction
 	 * @throws IOException 
@@ -473,15 +492,27 @@ final class BigSackSession implements TransactionInterface {
 	public void Checkpoint() throws IllegalAccessException, IOException {
 			kvStore.getIO().checkpointBufferFlush();
 	}
+	/**
+	 * Run a pass of the vacuum over the key/value store, committing the outstanding transaction first.
+	 * @param threshold The percentage of its high water mark in use below which a block is compacted
+	 * @param maxBlocks The maximum number of blocks compacted in the pass
+	 * @return The number of blocks returned to the free space maps
+	 * @throws IOException
+	 */
+	public int Vacuum(int threshold, int maxBlocks) throws IOException {
+		return new Vacuum(kvStore, threshold, maxBlocks).run();
+	}
 	/**
 	* Generic session roll up.  Data is committed based on rollback param.
 	* We deallocate the outstanding block
+	* We release the pins of open iterators on payloads, the frees they held back go with this commit
 	* We iterate the tablespaces for each db removing obsolete log files.
 	* Remove the WORKER threads from KeyValueMain, then remove this session from the SessionManager
 	* @param rollback true to roll back, false to commit
 	* @exception IOException For low level failure
 	*/
 	public void rollupSession(boolean rollback) throws IOException {
+		kvStore.getIO().unpinPayloads();
 		if (rollback) {
 			kvStore.getIO().deallocOutstandingRollback();
 		} else {
@@ -543,13 +574,13 @@ final class BigSackSession implements TransactionInterface {
 				++tnumberBlks;
 				//if( ((float)(tnumberBlks))/1000.0f == (float)(tnumberBlks/1000) ) System.out.print(tnumberBlks+"\r");
 			}
-			int ttTotal = DBPhysicalConstants.DBLOCKSIZ * tnumberBlks; // bytes total theoretical
+			long ttTotal = (long) DBPhysicalConstants.DBLOCKSIZ * tnumberBlks; // bytes total theoretical
 			int taTotal = (int) ((ttotutil / (float)ttTotal) * 100.0); // ratio of total to used
-			System.out.println("BigSack Tablespace "+itab+" utilization: " + (int)ttotutil + " bytes in "+tnumberBlks+" blocks");
+			System.out.println("BigSack Tablespace "+itab+" utilization: " + (long)ttotutil + " bytes in "+tnumberBlks+" blocks");
 			System.out.println("Maximum possible utilization is "+ttTotal+" bytes, making data Utilization "+taTotal+"%");
 		} while(++itab < DBPhysicalConstants.DTABLESPACES);
-		System.out.println("Total BigSack utilization: " + (int)totutil + " bytes in "+numberBlks+" blocks");
-		int tTotal = DBPhysicalConstants.DBLOCKSIZ * numberBlks; // bytes total theoretical
+		System.out.println("Total BigSack utilization: " + (long)totutil + " bytes in "+numberBlks+" blocks");
+		long tTotal = (long) DBPhysicalConstants.DBLOCKSIZ * numberBlks; // bytes total theoretical
 		int aTotal = (int) ((totutil / (float)tTotal) * 100.0); // ratio of total to used
 		System.out.println("Maximum possible utilization is "+tTotal+" bytes, making data Utilization "+aTotal+"%");
 	}
@@ -568,7 +599,7 @@ final class BigSackSession implements TransactionInterface {
 			baos.write(db.getData(),0,db.getBytesused());
 			vloc = db.getNextblk();
 		} while(vloc != -1L);
-		return GlobalDBIO.deserializeObject(baos.toByteArray());
+		return kvStore.getIO().deserialize(baos.toByteArray());
 	}
 
 }
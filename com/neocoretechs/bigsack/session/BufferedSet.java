@@ -37,7 +37,8 @@ import com.neocoretechs.bigsack.keyvaluepages.TraversalStackElement;
 * recovery can occur in the event of failure. The user is not concerned with semantics of recovery
 * when using this construct. The commit
 * operations are performed after each insert and recovery takes place if a failure occurs during
-* runtime writes. If transparency with existing code is paramount this class is a good choice.
+* runtime writes. Reads do not commit, they release the block latches they took, and a commit
+* only happens if a block was left written. If transparency with existing code is paramount this class is a good choice.
 * Thread safety is with the session object using session.getMutexObject().
 * Java Map backed by pooled serialized objects.
 * @author Jonathan Groff (C) NeoCoreTechs 2003, 2017, 2021
@@ -82,7 +83,7 @@ public abstract class BufferedSet implements SetInterface {
 		Object c = null;
 		synchronized (session.getMutexObject()) {
 				c = session.get(tkey);
-				session.Commit();
+				session.Release();
 		}
 		return c;
 	}
@@ -97,7 +98,7 @@ public abstract class BufferedSet implements SetInterface {
 	public Object getValue(Object tkey) throws IOException {
 		synchronized (session.getMutexObject()) {
 				Object kvp = session.getValue(tkey);
-				session.Commit();
+				session.Release();
 				return kvp;
 		}
 	}
@@ -109,7 +110,7 @@ public abstract class BufferedSet implements SetInterface {
 	public long size() throws IOException {
 		synchronized (session.getMutexObject()) {
 				long siz = session.size();
-				session.Commit();
+				session.Release();
 				return siz;
 		}
 	}
@@ -156,11 +157,23 @@ public abstract class BufferedSet implements SetInterface {
 	public boolean containsKey(Comparable tkey) throws IOException {
 		synchronized (session.getMutexObject()) {
 			boolean ret = session.contains(tkey);
-			session.Commit();
+			session.Release();
 			return ret;
 		}
 	}
 	/**
+	* Reclaim space left by deleted and replaced entries with a pass of the vacuum.
+	* @param threshold The percentage of its high water mark in use below which a block is compacted
+	* @param maxBlocks The maximum number of blocks compacted in the pass
+	* @return The number of blocks returned to the free space maps
+	* @exception IOException If backing store fails
+	*/
+	public int vacuum(int threshold, int maxBlocks) throws IOException {
+		synchronized (session.getMutexObject()) {
+			return session.Vacuum(threshold, maxBlocks);
+		}
+	}
+	/**
 	* Remove object from cache and backing store.
 	* @param tkey The key to match
 	* @return The removed object
@@ -181,7 +194,7 @@ public abstract class BufferedSet implements SetInterface {
 	public Comparable firstKey(TraversalStackElement tse, Stack stack) throws IOException {
 		synchronized (session.getMutexObject()) {
 			Comparable ret = session.firstKey(tse, stack);
-			session.Commit();
+			session.Release();
 			return ret;
 		}
 	}
@@ -192,7 +205,7 @@ public abstract class BufferedSet implements SetInterface {
 	public Comparable lastKey(TraversalStackElement tse, Stack stack) throws IOException {
 		synchronized (session.getMutexObject()) {
 			Comparable ret = session.lastKey(tse, stack);
-			session.Commit();
+			session.Release();
 			return ret;
 		}
 	}
@@ -205,7 +218,7 @@ public abstract class BufferedSet implements SetInterface {
 	public Object last(TraversalStackElement tse, Stack stack) throws IOException {
 		synchronized (session.getMutexObject()) {
 				Object ret = session.last(tse, stack);
-				session.Commit();
+				session.Release();
 				return ret;
 		}
 	}
@@ -218,7 +231,7 @@ public abstract class BufferedSet implements SetInterface {
 	public Object first(TraversalStackElement tse, Stack stack) throws IOException {
 		synchronized (session.getMutexObject()) {
 			Object ret = session.first(tse, stack);
-			session.Commit();
+			session.Release();
 			return ret;
 		}
 	}
@@ -344,7 +357,7 @@ public abstract class BufferedSet implements SetInterface {
 	public boolean isEmpty() throws IOException {
 		synchronized (session.getMutexObject()) {
 				boolean ret = session.isEmpty();
-				session.Commit();
+				session.Release();
 				return ret;
 		}
 	}
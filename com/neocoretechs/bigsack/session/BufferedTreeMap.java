@@ -49,7 +49,19 @@ public class BufferedTreeMap extends BufferedMap {
 	 * @throws IllegalAccessException
 	 */
 	public BufferedTreeMap(String dbname, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
-		super(dbname, "BTree", backingStore, poolBlocks);
+		this(dbname, "BTree", backingStore, poolBlocks);
+	}
+	/**
+	 * 
+	 * @param dbname
+	 * @param keystoreType The ordered key store, "BTree" or "BPlusTree"
+	 * @param backingStore "MMap", "file" etc.
+	 * @param poolBlocks blocks in buffer pool
+	 * @throws IOException
+	 * @throws IllegalAccessException
+	 */
+	public BufferedTreeMap(String dbname, String keystoreType, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
+		super(dbname, keystoreType, backingStore, poolBlocks);
 	}
 	
 
@@ -49,7 +49,19 @@ public class BufferedTreeSet extends BufferedSet {
 	 * @throws IllegalAccessException
 	 */
 	public BufferedTreeSet(String dbname, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
-		super(dbname, "BTree", backingStore, poolBlocks);
+		this(dbname, "BTree", backingStore, poolBlocks);
+	}
+	/**
+	 * 
+	 * @param dbname
+	 * @param keystoreType The ordered key store, "BTree" or "BPlusTree"
+	 * @param backingStore
+	 * @param poolBlocks
+	 * @throws IOException
+	 * @throws IllegalAccessException
+	 */
+	public BufferedTreeSet(String dbname, String keystoreType, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
+		super(dbname, keystoreType, backingStore, poolBlocks);
 	}
 	
 
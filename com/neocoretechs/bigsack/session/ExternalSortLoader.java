@@ -0,0 +1,470 @@
+package com.neocoretechs.bigsack.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+
+/**
+ * Ingest unsorted key/value pairs into a {@link TransactionalTreeMap} by external sort.<p/>
+ * Pairs are encoded with the serializer of the database as they are added and buffered until their encoded size reaches
+ * the run budget. The buffer is then sorted by key and spilled as a run to a temporary file in tablespace0 of the database.
+ * When the input is done the runs are merged, at most mergeWidth at a time, and the single sorted sequence is handed to
+ * {@link TransactionalTreeMap#load(Iterator)}, which builds an empty tree bottom-up a page at a time.
+ * If there are more runs than mergeWidth, intermediate passes merge groups of runs into longer runs first.<p/>
+ * As with put, the last pair added for a key wins: the buffer sort is stable, a run keeps the last of equal keys,
+ * and the merge prefers the later run.<p/>
+ * The heap used is roughly runBytes plus the objects of the keys buffered, and mergeWidth stream buffers while merging.
+ * Throughput and the peak heap, sampled at each spill and periodically while merging, are reported by {@link #toString()}.
+ * The load is part of the outstanding transaction of the map, it is up to the caller to commit or roll back.
+ * @author Jonathan Groff Copyright (C) NeoCoreTechs 2021
+ *
+ */
+public class ExternalSortLoader {
+	private static boolean DEBUG = false;
+	public static long DEFAULT_RUN_BYTES = 64L * 1024L * 1024L;
+	public static int DEFAULT_MERGE_WIDTH = 64;
+	private static final int STREAM_BUFFER = 65536;
+	private static final int SAMPLE_INTERVAL = 65536; // records between heap samples while merging
+	private final TransactionalTreeMap map;
+	private final GlobalDBIO globalIO;
+	private final File tempDir;
+	private final long runBytes;
+	private final int mergeWidth;
+	private final ArrayList<RunEntry> buffer = new ArrayList<RunEntry>();
+	private long bufferBytes = 0;
+	private final ArrayList<File> runs = new ArrayList<File>();
+	private long records = 0;
+	private long loaded = 0;
+	private int runsSpilled = 0;
+	private int mergePasses = 0;
+	private long peakHeap = 0;
+	private long sortMillis = 0;
+	private long mergeMillis = 0;
+	private long startMillis = 0;
+	private long totalMillis = 0;
+	private boolean done = false;
+
+	private static final class RunEntry {
+		final Comparable key;
+		final byte[] keyBytes;
+		final byte[] valueBytes;
+		RunEntry(Comparable key, byte[] keyBytes, byte[] valueBytes) {
+			this.key = key;
+			this.keyBytes = keyBytes;
+			this.valueBytes = valueBytes;
+		}
+	}
+
+	private static final Comparator<RunEntry> KEY_ORDER = new Comparator<RunEntry>() {
+		@SuppressWarnings("unchecked")
+		@Override
+		public int compare(RunEntry o1, RunEntry o2) {
+			return o1.key.compareTo(o2.key);
+		}
+	};
+	/**
+	 * Set up a loader with the default run budget and merge width.
+	 * @param map The map receiving the pairs
+	 */
+	public ExternalSortLoader(TransactionalTreeMap map) {
+		this(map, DEFAULT_RUN_BYTES, DEFAULT_MERGE_WIDTH);
+	}
+	/**
+	 * @param map The map receiving the pairs
+	 * @param runBytes The encoded size of the keys and values buffered before a run is sorted and spilled
+	 * @param mergeWidth The number of runs merged at once, at least 2
+	 */
+	public ExternalSortLoader(TransactionalTreeMap map, long runBytes, int mergeWidth) {
+		if(runBytes <= 0 || mergeWidth < 2)
+			throw new IllegalArgumentException("Run budget must be positive and merge width at least 2");
+		this.map = map;
+		this.globalIO = map.getKVStore().getIO();
+		this.tempDir = new File(globalIO.getDBPath(), "tablespace0");
+		this.runBytes = runBytes;
+		this.mergeWidth = mergeWidth;
+	}
+	/**
+	 * Add a pair, spilling the buffer as a sorted run if it reaches the run budget.
+	 * @param key The key, not null
+	 * @param value The value
+	 * @throws IOException If the key is null, the pair cannot be encoded or the run cannot be written
+	 */
+	public void add(Comparable key, Object value) throws IOException {
+		if(done)
+			throw new IOException("Loader has already been loaded");
+		if(key == null)
+			throw new IOException("Key cannot be null");
+		RunEntry entry = new RunEntry(key, globalIO.serialize(key), globalIO.serialize(value));
+		buffer.add(entry);
+		bufferBytes += entry.keyBytes.length + entry.valueBytes.length;
+		if(records++ == 0)
+			startMillis = System.currentTimeMillis();
+		if(bufferBytes >= runBytes)
+			spill();
+	}
+	/**
+	 * Add all the pairs, then load them, see {@link #load()}.
+	 * @param entries The pairs in any order
+	 * @return The number of keys added to the map
+	 * @throws IOException
+	 */
+	@SuppressWarnings("rawtypes")
+	public long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		while(entries.hasNext()) {
+			Map.Entry entry = entries.next();
+			add((Comparable) entry.getKey(), entry.getValue());
+		}
+		return load();
+	}
+	/**
+	 * Merge the runs and load the sorted pairs into the map. The temporary run files are deleted, whether or not the load succeeds.
+	 * @return The number of keys added to the map
+	 * @throws IOException If a run cannot be read or the load fails, the transaction should then be rolled back
+	 */
+	public long load() throws IOException {
+		if(done)
+			throw new IOException("Loader has already been loaded");
+		done = true;
+		long tim = System.currentTimeMillis();
+		try {
+			if(runs.isEmpty()) {
+				// everything fit in memory, load straight from the sorted buffer
+				sortBuffer();
+				loaded = map.load(new BufferIterator());
+			} else {
+				if(!buffer.isEmpty())
+					spill();
+				while(runs.size() > mergeWidth)
+					mergePass();
+				RunMerger merger = new RunMerger(runs);
+				try {
+					loaded = map.load(merger);
+				} finally {
+					merger.close();
+				}
+			}
+		} catch(RuntimeException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		} finally {
+			buffer.clear();
+			for(File run : runs)
+				run.delete();
+			runs.clear();
+		}
+		mergeMillis = System.currentTimeMillis() - tim;
+		totalMillis = System.currentTimeMillis() - (startMillis == 0 ? tim : startMillis);
+		sampleHeap();
+		if(DEBUG)
+			System.out.printf("%s.load %s%n", this.getClass().getName(), this);
+		return loaded;
+	}
+	/**
+	 * Sort the buffer and write it as a run, keeping the last pair of equal keys.
+	 * @throws IOException
+	 */
+	private void spill() throws IOException {
+		sampleHeap();
+		sortBuffer();
+		File run = File.createTempFile(new File(globalIO.getDBName()).getName()+".run", null, tempDir);
+		run.deleteOnExit();
+		runs.add(run);
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), STREAM_BUFFER))) {
+			int size = buffer.size();
+			for(int i = 0; i < size; i++) {
+				RunEntry entry = buffer.get(i);
+				if(i+1 < size && KEY_ORDER.compare(entry, buffer.get(i+1)) == 0)
+					continue;
+				write(dos, entry.keyBytes, entry.valueBytes);
+			}
+		}
+		++runsSpilled;
+		if(DEBUG)
+			System.out.printf("%s.spill run %d of %d records %d bytes to %s%n", this.getClass().getName(), runsSpilled, buffer.size(), bufferBytes, run);
+		buffer.clear();
+		bufferBytes = 0;
+	}
+
+	private void sortBuffer() {
+		long tim = System.currentTimeMillis();
+		Collections.sort(buffer, KEY_ORDER); // stable, so the last of equal keys is the last added
+		sortMillis += System.currentTimeMillis() - tim;
+	}
+	/**
+	 * Merge the runs in groups of mergeWidth into longer runs, keeping the order of the runs so the later run still wins.
+	 * If the pass fails, the runs it merged into are deleted here, the runs it read from are left to {@link #load()}.
+	 * @throws IOException
+	 */
+	private void mergePass() throws IOException {
+		ArrayList<File> merged = new ArrayList<File>();
+		boolean passed = false;
+		try {
+			for(int i = 0; i < runs.size(); i += mergeWidth) {
+				ArrayList<File> group = new ArrayList<File>(runs.subList(i, Math.min(i+mergeWidth, runs.size())));
+				if(group.size() == 1) {
+					merged.add(group.get(0));
+					continue;
+				}
+				File run = File.createTempFile(new File(globalIO.getDBName()).getName()+".run", null, tempDir);
+				run.deleteOnExit();
+				merged.add(run);
+				RunMerger merger = new RunMerger(group);
+				try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), STREAM_BUFFER))) {
+					RunReader reader;
+					while((reader = merger.nextReader()) != null) {
+						write(dos, reader.keyBytes, reader.valueBytes);
+						merger.advance(reader);
+					}
+				} finally {
+					merger.close();
+				}
+				for(File f : group)
+					f.delete();
+			}
+			passed = true;
+		} finally {
+			if(!passed)
+				for(File run : merged)
+					run.delete();
+		}
+		runs.clear();
+		runs.addAll(merged);
+		++mergePasses;
+		if(DEBUG)
+			System.out.printf("%s.mergePass %d left %d runs%n", this.getClass().getName(), mergePasses, runs.size());
+	}
+
+	private static void write(DataOutputStream dos, byte[] keyBytes, byte[] valueBytes) throws IOException {
+		dos.writeInt(keyBytes.length);
+		dos.write(keyBytes);
+		dos.writeInt(valueBytes.length);
+		dos.write(valueBytes);
+	}
+
+	private void sampleHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = rt.totalMemory() - rt.freeMemory();
+		if(used > peakHeap)
+			peakHeap = used;
+	}
+	/**
+	 * The head of a run file, the key decoded for the merge and the value left encoded until it is chosen.
+	 */
+	private final class RunReader {
+		final int order; // position of the run, a later run wins a tie
+		final DataInputStream dis;
+		Comparable key;
+		byte[] keyBytes;
+		byte[] valueBytes;
+		RunReader(File run, int order) throws IOException {
+			this.order = order;
+			this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(run), STREAM_BUFFER));
+		}
+		/**
+		 * @return false at the end of the run
+		 * @throws IOException
+		 */
+		boolean next() throws IOException {
+			int len;
+			try {
+				len = dis.readInt();
+			} catch(EOFException eof) {
+				return false;
+			}
+			keyBytes = new byte[len];
+			dis.readFully(keyBytes);
+			valueBytes = new byte[dis.readInt()];
+			dis.readFully(valueBytes);
+			key = (Comparable) globalIO.deserialize(keyBytes);
+			return true;
+		}
+	}
+	/**
+	 * Merge of sorted runs, ordered by key then the later run first, so of equal keys only the pair of the latest run is returned.
+	 * The pairs are returned as an Iterator for the load, a failure to read a run is thrown as a RuntimeException with the IOException as its cause.
+	 */
+	@SuppressWarnings("rawtypes")
+	private final class RunMerger implements Iterator<Map.Entry> {
+		private final ArrayList<RunReader> readers = new ArrayList<RunReader>();
+		private final PriorityQueue<RunReader> heads;
+		private long merged = 0;
+
+		@SuppressWarnings("unchecked")
+		RunMerger(ArrayList<File> group) throws IOException {
+			heads = new PriorityQueue<RunReader>(group.size(), new Comparator<RunReader>() {
+				@Override
+				public int compare(RunReader o1, RunReader o2) {
+					int cmp = o1.key.compareTo(o2.key);
+					return cmp != 0 ? cmp : Integer.compare(o2.order, o1.order);
+				}
+			});
+			try {
+				for(int i = 0; i < group.size(); i++) {
+					RunReader reader = new RunReader(group.get(i), i);
+					readers.add(reader);
+					if(reader.next())
+						heads.add(reader);
+				}
+			} catch(IOException e) {
+				close();
+				throw e;
+			}
+		}
+		/**
+		 * @return The reader at the least key, or null when all runs are done. Its pair stays current until {@link #advance(RunReader)}.
+		 */
+		RunReader nextReader() {
+			return heads.peek();
+		}
+		/**
+		 * Move past the pair of the reader and the older pairs of the same key in the other runs.
+		 * @param reader The reader returned by {@link #nextReader()}
+		 * @throws IOException
+		 */
+		@SuppressWarnings("unchecked")
+		void advance(RunReader reader) throws IOException {
+			Comparable key = reader.key;
+			heads.poll();
+			if(reader.next())
+				heads.add(reader);
+			RunReader dup;
+			while((dup = heads.peek()) != null && dup.key.compareTo(key) == 0) {
+				heads.poll();
+				if(dup.next())
+					heads.add(dup);
+			}
+			if(++merged % SAMPLE_INTERVAL == 0)
+				sampleHeap();
+		}
+
+		void close() {
+			for(RunReader reader : readers) {
+				try {
+					reader.dis.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Map.Entry next() {
+			RunReader reader = heads.peek();
+			if(reader == null)
+				throw new NoSuchElementException();
+			try {
+				Map.Entry entry = new AbstractMap.SimpleImmutableEntry<Comparable, Object>(reader.key, globalIO.deserialize(reader.valueBytes));
+				advance(reader);
+				return entry;
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	/**
+	 * The sorted buffer as pairs, skipping all but the last of equal keys, when no run was spilled.
+	 */
+	@SuppressWarnings("rawtypes")
+	private final class BufferIterator implements Iterator<Map.Entry> {
+		private int index = 0;
+
+		@Override
+		public boolean hasNext() {
+			return index < buffer.size();
+		}
+
+		@Override
+		public Map.Entry next() {
+			if(index >= buffer.size())
+				throw new NoSuchElementException();
+			while(index+1 < buffer.size() && KEY_ORDER.compare(buffer.get(index), buffer.get(index+1)) == 0)
+				++index;
+			RunEntry entry = buffer.get(index++);
+			try {
+				return new AbstractMap.SimpleImmutableEntry<Comparable, Object>(entry.key, globalIO.deserialize(entry.valueBytes));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	/**
+	 * @return The number of pairs added
+	 */
+	public long getRecords() {
+		return records;
+	}
+	/**
+	 * @return The number of keys added to the map by the load
+	 */
+	public long getLoaded() {
+		return loaded;
+	}
+	/**
+	 * @return The number of runs spilled to temporary files
+	 */
+	public int getRuns() {
+		return runsSpilled;
+	}
+	/**
+	 * @return The number of intermediate merge passes
+	 */
+	public int getMergePasses() {
+		return mergePasses;
+	}
+	/**
+	 * @return The greatest heap in use sampled, in bytes
+	 */
+	public long getPeakHeap() {
+		return peakHeap;
+	}
+	/**
+	 * @return The milliseconds spent sorting runs
+	 */
+	public long getSortMillis() {
+		return sortMillis;
+	}
+	/**
+	 * @return The milliseconds spent merging and loading the map
+	 */
+	public long getMergeMillis() {
+		return mergeMillis;
+	}
+	/**
+	 * @return The milliseconds from the first pair added to the end of the load
+	 */
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+	/**
+	 * @return The pairs ingested per second, from the first pair added to the end of the load
+	 */
+	public long getThroughput() {
+		return totalMillis == 0 ? records : (records * 1000L) / totalMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s records=%d loaded=%d runs=%d merge passes=%d run budget=%d merge width=%d sort=%d ms merge and load=%d ms total=%d ms throughput=%d records/s peak heap=%d bytes",
+				this.getClass().getName(), records, loaded, runsSpilled, mergePasses, runBytes, mergeWidth, sortMillis, mergeMillis, totalMillis, getThroughput(), peakHeap);
+	}
+}
@@ -15,6 +15,7 @@ import com.neocoretechs.arieslogger.core.impl.LogToFile;
 import com.neocoretechs.arieslogger.core.impl.Scan;
 import com.neocoretechs.bigsack.DBPhysicalConstants;
 import com.neocoretechs.bigsack.io.pooled.GlobalDBIO;
+import com.neocoretechs.bigsack.io.stream.SerializerInterface;
 import com.neocoretechs.bigsack.keyvaluepages.KeyValueMainInterface;
 
 /*
@@ -55,6 +56,7 @@ public final class SessionManager {
 	private static Vector<String> OfflineDBs = new Vector<String>();
 	private static long globalTransId = System.currentTimeMillis();
 	private static String backingStoreType;
+	private static boolean offHeapFrames = false;
 	//
 	// Sets the maximum number users
 	@SuppressWarnings("unused")
@@ -78,6 +80,18 @@ public final class SessionManager {
 	// Global transaction timestamps
 	private static long lastStartTime = 0L;
 	private static long lastCommitTime = 0L;
+	
+	public static boolean isOffHeapFrames() {
+		return offHeapFrames;
+	}
+	/**
+	 * Select whether the buffer pools of databases subsequently connected hold their pages in off heap frames.
+	 * @param offHeapFrames true to allocate page payloads from direct buffers rather than the heap
+	 */
+	public static void setOffHeapFrames(boolean offHeapFrames) {
+		SessionManager.offHeapFrames = offHeapFrames;
+	}
+	
 	/*
 	public static String getDbPath(String dbName) {
 		 BigSackSession dbs = SessionTable.get(dbName);
@@ -141,6 +155,21 @@ public final class SessionManager {
 	* @exception IllegalAccessException If access to database is denied
 	*/
 	public static synchronized BigSackSession Connect(String dbname, String keystoreType, String backingstoreType, int poolBlocks) throws IOException, IllegalAccessException {
+		return Connect(dbname, keystoreType, backingstoreType, poolBlocks, null);
+	}
+	/**
+	* Connect and return Session instance that is the session, selecting the serializer for keys and values.
+	* The serializer applies when the session is first created, an existing session retains its serializer.
+	* @param dbname The database name as full path
+	* @param keystoreType "HMap", "BTree" etc.
+	* @param backingstoreType The type of filesystem of memory map "File" "MMap" etc.
+	* @param poolBlocks The number of blocks in the buffer pool
+	* @param serializer The key and value serializer, null for the default
+	* @return BigSackSession The session we use to control access
+	* @exception IOException If low level IO problem
+	* @exception IllegalAccessException If access to database is denied
+	*/
+	public static synchronized BigSackSession Connect(String dbname, String keystoreType, String backingstoreType, int poolBlocks, SerializerInterface serializer) throws IOException, IllegalAccessException {
 		if( DEBUG ) {
 			System.out.printf("Connecting to database:%s with key store:%s and backing store:%s with pool blocks:%d%n", dbname, keystoreType, backingstoreType, poolBlocks);
 		}
@@ -156,7 +185,8 @@ public final class SessionManager {
 		if (hps == null) {
 			// did'nt find it, create anew, throws IllegalAccessException if no go.
 			// Global IO and main Key/Value index
-			GlobalDBIO objIO = new GlobalDBIO(dbname, keystoreType, backingstoreType, getGlobalTransId(), poolBlocks);
+			GlobalDBIO objIO = new GlobalDBIO(dbname, keystoreType, backingstoreType, getGlobalTransId(), poolBlocks, serializer);
+			objIO.setOffHeapFrames(offHeapFrames);
 			objIO.bringUpBackEnd();
 			hps = new BigSackSession(objIO, uid, gid);
 			SessionTable.put(dbname, hps);
@@ -197,6 +227,7 @@ public final class SessionManager {
 			if( DEBUG )
 				System.out.println("SessionManager.ConectNoRecovery bringing up IO");
 			GlobalDBIO objIO = new GlobalDBIO(dbname, keystoreType, backingstoreType, getGlobalTransId(), poolBlocks);
+			objIO.setOffHeapFrames(offHeapFrames);
 			objIO.bringUpBackEnd();
 			if( DEBUG )
 				System.out.println("SessionManager.ConectNoRecovery bringing up session");
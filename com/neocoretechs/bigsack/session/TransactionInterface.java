@@ -37,6 +37,15 @@ interface TransactionInterface {
 	 * @throws IllegalAccessException 
 	 */
 	void Checkpoint() throws IllegalAccessException, IOException;
+	/**
+	 * Reclaim the space left by deleted and replaced keys and values with a pass of the {@link com.neocoretechs.bigsack.keyvaluepages.Vacuum}.
+	 * The outstanding transaction is committed first, and the pass is committed when done.
+	 * @param threshold The percentage of its high water mark in use below which a block is compacted
+	 * @param maxBlocks The maximum number of blocks compacted in the pass
+	 * @return The number of blocks returned to the free space maps
+	 * @throws IOException
+	 */
+	int Vacuum(int threshold, int maxBlocks) throws IOException;
 	/**
 	* Generic session roll up.  Data is committed based on rollback param.
 	* We deallocate the outstanding block
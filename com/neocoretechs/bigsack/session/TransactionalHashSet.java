@@ -51,6 +51,13 @@ public class TransactionalHashSet implements SetInterface, TransactionInterface
 		}
 	}
 
+	@Override
+	public int Vacuum(int threshold, int maxBlocks) throws IOException {
+		synchronized (session.getMutexObject()) {
+			return session.Vacuum(threshold, maxBlocks);
+		}
+	}
+
 	@Override
 	public void rollupSession(boolean rollback) throws IOException {
 		synchronized (session.getMutexObject()) {
@@ -1,6 +1,7 @@
 package com.neocoretechs.bigsack.session;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
 import java.util.stream.Stream;
@@ -49,7 +50,20 @@ public class TransactionalTreeMap implements TransactionInterface, OrderedKVMapI
 	 */
 	public TransactionalTreeMap(String dbname, String backingStore, int poolBlocks)
 		throws IOException, IllegalAccessException {
-		session = SessionManager.Connect(dbname, "BTree", backingStore, poolBlocks);
+		this(dbname, "BTree", backingStore, poolBlocks);
+	}
+	/**
+	 * 
+	 * @param dbname
+	 * @param keystoreType The ordered key store, "BTree" or "BPlusTree"
+	 * @param backingStore "MMap or "File" etc.
+	 * @param poolBlocks Number of blocks in buffer pool
+	 * @throws IOException
+	 * @throws IllegalAccessException
+	 */
+	public TransactionalTreeMap(String dbname, String keystoreType, String backingStore, int poolBlocks)
+		throws IOException, IllegalAccessException {
+		session = SessionManager.Connect(dbname, keystoreType, backingStore, poolBlocks);
 	}
 	
 	/**
@@ -68,6 +82,31 @@ public class TransactionalTreeMap implements TransactionInterface, OrderedKVMapI
 		}
 	}
 	
+	/**
+	* Load key/value pairs already sorted in ascending order of key. An empty map is built bottom-up a page at a time,
+	* with no search of the tree for each key, else each pair is put in turn. The load is part of the outstanding
+	* transaction; if it fails on a key out of order, roll back.
+	* @param entries The key/value pairs
+	* @return The number of keys added
+	* @exception IOException if a key is out of order or the put to backing store fails
+	*/
+	@SuppressWarnings("rawtypes")
+	public long load(Iterator<? extends Map.Entry> entries) throws IOException {
+		synchronized (session.getMutexObject()) {
+			return session.load(entries);
+		}
+	}
+	/**
+	* Load key/value pairs already sorted in ascending order of key, see {@link #load(Iterator)}.
+	* @param entries The stream of key/value pairs
+	* @return The number of keys added
+	* @exception IOException if a key is out of order or the put to backing store fails
+	*/
+	@SuppressWarnings("rawtypes")
+	public long load(Stream<? extends Map.Entry> entries) throws IOException {
+		return load(entries.iterator());
+	}
+	
 	@SuppressWarnings("rawtypes")
 	public KeySearchResult locate(Comparable tvalue, Stack stack) throws IOException {
 		synchronized (session.getMutexObject()) {
@@ -366,6 +405,20 @@ public class TransactionalTreeMap implements TransactionInterface, OrderedKVMapI
 		}
 	}
 	
+	@Override
+	/**
+	 * Commit the outstanding transaction, then reclaim space left by deleted and replaced entries in a pass of the vacuum
+	 * @param threshold The percentage of its high water mark in use below which a block is compacted
+	 * @param maxBlocks The maximum number of blocks compacted in the pass
+	 * @return The number of blocks returned to the free space maps
+	 * @throws IOException
+	 */
+	public int Vacuum(int threshold, int maxBlocks) throws IOException {
+		synchronized (session.getMutexObject()) {
+			return session.Vacuum(threshold, maxBlocks);
+		}
+	}
+	
 	@Override
 	/**
 	 * Roll back the outstanding transactions
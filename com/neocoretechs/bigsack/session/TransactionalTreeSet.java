@@ -53,7 +53,17 @@ public class TransactionalTreeSet implements TransactionInterface, OrderedKVSetI
 	* @exception IllegalAccessException if the database has been put offline
 	*/
 	public TransactionalTreeSet(String tdbname, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
-		session = SessionManager.Connect(tdbname, "BTree", backingStore, poolBlocks);
+		this(tdbname, "BTree", backingStore, poolBlocks);
+	}
+	/**
+	* Get instance of BigSack session on the given ordered key store.
+	* @param tdbname The database name
+	* @param keystoreType "BTree" or "BPlusTree"
+	* @exception IOException if global IO problem
+	* @exception IllegalAccessException if the database has been put offline
+	*/
+	public TransactionalTreeSet(String tdbname, String keystoreType, String backingStore, int poolBlocks) throws IOException, IllegalAccessException {
+		session = SessionManager.Connect(tdbname, keystoreType, backingStore, poolBlocks);
 	}
 	
 	/**
@@ -235,6 +245,20 @@ public class TransactionalTreeSet implements TransactionInterface, OrderedKVSetI
 		}
 	}
 	
+	@Override
+	/**
+	 * Commit the outstanding transaction, then reclaim space left by deleted and replaced entries in a pass of the vacuum
+	 * @param threshold The percentage of its high water mark in use below which a block is compacted
+	 * @param maxBlocks The maximum number of blocks compacted in the pass
+	 * @return The number of blocks returned to the free space maps
+	 * @throws IOException
+	 */
+	public int Vacuum(int threshold, int maxBlocks) throws IOException {
+		synchronized (session.getMutexObject()) {
+			return session.Vacuum(threshold, maxBlocks);
+		}
+	}
+	
 	@Override
 	public void Rollback() throws IOException {
 		synchronized (session.getMutexObject()) {
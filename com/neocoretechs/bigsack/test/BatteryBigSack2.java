@@ -314,7 +314,7 @@ public class BatteryBigSack2 {
 				throw new Exception("BATTERY1D1 FAIL K/V pair came back null for iterator.next() for "+key+String.format(uniqKeyFmt, max));
 			//System.out.println("BATTERY1D1 iterator result:"+f);
 			String nval = val + String.format(uniqKeyFmt, ctr);
-			if( !f.value.equals(nval) ) {
+			if( !f.getValue().equals(nval) ) {
 				 System.out.println("BATTERY1D1 FAIL "+f+" -- "+nval);
 				 System.out.println("BATTERY1D1 FAIL counter reached "+ctr);
 				throw new Exception("B1D1 Fail on get with "+f+" -- "+nval);
@@ -350,7 +350,7 @@ public class BatteryBigSack2 {
 			String nval = key + String.format(uniqKeyFmt, ctr);
 			String nvalx = val + String.format(uniqKeyFmt, ctr);
 			//System.out.println(nval);
-			if( !f.key.equals(nval) || !f.value.equals(nvalx)) {
+			if( !f.key.equals(nval) || !f.getValue().equals(nvalx)) {
 				 System.out.println("BATTERY1E1 FAIL retrieved:"+f+" -- expected:"+nval);
 				 System.out.println("BATTERY1E1 FAIL counter reached "+ctr);
 				throw new Exception("B1E1 Fail on get with retrieved:"+f+" -- expected:"+nval);
@@ -377,7 +377,7 @@ public class BatteryBigSack2 {
 		while(itk.hasNext()) {
 			KeyValuePair f = (KeyValuePair) itk.next();
 			String nval = val + String.format(uniqKeyFmt, ctr);
-			if( !f.value.equals(nval) ) {
+			if( !f.getValue().equals(nval) ) {
 				 System.out.println("BATTERY1F1 FAIL "+f+" -- "+nval);
 				 System.out.println("BATTERY1F1 FAIL counter reached "+ctr);
 				throw new Exception("B1F1 Fail on get with "+f+" -- "+nval);
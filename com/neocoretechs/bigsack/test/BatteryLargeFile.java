@@ -0,0 +1,183 @@
+package com.neocoretechs.bigsack.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.neocoretechs.bigsack.DBPhysicalConstants;
+import com.neocoretechs.bigsack.io.FileIO;
+import com.neocoretechs.bigsack.io.IoInterface;
+import com.neocoretechs.bigsack.io.MmapIO;
+/**
+ * Testing of 64 bit tablespace offsets at the IoInterface level.
+ * A scratch tablespace file is extended well past 4 gig, sparse on most filesystems, and pages are written
+ * at random block boundaries on both sides of the 2 and 4 gig marks and across the memory mapped segment boundaries,
+ * then read back in a different order and compared, before and after a close and reopen.
+ * The positional readPage and writePage are then exercised from several threads at once.
+ * Parameters: the scratch file "/users/you/LargeFile" and optionally "MMap" or "File" for the
+ * backing store to test, default MMap. The file is deleted on completion.
+ * Yes, this should be a nice JUnit fixture someday
+ * @author jg
+ *
+ */
+public class BatteryLargeFile {
+	static long fileSize = 6L * 1024L * 1024L * 1024L; // 6 gig
+	static int numPages = 1000; // random pages written
+	static int numThreads = 8; // concurrent positional readers
+	static long[] fixedPages = { 0L, (1L << 31) - DBPhysicalConstants.DBLOCKSIZ, (1L << 31), (1L << 30) - 4096L,
+								(1L << 32) - DBPhysicalConstants.DBLOCKSIZ, (1L << 32), (3L << 30) - 100L };
+	/**
+	* Main test fixture driver
+	*/
+	public static void main(String[] argv) throws Exception {
+		if (argv.length == 0 || argv[0].length() == 0) {
+			 System.out.println("usage: java BatteryLargeFile <file> [MMap | File]");
+			System.exit(1);
+		}
+		IoInterface io = (argv.length > 1 && argv[1].equalsIgnoreCase("File") ? new FileIO() : new MmapIO());
+		io.Fopen(argv[0], true);
+		System.out.println("Begin Battery Fire! "+io.getClass().getName());
+		battery1(io, argv);
+		long[] offsets = battery2(io, argv);
+		battery3(io, offsets);
+		io.Fclose();
+		io.Fopen();
+		battery3(io, offsets);
+		battery4(io, offsets);
+		battery5(io, offsets);
+		io.Fclose();
+		io.Fdelete();
+		System.out.println("TEST BATTERY LARGE FILE COMPLETE.");
+		System.exit(0);
+	}
+	/**
+	 * Extend the file past 4 gig and check the size reported back
+	 * @param io
+	 * @param argv
+	 * @throws Exception
+	 */
+	public static void battery1(IoInterface io, String[] argv) throws Exception {
+		long tims = System.currentTimeMillis();
+		io.Fset_length(fileSize);
+		if( io.Fsize() != fileSize ) {
+			System.out.println("BATTERY1 FAIL size "+io.Fsize()+" expected "+fileSize);
+			throw new Exception("B1 Fail on size "+io.Fsize());
+		}
+		System.out.println("BATTERY1 SUCCESS in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	/**
+	 * Write pages at the fixed boundary offsets and at random block offsets throughout the file,
+	 * each page filled with a pattern derived from its offset
+	 * @param io
+	 * @param argv
+	 * @return The offsets written
+	 * @throws Exception
+	 */
+	public static long[] battery2(IoInterface io, String[] argv) throws Exception {
+		long tims = System.currentTimeMillis();
+		Random r = new Random(fileSize);
+		long blocks = fileSize / DBPhysicalConstants.DBLOCKSIZ;
+		long[] offsets = Arrays.copyOf(fixedPages, fixedPages.length + numPages);
+		for(int i = fixedPages.length; i < offsets.length; i++)
+			offsets[i] = ((r.nextLong() >>> 1) % blocks) * DBPhysicalConstants.DBLOCKSIZ;
+		for(long offset : offsets) {
+			io.Fseek(offset);
+			io.Fwrite(page(offset));
+			if( io.Ftell() != offset + DBPhysicalConstants.DBLOCKSIZ ) {
+				System.out.println("BATTERY2 FAIL position "+io.Ftell()+" after write at "+offset);
+				throw new Exception("B2 Fail on position "+io.Ftell());
+			}
+		}
+		io.Fforce();
+		System.out.println("BATTERY2 SUCCESS "+offsets.length+" pages in "+(System.currentTimeMillis()-tims)+" ms.");
+		return offsets;
+	}
+	/**
+	 * Read the pages back in reverse order and compare them. Where random pages collide the
+	 * last page written at the offset wins, so compare against the pattern for the offset, which is the same.
+	 * @param io
+	 * @param offsets
+	 * @throws Exception
+	 */
+	public static void battery3(IoInterface io, long[] offsets) throws Exception {
+		long tims = System.currentTimeMillis();
+		byte[] b = new byte[DBPhysicalConstants.DBLOCKSIZ];
+		for(int i = offsets.length-1; i >= 0; i--) {
+			io.Fseek(offsets[i]);
+			io.Fread(b);
+			if( !Arrays.equals(b, page(offsets[i])) ) {
+				System.out.println("BATTERY3 FAIL page at "+offsets[i]);
+				throw new Exception("B3 Fail on page at "+offsets[i]);
+			}
+		}
+		System.out.println("BATTERY3 SUCCESS "+offsets.length+" pages in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+
+	/**
+	 * Read the pages back with the positional reads from several threads at once, each thread
+	 * taking its own interleaved share of the offsets, while the file position is left at a sentinel.
+	 * @param io
+	 * @param offsets
+	 * @throws Exception
+	 */
+	public static void battery4(IoInterface io, long[] offsets) throws Exception {
+		long tims = System.currentTimeMillis();
+		io.Fseek(DBPhysicalConstants.DBLOCKSIZ);
+		Thread[] threads = new Thread[numThreads];
+		final boolean[] fail = new boolean[1];
+		for(int t = 0; t < numThreads; t++) {
+			final int start = t;
+			threads[t] = new Thread(() -> {
+				ByteBuffer b = ByteBuffer.allocate(DBPhysicalConstants.DBLOCKSIZ);
+				try {
+					for(int i = start; i < offsets.length; i += numThreads) {
+						b.clear();
+						if( io.readPage(offsets[i], b) != DBPhysicalConstants.DBLOCKSIZ || !Arrays.equals(b.array(), page(offsets[i])) ) {
+							System.out.println("BATTERY4 FAIL page at "+offsets[i]);
+							fail[0] = true;
+						}
+					}
+				} catch(IOException e) {
+					e.printStackTrace();
+					fail[0] = true;
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread th : threads)
+			th.join();
+		if( fail[0] || io.Ftell() != DBPhysicalConstants.DBLOCKSIZ ) {
+			System.out.println("BATTERY4 FAIL position "+io.Ftell());
+			throw new Exception("B4 Fail");
+		}
+		System.out.println("BATTERY4 SUCCESS "+offsets.length+" pages "+numThreads+" threads in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+	/**
+	 * Rewrite the fixed pages with the positional writes and verify them with the seek and read.
+	 * @param io
+	 * @param offsets
+	 * @throws Exception
+	 */
+	public static void battery5(IoInterface io, long[] offsets) throws Exception {
+		long tims = System.currentTimeMillis();
+		for(long offset : fixedPages)
+			io.writePage(offset, ByteBuffer.wrap(page(offset + 1)));
+		byte[] b = new byte[DBPhysicalConstants.DBLOCKSIZ];
+		for(long offset : fixedPages) {
+			io.Fseek(offset);
+			io.Fread(b);
+			if( !Arrays.equals(b, page(offset + 1)) ) {
+				System.out.println("BATTERY5 FAIL page at "+offset);
+				throw new Exception("B5 Fail on page at "+offset);
+			}
+		}
+		System.out.println("BATTERY5 SUCCESS "+fixedPages.length+" pages in "+(System.currentTimeMillis()-tims)+" ms.");
+	}
+
+	private static byte[] page(long offset) {
+		byte[] b = new byte[DBPhysicalConstants.DBLOCKSIZ];
+		new Random(offset).nextBytes(b);
+		return b;
+	}
+}